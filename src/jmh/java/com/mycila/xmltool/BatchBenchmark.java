@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading 200 files one by one compared to loading them with {@link XMLDocBatch}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class BatchBenchmark {
+
+    @Param({"10", "1000"})
+    public int size;
+
+    List<File> files;
+
+    @Setup
+    public void setup() throws Exception {
+        files = new ArrayList<File>();
+        String content = BenchmarkDocuments.catalog(size);
+        for (int i = 0; i < 200; i++) {
+            files.add(BenchmarkDocuments.write(content, ".xml"));
+        }
+    }
+
+    @Benchmark
+    public int sequential() {
+        int count = 0;
+        for (File file : files) {
+            count += XMLDoc.from(file, true).getChildCount();
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int batch() {
+        int count = 0;
+        for (XMLDocBatch.Result<File> result : XMLDocBatch.fromFiles(files, true)) {
+            count += result.getDocument().getChildCount();
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Generates the documents used by the benchmarks: a catalog of <code>size</code> items, each one having an id
+ * attribute, a name and a price. The schema describes these documents.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class BenchmarkDocuments {
+
+    static final String XSD = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\">" +
+            "<xs:element name=\"catalog\"><xs:complexType><xs:sequence>" +
+            "<xs:element name=\"item\" minOccurs=\"0\" maxOccurs=\"unbounded\"><xs:complexType><xs:sequence>" +
+            "<xs:element name=\"name\" type=\"xs:string\"/><xs:element name=\"price\" type=\"xs:decimal\"/>" +
+            "</xs:sequence><xs:attribute name=\"id\" type=\"xs:int\" use=\"required\"/></xs:complexType></xs:element>" +
+            "</xs:sequence></xs:complexType></xs:element></xs:schema>";
+
+    private BenchmarkDocuments() {
+    }
+
+    static String catalog(int size) {
+        StringBuilder sb = new StringBuilder(size * 64 + 64);
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<catalog>\n");
+        for (int i = 1; i <= size; i++) {
+            sb.append("    <item id=\"").append(i).append("\">\n")
+                    .append("        <name>item &amp; name ").append(i).append("</name>\n")
+                    .append("        <price>").append(i).append(".5</price>\n")
+                    .append("    </item>\n");
+        }
+        return sb.append("</catalog>\n").toString();
+    }
+
+    static File write(String content, String suffix) throws IOException {
+        File file = File.createTempFile("benchmark", suffix);
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
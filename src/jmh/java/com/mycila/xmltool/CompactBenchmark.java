@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The queries of {@link NavigateBenchmark} on a compact document, plus its creation from a loaded document.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CompactBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int size;
+
+    private XMLTag doc;
+    private XMLTag cursor;
+    private int middle;
+
+    @Setup
+    public void setup() {
+        doc = XMLDoc.from(BenchmarkDocuments.catalog(size), true);
+        cursor = doc.compact().newCursor();
+        middle = size / 2 + 1;
+    }
+
+    @Benchmark
+    public CompactXMLDoc compact() {
+        return doc.compact();
+    }
+
+    @Benchmark
+    public XMLTag gotoTag() {
+        return cursor.gotoRoot().gotoTag("item[%s]/name", middle);
+    }
+
+    @Benchmark
+    public String getText() {
+        return cursor.gotoRoot().getText("item[%s]/price", middle);
+    }
+
+    @Benchmark
+    public String getAttribute() {
+        return cursor.gotoRoot().gotoChild(middle).getAttribute("id");
+    }
+
+    @Benchmark
+    public int getChilds() {
+        int count = 0;
+        for (XMLTag child : cursor.gotoRoot().getChilds()) {
+            count += child.getChildCount();
+        }
+        return count;
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracting 30 fields of a message with one {@link XMLTag#getText(String, Object...)} call per field compared to a
+ * single {@link XMLTag#extract(XMLExtractor)} call.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ExtractBenchmark {
+
+    @Param({"true", "false"})
+    public boolean simplePathEvaluation;
+
+    private XMLTag doc;
+    private String[] expressions;
+    private XMLExtractor extractor;
+
+    @Setup
+    public void setup() {
+        XPathCache.setSimplePathEvaluation(simplePathEvaluation);
+        StringBuilder xml = new StringBuilder("<message><header><id>1</id></header><body>");
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        for (int i = 0; i < 30; i++) {
+            xml.append("<field").append(i).append("><value>").append(i).append("</value></field").append(i).append('>');
+            fields.put("field" + i, "body/field" + i + "/value");
+        }
+        doc = XMLDoc.from(xml.append("</body></message>").toString(), true);
+        expressions = fields.values().toArray(new String[fields.size()]);
+        extractor = XMLExtractor.compile(fields);
+    }
+
+    @TearDown
+    public void tearDown() {
+        XPathCache.setSimplePathEvaluation(true);
+    }
+
+    @Benchmark
+    public int getText() {
+        int length = 0;
+        for (String expression : expressions) {
+            length += doc.getText(expression).length();
+        }
+        return length;
+    }
+
+    @Benchmark
+    public Map<String, String> extract() {
+        return doc.extract(extractor);
+    }
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent reads of one frozen document shared by all benchmark threads, each thread having its own cursor.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class FrozenReadBenchmark {
+
+    private static final XMLPath BY_ID = XMLPath.compile("item[@id=$id]/name", "id");
+
+    @State(Scope.Benchmark)
+    public static class Shared {
+
+        @Param({"10", "1000", "10000"})
+        public int size;
+
+        FrozenXMLDoc frozen;
+
+        @Setup
+        public void setup() {
+            frozen = XMLDoc.from(BenchmarkDocuments.catalog(size), true).freeze();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        XMLTag cursor;
+        int middle;
+
+        @Setup
+        public void setup(Shared shared) {
+            cursor = shared.frozen.newCursor();
+            middle = shared.size / 2 + 1;
+        }
+    }
+
+    @Benchmark
+    public XMLTag newCursor(Shared shared) {
+        return shared.frozen.newCursor();
+    }
+
+    @Benchmark
+    public String getText(Cursor c) {
+        return c.cursor.gotoRoot().getText("item[%s]/price", c.middle);
+    }
+
+    @Benchmark
+    public String getText_compiled(Cursor c) {
+        return c.cursor.gotoRoot().getText(BY_ID, c.middle);
+    }
+
+    @Benchmark
+    public int getChilds(Cursor c) {
+        int count = 0;
+        for (XMLTag child : c.cursor.gotoRoot().getChilds()) {
+            count += child.getChildCount();
+        }
+        return count;
+    }
+
+}
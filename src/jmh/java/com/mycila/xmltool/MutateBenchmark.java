@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building documents of various sizes through the {@link XMLDocProxy} returned by {@link XMLDocBuilder}, with the
+ * normalization after each mutation or deferred until the end.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MutateBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean deferred;
+
+    @Benchmark
+    public XMLTag build() {
+        XMLDocBuilder builder = XMLDoc.newDocument(true);
+        if (deferred) {
+            builder.deferNormalization();
+        }
+        XMLTag doc = builder.addRoot("catalog");
+        for (int i = 1; i <= size; i++) {
+            doc.addTag("item").addAttribute("id", String.valueOf(i))
+                    .addTag("name").addText("item & name " + i).gotoParent()
+                    .addTag("price").addText(i + ".5").gotoParent()
+                    .gotoParent();
+        }
+        return doc.gotoRoot().addAttribute("size", String.valueOf(size));
+    }
+
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Navigation and XPath queries on documents of various sizes. Positional paths are evaluated by walking the DOM,
+ * predicates on attributes go through the XPath engine.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NavigateBenchmark {
+
+    private static final XMLPath BY_ID = XMLPath.compile("item[@id=$id]/name", "id");
+
+    @Param({"10", "1000", "10000"})
+    public int size;
+
+    private XMLTag doc;
+    private int middle;
+
+    @Setup
+    public void setup() {
+        doc = XMLDoc.from(BenchmarkDocuments.catalog(size), true);
+        middle = size / 2 + 1;
+    }
+
+    @Benchmark
+    public XMLTag gotoTag() {
+        return doc.gotoRoot().gotoTag("item[%s]/name", middle);
+    }
+
+    @Benchmark
+    public String getText() {
+        return doc.gotoRoot().getText("item[%s]/price", middle);
+    }
+
+    @Benchmark
+    public String getText_predicate() {
+        return doc.gotoRoot().getText("item[@id='%s']/name", middle);
+    }
+
+    @Benchmark
+    public String getText_compiled() {
+        return doc.gotoRoot().getText(BY_ID, middle);
+    }
+
+    @Benchmark
+    public int getChilds() {
+        int count = 0;
+        for (XMLTag child : doc.gotoRoot().getChilds()) {
+            count += child.getChildCount();
+        }
+        return count;
+    }
+
+}
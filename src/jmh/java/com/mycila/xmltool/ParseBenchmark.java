@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading documents of various sizes with {@link XMLDoc#from(String)} and its variants.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParseBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int size;
+
+    private String xml;
+    private byte[] bytes;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        xml = BenchmarkDocuments.catalog(size);
+        bytes = xml.getBytes("UTF-8");
+        file = BenchmarkDocuments.write(xml, ".xml");
+    }
+
+    @Benchmark
+    public XMLTag from_string() {
+        return XMLDoc.from(xml, true);
+    }
+
+    @Benchmark
+    public XMLTag from_bytes() {
+        return XMLDoc.from(new ByteArrayInputStream(bytes), true);
+    }
+
+    @Benchmark
+    public XMLTag from_file() {
+        return XMLDoc.from(file, true);
+    }
+
+    @Benchmark
+    public XMLTag from_string_namespaces() {
+        return XMLDoc.from(xml, false);
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares validating against a cached compiled schema with compiling the schema on each validation.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SchemaCacheBenchmark {
+
+    private static final String XSD = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn:items\" xmlns=\"urn:items\" elementFormDefault=\"qualified\">" +
+            "<xs:element name=\"items\"><xs:complexType><xs:sequence><xs:element name=\"item\" maxOccurs=\"unbounded\"><xs:complexType><xs:sequence>" +
+            "<xs:element name=\"name\" type=\"xs:string\"/><xs:element name=\"price\" type=\"xs:decimal\"/>" +
+            "</xs:sequence></xs:complexType></xs:element></xs:sequence></xs:complexType></xs:element></xs:schema>";
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private File schemaFile;
+    private URL schema;
+    private XMLTag doc;
+
+    @Setup
+    public void setup() throws IOException {
+        schemaFile = File.createTempFile("items", ".xsd");
+        OutputStream out = new FileOutputStream(schemaFile);
+        try {
+            out.write(XSD.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        schema = schemaFile.toURI().toURL();
+        doc = XMLDoc.newDocument(false).addDefaultNamespace("urn:items").addRoot("items");
+        for (int i = 0; i < 10; i++) {
+            doc.addTag("item").addTag("name").addText("item " + i).gotoParent().addTag("price").addText(i + ".5").gotoRoot();
+        }
+        SchemaCache.clear();
+    }
+
+    @TearDown
+    public void tearDown() {
+        SchemaCache.clear();
+        schemaFile.delete();
+    }
+
+    @Benchmark
+    public ValidationResult validate() {
+        if (!cached) {
+            SchemaCache.clear();
+        }
+        return doc.validate(schema);
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializing documents of various sizes.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializeBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int size;
+
+    private XMLTag doc;
+
+    @Setup
+    public void setup() {
+        doc = XMLDoc.from(BenchmarkDocuments.catalog(size), true);
+    }
+
+    @Benchmark
+    public String toString_indented() {
+        return doc.toString();
+    }
+
+    @Benchmark
+    public String toString_compact() {
+        return doc.toString("UTF-8", 0);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return doc.toBytes();
+    }
+
+    @Benchmark
+    public byte[] toBytes_latin1() {
+        return doc.toBytes("ISO-8859-1");
+    }
+
+}
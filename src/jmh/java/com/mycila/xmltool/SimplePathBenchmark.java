@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the evaluation of simple location paths by walking the DOM with their evaluation by the XPath engine.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SimplePathBenchmark {
+
+    private static final String XML = "<catalog><section><item id=\"1\">one</item><item id=\"2\">two</item><item id=\"3\">three</item></section>" +
+            "<section><item id=\"4\">four</item><item id=\"5\">five</item></section></catalog>";
+
+    @Param({"true", "false"})
+    public boolean simplePathEvaluation;
+
+    private XMLTag doc;
+
+    @Setup
+    public void setup() {
+        XPathCache.setSimplePathEvaluation(simplePathEvaluation);
+        doc = XMLDoc.from(XML, true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        XPathCache.setSimplePathEvaluation(true);
+    }
+
+    @Benchmark
+    public XMLTag gotoTag() {
+        return doc.gotoRoot().gotoTag("section[2]/item[1]");
+    }
+
+    @Benchmark
+    public String getText() {
+        return doc.gotoRoot().getText("section/item[3]");
+    }
+
+    @Benchmark
+    public String getAttribute() {
+        return doc.gotoRoot().getAttribute("id", "section[2]/item[2]");
+    }
+
+}
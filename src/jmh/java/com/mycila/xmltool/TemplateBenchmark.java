@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling 10 values of a template and writing it, from a {@link XMLTag#duplicate()} of the template compared to a
+ * copy-on-write copy of the frozen template.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class TemplateBenchmark {
+
+    @Param({"10", "1000"})
+    public int size;
+
+    XMLTag template;
+    FrozenXMLDoc frozen;
+    String[] paths;
+
+    @Setup
+    public void setup() {
+        template = XMLDoc.from(BenchmarkDocuments.catalog(size), true);
+        frozen = template.freeze();
+        paths = new String[10];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = "item[" + (i * size / paths.length + 1) + "]/price";
+        }
+    }
+
+    @Benchmark
+    public String duplicate() {
+        return fill(template.duplicate());
+    }
+
+    @Benchmark
+    public String copyOnWrite() {
+        return fill(frozen.newCopy());
+    }
+
+    private String fill(XMLTag copy) {
+        for (int i = 0; i < paths.length; i++) {
+            copy.setText("0." + i, paths[i]);
+        }
+        return copy.toString("UTF-8", 0);
+    }
+
+}
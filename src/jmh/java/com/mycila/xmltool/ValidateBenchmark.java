@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.xml.validation.Schema;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validating documents of various sizes against a cached schema, after loading them or while parsing them.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ValidateBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int size;
+
+    private String xml;
+    private XMLTag doc;
+    private URL schemaLocation;
+    private Schema schema;
+
+    @Setup
+    public void setup() throws IOException {
+        xml = BenchmarkDocuments.catalog(size);
+        doc = XMLDoc.from(xml, false);
+        schemaLocation = BenchmarkDocuments.write(BenchmarkDocuments.XSD, ".xsd").toURI().toURL();
+        schema = SchemaCache.getSchema(schemaLocation);
+    }
+
+    @Benchmark
+    public ValidationResult validate() {
+        return doc.validate(schemaLocation);
+    }
+
+    @Benchmark
+    public ValidationResult from_then_validate() {
+        return XMLDoc.from(xml, false).validate(schemaLocation);
+    }
+
+    @Benchmark
+    public ValidatedXMLDoc validate_while_parsing() {
+        return XMLDoc.from(xml, schema);
+    }
+
+}
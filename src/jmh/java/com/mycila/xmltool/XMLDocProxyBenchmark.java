@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link XMLDocProxy} returned by {@link XMLDocBuilder} with the {@link java.lang.reflect.Proxy} based
+ * implementation it replaced. Normalization is deferred so that only the dispatch cost is measured.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class XMLDocProxyBenchmark {
+
+    private static final String XML = "<root id=\"1\"><child/><child/></root>";
+
+    private XMLTag direct;
+    private XMLTag reflective;
+
+    @Setup
+    public void setup() {
+        direct = XMLDocBuilder.newDocument(true).deferNormalization().addRoot("root").addAttribute("id", "1");
+        reflective = reflectiveProxy(XMLDoc.from(XML, true).toDocument());
+    }
+
+    @Benchmark
+    public void read_direct(Blackhole bh) {
+        read(direct, bh);
+    }
+
+    @Benchmark
+    public void read_reflective(Blackhole bh) {
+        read(reflective, bh);
+    }
+
+    @Benchmark
+    public XMLTag mutate_direct() {
+        return direct.setAttribute("id", "2");
+    }
+
+    @Benchmark
+    public XMLTag mutate_reflective() {
+        return reflective.setAttribute("id", "2");
+    }
+
+    private static void read(XMLTag tag, Blackhole bh) {
+        bh.consume(tag.gotoRoot());
+        bh.consume(tag.getCurrentTagName());
+        bh.consume(tag.findAttribute("id"));
+        bh.consume(tag.hasAttribute("id"));
+    }
+
+    // the XMLTag proxy as it was created by XMLDocBuilder before XMLDocProxy
+    private static XMLTag reflectiveProxy(org.w3c.dom.Document document) {
+        final XMLDocDefinition def = new XMLDocDefinition(document, true);
+        def.setDeferNormalization(true);
+        final XMLTag doc = new XMLDoc(def);
+        InvocationHandler handler = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                try {
+                    Object o = method.invoke(doc, args);
+                    if (needsNormalization(method.getName())) {
+                        def.modified();
+                    }
+                    return o;
+                } catch (InvocationTargetException e) {
+                    throw e.getTargetException();
+                }
+            }
+        };
+        return (XMLTag) Proxy.newProxyInstance(
+            Thread.currentThread().getContextClassLoader(),
+            new Class<?>[]{XMLTag.class},
+            handler);
+    }
+
+    private static boolean needsNormalization(String name) {
+        return name.startsWith("add") || name.startsWith("set") || name.startsWith("delete") || name.startsWith("rename");
+    }
+
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link XMLSerializer} with the identity {@link Transformer} previously used by {@link XMLDoc#toString()}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class XMLSerializerBenchmark {
+
+    private XMLTag doc;
+
+    @Setup
+    public void setup() {
+        doc = XMLDoc.newDocument(true).addRoot("catalog");
+        for (int i = 0; i < 100; i++) {
+            doc.addTag("item").addAttribute("id", String.valueOf(i)).addText("item & text " + i).gotoParent();
+        }
+    }
+
+    @Benchmark
+    public String serializer_indented() {
+        return doc.toString("UTF-8", 4);
+    }
+
+    @Benchmark
+    public String serializer_compact() {
+        return doc.toString("UTF-8", 0);
+    }
+
+    @Benchmark
+    public String transformer() throws Exception {
+        Transformer transformer = XMLFactories.createTransformer();
+        transformer.setOutputProperty(OutputKeys.METHOD, "xml");
+        transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        transformer.setOutputProperty(OutputKeys.STANDALONE, "no");
+        transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
+        StringWriter out = new StringWriter();
+        transformer.transform(new DOMSource(doc.toDocument()), new StreamResult(out));
+        return out.toString();
+    }
+
+}
@@ -21,61 +21,449 @@ import org.xml.sax.SAXException;
 import org.xml.sax.ext.EntityResolver2;
 
 import java.io.*;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.mycila.xmltool.Utils.notEmpty;
+import static com.mycila.xmltool.Utils.notNull;
 
 /**
+ * Resolves the external entities and DTDs of parsed documents, keeping their content in memory so that they are
+ * downloaded only once.
+ * <p/>
+ * Entities registered with {@link #registerPublicId(String, URL)}, {@link #registerSystemId(String, URL)} or listed in
+ * an OASIS XML catalog loaded with {@link #loadCatalog(URL)} are read from the given local resources (i.e. files or
+ * classpath resources) instead of their original location.
+ * <p/>
+ * The memory cache is bounded by the total number of characters it holds (4M by default): least recently used
+ * entities are evicted first. Concurrent requests for the same entity wait for a single download. An optional cache
+ * directory keeps a copy of each downloaded entity, so that it is not downloaded again after a restart.
+ *
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
-final class CachedEntityResolver implements EntityResolver, EntityResolver2 {
+public final class CachedEntityResolver implements EntityResolver, EntityResolver2 {
 
     static final CachedEntityResolver instance = new CachedEntityResolver();
 
-    private Map<String, String[]> cache = new ConcurrentHashMap<String, String[]>();
+    private static final String DEFAULT_ENCODING = "UTF-8";
+    // the XML or text declaration starting a document or an external entity
+    private static final Pattern DECLARED_ENCODING = Pattern.compile("<\\?xml\\s[^>]*?encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    private static final EntityCatalog catalog = new EntityCatalog();
+    private static final LinkedHashMap<String, String> cache = new LinkedHashMap<String, String>(16, 0.75f, true);
+    private static final ConcurrentMap<String, FutureTask<String>> loading = new ConcurrentHashMap<String, FutureTask<String>>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static long size;
+    private static volatile long maxSize = 4 * 1024 * 1024;
+    private static volatile File directory;
 
     private CachedEntityResolver() {
     }
 
+    /**
+     * Set the maximum number of characters kept in memory, all entities included. Default is 4M.
+     *
+     * @param chars The maximum size
+     */
+    public static void setMaxSize(long chars) {
+        if (chars < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative");
+        }
+        maxSize = chars;
+        synchronized (cache) {
+            evict();
+        }
+    }
+
+    public static long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Set the directory where downloaded entities are stored, and read from before going to the network. Default is
+     * null: entities are only kept in memory.
+     *
+     * @param dir The cache directory, created if needed, or null to disable the disk cache
+     */
+    public static void setCacheDirectory(File dir) {
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create cache directory " + dir);
+        }
+        directory = dir;
+    }
+
+    public static File getCacheDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return The number of characters currently cached in memory
+     */
+    public static long size() {
+        synchronized (cache) {
+            return size;
+        }
+    }
+
+    /**
+     * @return The number of lookups which found the entity in memory
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups which loaded the entity from the cache directory or the network
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all entities from the memory cache and reset the counters. The cache directory is left untouched.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+            size = 0;
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Read the entity having the given public identifier from a local resource
+     *
+     * @param publicId The public identifier, i.e. <code>-//W3C//DTD XHTML 1.0 Strict//EN</code>
+     * @param location The local resource, i.e. <code>MyClass.class.getResource("/dtd/xhtml1-strict.dtd")</code>
+     */
+    public static void registerPublicId(String publicId, URL location) {
+        notEmpty("publicId", publicId);
+        notNull("location", location);
+        catalog.registerPublicId(publicId, location.toString());
+    }
+
+    /**
+     * Read the entity having the given system identifier from a local resource
+     *
+     * @param systemId The system identifier, i.e. <code>http://www.w3.org/TR/xhtml1/DTD/xhtml1-strict.dtd</code>
+     * @param location The local resource
+     */
+    public static void registerSystemId(String systemId, URL location) {
+        notEmpty("systemId", systemId);
+        notNull("location", location);
+        catalog.registerSystemId(systemId, location.toString());
+    }
+
+    /**
+     * Register the entries of an OASIS XML catalog. The <code>system</code>, <code>rewriteSystem</code>,
+     * <code>systemSuffix</code>, <code>public</code>, <code>group</code> and <code>nextCatalog</code> entries are
+     * supported, system identifiers being looked up before public identifiers.
+     *
+     * @param catalogLocation The catalog
+     */
+    public static void loadCatalog(URL catalogLocation) {
+        notNull("catalog", catalogLocation);
+        try {
+            catalog.load(catalogLocation);
+        } catch (Exception e) {
+            throw new XMLDocumentException("Error loading XML catalog " + catalogLocation + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Remove all the registered identifiers and catalog entries
+     */
+    public static void clearCatalog() {
+        catalog.clear();
+    }
+
     public InputSource getExternalSubset(String name, String baseURI) throws SAXException, IOException {
         return new InputSource(new StringReader(""));
     }
 
     public InputSource resolveEntity(String name, String publicId, String baseURI, String systemId) throws SAXException, IOException {
-        return resolveEntity(publicId, systemId);
+        return resolveEntity(publicId, systemId, baseURI);
     }
 
     public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
-        String[] objs = cache.get(systemId);
-        if (objs == null) {
-            objs = read(systemId);
-            cache.put(systemId, objs);
-        }
-        InputSource is = new InputSource(new StringReader(objs[0]));
-        is.setEncoding(objs[1]);
+        return resolveEntity(publicId, systemId, null);
+    }
+
+    private InputSource resolveEntity(String publicId, String systemId, String baseURI) throws IOException {
+        String location = location(publicId, systemId, baseURI);
+        InputSource is = new InputSource(new StringReader(content(location)));
+        is.setPublicId(publicId);
+        // relative references in the entity are resolved against where it was read from
+        is.setSystemId(location);
         return is;
     }
 
-    private String[] read(String url) {
+    String content(String publicId, String systemId, String baseURI) throws IOException {
+        return content(location(publicId, systemId, baseURI));
+    }
+
+    /**
+     * @return The local resource registered for the entity, or its absolute system identifier
+     */
+    private static String location(String publicId, String systemId, String baseURI) {
+        String absolute = systemId;
+        if (systemId != null && baseURI != null) {
+            try {
+                absolute = new URL(new URL(baseURI), systemId).toString();
+            } catch (MalformedURLException ignored) {
+            }
+        }
+        if (!catalog.isEmpty()) {
+            String location = catalog.resolve(null, systemId);
+            if (location == null && absolute != null && !absolute.equals(systemId)) {
+                location = catalog.resolve(null, absolute);
+            }
+            if (location == null) {
+                location = catalog.resolve(publicId, null);
+            }
+            if (location != null) {
+                return location;
+            }
+        }
+        return absolute;
+    }
+
+    private String content(String systemId) throws IOException {
+        if (systemId == null) {
+            return "";
+        }
+        String content;
+        synchronized (cache) {
+            content = cache.get(systemId);
+        }
+        if (content != null) {
+            hits.incrementAndGet();
+            Metrics.count(MetricsEvent.ENTITY_CACHE_HIT);
+            return content;
+        }
+        FutureTask<String> task = new FutureTask<String>(new Loader(systemId));
+        FutureTask<String> existing = loading.putIfAbsent(systemId, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                loading.remove(systemId, task);
+            }
+        } else {
+            // served by the load in progress
+            hits.incrementAndGet();
+            Metrics.count(MetricsEvent.ENTITY_CACHE_HIT);
+            task = existing;
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading " + systemId);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    private static void put(String systemId, String content) {
+        synchronized (cache) {
+            String old = cache.put(systemId, content);
+            if (old != null) {
+                size -= old.length();
+            }
+            size += content.length();
+            evict();
+        }
+    }
+
+    private static void evict() {
+        Iterator<String> values = cache.values().iterator();
+        while (size > maxSize && values.hasNext()) {
+            size -= values.next().length();
+            values.remove();
+        }
+    }
+
+    private static final class Loader implements Callable<String> {
+        private final String systemId;
+
+        Loader(String systemId) {
+            this.systemId = systemId;
+        }
+
+        public String call() throws IOException {
+            String content;
+            synchronized (cache) {
+                content = cache.get(systemId);
+            }
+            if (content != null) {
+                // loaded by another thread since the first lookup
+                hits.incrementAndGet();
+                Metrics.count(MetricsEvent.ENTITY_CACHE_HIT);
+                return content;
+            }
+            misses.incrementAndGet();
+            long start = Metrics.start();
+            try {
+                content = fetch();
+            } finally {
+                Metrics.stop(MetricsEvent.ENTITY_FETCH, start);
+            }
+            put(systemId, content);
+            return content;
+        }
+
+        private String fetch() throws IOException {
+            File dir = directory;
+            File file = dir == null ? null : new File(dir, fileName(systemId));
+            String content = file != null && file.isFile() ? readFile(file) : null;
+            if (content == null) {
+                content = download(systemId);
+                if (content == null) {
+                    // unreachable entities resolve to nothing, and are only kept in memory
+                    content = "";
+                } else if (file != null) {
+                    writeFile(file, content);
+                }
+            }
+            return content;
+        }
+    }
+
+    private static String download(String url) {
         try {
-            URL u = new URL(url);
-            URLConnection con = u.openConnection();
+            URLConnection con = new URL(url).openConnection();
             con.setConnectTimeout(5000);
             con.setReadTimeout(5000);
             con.setUseCaches(false);
             con.connect();
+            return download(con.getInputStream(), charset(con.getContentType()));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String charset(String contentType) {
+        if (contentType != null) {
+            for (String param : contentType.split(";")) {
+                param = param.trim();
+                if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                    return param.substring(8).replace("\"", "").trim();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads a downloaded entity, in the charset of its content type if any, or else in the encoding of its declaration
+     */
+    private static String download(InputStream in, String charset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[8192];
+            int c;
+            while ((c = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, c);
+            }
+        } finally {
+            in.close();
+        }
+        byte[] content = bytes.toByteArray();
+        if (charset == null) {
+            // the declaration only contains ASCII characters
+            Matcher m = DECLARED_ENCODING.matcher(new String(content, 0, Math.min(content.length, 256), "ISO-8859-1"));
+            charset = m.lookingAt() && Charset.isSupported(m.group(1)) ? m.group(1) : DEFAULT_ENCODING;
+        }
+        return new String(content, charset);
+    }
+
+    /**
+     * @param content  The content of an entity
+     * @param encoding The encoding the content is about to be written in
+     * @return The content, its declaration declaring the given encoding instead of the one it was read with
+     */
+    static String declaring(String content, String encoding) {
+        Matcher m = DECLARED_ENCODING.matcher(content);
+        return m.lookingAt() ? content.substring(0, m.start(1)) + encoding + content.substring(m.end(1)) : content;
+    }
+
+    private static String readFile(File file) {
+        try {
+            return read(new FileInputStream(file), DEFAULT_ENCODING);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void writeFile(File file, String content) {
+        File tmp = new File(file.getParentFile(), file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            Writer w = new OutputStreamWriter(new FileOutputStream(tmp), DEFAULT_ENCODING);
+            try {
+                w.write(content);
+            } finally {
+                w.close();
+            }
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+        } catch (IOException ignored) {
+            // the disk cache is best effort
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    private static String read(InputStream in, String encoding) throws IOException {
+        try {
             StringWriter sw = new StringWriter();
-            String enc = con.getContentEncoding() != null ? con.getContentEncoding() : "UTF-8";
-            BufferedReader br = new BufferedReader(new InputStreamReader(con.getInputStream(), enc));
+            BufferedReader br = new BufferedReader(new InputStreamReader(in, encoding));
             char[] buffer = new char[8192];
             int c;
             while ((c = br.read(buffer)) != -1) {
                 sw.write(buffer, 0, c);
             }
-            return new String[]{sw.toString(), enc};
-        } catch (IOException e) {
-            return new String[]{"", "UTF-8"};
+            return sw.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    static String fileName(String systemId) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(systemId.getBytes(DEFAULT_ENCODING));
+            StringBuilder sb = new StringBuilder(digest.length * 2 + 4);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.append(".ent").toString();
+        } catch (Exception e) {
+            throw new IllegalStateException(e.getMessage(), e);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The child elements of an element at a given time, with their positions. An index is never modified: it must be
+ * discarded when children are added to or removed from the element.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class ChildIndex {
+
+    /**
+     * Number of children from which an index is worth keeping: smaller elements are walked again on each access
+     */
+    static final int WIDE = 32;
+
+    private static final Element[] NONE = new Element[0];
+    // below this size, looking for a position is faster than building a map
+    private static final int SCAN_SIZE = 16;
+
+    private final Element[] children;
+    private Map<Element, Integer> positions;
+
+    // siblings are walked instead of indexing getChildNodes(): the DOM caches the last NodeList lookup per document,
+    // which is slower for large documents and not safe when several threads read the same (frozen) document
+    ChildIndex(Element parent) {
+        int count = 0;
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            children = NONE;
+        } else {
+            children = new Element[count];
+            int i = 0;
+            for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    children[i++] = (Element) child;
+                }
+            }
+        }
+    }
+
+    int size() {
+        return children.length;
+    }
+
+    boolean isEmpty() {
+        return children.length == 0;
+    }
+
+    /**
+     * @param i Index of the child, from 0
+     */
+    Element get(int i) {
+        return children[i];
+    }
+
+    /**
+     * @return The index of the child, from 0, or -1 if it is not a child of the element
+     */
+    int indexOf(Element child) {
+        if (children.length <= SCAN_SIZE) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == child) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        if (positions == null) {
+            positions = new IdentityHashMap<Element, Integer>(children.length);
+            for (int i = 0; i < children.length; i++) {
+                positions.put(children[i], i);
+            }
+        }
+        Integer i = positions.get(child);
+        return i == null ? -1 : i;
+    }
+
+    /**
+     * @return A modifiable copy of the children
+     */
+    List<Element> toList() {
+        return new ArrayList<Element>(Arrays.asList(children));
+    }
+}
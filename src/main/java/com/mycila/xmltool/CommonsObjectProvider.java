@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.apache.commons.pool2.BaseKeyedPooledObjectFactory;
+import org.apache.commons.pool2.KeyedObjectPool;
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPool;
+import org.apache.commons.pool2.impl.GenericKeyedObjectPoolConfig;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+/**
+ * An {@link ObjectProvider} backed by a commons-pool keyed pool. This is the only class using commons-pool, which is an
+ * optional dependency: it must not be loaded unless {@link Utils#isCommonsPoolAvailable()}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class CommonsObjectProvider<K, T> implements ObjectProvider<K, T> {
+
+    private final KeyedObjectPool<K, T> pool;
+
+    private CommonsObjectProvider(KeyedObjectPool<K, T> pool) {
+        this.pool = pool;
+    }
+
+    public T acquire(K key) throws Exception {
+        return pool.borrowObject(key);
+    }
+
+    public void release(K key, T obj, boolean reusable) {
+        try {
+            if (reusable) {
+                pool.returnObject(key, obj);
+            } else {
+                pool.invalidateObject(key, obj);
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+    static GenericObjectPoolConfig defaultConfig() {
+        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
+        config.setMinIdle(0);
+        config.setMaxIdle(Runtime.getRuntime().availableProcessors());
+        config.setMaxTotal(Runtime.getRuntime().availableProcessors() * 4);
+        config.setMaxWaitMillis(-1);
+        try {
+            Class.forName("java.lang.management.ManagementFactory");
+        } catch (Exception e) {
+            config.setJmxEnabled(false);
+        }
+        return config;
+    }
+
+    /**
+     * Creates a provider applying the pool configuration to each key
+     *
+     * @param maxTotal The maximum number of objects for all keys, or -1 for no limit
+     */
+    static <K, T> CommonsObjectProvider<K, T> create(final Factory<K, T> factory, GenericObjectPoolConfig config, int maxTotal) {
+        GenericKeyedObjectPoolConfig keyedConfig = new GenericKeyedObjectPoolConfig();
+        keyedConfig.setMinIdlePerKey(config.getMinIdle());
+        keyedConfig.setMaxIdlePerKey(config.getMaxIdle());
+        keyedConfig.setMaxTotalPerKey(config.getMaxTotal());
+        keyedConfig.setMaxTotal(maxTotal);
+        keyedConfig.setMaxWaitMillis(config.getMaxWaitMillis());
+        keyedConfig.setBlockWhenExhausted(config.getBlockWhenExhausted());
+        keyedConfig.setJmxEnabled(config.getJmxEnabled());
+        return new CommonsObjectProvider<K, T>(new GenericKeyedObjectPool<K, T>(new BaseKeyedPooledObjectFactory<K, T>() {
+            @Override
+            public T create(K key) throws Exception {
+                return factory.create(key);
+            }
+
+            @Override
+            public PooledObject<T> wrap(T obj) {
+                return new DefaultPooledObject<T>(obj);
+            }
+
+            @Override
+            public void passivateObject(K key, PooledObject<T> p) {
+                factory.reset(key, p.getObject());
+            }
+        }, keyedConfig));
+    }
+}
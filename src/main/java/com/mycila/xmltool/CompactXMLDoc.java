@@ -0,0 +1,431 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import javax.xml.parsers.DocumentBuilder;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only copy of a document, obtained from {@link XMLTag#compact()}, which takes a fraction of the memory of the
+ * DOM. Nodes are not objects but entries in a few primitive arrays, in document order: the type, parent, next sibling
+ * and name of each node, the range of its attributes, or the range of its value in a single character buffer. The first
+ * child of an element is the node following it, if that node has the element as parent. Names are stored once.
+ * 
+ * Its cursors, obtained from {@link #newCursor()}, navigate the arrays directly, read texts and attributes and evaluate
+ * simple paths (child steps with optional positions, see {@link XPathCache#setSimplePathEvaluation(boolean)}). Any other
+ * operation, like complex XPath expressions, raw XPath queries, serialization or validation, is run on a DOM rebuilt
+ * from the arrays. This DOM is shared by all cursors and softly referenced, so that the garbage collector can reclaim it.
+ * 
+ * Like the other copies of a document, it only contains the root element: the document type and the comments around
+ * the root element are dropped. Entity references are replaced by their content. It can be read by several threads at
+ * the same time, each one using its own cursor.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class CompactXMLDoc {
+
+    private final boolean ignoreNamespaces;
+    private final NamespaceBindings bindings;
+    private final String encoding;
+    private final boolean standalone;
+
+    // one entry per node
+    private final short[] types;
+    private final int[] parents;
+    private final int[] nextSiblings;
+    // index in the name table of elements and processing instruction targets, -1 for other nodes
+    private final int[] names;
+    // first attribute and attribute count of elements, or range of the value in chars for other nodes
+    private final int[] offsets;
+    private final int[] lengths;
+
+    // one entry per attribute
+    private final int[] attributeNames;
+    private final int[] attributeOffsets;
+    private final int[] attributeLengths;
+
+    private final char[] chars;
+
+    // name table
+    private final String[] qualifiedNames;
+    private final String[] localNames;
+    private final String[] namespaceURIs;
+
+    private SoftReference<Dom> dom;
+
+    private CompactXMLDoc(Builder b, boolean ignoreNamespaces, NamespaceBindings bindings, String encoding, boolean standalone) {
+        this.ignoreNamespaces = ignoreNamespaces;
+        this.bindings = bindings;
+        this.encoding = encoding;
+        this.standalone = standalone;
+        this.types = Arrays.copyOf(b.types, b.nodes);
+        this.parents = Arrays.copyOf(b.parents, b.nodes);
+        this.nextSiblings = Arrays.copyOf(b.nextSiblings, b.nodes);
+        this.names = Arrays.copyOf(b.names, b.nodes);
+        this.offsets = Arrays.copyOf(b.offsets, b.nodes);
+        this.lengths = Arrays.copyOf(b.lengths, b.nodes);
+        this.attributeNames = Arrays.copyOf(b.attributeNames, b.attributes);
+        this.attributeOffsets = Arrays.copyOf(b.attributeOffsets, b.attributes);
+        this.attributeLengths = Arrays.copyOf(b.attributeLengths, b.attributes);
+        this.chars = b.chars.toString().toCharArray();
+        int size = b.nameIndexes.size();
+        this.qualifiedNames = b.qualifiedNames.toArray(new String[size]);
+        this.localNames = b.localNames.toArray(new String[size]);
+        this.namespaceURIs = b.namespaceURIs.toArray(new String[size]);
+    }
+
+    static CompactXMLDoc of(XMLDocDefinition definition) {
+        Builder builder = new Builder();
+        builder.add(definition.getRoot(), -1);
+        return new CompactXMLDoc(builder,
+                definition.isIgnoreNamespaces(),
+                definition.getNamespaceBindings(),
+                definition.getEncoding(),
+                definition.getDocument().getXmlStandalone());
+    }
+
+    /**
+     * @return A new read-only cursor positioned on the root tag. It must be used by only one thread at a time.
+     */
+    public XMLTag newCursor() {
+        return new CompactXMLTag(this);
+    }
+
+    /**
+     * @return True if the document was built without namespace support
+     */
+    public boolean isIgnoreNamespaces() {
+        return ignoreNamespaces;
+    }
+
+    /**
+     * @return The number of elements, texts, CDATA sections, comments and processing instructions in this document
+     */
+    public int getNodeCount() {
+        return types.length;
+    }
+
+    @Override
+    public String toString() {
+        return newCursor().toString();
+    }
+
+    /**
+     * @return An estimation of the memory used by the arrays of this document, in bytes, without the rebuilt DOM
+     */
+    long estimateSize() {
+        long size = 2L * types.length + 20L * parents.length + 12L * attributeNames.length + 2L * chars.length;
+        for (String name : qualifiedNames) {
+            // local names and namespaces are mostly shared
+            size += 64 + 2L * name.length();
+        }
+        return size;
+    }
+
+    NamespaceBindings getNamespaceBindings() {
+        return bindings;
+    }
+
+    boolean isElement(int node) {
+        return types[node] == Node.ELEMENT_NODE;
+    }
+
+    short type(int node) {
+        return types[node];
+    }
+
+    int parent(int node) {
+        return parents[node];
+    }
+
+    int firstChild(int node) {
+        int child = node + 1;
+        return child < parents.length && parents[child] == node ? child : -1;
+    }
+
+    int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    String nodeName(int element) {
+        return qualifiedNames[names[element]];
+    }
+
+    String localName(int element) {
+        return localNames[names[element]];
+    }
+
+    String namespaceURI(int element) {
+        return namespaceURIs[names[element]];
+    }
+
+    String value(int node) {
+        return new String(chars, offsets[node], lengths[node]);
+    }
+
+    void appendValue(int node, StringBuilder sb) {
+        sb.append(chars, offsets[node], lengths[node]);
+    }
+
+    /**
+     * @return The index of the attribute of the element having this qualified name, or -1
+     */
+    int attribute(int element, String name) {
+        for (int a = offsets[element], end = a + lengths[element]; a < end; a++) {
+            if (qualifiedNames[attributeNames[a]].equals(name)) {
+                return a;
+            }
+        }
+        return -1;
+    }
+
+    String[] attributeNames(int element) {
+        String[] result = new String[lengths[element]];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = qualifiedNames[attributeNames[offsets[element] + i]];
+        }
+        return result;
+    }
+
+    String attributeValue(int attribute) {
+        return new String(chars, attributeOffsets[attribute], attributeLengths[attribute]);
+    }
+
+    /**
+     * @return The DOM rebuilt from this document, which stays in memory until the garbage collector needs it
+     */
+    synchronized Dom dom() {
+        Dom d = dom == null ? null : dom.get();
+        if (d == null) {
+            d = XMLDocumentBuilderFactory.withDocumentBuilder(ignoreNamespaces, new XMLDocumentBuilderFactory.Callback<Dom>() {
+                @Override
+                public Dom apply(DocumentBuilder b) {
+                    return new Dom(b.newDocument());
+                }
+            });
+            dom = new SoftReference<Dom>(d);
+        }
+        return d;
+    }
+
+    /**
+     * A DOM rebuilt from the arrays, with the mapping between its elements and the indexes of the nodes
+     */
+    final class Dom {
+
+        final XMLDocDefinition definition;
+        final FrozenXMLDoc frozen;
+        private final Element[] elements;
+        private final Map<Node, Integer> indexes = new IdentityHashMap<Node, Integer>();
+
+        private Dom(Document document) {
+            document.setXmlStandalone(standalone);
+            Node[] nodes = new Node[types.length];
+            elements = new Element[types.length];
+            for (int i = 0; i < types.length; i++) {
+                Node node = create(document, i);
+                nodes[i] = node;
+                (i == 0 ? document : nodes[parents[i]]).appendChild(node);
+                if (types[i] == Node.ELEMENT_NODE) {
+                    elements[i] = (Element) node;
+                    indexes.put(node, i);
+                }
+            }
+            definition = new XMLDocDefinition(document, ignoreNamespaces, bindings, encoding);
+            frozen = FrozenXMLDoc.of(definition);
+        }
+
+        private Node create(Document document, int node) {
+            switch (types[node]) {
+                case Node.ELEMENT_NODE:
+                    Element element = ignoreNamespaces ?
+                            document.createElement(nodeName(node)) :
+                            document.createElementNS(namespaceURI(node), nodeName(node));
+                    for (int a = offsets[node], end = a + lengths[node]; a < end; a++) {
+                        String name = qualifiedNames[attributeNames[a]];
+                        if (ignoreNamespaces) {
+                            element.setAttribute(name, attributeValue(a));
+                        } else {
+                            element.setAttributeNS(namespaceURIs[attributeNames[a]], name, attributeValue(a));
+                        }
+                    }
+                    return element;
+                case Node.CDATA_SECTION_NODE:
+                    return document.createCDATASection(value(node));
+                case Node.COMMENT_NODE:
+                    return document.createComment(value(node));
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    return document.createProcessingInstruction(qualifiedNames[names[node]], value(node));
+                default:
+                    return document.createTextNode(value(node));
+            }
+        }
+
+        Element element(int node) {
+            return elements[node];
+        }
+
+        int index(Node element) {
+            Integer index = indexes.get(element);
+            if (index == null) {
+                throw new XMLDocumentException("Element '%s' does not belong to this document", element.getNodeName());
+            }
+            return index;
+        }
+    }
+
+    private static final class Builder {
+
+        int nodes;
+        short[] types = new short[64];
+        int[] parents = new int[64];
+        int[] nextSiblings = new int[64];
+        int[] names = new int[64];
+        int[] offsets = new int[64];
+        int[] lengths = new int[64];
+
+        int attributes;
+        int[] attributeNames = new int[16];
+        int[] attributeOffsets = new int[16];
+        int[] attributeLengths = new int[16];
+
+        final StringBuilder chars = new StringBuilder();
+
+        final Map<String, Integer> nameIndexes = new HashMap<String, Integer>();
+        final List<String> qualifiedNames = new ArrayList<String>();
+        final List<String> localNames = new ArrayList<String>();
+        final List<String> namespaceURIs = new ArrayList<String>();
+
+        /**
+         * @return The index of the node, or -1 if the node is not kept
+         */
+        int add(Node node, int parent) {
+            switch (node.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    int element = node(Node.ELEMENT_NODE, parent, name(node));
+                    NamedNodeMap attrs = node.getAttributes();
+                    offsets[element] = attributes;
+                    lengths[element] = attrs.getLength();
+                    for (int i = 0; i < attrs.getLength(); i++) {
+                        attribute((Attr) attrs.item(i));
+                    }
+                    addChilds(node, element, -1);
+                    return element;
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                case Node.COMMENT_NODE:
+                    return value(node(node.getNodeType(), parent, -1), node.getNodeValue());
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    ProcessingInstruction pi = (ProcessingInstruction) node;
+                    return value(node(Node.PROCESSING_INSTRUCTION_NODE, parent, name(pi.getTarget(), null, null)), pi.getData());
+                default:
+                    return -1;
+            }
+        }
+
+        /**
+         * @return The index of the last child added
+         */
+        private int addChilds(Node node, int parent, int previous) {
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ENTITY_REFERENCE_NODE) {
+                    previous = addChilds(child, parent, previous);
+                } else {
+                    int index = add(child, parent);
+                    if (index != -1) {
+                        if (previous != -1) {
+                            nextSiblings[previous] = index;
+                        }
+                        previous = index;
+                    }
+                }
+            }
+            return previous;
+        }
+
+        private int node(short type, int parent, int name) {
+            if (nodes == types.length) {
+                int capacity = nodes * 2;
+                types = Arrays.copyOf(types, capacity);
+                parents = Arrays.copyOf(parents, capacity);
+                nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+                names = Arrays.copyOf(names, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+            }
+            types[nodes] = type;
+            parents[nodes] = parent;
+            nextSiblings[nodes] = -1;
+            names[nodes] = name;
+            return nodes++;
+        }
+
+        private int value(int node, String value) {
+            offsets[node] = chars.length();
+            lengths[node] = value == null ? 0 : value.length();
+            if (value != null) {
+                chars.append(value);
+            }
+            return node;
+        }
+
+        private void attribute(Attr attr) {
+            if (attributes == attributeNames.length) {
+                int capacity = attributes * 2;
+                attributeNames = Arrays.copyOf(attributeNames, capacity);
+                attributeOffsets = Arrays.copyOf(attributeOffsets, capacity);
+                attributeLengths = Arrays.copyOf(attributeLengths, capacity);
+            }
+            String value = attr.getValue();
+            attributeNames[attributes] = name(attr);
+            attributeOffsets[attributes] = chars.length();
+            attributeLengths[attributes] = value.length();
+            chars.append(value);
+            attributes++;
+        }
+
+        private int name(Node node) {
+            return name(node.getNodeName(), node.getLocalName(), node.getNamespaceURI());
+        }
+
+        private int name(String qualifiedName, String localName, String namespaceURI) {
+            // a qualified name cannot contain a space
+            String key = (localName == null ? "1 " : "2 ") + qualifiedName + (namespaceURI == null ? "" : ' ' + namespaceURI);
+            Integer index = nameIndexes.get(key);
+            if (index == null) {
+                index = qualifiedNames.size();
+                nameIndexes.put(key, index);
+                qualifiedNames.add(qualifiedName);
+                localNames.add(localName);
+                namespaceURIs.add(namespaceURI);
+            }
+            return index;
+        }
+    }
+}
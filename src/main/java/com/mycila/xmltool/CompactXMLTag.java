@@ -0,0 +1,928 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static com.mycila.xmltool.Utils.notEmpty;
+import static com.mycila.xmltool.Utils.notNull;
+
+/**
+ * A cursor over a {@link CompactXMLDoc}: the current tag is the index of a node in its arrays. Navigation, texts,
+ * attributes and simple paths are read from the arrays, other methods run on the DOM rebuilt from them. A cursor must
+ * not be shared between threads.
+ * 
+ * Methods modifying the document throw a {@link XMLDocumentException}: call {@link #duplicate()} to get a modifiable
+ * copy. DOM nodes returned by this cursor (e.g. {@link #getCurrentTag()} or {@link #toDocument()}) are shared by all
+ * cursors and must not be modified either.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class CompactXMLTag implements XMLTag {
+
+    private final CompactXMLDoc doc;
+    private int current;
+
+    CompactXMLTag(CompactXMLDoc doc) {
+        this.doc = doc;
+    }
+
+    public XMLTag addNamespace(String prefix, String namespaceURI) {
+        throw readOnly();
+    }
+
+    public XMLTag addTag(String name) {
+        throw readOnly();
+    }
+
+    public XMLTag addAttribute(String name, String value) {
+        throw readOnly();
+    }
+
+    public XMLTag addAttributeNS(String namespaceURI, String name, String value) {
+        throw readOnly();
+    }
+
+    public XMLTag addText(String text) {
+        throw readOnly();
+    }
+
+    public XMLTag addCDATA(String data) {
+        throw readOnly();
+    }
+
+    public XMLTag addDocument(XMLTag tag) {
+        throw readOnly();
+    }
+
+    public XMLTag addDocument(Document doc) {
+        throw readOnly();
+    }
+
+    public XMLTag addTag(XMLTag tag) {
+        throw readOnly();
+    }
+
+    public XMLTag addTag(Element tag) {
+        throw readOnly();
+    }
+
+    public XMLTag addAttribute(Attr attr) {
+        throw readOnly();
+    }
+
+    public XMLTag addText(Text text) {
+        throw readOnly();
+    }
+
+    public XMLTag addCDATA(CDATASection data) {
+        throw readOnly();
+    }
+
+    public XMLTag gotoParent() {
+        int parent = doc.parent(current);
+        if (parent != -1) {
+            current = parent;
+        }
+        return this;
+    }
+
+    public XMLTag gotoRoot() {
+        current = 0;
+        return this;
+    }
+
+    public XMLTag gotoTag(String relativeXpath, Object... arguments) {
+        List<Integer> found = select(relativeXpath, arguments, true);
+        if (found == null) {
+            CompactXMLDoc.Dom dom = doc.dom();
+            current = dom.index(dom(dom).gotoTag(relativeXpath, arguments).getCurrentTag());
+        } else if (found.isEmpty()) {
+            throw new XMLDocumentException(String.format("Error executing xpath '%s' from node '%s': Inexisting target node.", String.format(relativeXpath, arguments), getCurrentTagName()));
+        } else {
+            current = found.get(0);
+        }
+        return this;
+    }
+
+    public XMLTag gotoTag(XMLPath path, Object... arguments) {
+        List<Integer> found = select(path, arguments, true);
+        if (found == null) {
+            CompactXMLDoc.Dom dom = doc.dom();
+            current = dom.index(dom(dom).gotoTag(path, arguments).getCurrentTag());
+        } else if (found.isEmpty()) {
+            throw new XMLDocumentException(String.format("Error executing xpath '%s' from node '%s': Inexisting target node.", path.getExpression(), getCurrentTagName()));
+        } else {
+            current = found.get(0);
+        }
+        return this;
+    }
+
+    public XMLTag gotoChild() {
+        int[] els = childs(current);
+        switch (els.length) {
+            case 0:
+                throw new XMLDocumentException("Current element '%s' has no child", getCurrentTagName());
+            case 1:
+                current = els[0];
+                break;
+            default:
+                throw new XMLDocumentException("Cannot select child: current element '%s' has '%s' children", getCurrentTagName(), els.length);
+        }
+        return this;
+    }
+
+    public XMLTag gotoChild(int i) {
+        int[] els = childs(current);
+        if (i > 0 && i <= els.length) {
+            current = els[i - 1];
+        } else {
+            throw new XMLDocumentException("Cannot acces child '%s' of element '%s' amongst its '%s' childs", i, getCurrentTagName(), els.length);
+        }
+        return this;
+    }
+
+    public XMLTag gotoChild(String nodeName) {
+        notEmpty("Tag name", nodeName);
+        int found = -1;
+        int count = 0;
+        for (int el : childs(current)) {
+            if (doc.nodeName(el).equals(nodeName)) {
+                found = el;
+                count++;
+            }
+        }
+        switch (count) {
+            case 0:
+                throw new XMLDocumentException("Current element '%s' has no child named '%s'", getCurrentTagName(), nodeName);
+            case 1:
+                current = found;
+                break;
+            default:
+                throw new XMLDocumentException("Cannot select child: current element '%s' has '%s' children named '%s'", getCurrentTagName(), count, nodeName);
+        }
+        return this;
+    }
+
+    public XMLTag gotoFirstChild() throws XMLDocumentException {
+        int[] els = childs(current);
+        if (els.length == 0) {
+            throw new XMLDocumentException("Current element '%s' has no child", getCurrentTagName());
+        }
+        current = els[0];
+        return this;
+    }
+
+    public XMLTag gotoFirstChild(String name) throws XMLDocumentException {
+        notEmpty("Tag name", name);
+        int[] els = childs(current);
+        if (els.length == 0) {
+            throw new XMLDocumentException("Current element '%s' has no child", getCurrentTagName());
+        }
+        for (int el : els) {
+            if (doc.nodeName(el).equals(name)) {
+                current = el;
+                return this;
+            }
+        }
+        throw new XMLDocumentException("No child found in current tag '%s' having name '%s'", getCurrentTagName(), name);
+    }
+
+    public XMLTag gotoLastChild() throws XMLDocumentException {
+        int[] els = childs(current);
+        if (els.length == 0) {
+            throw new XMLDocumentException("Current element '%s' has no child", getCurrentTagName());
+        }
+        current = els[els.length - 1];
+        return this;
+    }
+
+    public XMLTag gotoLastChild(String name) throws XMLDocumentException {
+        notEmpty("Tag name", name);
+        int[] els = childs(current);
+        if (els.length == 0) {
+            throw new XMLDocumentException("Current element '%s' has no child", getCurrentTagName());
+        }
+        for (int i = els.length - 1; i >= 0; i--) {
+            if (doc.nodeName(els[i]).equals(name)) {
+                current = els[i];
+                return this;
+            }
+        }
+        throw new XMLDocumentException("No child found in current tag '%s' having name '%s'", getCurrentTagName(), name);
+    }
+
+    public boolean hasTag(String relativeXpath, Object... arguments) {
+        int old = current;
+        try {
+            gotoTag(relativeXpath, arguments);
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public boolean hasTag(XMLPath path, Object... arguments) {
+        int old = current;
+        try {
+            gotoTag(path, arguments);
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public boolean hasAttribute(String name, String relativeXpath, Object... arguments) {
+        int old = current;
+        try {
+            return gotoTag(relativeXpath, arguments).hasAttribute(name);
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public boolean hasAttribute(String name, XMLPath path, Object... arguments) {
+        int old = current;
+        try {
+            return gotoTag(path, arguments).hasAttribute(name);
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public boolean hasAttribute(String name) {
+        return doc.attribute(current, name) != -1;
+    }
+
+    public XMLTag forEachChild(CallBack callBack) {
+        notNull("Callback", callBack);
+        return forEach(callBack, childs(current));
+    }
+
+    public XMLTag forEach(CallBack callBack, String relativeXpath, Object... arguments) {
+        notNull("Callback", callBack);
+        return forEach(callBack, selectAll(relativeXpath, arguments));
+    }
+
+    public XMLTag forEach(CallBack callBack, XMLPath path, Object... arguments) {
+        notNull("Callback", callBack);
+        return forEach(callBack, selectAll(path, arguments));
+    }
+
+    private XMLTag forEach(CallBack callBack, int[] elements) {
+        int old = current;
+        try {
+            for (int element : elements) {
+                current = element;
+                callBack.execute(this);
+            }
+            return this;
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public XMLTag forEach(String xpath, CallBack callBack) {
+        return forEach(callBack, xpath);
+    }
+
+    public String rawXpathString(String relativeXpath, Object... arguments) {
+        return dom().rawXpathString(relativeXpath, arguments);
+    }
+
+    public String rawXpathString(XMLPath path, Object... arguments) {
+        return dom().rawXpathString(path, arguments);
+    }
+
+    public Number rawXpathNumber(String relativeXpath, Object... arguments) {
+        return dom().rawXpathNumber(relativeXpath, arguments);
+    }
+
+    public Number rawXpathNumber(XMLPath path, Object... arguments) {
+        return dom().rawXpathNumber(path, arguments);
+    }
+
+    public Boolean rawXpathBoolean(String relativeXpath, Object... arguments) {
+        return dom().rawXpathBoolean(relativeXpath, arguments);
+    }
+
+    public Boolean rawXpathBoolean(XMLPath path, Object... arguments) {
+        return dom().rawXpathBoolean(path, arguments);
+    }
+
+    public Node rawXpathNode(String relativeXpath, Object... arguments) {
+        return dom().rawXpathNode(relativeXpath, arguments);
+    }
+
+    public Node rawXpathNode(XMLPath path, Object... arguments) {
+        return dom().rawXpathNode(path, arguments);
+    }
+
+    public NodeList rawXpathNodeSet(String relativeXpath, Object... arguments) {
+        return dom().rawXpathNodeSet(relativeXpath, arguments);
+    }
+
+    public NodeList rawXpathNodeSet(XMLPath path, Object... arguments) {
+        return dom().rawXpathNodeSet(path, arguments);
+    }
+
+    public Element getCurrentTag() {
+        return dom().getCurrentTag();
+    }
+
+    public int getChildCount() {
+        return childs(current).length;
+    }
+
+    public Iterable<XMLTag> getChilds() {
+        return iterable(childs(current));
+    }
+
+    public Iterable<XMLTag> getChilds(String relativeXpath, Object... arguments) {
+        return iterable(selectAll(relativeXpath, arguments));
+    }
+
+    public Iterable<XMLTag> getChilds(XMLPath path, Object... arguments) {
+        return iterable(selectAll(path, arguments));
+    }
+
+    private Iterable<XMLTag> iterable(final int[] elements) {
+        // same contract as the other documents: hasNext() moves to the next element, and back at the end
+        final int old = current;
+        final Iterator<XMLTag> iterator = new Iterator<XMLTag>() {
+            int next;
+
+            public boolean hasNext() {
+                if (next < elements.length) {
+                    current = elements[next++];
+                    return true;
+                }
+                current = old;
+                return false;
+            }
+
+            public XMLTag next() {
+                return CompactXMLTag.this;
+            }
+
+            public void remove() {
+                throw readOnly();
+            }
+        };
+        return new Iterable<XMLTag>() {
+            public Iterator<XMLTag> iterator() {
+                return iterator;
+            }
+        };
+    }
+
+    public List<Element> getChildElement() {
+        return dom().getChildElement();
+    }
+
+    public String getCurrentTagName() {
+        return doc.nodeName(current);
+    }
+
+    public String getCurrentTagLocation() {
+        StringBuilder sb = new StringBuilder();
+        for (int node = current, parent = doc.parent(node); parent != -1; node = parent, parent = doc.parent(node)) {
+            int position = 1;
+            for (int child = doc.firstChild(parent); child != node; child = doc.nextSibling(child)) {
+                if (doc.isElement(child)) {
+                    position++;
+                }
+            }
+            sb.insert(0, "/*[" + position + "]");
+        }
+        return sb.length() == 0 ? "." : sb.deleteCharAt(0).toString();
+    }
+
+    public NamespaceContext getContext() {
+        return doc.getNamespaceBindings();
+    }
+
+    public String getPefix(String namespaceURI) {
+        notNull("namespaceURI", namespaceURI);
+        String prefix = getContext().getPrefix(namespaceURI);
+        return prefix == null ? XMLConstants.DEFAULT_NS_PREFIX : prefix;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    public String[] getPefixes(String namespaceURI) {
+        notNull("namespaceURI", namespaceURI);
+        Set<String> prefixes = new TreeSet<String>();
+        Iterator<String> i = getContext().getPrefixes(namespaceURI);
+        while (i.hasNext()) {
+            prefixes.add(i.next());
+        }
+        return prefixes.toArray(new String[prefixes.size()]);
+    }
+
+    public String getText() {
+        return text(Node.TEXT_NODE);
+    }
+
+    public String getText(String relativeXpath, Object... arguments) {
+        int old = current;
+        try {
+            return gotoTag(relativeXpath, arguments).getText();
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public String getText(XMLPath path, Object... arguments) {
+        int old = current;
+        try {
+            return gotoTag(path, arguments).getText();
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public String getCDATA() {
+        return text(Node.CDATA_SECTION_NODE);
+    }
+
+    private String text(short type) {
+        StringBuilder sb = new StringBuilder();
+        for (int child = doc.firstChild(current); child != -1; child = doc.nextSibling(child)) {
+            if (doc.type(child) == type) {
+                doc.appendValue(child, sb);
+            }
+        }
+        return sb.toString();
+    }
+
+    public String getCDATA(String relativeXpath, Object... arguments) {
+        int old = current;
+        try {
+            return gotoTag(relativeXpath, arguments).getCDATA();
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public String getCDATA(XMLPath path, Object... arguments) {
+        int old = current;
+        try {
+            return gotoTag(path, arguments).getCDATA();
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public String getTextOrCDATA() {
+        String txt = getText();
+        return "".equals(txt) ? getCDATA() : txt;
+    }
+
+    public String getTextOrCDATA(String relativeXpath, Object... arguments) throws XMLDocumentException {
+        int old = current;
+        try {
+            return gotoTag(relativeXpath, arguments).getTextOrCDATA();
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public String getCDATAorText() {
+        String txt = getCDATA();
+        return "".equals(txt) ? getText() : txt;
+    }
+
+    public String getCDATAorText(String relativeXpath, Object... arguments) throws XMLDocumentException {
+        int old = current;
+        try {
+            return gotoTag(relativeXpath, arguments).getCDATAorText();
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public String[] getAttributeNames() {
+        return doc.attributeNames(current);
+    }
+
+    public String getAttribute(String name) {
+        notEmpty("Attribute name", name);
+        int attribute = doc.attribute(current, name);
+        if (attribute == -1) {
+            throw new XMLDocumentException("Element '%s' does not have attribute '%s'", getCurrentTagName(), name);
+        }
+        return doc.attributeValue(attribute);
+    }
+
+    public String getAttribute(String name, String relativeXpath, Object... arguments) {
+        int old = current;
+        try {
+            return gotoTag(relativeXpath, arguments).getAttribute(name);
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public String getAttribute(String name, XMLPath path, Object... arguments) {
+        int old = current;
+        try {
+            return gotoTag(path, arguments).getAttribute(name);
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public String findAttribute(String name) {
+        notEmpty("Attribute name", name);
+        int attribute = doc.attribute(current, name);
+        return attribute == -1 ? null : doc.attributeValue(attribute);
+    }
+
+    public String findAttribute(String name, String relativeXpath, Object... arguments) throws XMLDocumentException {
+        int old = current;
+        try {
+            return gotoTag(relativeXpath, arguments).findAttribute(name);
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public String findAttribute(String name, XMLPath path, Object... arguments) throws XMLDocumentException {
+        int old = current;
+        try {
+            return gotoTag(path, arguments).findAttribute(name);
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public Map<String, String> extract(XMLExtractor extractor) {
+        return dom().extract(extractor);
+    }
+
+    public XMLTag getInnerDocument() {
+        return dom().getInnerDocument();
+    }
+
+    public String getInnerText() {
+        return dom().getInnerText();
+    }
+
+    public XMLTag duplicate() {
+        CompactXMLDoc.Dom dom = doc.dom();
+        return new CopyOnWriteXMLTag(dom.frozen, dom.element(current));
+    }
+
+    public FrozenXMLDoc freeze() {
+        return doc.dom().frozen;
+    }
+
+    public CompactXMLDoc compact() {
+        return doc;
+    }
+
+    public XMLTag setText(String text) {
+        throw readOnly();
+    }
+
+    public XMLTag setText(String text, String relativeXpath, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setText(String text, XMLPath path, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setTextIfExist(String text, String relativeXpath, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setCDATA(String data) {
+        throw readOnly();
+    }
+
+    public XMLTag setCDATA(String data, String relativeXpath, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setCDATAIfExist(String data, String relativeXpath, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setAttribute(String name, String value) {
+        throw readOnly();
+    }
+
+    public XMLTag setAttributeIfExist(String name, String value) {
+        throw readOnly();
+    }
+
+    public XMLTag setAttribute(String name, String value, String relativeXpath, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setAttribute(String name, String value, XMLPath path, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setAttributeIfExist(String name, String value, String relativeXpath, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag deleteChilds() {
+        throw readOnly();
+    }
+
+    public XMLTag delete() {
+        throw readOnly();
+    }
+
+    public XMLTag deleteAttributes() {
+        throw readOnly();
+    }
+
+    public XMLTag deleteAttribute(String name) {
+        throw readOnly();
+    }
+
+    public XMLTag deleteAttributeIfExists(String name) {
+        throw readOnly();
+    }
+
+    public XMLTag renameTo(String newNodeName) {
+        throw readOnly();
+    }
+
+    public XMLTag deletePrefixes() {
+        throw readOnly();
+    }
+
+    public Document toDocument() {
+        return dom().toDocument();
+    }
+
+    public Source toSource() {
+        return dom().toSource();
+    }
+
+    @Override
+    public String toString() {
+        return dom().toString();
+    }
+
+    public String toString(String encoding) {
+        return dom().toString(encoding);
+    }
+
+    public String toString(String encoding, int indent) {
+        return dom().toString(encoding, indent);
+    }
+
+    public byte[] toBytes() {
+        return dom().toBytes();
+    }
+
+    public byte[] toBytes(String encoding) {
+        return dom().toBytes(encoding);
+    }
+
+    public byte[] toBytes(String encoding, int indent) {
+        return dom().toBytes(encoding, indent);
+    }
+
+    public XMLTag toResult(Result out) {
+        dom().toResult(out);
+        return this;
+    }
+
+    public XMLTag toResult(Result out, String encoding) {
+        dom().toResult(out, encoding);
+        return this;
+    }
+
+    public XMLTag toStream(OutputStream out) {
+        dom().toStream(out);
+        return this;
+    }
+
+    public XMLTag toStream(OutputStream out, String encoding) {
+        dom().toStream(out, encoding);
+        return this;
+    }
+
+    public XMLTag toStream(OutputStream out, String encoding, int indent) {
+        dom().toStream(out, encoding, indent);
+        return this;
+    }
+
+    public XMLTag toStream(Writer out) {
+        dom().toStream(out);
+        return this;
+    }
+
+    public XMLTag toStream(Writer out, String encoding) {
+        dom().toStream(out, encoding);
+        return this;
+    }
+
+    public XMLTag toStream(Writer out, String encoding, int indent) {
+        dom().toStream(out, encoding, indent);
+        return this;
+    }
+
+    public Result toResult() {
+        return dom().toResult();
+    }
+
+    public Result toResult(String encoding) {
+        return dom().toResult(encoding);
+    }
+
+    public OutputStream toOutputStream() {
+        return dom().toOutputStream();
+    }
+
+    public OutputStream toOutputStream(String encoding) {
+        return dom().toOutputStream(encoding);
+    }
+
+    public Writer toWriter() {
+        return dom().toWriter();
+    }
+
+    public Writer toWriter(String encoding) {
+        return dom().toWriter(encoding);
+    }
+
+    public ValidationResult validate(Source... schemas) {
+        return dom().validate(schemas);
+    }
+
+    public ValidationResult validate(URL... schemaLocations) {
+        return dom().validate(schemaLocations);
+    }
+
+    private int[] childs(int element) {
+        int count = 0;
+        for (int child = doc.firstChild(element); child != -1; child = doc.nextSibling(child)) {
+            if (doc.isElement(child)) {
+                count++;
+            }
+        }
+        int[] els = new int[count];
+        int i = 0;
+        for (int child = doc.firstChild(element); child != -1; child = doc.nextSibling(child)) {
+            if (doc.isElement(child)) {
+                els[i++] = child;
+            }
+        }
+        return els;
+    }
+
+    /**
+     * @return The elements selected by a simple path, or null if the expression has to be evaluated on the DOM
+     */
+    private List<Integer> select(String relativeXpath, Object[] arguments, boolean first) {
+        CompiledXPath compiled;
+        try {
+            compiled = XPathCache.get(String.format(relativeXpath, arguments), doc.getNamespaceBindings());
+        } catch (Exception e) {
+            // reported by the DOM
+            return null;
+        }
+        return select(compiled, first);
+    }
+
+    private List<Integer> select(XMLPath path, Object[] arguments, boolean first) {
+        // variables are bound by the XPath engine only
+        if (path == null || path.variables().length > 0 || arguments.length > 0) {
+            return null;
+        }
+        CompiledXPath compiled;
+        try {
+            compiled = path.getCompiled(doc.getNamespaceBindings());
+        } catch (Exception e) {
+            return null;
+        }
+        return select(compiled, first);
+    }
+
+    private List<Integer> select(CompiledXPath compiled, boolean first) {
+        SimplePath path = compiled.getSimplePath();
+        if (path == null || path.selectsAttribute()) {
+            return null;
+        }
+        long start = Metrics.start();
+        try {
+            List<Integer> result = new ArrayList<Integer>(first ? 1 : 8);
+            return path.select(doc, current, result, first) ? result : null;
+        } finally {
+            Metrics.stop(MetricsEvent.XPATH_EVALUATE, start);
+        }
+    }
+
+    private int[] selectAll(String relativeXpath, Object[] arguments) {
+        List<Integer> found = select(relativeXpath, arguments, false);
+        if (found == null) {
+            CompactXMLDoc.Dom dom = doc.dom();
+            return indexes(dom, dom(dom).getChilds(relativeXpath, arguments));
+        }
+        return toArray(found);
+    }
+
+    private int[] selectAll(XMLPath path, Object[] arguments) {
+        List<Integer> found = select(path, arguments, false);
+        if (found == null) {
+            CompactXMLDoc.Dom dom = doc.dom();
+            return indexes(dom, dom(dom).getChilds(path, arguments));
+        }
+        return toArray(found);
+    }
+
+    private static int[] indexes(CompactXMLDoc.Dom dom, Iterable<XMLTag> tags) {
+        List<Integer> found = new ArrayList<Integer>();
+        for (XMLTag tag : tags) {
+            found.add(dom.index(tag.getCurrentTag()));
+        }
+        return toArray(found);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    private XMLDoc dom() {
+        return dom(doc.dom());
+    }
+
+    /**
+     * @return A cursor over the DOM rebuilt from the compact document, positioned on the current tag
+     */
+    private XMLDoc dom(CompactXMLDoc.Dom dom) {
+        XMLDoc xmlDoc = new XMLDoc(dom.definition);
+        xmlDoc.current = dom.element(current);
+        return xmlDoc;
+    }
+
+    private static XMLDocumentException readOnly() {
+        return new XMLDocumentException("This document is compact and cannot be modified: use duplicate() to get a modifiable copy");
+    }
+}
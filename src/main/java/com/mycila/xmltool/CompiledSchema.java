@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A compiled schema set. {@link Validator} instances are not thread-safe, so each validation borrows one from a pool,
+ * creating a new one when all of them are in use.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class CompiledSchema {
+
+    private final Schema schema;
+    private final Queue<Validator> pool = new ConcurrentLinkedQueue<Validator>();
+
+    CompiledSchema(Schema schema) {
+        this.schema = schema;
+    }
+
+    Schema getSchema() {
+        return schema;
+    }
+
+    ValidationResult validate(Node node) throws IOException, SAXException {
+        Validator validator = pool.poll();
+        if (validator == null) {
+            validator = schema.newValidator();
+        }
+        XMLErrorHandler errorHandler = new XMLErrorHandler();
+        boolean reusable = false;
+        try {
+            validator.setErrorHandler(errorHandler);
+            validator.validate(new DOMSource(node));
+            reusable = true;
+            return errorHandler;
+        } finally {
+            if (reusable) {
+                validator.reset();
+                pool.offer(validator);
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Node;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static javax.xml.xpath.XPathConstants.NODE;
+
+/**
+ * An XPath expression compiled against some namespace bindings. {@link XPathExpression} instances are not thread-safe,
+ * so each evaluation borrows one from a pool, compiling a new one when all of them are in use. Up to one expression per
+ * processor is kept idle: the others are dropped once evaluated.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class CompiledXPath {
+
+    private static final int MAX_IDLE = Runtime.getRuntime().availableProcessors();
+
+    private final String expression;
+    private final NamespaceBindings namespaces;
+    private final Queue<XPathExpression> pool = new ConcurrentLinkedQueue<XPathExpression>();
+    private final AtomicInteger idle = new AtomicInteger();
+    private final SimplePath simplePath;
+
+    private CompiledXPath(String expression, NamespaceBindings namespaces) {
+        this.expression = expression;
+        this.namespaces = namespaces;
+        this.simplePath = SimplePath.parse(expression, namespaces);
+    }
+
+    String getExpression() {
+        return expression;
+    }
+
+    NamespaceBindings getNamespaces() {
+        return namespaces;
+    }
+
+    /**
+     * @return The expression parsed as a simple path, or null if it is not one
+     */
+    SimplePath getSimplePath() {
+        return simplePath;
+    }
+
+    Object evaluate(Node node, QName returnType) throws XPathExpressionException {
+        long start = Metrics.start();
+        try {
+            return doEvaluate(node, returnType);
+        } finally {
+            Metrics.stop(MetricsEvent.XPATH_EVALUATE, start);
+        }
+    }
+
+    private Object doEvaluate(Node node, QName returnType) throws XPathExpressionException {
+        if (simplePath != null && XPathCache.isSimplePathEvaluation()) {
+            Object result = simplePath.evaluate(node, returnType);
+            if (result != SimplePath.UNSUPPORTED) {
+                return result;
+            }
+        }
+        return evaluateWithEngine(node, returnType);
+    }
+
+    /**
+     * Evaluates several expressions selecting a node from the same context node. Simple paths are evaluated together
+     * in a single walk of the tree, and the other expressions one after the other.
+     *
+     * @return The first node selected by each expression, or null
+     */
+    static Node[] evaluateNodes(Node node, CompiledXPath[] expressions) throws XPathExpressionException {
+        Object[] results = new Object[expressions.length];
+        if (XPathCache.isSimplePathEvaluation()) {
+            SimplePath[] paths = new SimplePath[expressions.length];
+            for (int i = 0; i < expressions.length; i++) {
+                paths[i] = expressions[i].simplePath;
+            }
+            long start = Metrics.start();
+            try {
+                SimplePath.selectAll(node, paths, results);
+            } finally {
+                Metrics.stop(MetricsEvent.XPATH_EVALUATE, start);
+            }
+        } else {
+            Arrays.fill(results, SimplePath.UNSUPPORTED);
+        }
+        Node[] nodes = new Node[expressions.length];
+        for (int i = 0; i < expressions.length; i++) {
+            if (results[i] != SimplePath.UNSUPPORTED) {
+                nodes[i] = (Node) results[i];
+            } else {
+                long start = Metrics.start();
+                try {
+                    nodes[i] = (Node) expressions[i].evaluateWithEngine(node, NODE);
+                } finally {
+                    Metrics.stop(MetricsEvent.XPATH_EVALUATE, start);
+                }
+            }
+        }
+        return nodes;
+    }
+
+    private Object evaluateWithEngine(Node node, QName returnType) throws XPathExpressionException {
+        XPathExpression expr = pool.poll();
+        if (expr == null) {
+            expr = newExpression();
+        } else {
+            idle.decrementAndGet();
+        }
+        try {
+            return expr.evaluate(node, returnType);
+        } finally {
+            release(expr);
+        }
+    }
+
+    private void release(XPathExpression expr) {
+        if (idle.get() < MAX_IDLE) {
+            idle.incrementAndGet();
+            pool.offer(expr);
+        }
+    }
+
+    private XPathExpression newExpression() throws XPathExpressionException {
+        XPath xpath = XMLFactories.createXPath();
+        xpath.setNamespaceContext(namespaces);
+        xpath.setXPathVariableResolver(XPathVariables.instance);
+        return xpath.compile(expression);
+    }
+
+    /**
+     * Compiles the given expression once, so that syntax errors are reported right away.
+     */
+    static CompiledXPath compile(String expression, NamespaceBindings namespaces) throws XPathExpressionException {
+        CompiledXPath compiled = new CompiledXPath(expression, namespaces);
+        compiled.release(compiled.newExpression());
+        return compiled;
+    }
+}
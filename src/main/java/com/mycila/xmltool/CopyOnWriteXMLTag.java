@@ -0,0 +1,1049 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URL;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.mycila.xmltool.Utils.notEmpty;
+import static com.mycila.xmltool.Utils.notNull;
+import static javax.xml.XMLConstants.XMLNS_ATTRIBUTE;
+
+/**
+ * A modifiable copy of a {@link FrozenXMLDoc}, obtained from {@link FrozenXMLDoc#newCopy()} or from
+ * {@link FrozenXMLTag#duplicate()}, which reads the nodes of the frozen document instead of copying them.
+ * 
+ * Texts, CDATA sections and attribute values set on the copy are recorded aside, keyed by the shared node they replace,
+ * and merged when the copy is read or written. Expressions which only depend on the structure of the document, i.e.
+ * simple paths, are still evaluated on the shared nodes. The first operation which cannot be answered this way (a
+ * structural modification, a method exposing DOM nodes or iterating over tags, or an XPath expression which could
+ * depend on the values set) copies the frozen document, replays the recorded values on the copy and delegates to it
+ * from then on.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class CopyOnWriteXMLTag implements XMLTag {
+
+    private final FrozenXMLDoc frozen;
+    // cursor over the frozen document, until it is copied
+    private XMLDoc shared;
+    // values set on the shared nodes, null until the first one is set and once the document is copied
+    private Edits edits;
+    // the shared cursor, then the copy
+    private XMLTag tag;
+
+    CopyOnWriteXMLTag(FrozenXMLDoc frozen, Element current) {
+        this(frozen, current, null);
+    }
+
+    private CopyOnWriteXMLTag(FrozenXMLDoc frozen, Element current, Edits edits) {
+        this.frozen = frozen;
+        this.shared = new XMLDoc(frozen.getDefinition());
+        this.shared.current = current;
+        this.edits = edits;
+        this.tag = shared;
+    }
+
+    public XMLTag addNamespace(String prefix, String namespaceURI) {
+        materialize().addNamespace(prefix, namespaceURI);
+        return this;
+    }
+
+    public XMLTag addTag(String name) {
+        materialize().addTag(name);
+        return this;
+    }
+
+    public XMLTag addAttribute(String name, String value) {
+        materialize().addAttribute(name, value);
+        return this;
+    }
+
+    public XMLTag addAttributeNS(String namespaceURI, String name, String value) {
+        materialize().addAttributeNS(namespaceURI, name, value);
+        return this;
+    }
+
+    public XMLTag addText(String text) {
+        materialize().addText(text);
+        return this;
+    }
+
+    public XMLTag addCDATA(String data) {
+        materialize().addCDATA(data);
+        return this;
+    }
+
+    public XMLTag addDocument(XMLTag tag) {
+        materialize().addDocument(tag);
+        return this;
+    }
+
+    public XMLTag addDocument(Document doc) {
+        materialize().addDocument(doc);
+        return this;
+    }
+
+    public XMLTag addTag(XMLTag tag) {
+        materialize().addTag(tag);
+        return this;
+    }
+
+    public XMLTag addTag(Element tag) {
+        materialize().addTag(tag);
+        return this;
+    }
+
+    public XMLTag addAttribute(Attr attr) {
+        materialize().addAttribute(attr);
+        return this;
+    }
+
+    public XMLTag addText(Text text) {
+        materialize().addText(text);
+        return this;
+    }
+
+    public XMLTag addCDATA(CDATASection data) {
+        materialize().addCDATA(data);
+        return this;
+    }
+
+    public XMLTag gotoParent() {
+        tag.gotoParent();
+        return this;
+    }
+
+    public XMLTag gotoRoot() {
+        tag.gotoRoot();
+        return this;
+    }
+
+    public XMLTag gotoTag(String relativeXpath, Object... arguments) {
+        select(relativeXpath, arguments).gotoTag(relativeXpath, arguments);
+        return this;
+    }
+
+    public XMLTag gotoTag(XMLPath path, Object... arguments) {
+        select(path).gotoTag(path, arguments);
+        return this;
+    }
+
+    public XMLTag gotoChild() {
+        tag.gotoChild();
+        return this;
+    }
+
+    public XMLTag gotoChild(int i) {
+        tag.gotoChild(i);
+        return this;
+    }
+
+    public XMLTag gotoChild(String nodeName) {
+        tag.gotoChild(nodeName);
+        return this;
+    }
+
+    public XMLTag gotoFirstChild() {
+        tag.gotoFirstChild();
+        return this;
+    }
+
+    public XMLTag gotoFirstChild(String name) {
+        tag.gotoFirstChild(name);
+        return this;
+    }
+
+    public XMLTag gotoLastChild() {
+        tag.gotoLastChild();
+        return this;
+    }
+
+    public XMLTag gotoLastChild(String name) {
+        tag.gotoLastChild(name);
+        return this;
+    }
+
+    public boolean hasTag(String relativeXpath, Object... arguments) {
+        return select(relativeXpath, arguments).hasTag(relativeXpath, arguments);
+    }
+
+    public boolean hasTag(XMLPath path, Object... arguments) {
+        return select(path).hasTag(path, arguments);
+    }
+
+    public boolean hasAttribute(String name, String relativeXpath, Object... arguments) {
+        return select(relativeXpath, arguments).hasAttribute(name, relativeXpath, arguments);
+    }
+
+    public boolean hasAttribute(String name, XMLPath path, Object... arguments) {
+        return select(path).hasAttribute(name, path, arguments);
+    }
+
+    public boolean hasAttribute(String name) {
+        return tag.hasAttribute(name);
+    }
+
+    public XMLTag forEachChild(CallBack callBack) {
+        materialize().forEachChild(callBack);
+        return this;
+    }
+
+    public XMLTag forEach(CallBack callBack, String relativeXpath, Object... arguments) {
+        materialize().forEach(callBack, relativeXpath, arguments);
+        return this;
+    }
+
+    public XMLTag forEach(CallBack callBack, XMLPath path, Object... arguments) {
+        materialize().forEach(callBack, path, arguments);
+        return this;
+    }
+
+    public XMLTag forEach(String xpath, CallBack callBack) {
+        materialize().forEach(xpath, callBack);
+        return this;
+    }
+
+    public String rawXpathString(String relativeXpath, Object... arguments) {
+        return values().rawXpathString(relativeXpath, arguments);
+    }
+
+    public String rawXpathString(XMLPath path, Object... arguments) {
+        return values().rawXpathString(path, arguments);
+    }
+
+    public Number rawXpathNumber(String relativeXpath, Object... arguments) {
+        return values().rawXpathNumber(relativeXpath, arguments);
+    }
+
+    public Number rawXpathNumber(XMLPath path, Object... arguments) {
+        return values().rawXpathNumber(path, arguments);
+    }
+
+    public Boolean rawXpathBoolean(String relativeXpath, Object... arguments) {
+        return values().rawXpathBoolean(relativeXpath, arguments);
+    }
+
+    public Boolean rawXpathBoolean(XMLPath path, Object... arguments) {
+        return values().rawXpathBoolean(path, arguments);
+    }
+
+    public Node rawXpathNode(String relativeXpath, Object... arguments) {
+        return materialize().rawXpathNode(relativeXpath, arguments);
+    }
+
+    public Node rawXpathNode(XMLPath path, Object... arguments) {
+        return materialize().rawXpathNode(path, arguments);
+    }
+
+    public NodeList rawXpathNodeSet(String relativeXpath, Object... arguments) {
+        return materialize().rawXpathNodeSet(relativeXpath, arguments);
+    }
+
+    public NodeList rawXpathNodeSet(XMLPath path, Object... arguments) {
+        return materialize().rawXpathNodeSet(path, arguments);
+    }
+
+    public Element getCurrentTag() {
+        return materialize().getCurrentTag();
+    }
+
+    public int getChildCount() {
+        return tag.getChildCount();
+    }
+
+    public Iterable<XMLTag> getChilds() {
+        return materialize().getChilds();
+    }
+
+    public Iterable<XMLTag> getChilds(String relativeXpath, Object... arguments) {
+        return materialize().getChilds(relativeXpath, arguments);
+    }
+
+    public Iterable<XMLTag> getChilds(XMLPath path, Object... arguments) {
+        return materialize().getChilds(path, arguments);
+    }
+
+    public List<Element> getChildElement() {
+        return materialize().getChildElement();
+    }
+
+    public String getCurrentTagName() {
+        return tag.getCurrentTagName();
+    }
+
+    public String getCurrentTagLocation() {
+        return tag.getCurrentTagLocation();
+    }
+
+    public NamespaceContext getContext() {
+        return tag.getContext();
+    }
+
+    public String getPefix(String namespaceURI) {
+        return tag.getPefix(namespaceURI);
+    }
+
+    public String[] getPefixes(String namespaceURI) {
+        return tag.getPefixes(namespaceURI);
+    }
+
+    public String getText() {
+        String text = edits == null ? null : edits.getText(shared.current);
+        if (text == null) {
+            return tag.getText();
+        }
+        return edits.isCDATA(shared.current) ? "" : text;
+    }
+
+    public String getText(String relativeXpath, Object... arguments) {
+        XMLTag tag = select(relativeXpath, arguments);
+        if (edits == null) {
+            return tag.getText(relativeXpath, arguments);
+        }
+        Element old = moveTo(relativeXpath, arguments);
+        try {
+            return getText();
+        } finally {
+            shared.current = old;
+        }
+    }
+
+    public String getText(XMLPath path, Object... arguments) {
+        XMLTag tag = select(path);
+        if (edits == null) {
+            return tag.getText(path, arguments);
+        }
+        Element old = moveTo(path, arguments);
+        try {
+            return getText();
+        } finally {
+            shared.current = old;
+        }
+    }
+
+    public String getCDATA() {
+        String text = edits == null ? null : edits.getText(shared.current);
+        if (text == null) {
+            return tag.getCDATA();
+        }
+        return edits.isCDATA(shared.current) ? text : "";
+    }
+
+    public String getCDATA(String relativeXpath, Object... arguments) {
+        XMLTag tag = select(relativeXpath, arguments);
+        if (edits == null) {
+            return tag.getCDATA(relativeXpath, arguments);
+        }
+        Element old = moveTo(relativeXpath, arguments);
+        try {
+            return getCDATA();
+        } finally {
+            shared.current = old;
+        }
+    }
+
+    public String getCDATA(XMLPath path, Object... arguments) {
+        XMLTag tag = select(path);
+        if (edits == null) {
+            return tag.getCDATA(path, arguments);
+        }
+        Element old = moveTo(path, arguments);
+        try {
+            return getCDATA();
+        } finally {
+            shared.current = old;
+        }
+    }
+
+    public String getTextOrCDATA() {
+        String txt = getText();
+        return "".equals(txt) ? getCDATA() : txt;
+    }
+
+    public String getTextOrCDATA(String relativeXpath, Object... arguments) {
+        XMLTag tag = select(relativeXpath, arguments);
+        if (edits == null) {
+            return tag.getTextOrCDATA(relativeXpath, arguments);
+        }
+        Element old = moveTo(relativeXpath, arguments);
+        try {
+            return getTextOrCDATA();
+        } finally {
+            shared.current = old;
+        }
+    }
+
+    public String getCDATAorText() {
+        String txt = getCDATA();
+        return "".equals(txt) ? getText() : txt;
+    }
+
+    public String getCDATAorText(String relativeXpath, Object... arguments) {
+        XMLTag tag = select(relativeXpath, arguments);
+        if (edits == null) {
+            return tag.getCDATAorText(relativeXpath, arguments);
+        }
+        Element old = moveTo(relativeXpath, arguments);
+        try {
+            return getCDATAorText();
+        } finally {
+            shared.current = old;
+        }
+    }
+
+    public String[] getAttributeNames() {
+        return tag.getAttributeNames();
+    }
+
+    public String getAttribute(String name) {
+        String value = tag.getAttribute(name);
+        return edits == null ? value : edits.getValue(shared.current.getAttributeNode(name));
+    }
+
+    public String getAttribute(String name, String relativeXpath, Object... arguments) {
+        XMLTag tag = select(relativeXpath, arguments);
+        if (edits == null) {
+            return tag.getAttribute(name, relativeXpath, arguments);
+        }
+        Element old = moveTo(relativeXpath, arguments);
+        try {
+            return getAttribute(name);
+        } finally {
+            shared.current = old;
+        }
+    }
+
+    public String getAttribute(String name, XMLPath path, Object... arguments) {
+        XMLTag tag = select(path);
+        if (edits == null) {
+            return tag.getAttribute(name, path, arguments);
+        }
+        Element old = moveTo(path, arguments);
+        try {
+            return getAttribute(name);
+        } finally {
+            shared.current = old;
+        }
+    }
+
+    public String findAttribute(String name) {
+        String value = tag.findAttribute(name);
+        return value == null || edits == null ? value : edits.getValue(shared.current.getAttributeNode(name));
+    }
+
+    public String findAttribute(String name, String relativeXpath, Object... arguments) {
+        XMLTag tag = select(relativeXpath, arguments);
+        if (edits == null) {
+            return tag.findAttribute(name, relativeXpath, arguments);
+        }
+        Element old = moveTo(relativeXpath, arguments);
+        try {
+            return findAttribute(name);
+        } finally {
+            shared.current = old;
+        }
+    }
+
+    public String findAttribute(String name, XMLPath path, Object... arguments) {
+        XMLTag tag = select(path);
+        if (edits == null) {
+            return tag.findAttribute(name, path, arguments);
+        }
+        Element old = moveTo(path, arguments);
+        try {
+            return findAttribute(name);
+        } finally {
+            shared.current = old;
+        }
+    }
+
+    public Map<String, String> extract(XMLExtractor extractor) {
+        notNull("Extractor", extractor);
+        if (shared == null || edits != null && !extractor.isStructural(namespaces())) {
+            return materialize().extract(extractor);
+        }
+        return extractor.extract(frozen.getDefinition(), shared.current, edits);
+    }
+
+    public XMLTag getInnerDocument() {
+        return values().getInnerDocument();
+    }
+
+    public String getInnerText() {
+        return values().getInnerText();
+    }
+
+    public XMLTag duplicate() {
+        if (shared == null) {
+            return tag.duplicate();
+        }
+        return new CopyOnWriteXMLTag(frozen, shared.current, edits == null ? null : new Edits(edits));
+    }
+
+    public FrozenXMLDoc freeze() {
+        return shared != null && edits == null ? frozen : materialize().freeze();
+    }
+
+    public CompactXMLDoc compact() {
+        return values().compact();
+    }
+
+    public XMLTag setText(String text) {
+        if (shared == null) {
+            tag.setText(text);
+        } else {
+            notNull("Text", text);
+            edits().setText(shared.current, text, false);
+            shared.gotoParent();
+        }
+        return this;
+    }
+
+    public XMLTag setText(String text, String relativeXpath, Object... arguments) {
+        XMLTag tag = select(relativeXpath, arguments);
+        if (shared == null) {
+            tag.setText(text, relativeXpath, arguments);
+            return this;
+        }
+        Element old = moveTo(relativeXpath, arguments);
+        try {
+            setText(text);
+        } finally {
+            shared.current = old;
+        }
+        return this;
+    }
+
+    public XMLTag setText(String text, XMLPath path, Object... arguments) {
+        XMLTag tag = select(path);
+        if (shared == null) {
+            tag.setText(text, path, arguments);
+            return this;
+        }
+        Element old = moveTo(path, arguments);
+        try {
+            setText(text);
+        } finally {
+            shared.current = old;
+        }
+        return this;
+    }
+
+    public XMLTag setTextIfExist(String text, String relativeXpath, Object... arguments) {
+        return hasTag(relativeXpath, arguments) ? setText(text, relativeXpath, arguments) : this;
+    }
+
+    public XMLTag setCDATA(String data) {
+        if (shared == null) {
+            tag.setCDATA(data);
+        } else {
+            notNull("Data", data);
+            edits().setText(shared.current, data, true);
+            shared.gotoParent();
+        }
+        return this;
+    }
+
+    public XMLTag setCDATA(String data, String relativeXpath, Object... arguments) {
+        XMLTag tag = select(relativeXpath, arguments);
+        if (shared == null) {
+            tag.setCDATA(data, relativeXpath, arguments);
+            return this;
+        }
+        Element old = moveTo(relativeXpath, arguments);
+        try {
+            setCDATA(data);
+        } finally {
+            shared.current = old;
+        }
+        return this;
+    }
+
+    public XMLTag setCDATAIfExist(String data, String relativeXpath, Object... arguments) {
+        return hasTag(relativeXpath, arguments) ? setCDATA(data, relativeXpath, arguments) : this;
+    }
+
+    public XMLTag setAttribute(String name, String value) {
+        if (shared != null) {
+            notNull("Attribute name", name);
+            notNull("Attribute value", value);
+            Attr attr = shared.current.getAttributeNode(name);
+            if (attr == null) {
+                throw new XMLDocumentException("Element '%s' does not have attribute '%s'", getCurrentTagName(), name);
+            }
+            if (!isNamespaceDeclaration(name)) {
+                edits().setValue(attr, value);
+                return this;
+            }
+            // namespace declarations change the namespaces of the document
+        }
+        materialize().setAttribute(name, value);
+        return this;
+    }
+
+    public XMLTag setAttributeIfExist(String name, String value) {
+        if (shared != null) {
+            notNull("Attribute name", name);
+            notNull("Attribute value", value);
+            Attr attr = shared.current.getAttributeNode(name);
+            if (attr == null) {
+                return this;
+            }
+            if (!isNamespaceDeclaration(name)) {
+                edits().setValue(attr, value);
+                return this;
+            }
+        }
+        materialize().setAttributeIfExist(name, value);
+        return this;
+    }
+
+    public XMLTag setAttribute(String name, String value, String relativeXpath, Object... arguments) {
+        XMLTag tag = isNamespaceDeclaration(name) ? materialize() : select(relativeXpath, arguments);
+        if (shared == null) {
+            tag.setAttribute(name, value, relativeXpath, arguments);
+            return this;
+        }
+        Element old = moveTo(relativeXpath, arguments);
+        try {
+            setAttribute(name, value);
+        } finally {
+            shared.current = old;
+        }
+        return this;
+    }
+
+    public XMLTag setAttribute(String name, String value, XMLPath path, Object... arguments) {
+        XMLTag tag = isNamespaceDeclaration(name) ? materialize() : select(path);
+        if (shared == null) {
+            tag.setAttribute(name, value, path, arguments);
+            return this;
+        }
+        Element old = moveTo(path, arguments);
+        try {
+            setAttribute(name, value);
+        } finally {
+            shared.current = old;
+        }
+        return this;
+    }
+
+    public XMLTag setAttributeIfExist(String name, String value, String relativeXpath, Object... arguments) {
+        return hasAttribute(name, relativeXpath, arguments) ? setAttribute(name, value, relativeXpath, arguments) : this;
+    }
+
+    public XMLTag deleteChilds() {
+        materialize().deleteChilds();
+        return this;
+    }
+
+    public XMLTag delete() {
+        materialize().delete();
+        return this;
+    }
+
+    public XMLTag deleteAttributes() {
+        materialize().deleteAttributes();
+        return this;
+    }
+
+    public XMLTag deleteAttribute(String name) {
+        materialize().deleteAttribute(name);
+        return this;
+    }
+
+    public XMLTag deleteAttributeIfExists(String name) {
+        materialize().deleteAttributeIfExists(name);
+        return this;
+    }
+
+    public XMLTag renameTo(String newNodeName) {
+        materialize().renameTo(newNodeName);
+        return this;
+    }
+
+    public XMLTag deletePrefixes() {
+        materialize().deletePrefixes();
+        return this;
+    }
+
+    public Document toDocument() {
+        return materialize().toDocument();
+    }
+
+    public Source toSource() {
+        return materialize().toSource();
+    }
+
+    @Override
+    public String toString() {
+        return toString(frozen.getDefinition().getEncoding());
+    }
+
+    public String toString(String encoding) {
+        return toString(encoding, XMLSerializer.DEFAULT_INDENT);
+    }
+
+    public String toString(String encoding, int indent) {
+        StringWriter out = new StringWriter();
+        toStream(out, encoding, indent);
+        return out.toString();
+    }
+
+    public byte[] toBytes() {
+        return toBytes(frozen.getDefinition().getEncoding());
+    }
+
+    public byte[] toBytes(String encoding) {
+        return toBytes(encoding, XMLSerializer.DEFAULT_INDENT);
+    }
+
+    public byte[] toBytes(String encoding, int indent) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        toStream(out, encoding, indent);
+        return out.toByteArray();
+    }
+
+    public XMLTag toResult(Result out) {
+        values().toResult(out);
+        return this;
+    }
+
+    public XMLTag toResult(Result out, String encoding) {
+        values().toResult(out, encoding);
+        return this;
+    }
+
+    public XMLTag toStream(OutputStream out) {
+        return toStream(out, frozen.getDefinition().getEncoding());
+    }
+
+    public XMLTag toStream(OutputStream out, String encoding) {
+        return toStream(out, encoding, XMLSerializer.DEFAULT_INDENT);
+    }
+
+    public XMLTag toStream(OutputStream out, String encoding, int indent) {
+        notEmpty("encoding", encoding);
+        try {
+            return toStream(new BufferedWriter(new OutputStreamWriter(out, encoding)), encoding, indent);
+        } catch (UnsupportedEncodingException e) {
+            throw new XMLDocumentException(e.getMessage(), e);
+        }
+    }
+
+    public XMLTag toStream(Writer out) {
+        return toStream(out, frozen.getDefinition().getEncoding());
+    }
+
+    public XMLTag toStream(Writer out, String encoding) {
+        return toStream(out, encoding, XMLSerializer.DEFAULT_INDENT);
+    }
+
+    public XMLTag toStream(Writer out, String encoding, int indent) {
+        if (shared == null) {
+            tag.toStream(out, encoding, indent);
+            return this;
+        }
+        notNull("Writer", out);
+        notEmpty("encoding", encoding);
+        try {
+            // the edits are merged while writing the shared nodes
+            XMLSerializer.serialize(frozen.getDefinition().getDocument(), out, encoding, indent, edits);
+            return this;
+        }
+        catch (IOException e) {
+            throw new XMLDocumentException("Transformation error", e);
+        }
+    }
+
+    public Result toResult() {
+        return values().toResult();
+    }
+
+    public Result toResult(String encoding) {
+        return values().toResult(encoding);
+    }
+
+    public OutputStream toOutputStream() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        toStream(baos);
+        return baos;
+    }
+
+    public OutputStream toOutputStream(String encoding) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        toStream(baos, encoding);
+        return baos;
+    }
+
+    public Writer toWriter() {
+        Writer w = new StringWriter();
+        toStream(w);
+        return w;
+    }
+
+    public Writer toWriter(String encoding) {
+        Writer w = new StringWriter();
+        toStream(w, encoding);
+        return w;
+    }
+
+    public ValidationResult validate(Source... schemas) {
+        return values().validate(schemas);
+    }
+
+    public ValidationResult validate(URL... schemaLocations) {
+        return values().validate(schemaLocations);
+    }
+
+    private Edits edits() {
+        if (edits == null) {
+            edits = new Edits();
+        }
+        return edits;
+    }
+
+    /**
+     * @return The tag to read values from: the shared cursor as long as no value has been set
+     */
+    private XMLTag values() {
+        return edits == null ? tag : materialize();
+    }
+
+    /**
+     * @return The tag on which to evaluate this expression: the shared cursor as long as the values set cannot change
+     *         its result
+     */
+    private XMLTag select(String relativeXpath, Object... arguments) {
+        if (edits != null) {
+            try {
+                if (XPathCache.get(String.format(relativeXpath, arguments), namespaces()).getSimplePath() != null) {
+                    return tag;
+                }
+            } catch (Exception ignored) {
+                // reported by the copy
+            }
+            materialize();
+        }
+        return tag;
+    }
+
+    private XMLTag select(XMLPath path) {
+        if (edits != null) {
+            try {
+                if (path.getCompiled(namespaces()).getSimplePath() != null) {
+                    return tag;
+                }
+            } catch (Exception ignored) {
+                // reported by the copy
+            }
+            materialize();
+        }
+        return tag;
+    }
+
+    private NamespaceBindings namespaces() {
+        return frozen.getDefinition().getNamespaceBindings();
+    }
+
+    /**
+     * Moves the shared cursor, which the caller restores to the returned tag
+     */
+    private Element moveTo(String relativeXpath, Object... arguments) {
+        Element old = shared.current;
+        shared.gotoTag(relativeXpath, arguments);
+        return old;
+    }
+
+    private Element moveTo(XMLPath path, Object... arguments) {
+        Element old = shared.current;
+        shared.gotoTag(path, arguments);
+        return old;
+    }
+
+    /**
+     * Copies the frozen document and replays the values set on the copy, which replaces the shared cursor
+     */
+    private XMLTag materialize() {
+        if (shared != null) {
+            final XMLDocDefinition definition = frozen.getDefinition();
+            final Element current = shared.current;
+            tag = XMLDocumentBuilderFactory.withDocumentBuilder(definition.isIgnoreNamespaces(), new XMLDocumentBuilderFactory.Callback<XMLTag>() {
+                @Override
+                public XMLTag apply(DocumentBuilder b) {
+                    Document copy = b.newDocument();
+                    copy.setXmlStandalone(definition.getDocument().getXmlStandalone());
+                    Element root = (Element) copy.appendChild(copy.importNode(definition.getRoot(), true));
+                    return XMLDocBuilder.from(definition.copy(copy), replay(definition.getRoot(), root, current));
+                }
+            });
+            shared = null;
+            edits = null;
+        }
+        return tag;
+    }
+
+    /**
+     * Walks a shared element and its copy together to apply the values set
+     *
+     * @return The copy of the current tag, if found in this element
+     */
+    private Element replay(Element source, Element target, Element current) {
+        Element found = source == current ? target : null;
+        if (edits != null) {
+            edits.apply(source, target);
+        }
+        Node copy = target.getFirstChild();
+        for (Node child = source.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                while (copy.getNodeType() != Node.ELEMENT_NODE) {
+                    copy = copy.getNextSibling();
+                }
+                Element element = replay((Element) child, (Element) copy, current);
+                if (element != null) {
+                    found = element;
+                }
+                copy = copy.getNextSibling();
+            }
+        }
+        return found;
+    }
+
+    private static boolean isNamespaceDeclaration(String name) {
+        return name != null && (XMLNS_ATTRIBUTE.equals(name) || name.startsWith(XMLNS_ATTRIBUTE + ":"));
+    }
+
+    /**
+     * The values set on a copy, keyed by the shared nodes they replace
+     */
+    private static final class Edits implements XMLSerializer.Edits {
+
+        private Map<Element, String> texts;
+        private Set<Element> cdata;
+        private Map<Attr, String> values;
+
+        Edits() {
+        }
+
+        Edits(Edits edits) {
+            if (edits.texts != null) {
+                texts = new IdentityHashMap<Element, String>(edits.texts);
+            }
+            if (edits.cdata != null) {
+                cdata = identitySet();
+                cdata.addAll(edits.cdata);
+            }
+            if (edits.values != null) {
+                values = new IdentityHashMap<Attr, String>(edits.values);
+            }
+        }
+
+        void setText(Element element, String text, boolean cdata) {
+            if (texts == null) {
+                texts = new IdentityHashMap<Element, String>(8);
+            }
+            texts.put(element, text);
+            if (cdata) {
+                if (this.cdata == null) {
+                    this.cdata = identitySet();
+                }
+                this.cdata.add(element);
+            } else if (this.cdata != null) {
+                this.cdata.remove(element);
+            }
+        }
+
+        void setValue(Attr attr, String value) {
+            if (values == null) {
+                values = new IdentityHashMap<Attr, String>(8);
+            }
+            values.put(attr, value);
+        }
+
+        public String getValue(Attr attr) {
+            String value = values == null ? null : values.get(attr);
+            return value == null ? attr.getValue() : value;
+        }
+
+        public String getText(Element element) {
+            return texts == null ? null : texts.get(element);
+        }
+
+        public boolean isCDATA(Element element) {
+            return cdata != null && cdata.contains(element);
+        }
+
+        /**
+         * Applies the values set on a shared element to its copy, as the {@link XMLTag} setters would have
+         */
+        void apply(Element source, Element target) {
+            String text = getText(source);
+            if (text != null) {
+                for (Node child = target.getFirstChild(); child != null; ) {
+                    Node next = child.getNextSibling();
+                    if (child.getNodeType() == Node.TEXT_NODE || child.getNodeType() == Node.CDATA_SECTION_NODE) {
+                        target.removeChild(child);
+                    }
+                    child = next;
+                }
+                if (isCDATA(source)) {
+                    target.appendChild(target.getOwnerDocument().createCDATASection(text));
+                } else if (text.length() > 0) {
+                    target.appendChild(target.getOwnerDocument().createTextNode(text));
+                }
+            }
+            if (values != null) {
+                NamedNodeMap attributes = source.getAttributes();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    String value = values.get(attributes.item(i));
+                    if (value != null) {
+                        target.getAttributeNode(attributes.item(i).getNodeName()).setValue(value);
+                    }
+                }
+            }
+        }
+
+        private static Set<Element> identitySet() {
+            return Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>(8));
+        }
+    }
+}
@@ -0,0 +1,477 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+
+import static com.mycila.xmltool.Utils.notNull;
+
+/**
+ * Process-wide cache of documents loaded from files and URLs, for documents read over and over, like configuration
+ * files or templates. Documents are parsed once and kept as {@link CompactXMLDoc}. Each lookup returns a read-only
+ * view of the cached document ({@link #getView(File, boolean)}), a modifiable copy ({@link #getCopy(File, boolean)}),
+ * or the compact document itself.
+ * <p/>
+ * Before a cached document is returned, the last modification time and the size of its source are checked, and the
+ * document is parsed again if they have changed. For URLs other than files, this costs a request, so the check can be
+ * done at most once per {@link #setRevalidationInterval(long, TimeUnit) interval}.
+ * <p/>
+ * The cache is bounded by the estimated memory of the cached documents. The least recently used ones are evicted
+ * first.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class DocumentCache {
+
+    private static final LinkedHashMap<Key, Entry> cache = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private static final ConcurrentMap<Key, FutureTask<Entry>> loading = new ConcurrentHashMap<Key, FutureTask<Entry>>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static long size;
+    private static volatile long maxSize = 64 * 1024 * 1024;
+    private static volatile long revalidationInterval;
+
+    private DocumentCache() {
+    }
+
+    /**
+     * Set the maximum estimated memory used by the cached documents. Default is 64M.
+     *
+     * @param bytes The maximum size
+     */
+    public static void setMaxSize(long bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative");
+        }
+        maxSize = bytes;
+        synchronized (cache) {
+            evict();
+        }
+    }
+
+    public static long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Set the minimum delay between two checks of the source of a cached document. Default is 0: the source is checked
+     * on each lookup.
+     *
+     * @param duration The delay
+     * @param unit     The unit of the delay
+     */
+    public static void setRevalidationInterval(long duration, TimeUnit unit) {
+        notNull("unit", unit);
+        if (duration < 0) {
+            throw new IllegalArgumentException("Revalidation interval cannot be negative");
+        }
+        revalidationInterval = unit.toNanos(duration);
+    }
+
+    public static long getRevalidationInterval(TimeUnit unit) {
+        return unit.convert(revalidationInterval, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return The estimated memory used by the cached documents, in bytes
+     */
+    public static long size() {
+        synchronized (cache) {
+            return size;
+        }
+    }
+
+    /**
+     * @return The number of lookups which found an up to date document in the cache
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups which parsed the document
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all documents from the cache and reset the counters.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+            size = 0;
+        }
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Remove a document from the cache, so that the next lookup parses it again.
+     *
+     * @param file The file of the document
+     */
+    public static void invalidate(File file) {
+        notNull("file", file);
+        String location = file.getAbsolutePath();
+        remove(new Key(location, true));
+        remove(new Key(location, false));
+    }
+
+    /**
+     * Remove a document from the cache, so that the next lookup parses it again.
+     *
+     * @param url The location of the document
+     */
+    public static void invalidate(URL url) {
+        notNull("url", url);
+        File file = file(url);
+        if (file != null) {
+            invalidate(file);
+        } else {
+            remove(new Key(url.toExternalForm(), true));
+            remove(new Key(url.toExternalForm(), false));
+        }
+    }
+
+    /**
+     * @param file             The file of the document
+     * @param ignoreNamespaces Wheter to build a namespace aware document
+     * @return The cached document, parsed if needed
+     * @throws XMLDocumentException If the file cannot be read or parsed
+     */
+    public static CompactXMLDoc get(File file, boolean ignoreNamespaces) throws XMLDocumentException {
+        notNull("file", file);
+        return get(new FileSource(file.getAbsoluteFile()), ignoreNamespaces);
+    }
+
+    /**
+     * @param url              The location of the document
+     * @param ignoreNamespaces Wheter to build a namespace aware document
+     * @return The cached document, parsed if needed
+     * @throws XMLDocumentException If the document cannot be read or parsed
+     */
+    public static CompactXMLDoc get(URL url, boolean ignoreNamespaces) throws XMLDocumentException {
+        notNull("url", url);
+        File file = file(url);
+        return get(file == null ? new URLSource(url) : new FileSource(file), ignoreNamespaces);
+    }
+
+    /**
+     * @return A read-only cursor over the cached document, positioned on the root tag
+     * @see #get(File, boolean)
+     */
+    public static XMLTag getView(File file, boolean ignoreNamespaces) throws XMLDocumentException {
+        return get(file, ignoreNamespaces).newCursor();
+    }
+
+    /**
+     * @return A read-only cursor over the cached document, positioned on the root tag
+     * @see #get(URL, boolean)
+     */
+    public static XMLTag getView(URL url, boolean ignoreNamespaces) throws XMLDocumentException {
+        return get(url, ignoreNamespaces).newCursor();
+    }
+
+    /**
+     * @return A modifiable copy of the cached document, which does not require parsing the document again
+     * @see #get(File, boolean)
+     */
+    public static XMLTag getCopy(File file, boolean ignoreNamespaces) throws XMLDocumentException {
+        return get(file, ignoreNamespaces).newCursor().duplicate();
+    }
+
+    /**
+     * @return A modifiable copy of the cached document, which does not require parsing the document again
+     * @see #get(URL, boolean)
+     */
+    public static XMLTag getCopy(URL url, boolean ignoreNamespaces) throws XMLDocumentException {
+        return get(url, ignoreNamespaces).newCursor().duplicate();
+    }
+
+    private static CompactXMLDoc get(Source source, boolean ignoreNamespaces) {
+        Key key = new Key(source.location(), ignoreNamespaces);
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(key);
+        }
+        if (entry != null && entry.isUpToDate(source)) {
+            hits.incrementAndGet();
+            Metrics.count(MetricsEvent.DOCUMENT_CACHE_HIT);
+            return entry.document;
+        }
+        FutureTask<Entry> task = new FutureTask<Entry>(new Loader(key, source));
+        FutureTask<Entry> existing = loading.putIfAbsent(key, task);
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+        } else {
+            // served by the load in progress
+            hits.incrementAndGet();
+            Metrics.count(MetricsEvent.DOCUMENT_CACHE_HIT);
+            task = existing;
+        }
+        try {
+            return task.get().document;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XMLDocumentException("Interrupted while loading " + key.location, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new XMLDocumentException(cause.getMessage(), cause);
+        }
+    }
+
+    private static void remove(Key key) {
+        synchronized (cache) {
+            Entry old = cache.remove(key);
+            if (old != null) {
+                size -= old.size;
+            }
+        }
+    }
+
+    private static void put(Key key, Entry entry) {
+        synchronized (cache) {
+            Entry old = cache.put(key, entry);
+            if (old != null) {
+                size -= old.size;
+            }
+            size += entry.size;
+            evict();
+        }
+    }
+
+    private static void evict() {
+        Iterator<Entry> values = cache.values().iterator();
+        while (size > maxSize && values.hasNext()) {
+            size -= values.next().size;
+            values.remove();
+        }
+    }
+
+    private static File file(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            // i.e. an URL having a query or an authority
+            return null;
+        }
+    }
+
+    private static final class Loader implements Callable<Entry> {
+        private final Key key;
+        private final Source source;
+
+        Loader(Key key, Source source) {
+            this.key = key;
+            this.source = source;
+        }
+
+        public Entry call() {
+            Entry entry;
+            synchronized (cache) {
+                entry = cache.get(key);
+            }
+            if (entry != null && entry.isUpToDate(source)) {
+                // loaded by another thread since the first lookup
+                hits.incrementAndGet();
+                Metrics.count(MetricsEvent.DOCUMENT_CACHE_HIT);
+                return entry;
+            }
+            misses.incrementAndGet();
+            try {
+                // read before parsing, so that a modification made during the parsing is seen by the next lookup
+                long[] version = source.version();
+                entry = new Entry(source.parse(key.ignoreNamespaces).compact(), version);
+            } catch (RuntimeException e) {
+                remove(key);
+                throw e;
+            }
+            put(key, entry);
+            return entry;
+        }
+    }
+
+    private static final class Entry {
+        final CompactXMLDoc document;
+        final long size;
+        private final long[] version;
+        private volatile long checked = System.nanoTime();
+
+        Entry(CompactXMLDoc document, long[] version) {
+            this.document = document;
+            this.size = document.estimateSize();
+            this.version = version;
+        }
+
+        boolean isUpToDate(Source source) {
+            long now = System.nanoTime();
+            if (now - checked < revalidationInterval) {
+                return true;
+            }
+            long[] current = source.version();
+            if (current[0] == version[0] && current[1] == version[1]) {
+                checked = now;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static abstract class Source {
+        abstract String location();
+
+        /**
+         * @return The last modification time and the size of the document, 0 when unknown
+         */
+        abstract long[] version();
+
+        abstract XMLTag parse(boolean ignoreNamespaces);
+    }
+
+    private static final class FileSource extends Source {
+        private final File file;
+
+        FileSource(File file) {
+            this.file = file;
+        }
+
+        String location() {
+            return file.getPath();
+        }
+
+        long[] version() {
+            return new long[]{file.lastModified(), file.length()};
+        }
+
+        XMLTag parse(boolean ignoreNamespaces) {
+            return XMLDocBuilder.from(file, ignoreNamespaces);
+        }
+    }
+
+    private static final class URLSource extends Source {
+        private final URL url;
+
+        URLSource(URL url) {
+            this.url = url;
+        }
+
+        String location() {
+            return url.toExternalForm();
+        }
+
+        long[] version() {
+            try {
+                URLConnection connection = url.openConnection();
+                if (connection instanceof JarURLConnection) {
+                    return version((JarURLConnection) connection);
+                }
+                if (connection instanceof HttpURLConnection) {
+                    ((HttpURLConnection) connection).setRequestMethod("HEAD");
+                }
+                try {
+                    return new long[]{connection.getLastModified(), connection.getContentLength()};
+                } finally {
+                    close(connection);
+                }
+            } catch (IOException e) {
+                throw new XMLDocumentException(e.getMessage(), e);
+            }
+        }
+
+        // the headers of a jar: connection are read from a connection to the jar file which cannot be closed: the entry
+        // is read instead, and the jar file is closed unless it is shared by the caches
+        private static long[] version(JarURLConnection connection) throws IOException {
+            try {
+                JarEntry entry = connection.getJarEntry();
+                return entry == null ? new long[]{0, -1} : new long[]{entry.getTime(), entry.getSize()};
+            } finally {
+                if (!connection.getUseCaches()) {
+                    connection.getJarFile().close();
+                }
+            }
+        }
+
+        // the other connections (ftp:, ...) keep the stream opened when reading the headers, until it is closed
+        private static void close(URLConnection connection) {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+                return;
+            }
+            try {
+                connection.getInputStream().close();
+            } catch (IOException ignored) {
+                // not found, nothing to close
+            }
+        }
+
+        XMLTag parse(boolean ignoreNamespaces) {
+            return XMLDocBuilder.from(url, ignoreNamespaces);
+        }
+    }
+
+    private static final class Key {
+        final String location;
+        final boolean ignoreNamespaces;
+
+        Key(String location, boolean ignoreNamespaces) {
+            this.location = location;
+            this.ignoreNamespaces = ignoreNamespaces;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return ignoreNamespaces == key.ignoreNamespaces && location.equals(key.location);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * location.hashCode() + (ignoreNamespaces ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static javax.xml.XMLConstants.XML_NS_URI;
+
+/**
+ * Maps public and system identifiers of external entities to local resources.
+ * <p/>
+ * Mappings are either registered one by one or read from OASIS XML catalogs, of which the <code>system</code>,
+ * <code>rewriteSystem</code>, <code>systemSuffix</code>, <code>public</code>, <code>group</code> and
+ * <code>nextCatalog</code> entries are supported. System identifiers are looked up first, then public identifiers.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class EntityCatalog {
+
+    private static final String CATALOG_NS = "urn:oasis:names:tc:entity:xmlns:xml:catalog";
+
+    private final ConcurrentMap<String, String> systemIds = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, String> publicIds = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, String> systemPrefixes = new ConcurrentHashMap<String, String>();
+    private final ConcurrentMap<String, String> systemSuffixes = new ConcurrentHashMap<String, String>();
+
+    void registerSystemId(String systemId, String location) {
+        systemIds.put(systemId, location);
+    }
+
+    void registerPublicId(String publicId, String location) {
+        publicIds.put(normalize(publicId), location);
+    }
+
+    boolean isEmpty() {
+        return systemIds.isEmpty() && publicIds.isEmpty() && systemPrefixes.isEmpty() && systemSuffixes.isEmpty();
+    }
+
+    void clear() {
+        systemIds.clear();
+        publicIds.clear();
+        systemPrefixes.clear();
+        systemSuffixes.clear();
+    }
+
+    /**
+     * @return The location of the local resource, or null if the entity is not in the catalog
+     */
+    String resolve(String publicId, String systemId) {
+        if (systemId != null) {
+            String location = systemIds.get(systemId);
+            if (location != null) {
+                return location;
+            }
+            String prefix = longest(systemPrefixes, systemId, true);
+            if (prefix != null) {
+                return systemPrefixes.get(prefix) + systemId.substring(prefix.length());
+            }
+            String suffix = longest(systemSuffixes, systemId, false);
+            if (suffix != null) {
+                return systemSuffixes.get(suffix);
+            }
+        }
+        return publicId == null ? null : publicIds.get(normalize(publicId));
+    }
+
+    private static String longest(Map<String, String> entries, String systemId, boolean prefix) {
+        String match = null;
+        for (String key : entries.keySet()) {
+            if ((prefix ? systemId.startsWith(key) : systemId.endsWith(key)) && (match == null || key.length() > match.length())) {
+                match = key;
+            }
+        }
+        return match;
+    }
+
+    void load(URL catalog) throws Exception {
+        load(catalog, new HashSet<String>());
+    }
+
+    private void load(URL catalog, Set<String> loaded) throws Exception {
+        if (!loaded.add(catalog.toString())) {
+            return;
+        }
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        builder.setErrorHandler(new XMLErrorHandler(true));
+        // the catalog DTD is not needed to read the entries
+        builder.setEntityResolver(new EntityResolver() {
+            public InputSource resolveEntity(String publicId, String systemId) {
+                return new InputSource(new StringReader(""));
+            }
+        });
+        InputStream in = catalog.openStream();
+        Document document;
+        try {
+            InputSource source = new InputSource(in);
+            source.setSystemId(catalog.toString());
+            document = builder.parse(source);
+        } finally {
+            in.close();
+        }
+        read(document.getDocumentElement(), catalog, loaded);
+    }
+
+    private void read(Element element, URL base, Set<String> loaded) throws Exception {
+        if (element.hasAttributeNS(XML_NS_URI, "base")) {
+            base = new URL(base, element.getAttributeNS(XML_NS_URI, "base"));
+        }
+        for (Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() != Node.ELEMENT_NODE || !CATALOG_NS.equals(node.getNamespaceURI())) {
+                continue;
+            }
+            Element entry = (Element) node;
+            String name = entry.getLocalName();
+            URL entryBase = entry.hasAttributeNS(XML_NS_URI, "base") ? new URL(base, entry.getAttributeNS(XML_NS_URI, "base")) : base;
+            if ("system".equals(name)) {
+                registerSystemId(entry.getAttribute("systemId"), new URL(entryBase, entry.getAttribute("uri")).toString());
+            } else if ("public".equals(name)) {
+                registerPublicId(entry.getAttribute("publicId"), new URL(entryBase, entry.getAttribute("uri")).toString());
+            } else if ("rewriteSystem".equals(name)) {
+                systemPrefixes.put(entry.getAttribute("systemIdStartString"), new URL(entryBase, entry.getAttribute("rewritePrefix")).toString());
+            } else if ("systemSuffix".equals(name)) {
+                systemSuffixes.put(entry.getAttribute("systemIdSuffix"), new URL(entryBase, entry.getAttribute("uri")).toString());
+            } else if ("group".equals(name)) {
+                read(entry, base, loaded);
+            } else if ("nextCatalog".equals(name)) {
+                load(new URL(entryBase, entry.getAttribute("catalog")), loaded);
+            }
+        }
+    }
+
+    private static String normalize(String publicId) {
+        return publicId.trim().replaceAll("\\s+", " ");
+    }
+}
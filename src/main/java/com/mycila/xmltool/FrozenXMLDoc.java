@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * An immutable snapshot of a document, obtained from {@link XMLTag#freeze()}, which can be read by several threads
+ * at the same time without any locking.
+ * 
+ * Threads do not share the current tag: each one navigates the document with its own cursor, obtained from
+ * {@link #newCursor()}. Cursors are cheap to create since they all share the same DOM nodes, namespaces and compiled
+ * XPath expressions.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class FrozenXMLDoc {
+
+    private final XMLDocDefinition definition;
+
+    private FrozenXMLDoc(XMLDocDefinition definition) {
+        this.definition = definition;
+    }
+
+    /**
+     * @param definition A document nobody else holds a reference to, and that no parser expands lazily
+     */
+    static FrozenXMLDoc of(XMLDocDefinition definition) {
+        expand(definition.getRoot());
+        definition.setFrozen();
+        return new FrozenXMLDoc(definition);
+    }
+
+    // the DOM creates attribute maps and attribute values lazily on first read: build them once before the document
+    // is shared, so that concurrent readers never write to it
+    private static void expand(Element element) {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            attributes.item(i).getFirstChild();
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE) {
+                expand((Element) child);
+            }
+        }
+    }
+
+    /**
+     * @return A new read-only cursor positioned on the root tag. It must be used by only one thread at a time.
+     */
+    public XMLTag newCursor() {
+        return new FrozenXMLTag(new XMLDoc(definition), this);
+    }
+
+    /**
+     * Creates a modifiable copy of the document, positioned on the root tag, which shares the nodes of this document
+     * instead of copying them. Texts and attribute values set on the copy are kept aside and merged when writing it,
+     * so that filling a template document only costs the values set. The copy is only built as a separate DOM tree
+     * once needed, i.e. by the first structural change (adding, deleting or renaming nodes) or by a method exposing DOM
+     * nodes or iterating over tags.
+     * 
+     * Like {@link #newCursor()}, this method can be called by several threads at the same time, and each copy must be
+     * used by only one thread at a time.
+     *
+     * @return A new copy-on-write copy of this document
+     */
+    public XMLTag newCopy() {
+        return new CopyOnWriteXMLTag(this, definition.getRoot());
+    }
+
+    /**
+     * @return True if the document was built without namespace support
+     */
+    public boolean isIgnoreNamespaces() {
+        return definition.isIgnoreNamespaces();
+    }
+
+    XMLDocDefinition getDefinition() {
+        return definition;
+    }
+
+    @Override
+    public String toString() {
+        return newCursor().toString();
+    }
+}
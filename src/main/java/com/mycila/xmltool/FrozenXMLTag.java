@@ -0,0 +1,599 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static com.mycila.xmltool.Utils.notNull;
+
+/**
+ * A cursor over a {@link FrozenXMLDoc}. Each cursor has its own current tag, so that several threads can navigate the
+ * same frozen document at the same time, each one with its own cursor. A cursor itself must not be shared between
+ * threads.
+ * 
+ * Navigation, search and output methods behave as in any other {@link XMLTag} and return this cursor. Methods modifying
+ * the document throw a {@link XMLDocumentException}: call {@link #duplicate()} to get a modifiable copy, which shares
+ * the nodes of the frozen document until it is structurally modified (see {@link FrozenXMLDoc#newCopy()}). DOM nodes
+ * returned by this cursor (e.g. {@link #getCurrentTag()} or {@link #toDocument()}) are shared by all cursors and must
+ * not be modified either.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class FrozenXMLTag implements XMLTag {
+
+    private final XMLDoc xmlDoc;
+    private final FrozenXMLDoc frozen;
+
+    FrozenXMLTag(XMLDoc xmlDoc, FrozenXMLDoc frozen) {
+        this.xmlDoc = xmlDoc;
+        this.frozen = frozen;
+    }
+
+    public XMLTag addNamespace(String prefix, String namespaceURI) {
+        throw readOnly();
+    }
+
+    public XMLTag addTag(String name) {
+        throw readOnly();
+    }
+
+    public XMLTag addAttribute(String name, String value) {
+        throw readOnly();
+    }
+
+    public XMLTag addAttributeNS(String namespaceURI, String name, String value) {
+        throw readOnly();
+    }
+
+    public XMLTag addText(String text) {
+        throw readOnly();
+    }
+
+    public XMLTag addCDATA(String data) {
+        throw readOnly();
+    }
+
+    public XMLTag addDocument(XMLTag tag) {
+        throw readOnly();
+    }
+
+    public XMLTag addDocument(Document doc) {
+        throw readOnly();
+    }
+
+    public XMLTag addTag(XMLTag tag) {
+        throw readOnly();
+    }
+
+    public XMLTag addTag(Element tag) {
+        throw readOnly();
+    }
+
+    public XMLTag addAttribute(Attr attr) {
+        throw readOnly();
+    }
+
+    public XMLTag addText(Text text) {
+        throw readOnly();
+    }
+
+    public XMLTag addCDATA(CDATASection data) {
+        throw readOnly();
+    }
+
+    public XMLTag gotoParent() {
+        xmlDoc.gotoParent();
+        return this;
+    }
+
+    public XMLTag gotoRoot() {
+        xmlDoc.gotoRoot();
+        return this;
+    }
+
+    public XMLTag gotoTag(String relativeXpath, Object... arguments) {
+        xmlDoc.gotoTag(relativeXpath, arguments);
+        return this;
+    }
+
+    public XMLTag gotoTag(XMLPath path, Object... arguments) {
+        xmlDoc.gotoTag(path, arguments);
+        return this;
+    }
+
+    public XMLTag gotoChild() {
+        xmlDoc.gotoChild();
+        return this;
+    }
+
+    public XMLTag gotoChild(int i) {
+        xmlDoc.gotoChild(i);
+        return this;
+    }
+
+    public XMLTag gotoChild(String nodeName) {
+        xmlDoc.gotoChild(nodeName);
+        return this;
+    }
+
+    public XMLTag gotoFirstChild() {
+        xmlDoc.gotoFirstChild();
+        return this;
+    }
+
+    public XMLTag gotoFirstChild(String name) {
+        xmlDoc.gotoFirstChild(name);
+        return this;
+    }
+
+    public XMLTag gotoLastChild() {
+        xmlDoc.gotoLastChild();
+        return this;
+    }
+
+    public XMLTag gotoLastChild(String name) {
+        xmlDoc.gotoLastChild(name);
+        return this;
+    }
+
+    public boolean hasTag(String relativeXpath, Object... arguments) {
+        return xmlDoc.hasTag(relativeXpath, arguments);
+    }
+
+    public boolean hasTag(XMLPath path, Object... arguments) {
+        return xmlDoc.hasTag(path, arguments);
+    }
+
+    public boolean hasAttribute(String name, String relativeXpath, Object... arguments) {
+        return xmlDoc.hasAttribute(name, relativeXpath, arguments);
+    }
+
+    public boolean hasAttribute(String name, XMLPath path, Object... arguments) {
+        return xmlDoc.hasAttribute(name, path, arguments);
+    }
+
+    public boolean hasAttribute(String name) {
+        return xmlDoc.hasAttribute(name);
+    }
+
+    public XMLTag forEachChild(CallBack callBack) {
+        xmlDoc.forEachChild(frozen(callBack));
+        return this;
+    }
+
+    public XMLTag forEach(CallBack callBack, String relativeXpath, Object... arguments) {
+        xmlDoc.forEach(frozen(callBack), relativeXpath, arguments);
+        return this;
+    }
+
+    public XMLTag forEach(CallBack callBack, XMLPath path, Object... arguments) {
+        xmlDoc.forEach(frozen(callBack), path, arguments);
+        return this;
+    }
+
+    public XMLTag forEach(String xpath, CallBack callBack) {
+        xmlDoc.forEach(xpath, frozen(callBack));
+        return this;
+    }
+
+    public String rawXpathString(String relativeXpath, Object... arguments) {
+        return xmlDoc.rawXpathString(relativeXpath, arguments);
+    }
+
+    public String rawXpathString(XMLPath path, Object... arguments) {
+        return xmlDoc.rawXpathString(path, arguments);
+    }
+
+    public Number rawXpathNumber(String relativeXpath, Object... arguments) {
+        return xmlDoc.rawXpathNumber(relativeXpath, arguments);
+    }
+
+    public Number rawXpathNumber(XMLPath path, Object... arguments) {
+        return xmlDoc.rawXpathNumber(path, arguments);
+    }
+
+    public Boolean rawXpathBoolean(String relativeXpath, Object... arguments) {
+        return xmlDoc.rawXpathBoolean(relativeXpath, arguments);
+    }
+
+    public Boolean rawXpathBoolean(XMLPath path, Object... arguments) {
+        return xmlDoc.rawXpathBoolean(path, arguments);
+    }
+
+    public Node rawXpathNode(String relativeXpath, Object... arguments) {
+        return xmlDoc.rawXpathNode(relativeXpath, arguments);
+    }
+
+    public Node rawXpathNode(XMLPath path, Object... arguments) {
+        return xmlDoc.rawXpathNode(path, arguments);
+    }
+
+    public NodeList rawXpathNodeSet(String relativeXpath, Object... arguments) {
+        return xmlDoc.rawXpathNodeSet(relativeXpath, arguments);
+    }
+
+    public NodeList rawXpathNodeSet(XMLPath path, Object... arguments) {
+        return xmlDoc.rawXpathNodeSet(path, arguments);
+    }
+
+    public Element getCurrentTag() {
+        return xmlDoc.getCurrentTag();
+    }
+
+    public int getChildCount() {
+        return xmlDoc.getChildCount();
+    }
+
+    public Iterable<XMLTag> getChilds() {
+        return frozen(xmlDoc.getChilds());
+    }
+
+    public Iterable<XMLTag> getChilds(String relativeXpath, Object... arguments) {
+        return frozen(xmlDoc.getChilds(relativeXpath, arguments));
+    }
+
+    public Iterable<XMLTag> getChilds(XMLPath path, Object... arguments) {
+        return frozen(xmlDoc.getChilds(path, arguments));
+    }
+
+    public List<Element> getChildElement() {
+        return xmlDoc.getChildElement();
+    }
+
+    public String getCurrentTagName() {
+        return xmlDoc.getCurrentTagName();
+    }
+
+    public String getCurrentTagLocation() {
+        return xmlDoc.getCurrentTagLocation();
+    }
+
+    public NamespaceContext getContext() {
+        return xmlDoc.getContext();
+    }
+
+    public String getPefix(String namespaceURI) {
+        return xmlDoc.getPefix(namespaceURI);
+    }
+
+    public String[] getPefixes(String namespaceURI) {
+        return xmlDoc.getPefixes(namespaceURI);
+    }
+
+    public String getText() {
+        return xmlDoc.getText();
+    }
+
+    public String getText(String relativeXpath, Object... arguments) {
+        return xmlDoc.getText(relativeXpath, arguments);
+    }
+
+    public String getText(XMLPath path, Object... arguments) {
+        return xmlDoc.getText(path, arguments);
+    }
+
+    public String getCDATA() {
+        return xmlDoc.getCDATA();
+    }
+
+    public String getCDATA(String relativeXpath, Object... arguments) {
+        return xmlDoc.getCDATA(relativeXpath, arguments);
+    }
+
+    public String getCDATA(XMLPath path, Object... arguments) {
+        return xmlDoc.getCDATA(path, arguments);
+    }
+
+    public String getTextOrCDATA() {
+        return xmlDoc.getTextOrCDATA();
+    }
+
+    public String getTextOrCDATA(String relativeXpath, Object... arguments) {
+        return xmlDoc.getTextOrCDATA(relativeXpath, arguments);
+    }
+
+    public String getCDATAorText() {
+        return xmlDoc.getCDATAorText();
+    }
+
+    public String getCDATAorText(String relativeXpath, Object... arguments) {
+        return xmlDoc.getCDATAorText(relativeXpath, arguments);
+    }
+
+    public String[] getAttributeNames() {
+        return xmlDoc.getAttributeNames();
+    }
+
+    public String getAttribute(String name) {
+        return xmlDoc.getAttribute(name);
+    }
+
+    public String getAttribute(String name, String relativeXpath, Object... arguments) {
+        return xmlDoc.getAttribute(name, relativeXpath, arguments);
+    }
+
+    public String getAttribute(String name, XMLPath path, Object... arguments) {
+        return xmlDoc.getAttribute(name, path, arguments);
+    }
+
+    public String findAttribute(String name) {
+        return xmlDoc.findAttribute(name);
+    }
+
+    public String findAttribute(String name, String relativeXpath, Object... arguments) {
+        return xmlDoc.findAttribute(name, relativeXpath, arguments);
+    }
+
+    public String findAttribute(String name, XMLPath path, Object... arguments) {
+        return xmlDoc.findAttribute(name, path, arguments);
+    }
+
+    public Map<String, String> extract(XMLExtractor extractor) {
+        return xmlDoc.extract(extractor);
+    }
+
+    public XMLTag getInnerDocument() {
+        return xmlDoc.getInnerDocument();
+    }
+
+    public String getInnerText() {
+        return xmlDoc.getInnerText();
+    }
+
+    public XMLTag duplicate() {
+        return new CopyOnWriteXMLTag(frozen, xmlDoc.current);
+    }
+
+    public FrozenXMLDoc freeze() {
+        return frozen;
+    }
+
+    public CompactXMLDoc compact() {
+        return xmlDoc.compact();
+    }
+
+    public XMLTag setText(String text) {
+        throw readOnly();
+    }
+
+    public XMLTag setText(String text, String relativeXpath, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setText(String text, XMLPath path, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setTextIfExist(String text, String relativeXpath, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setCDATA(String data) {
+        throw readOnly();
+    }
+
+    public XMLTag setCDATA(String data, String relativeXpath, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setCDATAIfExist(String data, String relativeXpath, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setAttribute(String name, String value) {
+        throw readOnly();
+    }
+
+    public XMLTag setAttributeIfExist(String name, String value) {
+        throw readOnly();
+    }
+
+    public XMLTag setAttribute(String name, String value, String relativeXpath, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setAttribute(String name, String value, XMLPath path, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag setAttributeIfExist(String name, String value, String relativeXpath, Object... arguments) {
+        throw readOnly();
+    }
+
+    public XMLTag deleteChilds() {
+        throw readOnly();
+    }
+
+    public XMLTag delete() {
+        throw readOnly();
+    }
+
+    public XMLTag deleteAttributes() {
+        throw readOnly();
+    }
+
+    public XMLTag deleteAttribute(String name) {
+        throw readOnly();
+    }
+
+    public XMLTag deleteAttributeIfExists(String name) {
+        throw readOnly();
+    }
+
+    public XMLTag renameTo(String newNodeName) {
+        throw readOnly();
+    }
+
+    public XMLTag deletePrefixes() {
+        throw readOnly();
+    }
+
+    public Document toDocument() {
+        return xmlDoc.toDocument();
+    }
+
+    public Source toSource() {
+        return xmlDoc.toSource();
+    }
+
+    @Override
+    public String toString() {
+        return xmlDoc.toString();
+    }
+
+    public String toString(String encoding) {
+        return xmlDoc.toString(encoding);
+    }
+
+    public String toString(String encoding, int indent) {
+        return xmlDoc.toString(encoding, indent);
+    }
+
+    public byte[] toBytes() {
+        return xmlDoc.toBytes();
+    }
+
+    public byte[] toBytes(String encoding) {
+        return xmlDoc.toBytes(encoding);
+    }
+
+    public byte[] toBytes(String encoding, int indent) {
+        return xmlDoc.toBytes(encoding, indent);
+    }
+
+    public XMLTag toResult(Result out) {
+        xmlDoc.toResult(out);
+        return this;
+    }
+
+    public XMLTag toResult(Result out, String encoding) {
+        xmlDoc.toResult(out, encoding);
+        return this;
+    }
+
+    public XMLTag toStream(OutputStream out) {
+        xmlDoc.toStream(out);
+        return this;
+    }
+
+    public XMLTag toStream(OutputStream out, String encoding) {
+        xmlDoc.toStream(out, encoding);
+        return this;
+    }
+
+    public XMLTag toStream(OutputStream out, String encoding, int indent) {
+        xmlDoc.toStream(out, encoding, indent);
+        return this;
+    }
+
+    public XMLTag toStream(Writer out) {
+        xmlDoc.toStream(out);
+        return this;
+    }
+
+    public XMLTag toStream(Writer out, String encoding) {
+        xmlDoc.toStream(out, encoding);
+        return this;
+    }
+
+    public XMLTag toStream(Writer out, String encoding, int indent) {
+        xmlDoc.toStream(out, encoding, indent);
+        return this;
+    }
+
+    public Result toResult() {
+        return xmlDoc.toResult();
+    }
+
+    public Result toResult(String encoding) {
+        return xmlDoc.toResult(encoding);
+    }
+
+    public OutputStream toOutputStream() {
+        return xmlDoc.toOutputStream();
+    }
+
+    public OutputStream toOutputStream(String encoding) {
+        return xmlDoc.toOutputStream(encoding);
+    }
+
+    public Writer toWriter() {
+        return xmlDoc.toWriter();
+    }
+
+    public Writer toWriter(String encoding) {
+        return xmlDoc.toWriter(encoding);
+    }
+
+    public ValidationResult validate(Source... schemas) {
+        return xmlDoc.validate(schemas);
+    }
+
+    public ValidationResult validate(URL... schemaLocations) {
+        return xmlDoc.validate(schemaLocations);
+    }
+
+    private CallBack frozen(final CallBack callBack) {
+        notNull("Callback", callBack);
+        return new CallBack() {
+            public void execute(XMLTag doc) {
+                callBack.execute(FrozenXMLTag.this);
+            }
+        };
+    }
+
+    private Iterable<XMLTag> frozen(final Iterable<XMLTag> iterable) {
+        return new Iterable<XMLTag>() {
+            public Iterator<XMLTag> iterator() {
+                final Iterator<XMLTag> iterator = iterable.iterator();
+                return new Iterator<XMLTag>() {
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    public XMLTag next() {
+                        iterator.next();
+                        return FrozenXMLTag.this;
+                    }
+
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+        };
+    }
+
+    private static XMLDocumentException readOnly() {
+        return new XMLDocumentException("This document is frozen and cannot be modified: use duplicate() to get a modifiable copy");
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link MetricsListener} aggregating in memory the number of events, their total and maximum durations:
+ * <pre>
+ * InMemoryMetrics metrics = new InMemoryMetrics();
+ * Metrics.setListener(metrics);
+ * ...
+ * System.out.println(metrics);
+ * </pre>
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class InMemoryMetrics implements MetricsListener {
+
+    private static final MetricsEvent[] EVENTS = MetricsEvent.values();
+
+    private final AtomicLongArray counts = new AtomicLongArray(EVENTS.length);
+    private final AtomicLongArray totals = new AtomicLongArray(EVENTS.length);
+    private final AtomicLongArray maximums = new AtomicLongArray(EVENTS.length);
+
+    public void onEvent(MetricsEvent event, long nanos) {
+        int i = event.ordinal();
+        counts.incrementAndGet(i);
+        if (nanos > 0) {
+            totals.addAndGet(i, nanos);
+            long max;
+            while (nanos > (max = maximums.get(i)) && !maximums.compareAndSet(i, max, nanos)) {
+                // retry
+            }
+        }
+    }
+
+    public long getCount(MetricsEvent event) {
+        return counts.get(event.ordinal());
+    }
+
+    public long getTotalTime(MetricsEvent event, TimeUnit unit) {
+        return unit.convert(totals.get(event.ordinal()), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxTime(MetricsEvent event, TimeUnit unit) {
+        return unit.convert(maximums.get(event.ordinal()), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMeanTime(MetricsEvent event, TimeUnit unit) {
+        long count = getCount(event);
+        return count == 0 ? 0 : unit.convert(totals.get(event.ordinal()) / count, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Reset all counters
+     */
+    public void reset() {
+        for (int i = 0; i < EVENTS.length; i++) {
+            counts.set(i, 0);
+            totals.set(i, 0);
+            maximums.set(i, 0);
+        }
+    }
+
+    /**
+     * @return One line per event which occurred, with its count, total, mean and maximum durations in microseconds
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (MetricsEvent event : EVENTS) {
+            long count = getCount(event);
+            if (count > 0) {
+                sb.append(event).append(": count=").append(count)
+                        .append(", total=").append(getTotalTime(event, TimeUnit.MICROSECONDS))
+                        .append("us, mean=").append(getMeanTime(event, TimeUnit.MICROSECONDS))
+                        .append("us, max=").append(getMaxTime(event, TimeUnit.MICROSECONDS))
+                        .append("us\n");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+/**
+ * Process-wide registration of the {@link MetricsListener}. No listener is registered by default, in which case the
+ * instrumented operations do not read the clock.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class Metrics {
+
+    private static volatile MetricsListener listener;
+
+    private Metrics() {
+    }
+
+    /**
+     * @param l The listener receiving all events from now on, or null to disable the metrics
+     */
+    public static void setListener(MetricsListener l) {
+        listener = l;
+    }
+
+    /**
+     * @return The registered listener, or null if none
+     */
+    public static MetricsListener getListener() {
+        return listener;
+    }
+
+    /**
+     * @return The start time of a timed event, or 0 if no listener is registered
+     */
+    static long start() {
+        return listener == null ? 0L : System.nanoTime();
+    }
+
+    static void stop(MetricsEvent event, long start) {
+        MetricsListener l = listener;
+        if (l != null && start != 0L) {
+            l.onEvent(event, System.nanoTime() - start);
+        }
+    }
+
+    static void count(MetricsEvent event) {
+        MetricsListener l = listener;
+        if (l != null) {
+            l.onEvent(event, 0L);
+        }
+    }
+}
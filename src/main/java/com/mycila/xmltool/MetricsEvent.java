@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+/**
+ * The operations reported to a {@link MetricsListener}. Timed events are reported with their duration, counted events
+ * with a duration of 0.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public enum MetricsEvent {
+
+    /**
+     * Timed: waiting for a <code>DocumentBuilder</code> to be available in a pool
+     */
+    POOL_WAIT,
+
+    /**
+     * Timed: parsing or creating a document with a pooled <code>DocumentBuilder</code>
+     */
+    PARSE,
+
+    /**
+     * Counted: an XPath expression found already compiled in the {@link XPathCache}
+     */
+    XPATH_CACHE_HIT,
+
+    /**
+     * Timed: compiling an XPath expression missing from the {@link XPathCache}
+     */
+    XPATH_COMPILE,
+
+    /**
+     * Timed: evaluating an XPath expression
+     */
+    XPATH_EVALUATE,
+
+    /**
+     * Timed: serializing a document or element to text, or transforming it to a <code>Result</code>
+     */
+    SERIALIZE,
+
+    /**
+     * Counted: a schema set found already compiled in the {@link SchemaCache}
+     */
+    SCHEMA_CACHE_HIT,
+
+    /**
+     * Timed: compiling a schema set missing from the {@link SchemaCache}
+     */
+    SCHEMA_COMPILE,
+
+    /**
+     * Timed: validating a document with {@link XMLTag#validate(javax.xml.transform.Source...)}, including the
+     * compilation of the schemas if needed
+     */
+    VALIDATE,
+
+    /**
+     * Counted: an external entity found in the {@link CachedEntityResolver} cache
+     */
+    ENTITY_CACHE_HIT,
+
+    /**
+     * Timed: loading an external entity missing from the {@link CachedEntityResolver} cache, from the disk cache or the
+     * network
+     */
+    ENTITY_FETCH,
+
+    /**
+     * Counted: a document found up to date in the {@link DocumentCache}
+     */
+    DOCUMENT_CACHE_HIT
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+/**
+ * Receives the timings and counts of the operations done by XML Tool, once registered with
+ * {@link Metrics#setListener(MetricsListener)}. It is called synchronously by the threads doing the work, so it must be
+ * thread-safe, fast and must not throw.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ * @see InMemoryMetrics
+ */
+public interface MetricsListener {
+
+    /**
+     * @param event The operation
+     * @param nanos The duration of the operation in nanoseconds, or 0 for counted events
+     */
+    void onEvent(MetricsEvent event, long nanos);
+}
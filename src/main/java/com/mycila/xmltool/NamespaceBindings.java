@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import javax.xml.namespace.NamespaceContext;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static javax.xml.XMLConstants.DEFAULT_NS_PREFIX;
+import static javax.xml.XMLConstants.NULL_NS_URI;
+
+/**
+ * Immutable snapshot of the namespaces declared in a document. Two snapshots having the same bindings are equal, so that
+ * compiled XPath expressions can be shared between documents.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class NamespaceBindings implements NamespaceContext {
+
+    private final Map<String, String> namespaces;
+    private final int hash;
+
+    NamespaceBindings(Map<String, String> namespaces) {
+        this.namespaces = Collections.unmodifiableMap(new LinkedHashMap<String, String>(namespaces));
+        this.hash = namespaces.hashCode();
+    }
+
+    /**
+     * @return The bound prefixes and their namespace, in declaration order
+     */
+    Map<String, String> getNamespaces() {
+        return namespaces;
+    }
+
+    // Implementation methods. Please read the spec of each methods befores modifying them !
+
+    public String getNamespaceURI(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("prefix cannot be null");
+        }
+        String namespaceURI = namespaces.get(prefix);
+        return namespaceURI == null ? NULL_NS_URI : namespaceURI;
+    }
+
+    public String getPrefix(String namespaceURI) {
+        if (namespaceURI == null) {
+            throw new IllegalArgumentException("namespaceURI cannot be null");
+        } else {
+            for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+                if (!DEFAULT_NS_PREFIX.equals(entry.getKey()) && entry.getValue().equals(namespaceURI)) {
+                    return entry.getKey();
+                }
+            }
+        }
+        return null;
+    }
+
+    public Iterator<String> getPrefixes(String namespaceURI) {
+        if (namespaceURI == null) {
+            throw new IllegalArgumentException("namespaceURI cannot be null");
+        }
+        Set<String> prefixes = new HashSet<String>();
+        for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+            if (entry.getValue().equals(namespaceURI)) {
+                prefixes.add(entry.getKey());
+            }
+        }
+        return prefixes.iterator();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        NamespaceBindings that = (NamespaceBindings) o;
+        return hash == that.hash && namespaces.equals(that.namespaces);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return namespaces.toString();
+    }
+}
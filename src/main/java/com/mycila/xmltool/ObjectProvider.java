@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+/**
+ * Provides reusable objects which are not thread-safe, like document builders or transformers, by key. Objects are
+ * acquired for the time of an operation, then released so that they can be reused, or discarded if the operation
+ * failed and left them in an unknown state.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+interface ObjectProvider<K, T> {
+
+    T acquire(K key) throws Exception;
+
+    /**
+     * @param reusable False to discard the object instead of reusing it
+     */
+    void release(K key, T obj, boolean reusable);
+
+    interface Factory<K, T> {
+
+        T create(K key) throws Exception;
+
+        /**
+         * Resets an object before it is reused
+         */
+        void reset(K key, T obj);
+    }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free {@link ObjectProvider} keeping up to <code>maxIdle</code> released objects per key. It never blocks: a new
+ * object is created when none is idle. Used when commons-pool is not available.
+ * <p/>
+ * The number of keys can be bounded, when they are many and may not be used again (i.e. schemas): the idle objects of
+ * the least recently used key are dropped to make room for a new key.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class QueueObjectProvider<K, T> implements ObjectProvider<K, T> {
+
+    private final ConcurrentMap<K, Idle<T>> idle = new ConcurrentHashMap<K, Idle<T>>();
+    private final Factory<K, T> factory;
+    private final int maxIdle;
+    private final int maxKeys;
+    // orders the uses of the keys, when they are bounded
+    private final AtomicLong clock = new AtomicLong();
+
+    QueueObjectProvider(Factory<K, T> factory, int maxIdle) {
+        this(factory, maxIdle, -1);
+    }
+
+    /**
+     * @param maxKeys The maximum number of keys having idle objects, or -1 for no limit
+     */
+    QueueObjectProvider(Factory<K, T> factory, int maxIdle, int maxKeys) {
+        this.factory = factory;
+        this.maxIdle = maxIdle;
+        this.maxKeys = maxKeys;
+    }
+
+    public T acquire(K key) throws Exception {
+        Idle<T> objects = idle.get(key);
+        if (objects == null) {
+            return factory.create(key);
+        }
+        if (maxKeys > 0) {
+            objects.used = clock.incrementAndGet();
+        }
+        T obj = objects.poll();
+        return obj == null ? factory.create(key) : obj;
+    }
+
+    public void release(K key, T obj, boolean reusable) {
+        if (!reusable) {
+            return;
+        }
+        Idle<T> objects = idle.get(key);
+        if (objects == null) {
+            if (maxKeys > 0 && idle.size() >= maxKeys) {
+                evictLeastUsed();
+            }
+            Idle<T> existing = idle.putIfAbsent(key, objects = new Idle<T>(clock.incrementAndGet()));
+            if (existing != null) {
+                objects = existing;
+            }
+        }
+        if (objects.size.get() < maxIdle) {
+            factory.reset(key, obj);
+            objects.offer(obj);
+        }
+    }
+
+    // only called when a key is added: the keys are scanned instead of being kept in order on each use
+    private void evictLeastUsed() {
+        Map.Entry<K, Idle<T>> oldest = null;
+        for (Map.Entry<K, Idle<T>> entry : idle.entrySet()) {
+            if (oldest == null || entry.getValue().used < oldest.getValue().used) {
+                oldest = entry;
+            }
+        }
+        if (oldest != null) {
+            idle.remove(oldest.getKey(), oldest.getValue());
+        }
+    }
+
+    private static final class Idle<T> {
+        final Queue<T> queue = new ConcurrentLinkedQueue<T>();
+        final AtomicInteger size = new AtomicInteger();
+        volatile long used;
+
+        Idle(long used) {
+            this.used = used;
+        }
+
+        T poll() {
+            T obj = queue.poll();
+            if (obj != null) {
+                size.decrementAndGet();
+            }
+            return obj;
+        }
+
+        void offer(T obj) {
+            size.incrementAndGet();
+            queue.offer(obj);
+        }
+    }
+}
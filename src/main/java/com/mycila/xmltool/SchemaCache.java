@@ -0,0 +1,264 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.mycila.xmltool.Utils.*;
+
+/**
+ * Process-wide cache of compiled schemas, used by {@link XMLTag#validate(Source...)} and
+ * {@link XMLTag#validate(URL...)}. A schema set is compiled once and keyed by the system ids of its sources. Sources
+ * without system id (i.e. a stream, or a {@link DOMSource} whose node could be modified) are compiled on each
+ * validation.
+ * <p/>
+ * Each compiled schema keeps a pool of validators, so concurrent validations do not create a validator each time.
+ * <p/>
+ * The cache is bounded: when it is full, the schema sets not used since the last eviction are evicted first.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class SchemaCache {
+
+    private static final ConcurrentMap<List<Object>, Entry> cache = new ConcurrentHashMap<List<Object>, Entry>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static volatile int maxSize = 64;
+
+    private SchemaCache() {
+    }
+
+    /**
+     * Set the maximum number of compiled schema sets kept in the cache. Default is 64.
+     *
+     * @param size The maximum number of entries
+     */
+    public static void setMaxSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        maxSize = size;
+        evict();
+    }
+
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The number of compiled schema sets currently cached
+     */
+    public static int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return The number of lookups which found an already compiled schema set
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups which needed to compile the schema set
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all compiled schemas from the cache and reset the counters
+     */
+    public static void clear() {
+        cache.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Compile a schema set ahead of time, i.e. at application startup, so that the first validations do not pay for
+     * it. The same sources must then be passed to {@link XMLTag#validate(Source...)}.
+     *
+     * @param schemas The schema sources, each one having a system id
+     */
+    public static void warmUp(Source... schemas) {
+        notNull("schemas", schemas);
+        List<Object> key = key(schemas);
+        if (key == null) {
+            throw new IllegalArgumentException("Schema sources need a system id to be cached");
+        }
+        try {
+            get(key, schemas).getSchema().newValidator();
+        } catch (SAXException e) {
+            throw new XMLDocumentException("Error compiling schemas " + Arrays.toString(schemas) + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Compile a schema set ahead of time, i.e. at application startup, so that the first validations do not pay for
+     * it. The same locations must then be passed to {@link XMLTag#validate(URL...)}.
+     *
+     * @param schemaLocations The schema locations
+     */
+    public static void warmUp(URL... schemaLocations) {
+        notNull("schemaLocations", schemaLocations);
+        try {
+            warmUp(sources(schemaLocations));
+        } catch (URISyntaxException e) {
+            throw new XMLDocumentException("Invalid schema location: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get the compiled schema for these sources, compiling it if needed, i.e. to parse and validate documents in a single
+     * pass with {@link XMLDoc#from(java.io.InputStream, javax.xml.validation.Schema)}.
+     *
+     * @param schemas The schema sources
+     * @return The compiled schema
+     */
+    public static Schema getSchema(Source... schemas) {
+        notNull("schemas", schemas);
+        try {
+            return get(schemas).getSchema();
+        } catch (SAXException e) {
+            throw new XMLDocumentException("Error compiling schemas " + Arrays.toString(schemas) + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Get the compiled schema for these locations, compiling it if needed, i.e. to parse and validate documents in a
+     * single pass with {@link XMLDoc#from(java.io.InputStream, javax.xml.validation.Schema)}.
+     *
+     * @param schemaLocations The schema locations
+     * @return The compiled schema
+     */
+    public static Schema getSchema(URL... schemaLocations) {
+        notNull("schemaLocations", schemaLocations);
+        try {
+            return getSchema(sources(schemaLocations));
+        } catch (URISyntaxException e) {
+            throw new XMLDocumentException("Invalid schema location: " + e.getMessage(), e);
+        }
+    }
+
+    static CompiledSchema get(Source... schemas) throws SAXException {
+        List<Object> key = key(schemas);
+        if (key == null) {
+            misses.incrementAndGet();
+            return compile(schemas);
+        }
+        return get(key, schemas);
+    }
+
+    static Source[] sources(URL... schemaLocations) throws URISyntaxException {
+        Source[] sources = new Source[schemaLocations.length];
+        for (int i = 0; i < schemaLocations.length; i++) {
+            sources[i] = new StreamSource(schemaLocations[i].toURI().toASCIIString());
+        }
+        return sources;
+    }
+
+    private static CompiledSchema get(List<Object> key, Source... schemas) throws SAXException {
+        Entry entry = cache.get(key);
+        if (entry != null) {
+            entry.used();
+            hits.incrementAndGet();
+            Metrics.count(MetricsEvent.SCHEMA_CACHE_HIT);
+            return entry.compiled;
+        }
+        misses.incrementAndGet();
+        CompiledSchema compiled = compile(schemas);
+        Entry existing = cache.putIfAbsent(key, new Entry(compiled));
+        if (existing != null) {
+            return existing.compiled;
+        }
+        if (cache.size() > maxSize) {
+            evict();
+        }
+        return compiled;
+    }
+
+    private static CompiledSchema compile(Source... schemas) throws SAXException {
+        long start = Metrics.start();
+        try {
+            // SchemaFactory is not thread-safe
+            return new CompiledSchema(SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemas));
+        } finally {
+            Metrics.stop(MetricsEvent.SCHEMA_COMPILE, start);
+        }
+    }
+
+    /**
+     * @return The cache key of these sources, or null if one of them cannot be identified
+     */
+    private static List<Object> key(Source... schemas) {
+        List<Object> key = new ArrayList<Object>(schemas.length);
+        for (Source schema : schemas) {
+            if (schema.getSystemId() != null) {
+                key.add(schema.getSystemId());
+            } else {
+                return null;
+            }
+        }
+        return key;
+    }
+
+    // second chance, as in XPathCache
+    private static void evict() {
+        for (int pass = 0; pass < 3 && cache.size() > maxSize; pass++) {
+            Iterator<Entry> entries = cache.values().iterator();
+            while (cache.size() > maxSize && entries.hasNext()) {
+                Entry entry = entries.next();
+                if (entry.used && pass < 2) {
+                    entry.used = false;
+                } else {
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        final CompiledSchema compiled;
+        volatile boolean used;
+
+        Entry(CompiledSchema compiled) {
+            this.compiled = compiled;
+        }
+
+        void used() {
+            if (!used) {
+                used = true;
+            }
+        }
+    }
+}
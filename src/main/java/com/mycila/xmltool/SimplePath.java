@@ -0,0 +1,535 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static javax.xml.XMLConstants.*;
+import static javax.xml.xpath.XPathConstants.*;
+
+/**
+ * Evaluates simple location paths by walking the DOM instead of going through the XPath engine. Supported expressions
+ * are relative paths made of child steps (<code>name</code>, <code>prefix:name</code>, <code>*</code> or
+ * <code>.</code>) with an optional positional predicate (<code>[n]</code>), optionally ending with an attribute step
+ * (<code>@name</code> or <code>@prefix:name</code>), such as <code>a/b[2]/c</code> or <code>item/@id</code>.
+ * <p/>
+ * {@link #parse(String, NamespaceBindings)} returns null for any other expression, and {@link #evaluate(Node, QName)}
+ * returns {@link #UNSUPPORTED} when the result could differ from the XPath engine's, so that the caller falls back to it.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class SimplePath {
+
+    static final Object UNSUPPORTED = new Object();
+
+    private static final String ANY = "*";
+    private static final String SELF = ".";
+
+    private final Step[] steps;
+    private final Step attribute;
+
+    private SimplePath(Step[] steps, Step attribute) {
+        this.steps = steps;
+        this.attribute = attribute;
+    }
+
+    Object evaluate(Node context, QName returnType) {
+        boolean first = returnType != NODESET;
+        if (!first && returnType != NODE && returnType != STRING && returnType != BOOLEAN) {
+            return UNSUPPORTED;
+        }
+        List<Node> result = new ArrayList<Node>(first ? 1 : 8);
+        if (!collect(context, 0, result, first)) {
+            return UNSUPPORTED;
+        }
+        if (returnType == NODESET) {
+            return new Nodes(result);
+        }
+        Node node = result.isEmpty() ? null : result.get(0);
+        if (returnType == NODE) {
+            return node;
+        }
+        if (returnType == BOOLEAN) {
+            return node != null;
+        }
+        return node == null ? "" : node.getTextContent();
+    }
+
+    /**
+     * @return True if the path ends with an attribute step
+     */
+    boolean selectsAttribute() {
+        return attribute != null;
+    }
+
+    /**
+     * Evaluates a path without attribute step on a {@link CompactXMLDoc}.
+     *
+     * @param context index of the context element
+     * @param result  receives the indexes of the matching elements, in document order
+     * @param first   whether only the first matching element is needed
+     * @return false if the path cannot be evaluated safely on this tree
+     */
+    boolean select(CompactXMLDoc doc, int context, List<Integer> result, boolean first) {
+        return collect(doc, context, 0, result, first);
+    }
+
+    private boolean collect(CompactXMLDoc doc, int node, int index, List<Integer> result, boolean first) {
+        if (index == steps.length) {
+            result.add(node);
+            return true;
+        }
+        Step step = steps[index];
+        if (step.local == SELF) {
+            return collect(doc, node, index + 1, result, first);
+        }
+        int position = 0;
+        for (int child = doc.firstChild(node); child != -1; child = doc.nextSibling(child)) {
+            if (doc.isElement(child)) {
+                int match = step.matches(doc.localName(child), doc.namespaceURI(child), doc.nodeName(child));
+                if (match < 0) {
+                    return false;
+                }
+                if (match > 0 && (step.position == 0 || ++position == step.position)) {
+                    if (!collect(doc, child, index + 1, result, first)) {
+                        return false;
+                    }
+                    if (step.position > 0 || first && !result.isEmpty()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the path cannot be evaluated safely on this tree
+     */
+    private boolean collect(Node node, int index, List<Node> result, boolean first) {
+        if (index == steps.length) {
+            if (attribute == null) {
+                result.add(node);
+                return true;
+            }
+            return collectAttribute(node, result);
+        }
+        Step step = steps[index];
+        if (step.local == SELF) {
+            return collect(node, index + 1, result, first);
+        }
+        int position = 0;
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                    int match = step.matches(child);
+                    if (match < 0) {
+                        return false;
+                    }
+                    if (match > 0 && (step.position == 0 || ++position == step.position)) {
+                        if (!collect(child, index + 1, result, first)) {
+                            return false;
+                        }
+                        if (step.position > 0 || first && !result.isEmpty()) {
+                            return true;
+                        }
+                    }
+                    break;
+                case Node.ENTITY_REFERENCE_NODE:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean collectAttribute(Node node, List<Node> result) {
+        Object attr = selectAttribute(node);
+        if (attr == UNSUPPORTED) {
+            return false;
+        }
+        if (attr != null) {
+            result.add((Node) attr);
+        }
+        return true;
+    }
+
+    /**
+     * @return The attribute of the node matching the attribute step, null if none, or {@link #UNSUPPORTED}
+     */
+    private Object selectAttribute(Node node) {
+        NamedNodeMap attributes = node.getAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        for (int i = 0, length = attributes.getLength(); i < length; i++) {
+            Attr attr = (Attr) attributes.item(i);
+            if (isNamespaceDeclaration(attr)) {
+                continue;
+            }
+            int match = attribute.matches(attr);
+            if (match < 0) {
+                return UNSUPPORTED;
+            }
+            if (match > 0) {
+                return attr;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evaluates several paths from the same context node in a single walk of the tree, descending only into the
+     * elements matched by at least one of them.
+     *
+     * @param paths   the paths to evaluate, null entries being skipped
+     * @param results receives for each path the first node it selects or null, as {@link #evaluate(Node, QName)} with
+     *                {@link javax.xml.xpath.XPathConstants#NODE} would return, or {@link #UNSUPPORTED} if the path is
+     *                null or cannot be evaluated safely on this tree
+     */
+    static void selectAll(Node context, SimplePath[] paths, Object[] results) {
+        Selection selection = new Selection(paths, results);
+        int[] states = new int[paths.length];
+        int[] steps = new int[paths.length];
+        int count = 0;
+        for (int i = 0; i < paths.length; i++) {
+            if (paths[i] == null) {
+                selection.resolve(i, UNSUPPORTED);
+            } else {
+                results[i] = null;
+                states[count++] = i;
+            }
+        }
+        selection.walk(context, states, steps, count);
+    }
+
+    private static boolean isNamespaceDeclaration(Attr attr) {
+        if (XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+            return true;
+        }
+        String name = attr.getName();
+        return attr.getLocalName() == null && (XMLNS_ATTRIBUTE.equals(name) || name.startsWith("xmlns:"));
+    }
+
+    /**
+     * @return The parsed path, or null if the expression is not a simple path
+     */
+    static SimplePath parse(String expression, NamespaceBindings namespaces) {
+        List<Step> steps = new ArrayList<Step>();
+        Step attribute = null;
+        int start = 0;
+        int length = expression.length();
+        while (start <= length) {
+            int end = expression.indexOf('/', start);
+            if (end == -1) {
+                end = length;
+            }
+            if (attribute != null || end == start) {
+                return null;
+            }
+            String token = expression.substring(start, end);
+            if (token.charAt(0) == '@') {
+                attribute = parseName(token.substring(1), 0, namespaces);
+                if (attribute == null || attribute.local == ANY) {
+                    return null;
+                }
+            } else if (SELF.equals(token)) {
+                steps.add(new Step(null, SELF, 0));
+            } else {
+                int position = 0;
+                int bracket = token.indexOf('[');
+                if (bracket != -1) {
+                    position = parsePosition(token.substring(bracket));
+                    if (position <= 0) {
+                        return null;
+                    }
+                    token = token.substring(0, bracket);
+                }
+                Step step = parseName(token, position, namespaces);
+                if (step == null) {
+                    return null;
+                }
+                steps.add(step);
+            }
+            start = end + 1;
+        }
+        return new SimplePath(steps.toArray(new Step[steps.size()]), attribute);
+    }
+
+    private static int parsePosition(String predicate) {
+        int length = predicate.length();
+        if (length < 3 || length > 11 || predicate.charAt(length - 1) != ']') {
+            return 0;
+        }
+        int position = 0;
+        for (int i = 1; i < length - 1; i++) {
+            char c = predicate.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            position = position * 10 + (c - '0');
+        }
+        return position;
+    }
+
+    private static Step parseName(String name, int position, NamespaceBindings namespaces) {
+        if (ANY.equals(name)) {
+            return new Step(null, ANY, position);
+        }
+        int colon = name.indexOf(':');
+        if (colon == -1) {
+            return isNCName(name) ? new Step(null, name, position) : null;
+        }
+        String prefix = name.substring(0, colon);
+        String local = name.substring(colon + 1);
+        if (!isNCName(prefix) || !isNCName(local)) {
+            return null;
+        }
+        String uri = namespaces.getNamespaceURI(prefix);
+        // unbound prefixes are reported by the XPath engine
+        return NULL_NS_URI.equals(uri) ? null : new Step(uri, local, position);
+    }
+
+    private static boolean isNCName(String name) {
+        if (name.length() == 0) {
+            return false;
+        }
+        char c = name.charAt(0);
+        if (!(Character.isLetter(c) || c == '_')) {
+            return false;
+        }
+        for (int i = 1; i < name.length(); i++) {
+            c = name.charAt(i);
+            if (!(Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The state of {@link #selectAll(Node, SimplePath[], Object[])}: each element visited receives the paths whose steps
+     * matched it so far, with the index of their next step
+     */
+    private static final class Selection {
+        // once this many children were tried against at least as many paths, the paths are looked up by name
+        private static final int INDEXED = 8;
+
+        private final SimplePath[] paths;
+        private final Object[] results;
+        private final boolean[] done;
+        private int pending;
+
+        Selection(SimplePath[] paths, Object[] results) {
+            this.paths = paths;
+            this.results = results;
+            this.done = new boolean[paths.length];
+            this.pending = paths.length;
+        }
+
+        /**
+         * @return The indexes of the states whose next step can match an element, by local name, with the states whose
+         *         next step matches any element added to each list and listed under {@link #ANY}
+         */
+        private Map<String, int[]> index(int[] states, int[] steps, int count) {
+            Map<String, List<Integer>> names = new HashMap<String, List<Integer>>();
+            List<Integer> any = new ArrayList<Integer>();
+            for (int i = 0; i < count; i++) {
+                String local = paths[states[i]].steps[steps[i]].local;
+                if (local == ANY) {
+                    any.add(i);
+                } else {
+                    List<Integer> list = names.get(local);
+                    if (list == null) {
+                        names.put(local, list = new ArrayList<Integer>());
+                    }
+                    list.add(i);
+                }
+            }
+            Map<String, int[]> index = new HashMap<String, int[]>(names.size() * 2 + 2);
+            for (Map.Entry<String, List<Integer>> entry : names.entrySet()) {
+                entry.getValue().addAll(any);
+                index.put(entry.getKey(), toArray(entry.getValue()));
+            }
+            index.put(ANY, toArray(any));
+            return index;
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+
+        void resolve(int path, Object result) {
+            results[path] = result;
+            done[path] = true;
+            pending--;
+        }
+
+        /**
+         * @param states the indexes of the paths matching this node, overwritten
+         * @param steps  the index of the next step of each of these paths, overwritten
+         */
+        void walk(Node node, int[] states, int[] steps, int count) {
+            int remaining = 0;
+            for (int i = 0; i < count; i++) {
+                int path = states[i];
+                if (done[path]) {
+                    continue;
+                }
+                SimplePath simplePath = paths[path];
+                int step = steps[i];
+                while (step < simplePath.steps.length && simplePath.steps[step].local == SELF) {
+                    step++;
+                }
+                if (step == simplePath.steps.length) {
+                    Object result = simplePath.attribute == null ? node : simplePath.selectAttribute(node);
+                    if (result != null) {
+                        resolve(path, result);
+                    }
+                } else {
+                    states[remaining] = path;
+                    steps[remaining++] = step;
+                }
+            }
+            if (remaining == 0) {
+                return;
+            }
+            int[] positions = new int[remaining];
+            int[] childStates = new int[remaining];
+            int[] childSteps = new int[remaining];
+            int[] all = new int[remaining];
+            for (int i = 0; i < remaining; i++) {
+                all[i] = i;
+            }
+            Map<String, int[]> byName = null;
+            int elements = 0;
+            for (Node child = node.getFirstChild(); child != null && pending > 0; child = child.getNextSibling()) {
+                switch (child.getNodeType()) {
+                    case Node.ELEMENT_NODE:
+                        if (++elements == INDEXED && remaining >= INDEXED) {
+                            byName = index(states, steps, remaining);
+                        }
+                        String local = child.getLocalName();
+                        String uri = child.getNamespaceURI();
+                        String name = child.getNodeName();
+                        int[] candidates = all;
+                        if (byName != null && (local != null || name.indexOf(':') == -1)) {
+                            candidates = byName.get(local == null ? name : local);
+                            if (candidates == null) {
+                                candidates = byName.get(ANY);
+                            }
+                        }
+                        int matched = 0;
+                        for (int i : candidates) {
+                            int path = states[i];
+                            if (done[path]) {
+                                continue;
+                            }
+                            Step step = paths[path].steps[steps[i]];
+                            int match = step.matches(local, uri, name);
+                            if (match < 0) {
+                                resolve(path, UNSUPPORTED);
+                            } else if (match > 0 && (step.position == 0 || ++positions[i] == step.position)) {
+                                childStates[matched] = path;
+                                childSteps[matched++] = steps[i] + 1;
+                            }
+                        }
+                        if (matched > 0) {
+                            walk(child, childStates, childSteps, matched);
+                        }
+                        break;
+                    case Node.ENTITY_REFERENCE_NODE:
+                        for (int i = 0; i < remaining; i++) {
+                            if (!done[states[i]]) {
+                                resolve(states[i], UNSUPPORTED);
+                            }
+                        }
+                        return;
+                }
+            }
+        }
+    }
+
+    private static final class Step {
+        final String namespaceURI;
+        final String local;
+        final int position;
+
+        Step(String namespaceURI, String local, int position) {
+            this.namespaceURI = namespaceURI;
+            this.local = local;
+            this.position = position;
+        }
+
+        /**
+         * @return 1 if the node matches, 0 if not, -1 if its name cannot be resolved without the XPath engine
+         */
+        int matches(Node node) {
+            return this.local == ANY ? 1 : matches(node.getLocalName(), node.getNamespaceURI(), node.getNodeName());
+        }
+
+        /**
+         * @param local local name of the node, null for a DOM Level 1 node
+         * @param uri   namespace of the node
+         * @param name  qualified name of the node
+         */
+        int matches(String local, String uri, String name) {
+            if (this.local == ANY) {
+                return 1;
+            }
+            if (local == null) {
+                // DOM Level 1 node: only names without prefix can be resolved safely
+                if (name.indexOf(':') != -1) {
+                    return -1;
+                }
+                local = name;
+                uri = null;
+            }
+            if (!this.local.equals(local)) {
+                return 0;
+            }
+            return namespaceURI == null ? (uri == null || uri.length() == 0 ? 1 : 0) : namespaceURI.equals(uri) ? 1 : 0;
+        }
+    }
+
+    private static final class Nodes implements NodeList {
+        private final List<Node> nodes;
+
+        Nodes(List<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        public Node item(int index) {
+            return index >= 0 && index < nodes.size() ? nodes.get(index) : null;
+        }
+
+        public int getLength() {
+            return nodes.size();
+        }
+    }
+}
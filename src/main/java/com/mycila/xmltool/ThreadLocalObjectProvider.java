@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An {@link ObjectProvider} keeping one object per thread and key, reset after each use, so that acquiring an object
+ * does not contend with other threads. Virtual threads, which are short lived and numerous, and nested acquisitions
+ * on the same thread, are served by a fallback provider.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class ThreadLocalObjectProvider<K, T> implements ObjectProvider<K, T> {
+
+    private static final Method IS_VIRTUAL = isVirtualMethod();
+
+    // decided once per thread: virtual threads get no objects of their own
+    private final ThreadLocal<ThreadObjects<K, T>> objects = new ThreadLocal<ThreadObjects<K, T>>() {
+        @Override
+        protected ThreadObjects<K, T> initialValue() {
+            return isVirtual(Thread.currentThread()) ? null : new ThreadObjects<K, T>();
+        }
+    };
+    private final Factory<K, T> factory;
+    private volatile ObjectProvider<K, T> fallback;
+
+    ThreadLocalObjectProvider(Factory<K, T> factory, ObjectProvider<K, T> fallback) {
+        this.factory = factory;
+        this.fallback = fallback;
+    }
+
+    /**
+     * Changes the provider of the objects which cannot be kept by the thread. The objects kept by the threads are not
+     * affected.
+     */
+    void setFallback(ObjectProvider<K, T> fallback) {
+        this.fallback = fallback;
+    }
+
+    public T acquire(K key) throws Exception {
+        ThreadObjects<K, T> mine = objects.get();
+        if (mine == null || mine.inUse.containsKey(key)) {
+            return fallback.acquire(key);
+        }
+        T obj = mine.idle.remove(key);
+        if (obj == null) {
+            obj = factory.create(key);
+        }
+        mine.inUse.put(key, obj);
+        return obj;
+    }
+
+    public void release(K key, T obj, boolean reusable) {
+        ThreadObjects<K, T> mine = objects.get();
+        if (mine == null || mine.inUse.get(key) != obj) {
+            fallback.release(key, obj, reusable);
+            return;
+        }
+        mine.inUse.remove(key);
+        if (reusable) {
+            factory.reset(key, obj);
+            mine.idle.put(key, obj);
+        }
+    }
+
+    static boolean isVirtual(Thread thread) {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (Boolean) IS_VIRTUAL.invoke(thread);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static Method isVirtualMethod() {
+        try {
+            // Java 21+
+            return Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static final class ThreadObjects<K, T> {
+        final Map<K, T> idle = new HashMap<K, T>(4);
+        final Map<K, T> inUse = new HashMap<K, T>(4);
+    }
+}
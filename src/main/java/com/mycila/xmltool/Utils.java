@@ -18,12 +18,7 @@ package com.mycila.xmltool;
 import org.w3c.dom.Document;
 import org.xml.sax.SAXException;
 
-import javax.xml.XMLConstants;
 import javax.xml.transform.Source;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.SchemaFactory;
-import javax.xml.validation.Validator;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -48,6 +43,18 @@ final class Utils {
         return message;
     }
 
+    /**
+     * @return True if the optional commons-pool dependency is in the classpath
+     */
+    static boolean isCommonsPoolAvailable() {
+        try {
+            Class.forName("org.apache.commons.pool2.impl.GenericKeyedObjectPool", false, Utils.class.getClassLoader());
+            return true;
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
     static void notEmpty(String name, String value) {
         notNull(name, value);
         if (value.length() == 0) {
@@ -62,22 +69,15 @@ final class Utils {
     }
 
     static ValidationResult validate(Document doc, Source... schemas) throws IOException, SAXException {
-        XMLErrorHandler errorHandler = new XMLErrorHandler();
-        Validator validator = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(schemas).newValidator();
+        long start = Metrics.start();
         try {
-            validator.setErrorHandler(errorHandler);
-            validator.validate(new DOMSource(doc));
-            return errorHandler;
+            return SchemaCache.get(schemas).validate(doc);
         } finally {
-            validator.reset();
+            Metrics.stop(MetricsEvent.VALIDATE, start);
         }
     }
 
     static ValidationResult validate(Document doc, URL... schemaLocations) throws URISyntaxException, IOException, SAXException {
-        Source[] sources = new Source[schemaLocations.length];
-        for (int i = 0; i < schemaLocations.length; i++) {
-            sources[i] = new StreamSource(schemaLocations[i].toURI().toASCIIString());
-        }
-        return validate(doc, sources);
+        return validate(doc, SchemaCache.sources(schemaLocations));
     }
 }
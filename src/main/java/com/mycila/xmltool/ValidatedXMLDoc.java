@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+/**
+ * A document parsed and validated against a schema in a single pass, with the result of its validation.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class ValidatedXMLDoc {
+
+    private final XMLTag tag;
+    private final ValidationResult validationResult;
+
+    ValidatedXMLDoc(XMLTag tag, ValidationResult validationResult) {
+        this.tag = tag;
+        this.validationResult = validationResult;
+    }
+
+    /**
+     * @return The parsed document, even if it is not valid
+     */
+    public XMLTag getTag() {
+        return tag;
+    }
+
+    /**
+     * @return The errors and warnings reported by the validation
+     */
+    public ValidationResult getValidationResult() {
+        return validationResult;
+    }
+
+    /**
+     * @return True if the validation did not report any error
+     */
+    public boolean isValid() {
+        return !validationResult.hasError();
+    }
+}
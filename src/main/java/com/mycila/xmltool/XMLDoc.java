@@ -20,12 +20,16 @@ import org.xml.sax.InputSource;
 
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.transform.*;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
+import javax.xml.validation.Schema;
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 import static com.mycila.xmltool.Utils.notEmpty;
@@ -39,6 +43,9 @@ public final class XMLDoc implements XMLTag {
 
     private final XMLDocDefinition definition;
     Element current;
+    // child elements of the last wide parents visited, valid while the document is not modified
+    private Map<Element, ChildIndex> childIndexes;
+    private int childIndexesVersion;
 
     XMLDoc(XMLDocDefinition definition) {
         this.definition = definition;
@@ -63,6 +70,16 @@ public final class XMLDoc implements XMLTag {
         }
     }
 
+    public boolean hasAttribute(String name, XMLPath path, Object... arguments) {
+        Element old = current;
+        try {
+            return gotoTag(path, arguments).hasAttribute(name);
+        }
+        finally {
+            current = old;
+        }
+    }
+
     public boolean hasTag(String relativeXpath, Object... arguments) {
         Element old = current;
         try {
@@ -77,11 +94,25 @@ public final class XMLDoc implements XMLTag {
         }
     }
 
+    public boolean hasTag(XMLPath path, Object... arguments) {
+        Element old = current;
+        try {
+            gotoTag(path, arguments);
+            return true;
+        }
+        catch (Exception e) {
+            return false;
+        }
+        finally {
+            current = old;
+        }
+    }
+
     public XMLTag forEachChild(CallBack callBack) {
         notNull("Callback", callBack);
         Element old = current;
         try {
-            for (Element node : getChildElement()) {
+            for (Element node : childs(current).toList()) {
                 current = node;
                 callBack.execute(this);
             }
@@ -94,16 +125,18 @@ public final class XMLDoc implements XMLTag {
 
     public XMLTag forEach(CallBack callBack, String relativeXpath, Object... arguments) {
         notNull("Callback", callBack);
+        return forEach(callBack, xpath().findNodes(current, relativeXpath, arguments));
+    }
+
+    public XMLTag forEach(CallBack callBack, XMLPath path, Object... arguments) {
+        notNull("Callback", callBack);
+        return forEach(callBack, xpath().findPathNodes(current, path, arguments));
+    }
+
+    private XMLTag forEach(CallBack callBack, Node[] nodes) {
         Element old = current;
         try {
-            Node[] nodes = definition.getXpath().findNodes(current, relativeXpath, arguments);
-            List<Element> els = new ArrayList<Element>(nodes.length);
-            for (Node node : nodes) {
-                if (isElement(node)) {
-                    els.add((Element) node);
-                }
-            }
-            for (Element node : els) {
+            for (Element node : elements(nodes)) {
                 current = node;
                 callBack.execute(this);
             }
@@ -119,23 +152,47 @@ public final class XMLDoc implements XMLTag {
     }
 
     public String rawXpathString(String relativeXpath, Object... arguments) {
-        return definition.getXpath().rawXpathString(current, relativeXpath, arguments);
+        return xpath().rawXpathString(current, relativeXpath, arguments);
     }
 
     public Number rawXpathNumber(String relativeXpath, Object... arguments) {
-        return definition.getXpath().rawXpathNumber(current, relativeXpath, arguments);
+        return xpath().rawXpathNumber(current, relativeXpath, arguments);
     }
 
     public Boolean rawXpathBoolean(String relativeXpath, Object... arguments) {
-        return definition.getXpath().rawXpathBoolean(current, relativeXpath, arguments);
+        return xpath().rawXpathBoolean(current, relativeXpath, arguments);
     }
 
     public Node rawXpathNode(String relativeXpath, Object... arguments) {
-        return definition.getXpath().rawXpathNode(current, relativeXpath, arguments);
+        handOut();
+        return xpath().rawXpathNode(current, relativeXpath, arguments);
     }
 
     public NodeList rawXpathNodeSet(String relativeXpath, Object... arguments) {
-        return definition.getXpath().rawXpathNodeSet(current, relativeXpath, arguments);
+        handOut();
+        return xpath().rawXpathNodeSet(current, relativeXpath, arguments);
+    }
+
+    public String rawXpathString(XMLPath path, Object... arguments) {
+        return xpath().rawXpathString(current, path, arguments);
+    }
+
+    public Number rawXpathNumber(XMLPath path, Object... arguments) {
+        return xpath().rawXpathNumber(current, path, arguments);
+    }
+
+    public Boolean rawXpathBoolean(XMLPath path, Object... arguments) {
+        return xpath().rawXpathBoolean(current, path, arguments);
+    }
+
+    public Node rawXpathNode(XMLPath path, Object... arguments) {
+        handOut();
+        return xpath().rawXpathNode(current, path, arguments);
+    }
+
+    public NodeList rawXpathNodeSet(XMLPath path, Object... arguments) {
+        handOut();
+        return xpath().rawXpathNodeSet(current, path, arguments);
     }
 
     public String getPefix(String namespaceURI) {
@@ -167,7 +224,9 @@ public final class XMLDoc implements XMLTag {
 
     public XMLTag addDocument(Document doc) {
         notNull("DOM Document", doc);
+        definition.readPendingNamespaces();
         current.appendChild(current.getOwnerDocument().importNode(doc.getDocumentElement(), true));
+        definition.changed();
         return this;
     }
 
@@ -178,13 +237,16 @@ public final class XMLDoc implements XMLTag {
 
     public XMLTag addTag(Element tag) {
         notNull("DOM Element", tag);
+        definition.readPendingNamespaces();
         current.appendChild(current.getOwnerDocument().importNode(tag, true));
+        definition.changed();
         return this;
     }
 
     public XMLTag addTag(String name) {
         Element el = definition.createElement(name);
         current.appendChild(el);
+        definition.changed();
         current = el;
         return this;
     }
@@ -210,29 +272,34 @@ public final class XMLDoc implements XMLTag {
         if (hasAttribute(attr.getName())) {
             throw new XMLDocumentException("Attribute '%s' already exist on tag '%s'", attr.getName(), getCurrentTagName());
         }
+        definition.readPendingNamespaces();
         current.setAttributeNodeNS((Attr) current.getOwnerDocument().importNode(attr, true));
         return this;
     }
 
     public XMLTag addText(String text) {
         current.appendChild(definition.createText(text));
+        definition.changed();
         return gotoParent();
     }
 
     public XMLTag addText(Text text) {
         notNull("DOM Text node", text);
         current.appendChild(current.getOwnerDocument().importNode(text, true));
+        definition.changed();
         return gotoParent();
     }
 
     public XMLTag addCDATA(String data) {
         current.appendChild(definition.createCDATA(data));
+        definition.changed();
         return gotoParent();
     }
 
     public XMLTag addCDATA(CDATASection data) {
         notNull("DOM CDATA node", data);
         current.appendChild(current.getOwnerDocument().importNode(data, true));
+        definition.changed();
         return gotoParent();
     }
 
@@ -240,21 +307,26 @@ public final class XMLDoc implements XMLTag {
         if (current == definition.getRoot()) {
             throw new XMLDocumentException("Cannot delete root node '%s'", getCurrentTagName());
         }
+        definition.readPendingNamespaces();
         Node toDelete = current;
         gotoParent();
         current.removeChild(toDelete);
+        definition.changed();
         return this;
     }
 
     public XMLTag deleteChilds() {
-        List<Element> toDelete = getChildElement();
+        definition.readPendingNamespaces();
+        List<Element> toDelete = childs(current).toList();
         for (Element node : toDelete) {
             current.removeChild(node);
         }
+        definition.changed();
         return this;
     }
 
     public XMLTag deleteAttributes() {
+        definition.readPendingNamespaces();
         List<Attr> attrs = attr(current);
         for (Attr attr : attrs) {
             current.removeAttributeNode(attr);
@@ -267,6 +339,7 @@ public final class XMLDoc implements XMLTag {
         if (!hasAttribute(name)) {
             throw new XMLDocumentException("Cannot delete attribute '%s' from element '%s': attribute does noe exist", name, getCurrentTagName());
         }
+        definition.readPendingNamespaces();
         current.removeAttribute(name);
         return this;
     }
@@ -274,6 +347,7 @@ public final class XMLDoc implements XMLTag {
     public XMLTag deleteAttributeIfExists(String name) {
         notEmpty("Attribute name", name);
         if (hasAttribute(name)) {
+            definition.readPendingNamespaces();
             current.removeAttribute(name);
         }
         return this;
@@ -282,6 +356,7 @@ public final class XMLDoc implements XMLTag {
     public XMLTag renameTo(String newNodeName) {
         notEmpty("Tag name", newNodeName);
         current = definition.rename(current, newNodeName);
+        definition.changed();
         return this;
     }
 
@@ -291,6 +366,7 @@ public final class XMLDoc implements XMLTag {
         final Queue<Element> queue = new LinkedList<Element>();
         queue.offer(current);
         definition.resetNamespaces();
+        definition.changed();
         while (!queue.isEmpty()) {
             Element tag = queue.poll();
             for (Attr attr : attr(tag)) {
@@ -318,8 +394,9 @@ public final class XMLDoc implements XMLTag {
             } else {
                 tag = definition.renameWithoutNS(tag, tagName);
             }
-            for (Element element : childs(tag)) {
-                queue.offer(element);
+            ChildIndex children = childs(tag);
+            for (int i = 0; i < children.size(); i++) {
+                queue.offer(children.get(i));
             }
         }
         definition.readNamespaces();
@@ -331,18 +408,15 @@ public final class XMLDoc implements XMLTag {
     }
 
     public String getInnerText() {
+        definition.normalizeIfDirty();
         try {
-            Transformer transformer = XMLFactories.createTransformer();
-            transformer.setOutputProperty(OutputKeys.ENCODING, definition.getEncoding());
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
             StringWriter sw = new StringWriter();
-            NodeList list = current.getChildNodes();
-            for (int i = 0; i < list.getLength(); i++) {
-                transformer.transform(new DOMSource(list.item(i)), new StreamResult(sw));
+            for (Node child = current.getFirstChild(); child != null; child = child.getNextSibling()) {
+                XMLSerializer.serialize(child, sw, definition.getEncoding(), 0);
             }
             return sw.toString();
         }
-        catch (TransformerException e) {
+        catch (IOException e) {
             throw new XMLDocumentException("Transformation error", e);
         }
 
@@ -362,7 +436,7 @@ public final class XMLDoc implements XMLTag {
     }
 
     public XMLTag gotoChild() {
-        List<Element> els = childs(current);
+        ChildIndex els = childs(current);
         switch (els.size()) {
             case 0:
                 throw new XMLDocumentException("Current element '%s' has no child", getCurrentTagName());
@@ -376,7 +450,7 @@ public final class XMLDoc implements XMLTag {
     }
 
     public XMLTag gotoChild(int i) {
-        List<Element> els = childs(current);
+        ChildIndex els = childs(current);
         if (i > 0 && i <= els.size()) {
             current = els.get(i - 1);
         } else {
@@ -387,27 +461,29 @@ public final class XMLDoc implements XMLTag {
 
     public XMLTag gotoChild(String nodeName) {
         notEmpty("Tag name", nodeName);
-        List<Element> els = childs(current);
-        List<Element> found = new ArrayList<Element>(els.size());
-        for (Element el : els) {
-            if (el.getTagName().equals(nodeName)) {
-                found.add(el);
+        ChildIndex els = childs(current);
+        Element found = null;
+        int count = 0;
+        for (int i = 0; i < els.size(); i++) {
+            if (els.get(i).getTagName().equals(nodeName)) {
+                found = els.get(i);
+                count++;
             }
         }
-        switch (found.size()) {
+        switch (count) {
             case 0:
                 throw new XMLDocumentException("Current element '%s' has no child named '%s'", getCurrentTagName(), nodeName);
             case 1:
-                current = found.get(0);
+                current = found;
                 break;
             default:
-                throw new XMLDocumentException("Cannot select child: current element '%s' has '%s' children named '%s'", getCurrentTagName(), found.size(), nodeName);
+                throw new XMLDocumentException("Cannot select child: current element '%s' has '%s' children named '%s'", getCurrentTagName(), count, nodeName);
         }
         return this;
     }
 
     public XMLTag gotoFirstChild() throws XMLDocumentException {
-        List<Element> els = childs(current);
+        ChildIndex els = childs(current);
         if (els.isEmpty()) {
             throw new XMLDocumentException("Current element '%s' has no child", getCurrentTagName());
         }
@@ -417,13 +493,13 @@ public final class XMLDoc implements XMLTag {
 
     public XMLTag gotoFirstChild(String name) throws XMLDocumentException {
         notEmpty("Tag name", name);
-        List<Element> els = childs(current);
+        ChildIndex els = childs(current);
         if (els.isEmpty()) {
             throw new XMLDocumentException("Current element '%s' has no child", getCurrentTagName());
         }
-        for (Element el : els) {
-            if (el.getTagName().equals(name)) {
-                current = el;
+        for (int i = 0; i < els.size(); i++) {
+            if (els.get(i).getTagName().equals(name)) {
+                current = els.get(i);
                 return this;
             }
         }
@@ -431,7 +507,7 @@ public final class XMLDoc implements XMLTag {
     }
 
     public XMLTag gotoLastChild() throws XMLDocumentException {
-        List<Element> els = childs(current);
+        ChildIndex els = childs(current);
         if (els.isEmpty()) {
             throw new XMLDocumentException("Current element '%s' has no child", getCurrentTagName());
         }
@@ -441,7 +517,7 @@ public final class XMLDoc implements XMLTag {
 
     public XMLTag gotoLastChild(String name) throws XMLDocumentException {
         notEmpty("Tag name", name);
-        List<Element> els = childs(current);
+        ChildIndex els = childs(current);
         if (els.isEmpty()) {
             throw new XMLDocumentException("Current element '%s' has no child", getCurrentTagName());
         }
@@ -455,24 +531,38 @@ public final class XMLDoc implements XMLTag {
     }
 
     public XMLTag gotoTag(String relativeXpath, Object... arguments) {
-        Node n = definition.getXpath().findNode(current, relativeXpath, arguments);
+        Node n = xpath().findNode(current, relativeXpath, arguments);
+        if (!isElement(n)) {
+            throw notAnElement(String.format(relativeXpath, arguments), n);
+        }
+        current = (Element) n;
+        return this;
+    }
+
+    public XMLTag gotoTag(XMLPath path, Object... arguments) {
+        Node n = xpath().findPathNode(current, path, arguments);
         if (!isElement(n)) {
-            throw new XMLDocumentException("XPath expression '%s' does not target an element. Targeted node is '%s' (node type is '%s')", String.format(relativeXpath, arguments), n.getNodeName(), n.getNodeType());
+            throw notAnElement(path.getExpression(), n);
         }
         current = (Element) n;
         return this;
     }
 
+    private static XMLDocumentException notAnElement(String xpathExpr, Node n) {
+        return new XMLDocumentException("XPath expression '%s' does not target an element. Targeted node is '%s' (node type is '%s')", xpathExpr, n.getNodeName(), n.getNodeType());
+    }
+
     public Element getCurrentTag() {
+        handOut();
         return current;
     }
 
     public int getChildCount() {
-        return getChildElement().size();
+        return childs(current).size();
     }
 
     public Iterable<XMLTag> getChilds() {
-        final IteratorAdapter iterator = new IteratorAdapter(this, getChildElement().iterator());
+        final IteratorAdapter iterator = new IteratorAdapter(this, childs(current).toList().iterator());
         return new Iterable<XMLTag>() {
             public Iterator<XMLTag> iterator() {
                 return iterator;
@@ -481,13 +571,14 @@ public final class XMLDoc implements XMLTag {
     }
 
     public Iterable<XMLTag> getChilds(String relativeXpath, Object... arguments) {
-        Node[] nodes = definition.getXpath().findNodes(current, relativeXpath, arguments);
-        List<Element> els = new ArrayList<Element>(nodes.length);
-        for (Node node : nodes) {
-            if (isElement(node)) {
-                els.add((Element) node);
-            }
-        }
+        return iterable(elements(xpath().findNodes(current, relativeXpath, arguments)));
+    }
+
+    public Iterable<XMLTag> getChilds(XMLPath path, Object... arguments) {
+        return iterable(elements(xpath().findPathNodes(current, path, arguments)));
+    }
+
+    private Iterable<XMLTag> iterable(List<Element> els) {
         final IteratorAdapter iterator = new IteratorAdapter(this, els.iterator());
         return new Iterable<XMLTag>() {
             public Iterator<XMLTag> iterator() {
@@ -497,7 +588,9 @@ public final class XMLDoc implements XMLTag {
     }
 
     public List<Element> getChildElement() {
-        return childs(current);
+        List<Element> children = childs(current).toList();
+        handOut();
+        return children;
     }
 
     public String getCurrentTagName() {
@@ -505,20 +598,50 @@ public final class XMLDoc implements XMLTag {
     }
 
     public String getCurrentTagLocation() {
-        StringBuilder sb = new StringBuilder();
+        int[] location = location();
+        if (location.length == 0) {
+            return ".";
+        }
+        StringBuilder sb = new StringBuilder(location.length * 6);
+        for (int position : location) {
+            sb.append("/*[").append(position).append(']');
+        }
+        return sb.deleteCharAt(0).toString();
+    }
+
+    /**
+     * @return The positions, from 1, of the current tag and its ancestors amongst the elements of their parent, from
+     *         the child of the root to the current tag
+     */
+    private int[] location() {
+        Element root = definition.getRoot();
+        int depth = 0;
+        for (Node node = current; node != root; node = node.getParentNode()) {
+            depth++;
+        }
+        int[] location = new int[depth];
         Element thisNode = current;
-        while (thisNode != definition.getRoot()) {
+        for (int i = depth - 1; i >= 0; i--) {
             Element parent = (Element) thisNode.getParentNode();
-            List<Element> els = childs(parent);
-            for (int i = 0; i < els.size(); i++) {
-                if (els.get(i) == thisNode) {
-                    sb.insert(0, "/*[" + (i + 1) + "]");
-                    break;
+            location[i] = position(parent, thisNode);
+            thisNode = parent;
+        }
+        return location;
+    }
+
+    private int position(Element parent, Element child) {
+        ChildIndex index = cachedChilds(parent);
+        if (index == null) {
+            // counting the previous siblings does not allocate anything, until the parent turns out to be wide
+            int position = 1;
+            for (Node node = child.getPreviousSibling(); node != null; node = node.getPreviousSibling()) {
+                if (isElement(node) && ++position > ChildIndex.WIDE) {
+                    return childs(parent).indexOf(child) + 1;
                 }
             }
-            thisNode = parent;
+            return position;
         }
-        return sb.length() == 0 ? "." : sb.deleteCharAt(0).toString();
+        return index.indexOf(child) + 1;
     }
 
     public String getAttribute(String name) {
@@ -544,6 +667,16 @@ public final class XMLDoc implements XMLTag {
         }
     }
 
+    public String getAttribute(String name, XMLPath path, Object... arguments) {
+        Element old = current;
+        try {
+            return gotoTag(path, arguments).getAttribute(name);
+        }
+        finally {
+            current = old;
+        }
+    }
+
     public String findAttribute(String name, String relativeXpath, Object... arguments) throws XMLDocumentException {
         Element old = current;
         try {
@@ -554,6 +687,21 @@ public final class XMLDoc implements XMLTag {
         }
     }
 
+    public String findAttribute(String name, XMLPath path, Object... arguments) throws XMLDocumentException {
+        Element old = current;
+        try {
+            return gotoTag(path, arguments).findAttribute(name);
+        }
+        finally {
+            current = old;
+        }
+    }
+
+    public Map<String, String> extract(XMLExtractor extractor) throws XMLDocumentException {
+        notNull("Extractor", extractor);
+        return extractor.extract(definition.normalizeIfDirty(), current, null);
+    }
+
     @SuppressWarnings({"MismatchedReadAndWriteOfArray"})
     public String[] getAttributeNames() {
         List<Attr> attrs = attr(current);
@@ -574,6 +722,16 @@ public final class XMLDoc implements XMLTag {
         }
     }
 
+    public String getText(XMLPath path, Object... arguments) {
+        Element old = current;
+        try {
+            return gotoTag(path, arguments).getText();
+        }
+        finally {
+            current = old;
+        }
+    }
+
     public String getText() {
         StringBuilder sb = new StringBuilder();
         List<Node> nodes = childs(Document.TEXT_NODE);
@@ -627,6 +785,16 @@ public final class XMLDoc implements XMLTag {
         }
     }
 
+    public String getCDATA(XMLPath path, Object... arguments) {
+        Element old = current;
+        try {
+            return gotoTag(path, arguments).getCDATA();
+        }
+        finally {
+            current = old;
+        }
+    }
+
     public String getCDATA() {
         StringBuilder sb = new StringBuilder();
         List<Node> nodes = childs(Document.CDATA_SECTION_NODE);
@@ -640,7 +808,22 @@ public final class XMLDoc implements XMLTag {
     }
 
     public Document toDocument() {
-        return definition.getDocument();
+        Document document = document();
+        handOut();
+        return document;
+    }
+
+    // the document, only read by this library
+    private Document document() {
+        return definition.normalizeIfDirty().getDocument();
+    }
+
+    // the nodes handed out may be modified outside of this library: the namespaces declared when the document was loaded
+    // are bound first, and the children of the wide elements are read again. Must be called once the nodes have been
+    // looked up.
+    private void handOut() {
+        definition.readPendingNamespaces();
+        definition.changed();
     }
 
     public Source toSource() {
@@ -653,8 +836,12 @@ public final class XMLDoc implements XMLTag {
     }
 
     public String toString(String encoding) {
+        return toString(encoding, XMLSerializer.DEFAULT_INDENT);
+    }
+
+    public String toString(String encoding, int indent) {
         StringWriter out = new StringWriter();
-        toStream(out, encoding);
+        toStream(out, encoding, indent);
         return out.toString();
     }
 
@@ -663,8 +850,12 @@ public final class XMLDoc implements XMLTag {
     }
 
     public byte[] toBytes(String encoding) {
+        return toBytes(encoding, XMLSerializer.DEFAULT_INDENT);
+    }
+
+    public byte[] toBytes(String encoding, int indent) {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
-        toStream(out, encoding);
+        toStream(out, encoding, indent);
         return out.toByteArray();
     }
 
@@ -673,9 +864,13 @@ public final class XMLDoc implements XMLTag {
     }
 
     public XMLTag toStream(OutputStream out, String encoding) {
+        return toStream(out, encoding, XMLSerializer.DEFAULT_INDENT);
+    }
+
+    public XMLTag toStream(OutputStream out, String encoding, int indent) {
         notEmpty("encoding", encoding);
         try {
-            return toStream(new BufferedWriter(new OutputStreamWriter(out, encoding)));
+            return toStream(new BufferedWriter(new OutputStreamWriter(out, encoding)), encoding, indent);
         } catch (UnsupportedEncodingException e) {
             throw new XMLDocumentException(e.getMessage(), e);
         }
@@ -686,8 +881,19 @@ public final class XMLDoc implements XMLTag {
     }
 
     public XMLTag toStream(Writer out, String encoding) {
+        return toStream(out, encoding, XMLSerializer.DEFAULT_INDENT);
+    }
+
+    public XMLTag toStream(Writer out, String encoding, int indent) {
+        notNull("Writer", out);
         notEmpty("encoding", encoding);
-        return toResult(new StreamResult(out), encoding);
+        try {
+            XMLSerializer.serialize(document(), out, encoding, indent);
+            return this;
+        }
+        catch (IOException e) {
+            throw new XMLDocumentException("Transformation error", e);
+        }
     }
 
     public Result toResult() {
@@ -730,28 +936,40 @@ public final class XMLDoc implements XMLTag {
         return toResult(out, definition.getEncoding());
     }
 
-    public XMLTag toResult(Result out, String encoding) {
+    public XMLTag toResult(final Result out, String encoding) {
         notEmpty("encoding", encoding);
+        if (out instanceof StreamResult) {
+            StreamResult stream = (StreamResult) out;
+            if (stream.getWriter() != null) {
+                return toStream(stream.getWriter(), encoding);
+            }
+            if (stream.getOutputStream() != null) {
+                return toStream(stream.getOutputStream(), encoding);
+            }
+        }
+        long start = Metrics.start();
         try {
-            Transformer transformer = XMLFactories.createTransformer();
-            transformer.setParameter("indent-number", 4);
-            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
-            transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty(OutputKeys.STANDALONE, definition.getDocument().getXmlStandalone() ? "yes" : "no");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "4");
-            transformer.transform(toSource(), out);
+            final Source source = new DOMSource(document());
+            XMLFactories.withTransformer(encoding, XMLSerializer.DEFAULT_INDENT, false, definition.getDocument().getXmlStandalone(), new XMLFactories.Callback<Void>() {
+                public Void apply(Transformer t) throws TransformerException {
+                    t.transform(source, out);
+                    return null;
+                }
+            });
             return this;
         }
         catch (TransformerException e) {
             throw new XMLDocumentException("Transformation error", e);
         }
+        finally {
+            Metrics.stop(MetricsEvent.SERIALIZE, start);
+        }
     }
 
     public ValidationResult validate(Source... schemas) {
         notNull("schemas", schemas);
         try {
-            return Utils.validate(this.toDocument(), schemas);
+            return Utils.validate(document(), schemas);
         }
         catch (Exception e) {
             throw new XMLDocumentException("Validation failed", e);
@@ -761,26 +979,57 @@ public final class XMLDoc implements XMLTag {
     public ValidationResult validate(URL... schemaLocations) {
         notNull("schemaLocations", schemaLocations);
         try {
-            return Utils.validate(this.toDocument(), schemaLocations);
+            return Utils.validate(document(), schemaLocations);
         }
         catch (Exception e) {
             throw new XMLDocumentException("Validation failed", e);
         }
     }
 
+    private XMLDocPath xpath() {
+        return definition.normalizeIfDirty().getXpath();
+    }
+
+    private List<Element> elements(Node[] nodes) {
+        List<Element> els = new ArrayList<Element>(nodes.length);
+        for (Node node : nodes) {
+            if (isElement(node)) {
+                els.add((Element) node);
+            }
+        }
+        return els;
+    }
+
     private boolean isElement(Node n) {
         return n != null && n.getNodeType() == Document.ELEMENT_NODE;
     }
 
-    private List<Element> childs(Element e) {
-        NodeList list = e.getChildNodes();
-        List<Element> els = new ArrayList<Element>(list.getLength());
-        for (int i = 0; i < list.getLength(); i++) {
-            if (isElement(list.item(i))) {
-                els.add((Element) list.item(i));
+    // walking the children of a wide element on each step would make indexed navigation quadratic: the children of the
+    // last visited wide parents are kept until the document is modified by this library, or handed out as DOM nodes
+    private ChildIndex childs(Element e) {
+        ChildIndex index = cachedChilds(e);
+        if (index != null) {
+            return index;
+        }
+        index = new ChildIndex(e);
+        if (index.size() >= ChildIndex.WIDE) {
+            if (childIndexes == null || childIndexes.size() >= 16) {
+                childIndexes = new IdentityHashMap<Element, ChildIndex>();
+                childIndexesVersion = definition.getModificationCount();
             }
+            childIndexes.put(e, index);
         }
-        return els;
+        return index;
+    }
+
+    private ChildIndex cachedChilds(Element e) {
+        if (childIndexes != null) {
+            if (definition.getModificationCount() == childIndexesVersion) {
+                return childIndexes.get(e);
+            }
+            childIndexes = null;
+        }
+        return null;
     }
 
     private List<Attr> attr(Element e) {
@@ -793,20 +1042,55 @@ public final class XMLDoc implements XMLTag {
     }
 
     private List<Node> childs(short type) {
-        NodeList childs = current.getChildNodes();
-        List<Node> nodes = new ArrayList<Node>(childs.getLength());
-        for (int i = 0; i < childs.getLength(); i++) {
-            if (childs.item(i).getNodeType() == type) {
-                nodes.add(childs.item(i));
+        List<Node> nodes = new ArrayList<Node>();
+        for (Node child = current.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == type) {
+                nodes.add(child);
             }
         }
         return nodes;
     }
 
     public XMLTag duplicate() {
-        return XMLDoc.from(this, definition.isIgnoreNamespaces())
-                .gotoRoot()
-                .gotoTag(getCurrentTagLocation());
+        final Document document = document();
+        final int[] location = location();
+        return XMLDocumentBuilderFactory.withDocumentBuilder(definition.isIgnoreNamespaces(), new XMLDocumentBuilderFactory.Callback<XMLTag>() {
+            @Override
+            public XMLTag apply(DocumentBuilder b) {
+                Document copy = b.newDocument();
+                copy.appendChild(copy.importNode(document.getDocumentElement(), true));
+                // the copy has the same elements: the path to the current tag is replayed instead of being evaluated
+                // as XPath
+                Element element = copy.getDocumentElement();
+                for (int position : location) {
+                    Node child = element.getFirstChild();
+                    while (!isElement(child) || --position > 0) {
+                        child = child.getNextSibling();
+                    }
+                    element = (Element) child;
+                }
+                // the copy of a normalized document does not need to be normalized again
+                return XMLDocBuilder.from(new XMLDocDefinition(copy, definition.isIgnoreNamespaces()), element);
+            }
+        });
+    }
+
+    public FrozenXMLDoc freeze() {
+        final Document document = document();
+        return XMLDocumentBuilderFactory.withDocumentBuilder(definition.isIgnoreNamespaces(), new XMLDocumentBuilderFactory.Callback<FrozenXMLDoc>() {
+            @Override
+            public FrozenXMLDoc apply(DocumentBuilder b) {
+                // a deep copy is never lazily expanded by the parser, and nobody else holds a reference to its nodes
+                Document copy = b.newDocument();
+                copy.setXmlStandalone(document.getXmlStandalone());
+                copy.appendChild(copy.importNode(document.getDocumentElement(), true));
+                return FrozenXMLDoc.of(definition.copy(copy));
+            }
+        });
+    }
+
+    public CompactXMLDoc compact() {
+        return CompactXMLDoc.of(definition.normalizeIfDirty());
     }
 
     public XMLTag setText(String text) {
@@ -830,6 +1114,17 @@ public final class XMLDoc implements XMLTag {
         return this;
     }
 
+    public XMLTag setText(String text, XMLPath path, Object... arguments) throws XMLDocumentException {
+        Element old = current;
+        try {
+            gotoTag(path, arguments).setText(text);
+        }
+        finally {
+            current = old;
+        }
+        return this;
+    }
+
     public XMLTag setTextIfExist(String text, String relativeXpath, Object... arguments) throws XMLDocumentException {
         return hasTag(relativeXpath, arguments) ? setText(text, relativeXpath, arguments) : this;
     }
@@ -865,6 +1160,7 @@ public final class XMLDoc implements XMLTag {
         if (!hasAttribute(name)) {
             throw new XMLDocumentException("Element '%s' does not have attribute '%s'", getCurrentTagName(), name);
         }
+        definition.readPendingNamespaces();
         current.getAttributeNode(name).setValue(value);
         return this;
     }
@@ -873,6 +1169,7 @@ public final class XMLDoc implements XMLTag {
         notNull("Attribute name", name);
         notNull("Attribute value", value);
         if (hasAttribute(name)) {
+            definition.readPendingNamespaces();
             current.getAttributeNode(name).setValue(value);
         }
         return this;
@@ -889,6 +1186,17 @@ public final class XMLDoc implements XMLTag {
         return this;
     }
 
+    public XMLTag setAttribute(String name, String value, XMLPath path, Object... arguments) throws XMLDocumentException {
+        Element old = current;
+        try {
+            gotoTag(path, arguments).setAttribute(name, value);
+        }
+        finally {
+            current = old;
+        }
+        return this;
+    }
+
     public XMLTag setAttributeIfExist(String name, String value, String relativeXpath, Object... arguments) throws XMLDocumentException {
         return hasAttribute(name, relativeXpath, arguments) ? setAttribute(name, value, relativeXpath, arguments) : this;
     }
@@ -927,6 +1235,79 @@ public final class XMLDoc implements XMLTag {
         return XMLDocBuilder.from(is, ignoreNamespaces, encoding);
     }
 
+    /**
+     * Parse a document from bytes, without copying them. The encoding is detected by the parser.
+     *
+     * @param data             The document
+     * @param ignoreNamespaces Wheter to build a namespace aware document
+     * @return The parsed document
+     */
+    public static XMLTag from(byte[] data, boolean ignoreNamespaces) {
+        notNull("Data", data);
+        return XMLDocBuilder.from(data, 0, data.length, ignoreNamespaces);
+    }
+
+    /**
+     * Parse a document from a range of bytes, without copying them. The encoding is detected by the parser.
+     *
+     * @param data             The bytes containing the document
+     * @param offset           Index of the first byte of the document
+     * @param length           Length of the document
+     * @param ignoreNamespaces Wheter to build a namespace aware document
+     * @return The parsed document
+     */
+    public static XMLTag from(byte[] data, int offset, int length, boolean ignoreNamespaces) {
+        notNull("Data", data);
+        if (offset < 0 || length < 0 || offset > data.length - length) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + length) + "[ out of " + data.length + " bytes");
+        }
+        return XMLDocBuilder.from(data, offset, length, ignoreNamespaces);
+    }
+
+    /**
+     * Parse a document from the remaining bytes of a buffer. The position of the buffer is not changed. The bytes of a
+     * heap buffer are not copied, the bytes of a direct or memory-mapped buffer are copied once, straight into the
+     * buffer of the parser. The encoding is detected by the parser.
+     *
+     * @param buffer           The document
+     * @param ignoreNamespaces Wheter to build a namespace aware document
+     * @return The parsed document
+     */
+    public static XMLTag from(ByteBuffer buffer, boolean ignoreNamespaces) {
+        notNull("ByteBuffer", buffer);
+        return XMLDocBuilder.from(buffer, ignoreNamespaces);
+    }
+
+    /**
+     * Parse a document from a region of a file, mapped in memory instead of being read through streams. Mapping has a
+     * cost of its own and is worth it for big documents. The channel is not closed. The encoding is detected by the
+     * parser.
+     *
+     * @param channel          A channel opened for reading
+     * @param position         Position of the document in the file
+     * @param size             Size of the document, up to 2G
+     * @param ignoreNamespaces Wheter to build a namespace aware document
+     * @return The parsed document
+     */
+    public static XMLTag from(FileChannel channel, long position, long size, boolean ignoreNamespaces) {
+        notNull("FileChannel", channel);
+        return XMLDocBuilder.from(channel, position, size, ignoreNamespaces);
+    }
+
+    /**
+     * Parse a whole file mapped in memory.
+     *
+     * @see #from(FileChannel, long, long, boolean)
+     */
+    public static XMLTag from(FileChannel channel, boolean ignoreNamespaces) {
+        notNull("FileChannel", channel);
+        try {
+            return XMLDocBuilder.from(channel, 0, channel.size(), ignoreNamespaces);
+        } catch (IOException e) {
+            throw new XMLDocumentException(e.getMessage(), e);
+        }
+    }
+
     public static XMLTag from(File file, boolean ignoreNamespaces) {
         notNull("File", file);
         return XMLDocBuilder.from(file, ignoreNamespaces);
@@ -976,6 +1357,50 @@ public final class XMLDoc implements XMLTag {
         return newDocument(true);
     }
 
+    /**
+     * Parse a document and validate it against the given schema in a single pass. Schemas can be obtained from
+     * {@link SchemaCache#getSchema(URL...)}. The document is namespace aware.
+     *
+     * @param source The document to parse
+     * @param schema The schema to validate against
+     * @return The parsed document and the result of its validation
+     */
+    public static ValidatedXMLDoc from(InputSource source, Schema schema) {
+        notNull("InputSource", source);
+        notNull("Schema", schema);
+        return XMLDocBuilder.from(source, schema);
+    }
+
+    public static ValidatedXMLDoc from(Reader reader, Schema schema) {
+        notNull("Reader", reader);
+        notNull("Schema", schema);
+        return XMLDocBuilder.from(reader, schema);
+    }
+
+    public static ValidatedXMLDoc from(InputStream is, Schema schema) {
+        notNull("InputStream", is);
+        notNull("Schema", schema);
+        return XMLDocBuilder.from(is, schema);
+    }
+
+    public static ValidatedXMLDoc from(File file, Schema schema) {
+        notNull("File", file);
+        notNull("Schema", schema);
+        return XMLDocBuilder.from(file, schema);
+    }
+
+    public static ValidatedXMLDoc from(URL xmlLocation, Schema schema) {
+        notNull("URL", xmlLocation);
+        notNull("Schema", schema);
+        return XMLDocBuilder.from(xmlLocation, schema);
+    }
+
+    public static ValidatedXMLDoc from(String xmlData, Schema schema) {
+        notEmpty("XML Data", xmlData);
+        notNull("Schema", schema);
+        return XMLDocBuilder.from(xmlData, schema);
+    }
+
     public static XMLTag from(Node node) {
         return from(node, true);
     }
@@ -992,6 +1417,18 @@ public final class XMLDoc implements XMLTag {
         return from(is, true);
     }
 
+    public static XMLTag from(byte[] data) {
+        return from(data, true);
+    }
+
+    public static XMLTag from(ByteBuffer buffer) {
+        return from(buffer, true);
+    }
+
+    public static XMLTag from(FileChannel channel) {
+        return from(channel, true);
+    }
+
     public static XMLTag from(File file) {
         return from(file, true);
     }
@@ -1023,4 +1460,43 @@ public final class XMLDoc implements XMLTag {
         notNull("XML Tag", tag);
         return XMLDocBuilder.fromCurrentTag(tag, ignoreNamespaces);
     }
+
+    /**
+     * Reads a document with StAX and returns one {@link XMLTag} per element named <code>tagName</code>, without loading
+     * the whole document in memory.
+     *
+     * @param is               The document
+     * @param tagName          Name of the record elements: a local name, or a prefixed name as used in the document
+     * @param ignoreNamespaces Whether the records ignore namespaces
+     * @return The records, to iterate once
+     */
+    public static XMLDocStream stream(InputStream is, String tagName, boolean ignoreNamespaces) {
+        notNull("InputStream", is);
+        notEmpty("Tag name", tagName);
+        return XMLDocStream.open(is, tagName, ignoreNamespaces);
+    }
+
+    public static XMLDocStream stream(Reader reader, String tagName, boolean ignoreNamespaces) {
+        notNull("Reader", reader);
+        notEmpty("Tag name", tagName);
+        return XMLDocStream.open(reader, tagName, ignoreNamespaces);
+    }
+
+    public static XMLDocStream stream(File file, String tagName, boolean ignoreNamespaces) {
+        notNull("File", file);
+        notEmpty("Tag name", tagName);
+        return XMLDocStream.open(file, tagName, ignoreNamespaces);
+    }
+
+    public static XMLDocStream stream(InputStream is, String tagName) {
+        return stream(is, tagName, true);
+    }
+
+    public static XMLDocStream stream(Reader reader, String tagName) {
+        return stream(reader, tagName, true);
+    }
+
+    public static XMLDocStream stream(File file, String tagName) {
+        return stream(file, tagName, true);
+    }
 }
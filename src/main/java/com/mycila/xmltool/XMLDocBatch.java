@@ -0,0 +1,245 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.mycila.xmltool.Utils.notNull;
+
+/**
+ * Parses many documents in parallel, for example all the files of a directory. The documents are parsed by a fixed
+ * number of workers sharing the inputs: tasks run on an executor, plus the calling thread, which also parses documents
+ * while it waits. Each worker borrows document builders from the pools of {@link XMLDocumentBuilderFactory}.
+ * <p/>
+ * By default, the workers run on a shared pool of daemon threads, one per processor. This is also the number of
+ * document builders kept idle by the default pool configuration, so that builders are reused instead of being created
+ * for each document. When using another executor, the pool configuration should allow as many builders as workers.
+ * <p/>
+ * Results are returned in the order of the inputs. A document which fails to parse does not stop the others: its error
+ * is reported in its {@link Result}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class XMLDocBatch {
+
+    private XMLDocBatch() {
+    }
+
+    public static List<Result<File>> fromFiles(Collection<File> files, boolean ignoreNamespaces) {
+        return fromFiles(files, ignoreNamespaces, DefaultExecutor.INSTANCE, DefaultExecutor.THREADS);
+    }
+
+    /**
+     * Parse files in parallel
+     *
+     * @param files            The files to parse
+     * @param ignoreNamespaces Wheter to build namespace aware documents
+     * @param executor         The executor running the workers
+     * @param parallelism      The number of workers, including the calling thread
+     * @return The documents or errors, in the order of the files
+     */
+    public static List<Result<File>> fromFiles(Collection<File> files, final boolean ignoreNamespaces, Executor executor, int parallelism) {
+        notNull("Files", files);
+        return load(files, executor, parallelism, new Loader<File>() {
+            public XMLTag load(File file) {
+                return XMLDoc.from(file, ignoreNamespaces);
+            }
+        });
+    }
+
+    public static List<Result<URL>> fromURLs(Collection<URL> urls, boolean ignoreNamespaces) {
+        return fromURLs(urls, ignoreNamespaces, DefaultExecutor.INSTANCE, DefaultExecutor.THREADS);
+    }
+
+    /**
+     * Parse the documents at the given locations in parallel
+     *
+     * @param urls             The locations of the documents
+     * @param ignoreNamespaces Wheter to build namespace aware documents
+     * @param executor         The executor running the workers
+     * @param parallelism      The number of workers, including the calling thread
+     * @return The documents or errors, in the order of the URLs
+     */
+    public static List<Result<URL>> fromURLs(Collection<URL> urls, final boolean ignoreNamespaces, Executor executor, int parallelism) {
+        notNull("URLs", urls);
+        return load(urls, executor, parallelism, new Loader<URL>() {
+            public XMLTag load(URL url) {
+                return XMLDoc.from(url, ignoreNamespaces);
+            }
+        });
+    }
+
+    public static <S extends InputStream> List<Result<S>> fromStreams(Collection<S> streams, boolean ignoreNamespaces) {
+        return fromStreams(streams, ignoreNamespaces, DefaultExecutor.INSTANCE, DefaultExecutor.THREADS);
+    }
+
+    /**
+     * Parse streams in parallel. Each stream is closed once parsed.
+     *
+     * @param streams          The streams to parse
+     * @param ignoreNamespaces Wheter to build namespace aware documents
+     * @param executor         The executor running the workers
+     * @param parallelism      The number of workers, including the calling thread
+     * @return The documents or errors, in the order of the streams
+     */
+    public static <S extends InputStream> List<Result<S>> fromStreams(Collection<S> streams, final boolean ignoreNamespaces, Executor executor, int parallelism) {
+        notNull("Streams", streams);
+        return load(streams, executor, parallelism, new Loader<S>() {
+            public XMLTag load(S stream) {
+                return XMLDoc.from(stream, ignoreNamespaces);
+            }
+        });
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <I> List<Result<I>> load(Collection<I> inputs, Executor executor, int parallelism, final Loader<I> loader) {
+        notNull("Executor", executor);
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        final I[] in = (I[]) inputs.toArray();
+        final Result<I>[] results = new Result[in.length];
+        final AtomicInteger next = new AtomicInteger();
+        final Error[] error = new Error[1];
+        // counts the inputs, not the workers: the caller returns once all the results are in, even if some workers are
+        // still queued, possibly behind the caller itself when it runs on a thread of the executor
+        final CountDownLatch done = new CountDownLatch(in.length);
+        final Runnable worker = new Runnable() {
+            public void run() {
+                try {
+                    for (int i = next.getAndIncrement(); i < in.length; i = next.getAndIncrement()) {
+                        try {
+                            results[i] = new Result<I>(in[i], loader.load(in[i]), null);
+                        } catch (RuntimeException e) {
+                            results[i] = new Result<I>(in[i], null, e);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                } catch (Error e) {
+                    synchronized (error) {
+                        error[0] = e;
+                    }
+                    // stops the other workers and releases the caller from the inputs nobody will load
+                    for (int i = next.getAndSet(in.length); i < in.length; i++) {
+                        done.countDown();
+                    }
+                    throw e;
+                }
+            }
+        };
+        int workers = Math.min(parallelism, in.length) - 1;
+        for (int w = 0; w < workers; w++) {
+            try {
+                executor.execute(worker);
+            } catch (RejectedExecutionException e) {
+                // the calling thread does the remaining work
+                break;
+            }
+        }
+        worker.run();
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            next.set(in.length);
+            Thread.currentThread().interrupt();
+            throw new XMLDocumentException("Error loading documents: interrupted.", e);
+        }
+        synchronized (error) {
+            if (error[0] != null) {
+                throw error[0];
+            }
+        }
+        return new ArrayList<Result<I>>(Arrays.asList(results));
+    }
+
+    /**
+     * The document parsed from an input, or the error which occured
+     */
+    public static final class Result<I> {
+
+        private final I input;
+        private final XMLTag document;
+        private final RuntimeException error;
+
+        Result(I input, XMLTag document, RuntimeException error) {
+            this.input = input;
+            this.document = document;
+            this.error = error;
+        }
+
+        public I getInput() {
+            return input;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return The parsed document
+         * @throws RuntimeException the error which occured while parsing, usually a {@link XMLDocumentException}
+         */
+        public XMLTag getDocument() {
+            if (error != null) {
+                throw error;
+            }
+            return document;
+        }
+
+        /**
+         * @return The error which occured while parsing, or null if the document was parsed
+         */
+        public RuntimeException getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return input + (error == null ? "" : ": " + error.getMessage());
+        }
+    }
+
+    private interface Loader<I> {
+        XMLTag load(I input);
+    }
+
+    private static final class DefaultExecutor {
+        static final int THREADS = Runtime.getRuntime().availableProcessors();
+        static final ExecutorService INSTANCE = Executors.newFixedThreadPool(Math.max(THREADS - 1, 1), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "xmltool-batch-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+}
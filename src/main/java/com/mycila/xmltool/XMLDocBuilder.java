@@ -16,28 +16,31 @@
 package com.mycila.xmltool;
 
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Source;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
+import javax.xml.validation.Schema;
 import java.io.*;
-import java.lang.reflect.InvocationHandler;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.lang.reflect.Proxy;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
 public final class XMLDocBuilder {
 
+    private static volatile boolean deferredNormalization;
+
     private final XMLDocDefinition definition;
 
     private XMLDocBuilder(XMLDocDefinition definition) {
@@ -67,6 +70,18 @@ public final class XMLDocBuilder {
         return this;
     }
 
+    /**
+     * Defer the normalization of the document that will be created: mutations only mark the document as dirty and the
+     * document is normalized once, right before it is serialized, queried with XPath or exported with
+     * {@link XMLTag#toDocument()}. This makes building large documents linear instead of quadratic.
+     *
+     * @return this
+     */
+    public XMLDocBuilder deferNormalization() {
+        definition.setDeferNormalization(true);
+        return this;
+    }
+
     /**
      * Create a root node for this XML document
      *
@@ -77,30 +92,43 @@ public final class XMLDocBuilder {
         return create(definition.createRoot(tagName));
     }
 
-    private static XMLTag create(final XMLDocDefinition def) {
-        def.normalize();
-        final XMLTag doc = new XMLDoc(def);
-        InvocationHandler handler = new InvocationHandler() {
-            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-                try {
-                    Object o = method.invoke(doc, args);
-                    if (needsNormalization(method.getName())) {
-                        def.normalize();
-                    }
-                    return o;
-                } catch (InvocationTargetException e) {
-                    throw e.getTargetException();
-                }
-            }
-        };
-        return (XMLTag) Proxy.newProxyInstance(
-            Thread.currentThread().getContextClassLoader(),
-            new Class<?>[]{XMLTag.class},
-            handler);
+    /**
+     * Set whether all documents created or loaded from now on defer their normalization until they are read. By default,
+     * documents are normalized after each mutation.
+     *
+     * @param deferred true to defer normalization
+     * @see #deferNormalization()
+     */
+    public static void setDeferredNormalization(boolean deferred) {
+        deferredNormalization = deferred;
+    }
+
+    /**
+     * @return true if documents defer their normalization by default
+     */
+    public static boolean isDeferredNormalization() {
+        return deferredNormalization;
+    }
+
+    private static XMLTag create(XMLDocDefinition def) {
+        if (deferredNormalization) {
+            def.setDeferNormalization(true);
+        }
+        def.modified();
+        return new XMLDocProxy(new XMLDoc(def), def);
     }
 
-    private static boolean needsNormalization(String name) {
-        return name.startsWith("add") || name.startsWith("set") || name.startsWith("delete") || name.startsWith("rename");
+    /**
+     * @param def     A normalized document
+     * @param current The tag to position the document on
+     */
+    static XMLTag from(XMLDocDefinition def, Element current) {
+        if (deferredNormalization) {
+            def.setDeferNormalization(true);
+        }
+        XMLDoc doc = new XMLDoc(def);
+        doc.current = current;
+        return new XMLDocProxy(doc, def);
     }
 
     static XMLDocBuilder newDocument(final boolean ignoreNamespaces) {
@@ -170,6 +198,27 @@ public final class XMLDocBuilder {
         }
     }
 
+    static XMLTag from(byte[] data, int offset, int length, boolean ignoreNamespaces) {
+        return from(new ByteArrayInputStream(data, offset, length), ignoreNamespaces);
+    }
+
+    static XMLTag from(ByteBuffer buffer, boolean ignoreNamespaces) {
+        // heap buffers are read in place, others are copied once into the buffer of the parser
+        return from(buffer.hasArray() ?
+                new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining()) :
+                new ByteBufferInputStream(buffer), ignoreNamespaces);
+    }
+
+    static XMLTag from(FileChannel channel, long position, long size, boolean ignoreNamespaces) {
+        MappedByteBuffer buffer;
+        try {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        } catch (IOException e) {
+            throw new XMLDocumentException(e.getMessage(), e);
+        }
+        return from(buffer, ignoreNamespaces);
+    }
+
     static XMLTag from(InputStream is, boolean ignoreNamespaces) {
         try {
             return from(new InputSource(is), ignoreNamespaces);
@@ -198,6 +247,66 @@ public final class XMLDocBuilder {
 
     }
 
+    static ValidatedXMLDoc from(File file, Schema schema) {
+        try {
+            return from(new BufferedInputStream(new FileInputStream(file)), schema);
+        } catch (FileNotFoundException e) {
+            throw new XMLDocumentException(e.getMessage(), e);
+        }
+    }
+
+    static ValidatedXMLDoc from(URL xmlLocation, Schema schema) {
+        try {
+            InputStream is = new BufferedInputStream(xmlLocation.openStream());
+            try {
+                InputSource source = new InputSource(is);
+                // relative references are resolved against the document location
+                source.setSystemId(xmlLocation.toExternalForm());
+                return from(source, schema);
+            } finally {
+                close(is);
+            }
+        } catch (IOException e) {
+            throw new XMLDocumentException(e.getMessage(), e);
+        }
+    }
+
+    static ValidatedXMLDoc from(String xmlData, Schema schema) {
+        return from(new StringReader(xmlData), schema);
+    }
+
+    static ValidatedXMLDoc from(Reader reader, Schema schema) {
+        try {
+            return from(new InputSource(reader), schema);
+        } finally {
+            close(reader);
+        }
+    }
+
+    static ValidatedXMLDoc from(InputStream is, Schema schema) {
+        try {
+            return from(new InputSource(is), schema);
+        } finally {
+            close(is);
+        }
+    }
+
+    static ValidatedXMLDoc from(final InputSource source, Schema schema) {
+        final XMLErrorHandler errorHandler = new XMLErrorHandler();
+        Document document = XMLDocumentBuilderFactory.withValidatingDocumentBuilder(schema, new XMLDocumentBuilderFactory.Callback<Document>() {
+            @Override
+            public Document apply(DocumentBuilder b) throws IOException, SAXException {
+                b.setErrorHandler(errorHandler);
+                try {
+                    return b.parse(source);
+                } finally {
+                    b.setErrorHandler(null);
+                }
+            }
+        });
+        return new ValidatedXMLDoc(from(document, false), errorHandler);
+    }
+
     static XMLTag from(Node node, boolean ignoreNamespaces) {
         return create(new XMLDocDefinition(node, ignoreNamespaces));
     }
@@ -225,22 +334,18 @@ public final class XMLDocBuilder {
     }
 
     static XMLTag from(Source source, boolean ignoreNamespaces) {
-        DOMResult result = new DOMResult();
-        try {
-            Transformer transformer = XMLFactories.createTransformer();
-            transformer.transform(source, result);
-        } catch (Exception e) {
-            throw new XMLDocumentException("Error creating XMLDoc. Please verify that the input source can be read and is well formed", e);
-        }
-        return from(result.getNode(), ignoreNamespaces);
+        return from(source, ignoreNamespaces, null);
     }
 
-    static XMLTag from(Source source, boolean ignoreNamespaces, String encoding) {
-        DOMResult result = new DOMResult();
+    static XMLTag from(final Source source, boolean ignoreNamespaces, String encoding) {
+        final DOMResult result = new DOMResult();
         try {
-            Transformer transformer = XMLFactories.createTransformer();
-            transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
-            transformer.transform(source, result);
+            XMLFactories.withTransformer(encoding, 0, false, null, new XMLFactories.Callback<Void>() {
+                public Void apply(Transformer t) throws TransformerException {
+                    t.transform(source, result);
+                    return null;
+                }
+            });
         } catch (Exception e) {
             throw new XMLDocumentException("Error creating XMLDoc. Please verify that the input source can be read and is well formed", e);
         }
@@ -25,7 +25,6 @@ import org.w3c.dom.Text;
 
 import javax.xml.namespace.NamespaceContext;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.Map;
@@ -50,18 +49,50 @@ final class XMLDocDefinition implements NamespaceContext {
     private final XMLDocPath xpath;
     private final Map<String, String> namespaces = new HashMap<String, String>();
     private final boolean ignoreNamespaces;
+    private final String encoding;
+    private NamespaceBindings bindings;
+    // the namespaces declared in the document are read on first use
+    private boolean namespacesPending;
+    private boolean deferNormalization;
+    private boolean dirty;
+    private boolean frozen;
+    private int modifications;
 
     XMLDocDefinition(Node node, boolean ignoreNamespaces) {
         this.ignoreNamespaces = ignoreNamespaces;
         this.document = node instanceof Document ? (Document) node : node.getOwnerDocument();
         this.root = this.document.getDocumentElement();
+        this.encoding = this.document.getXmlEncoding();
         xpath = new XMLDocPath(this);
         resetNamespaces();
         readNamespaces();
     }
 
+    /**
+     * Creates the definition of a document whose namespaces are already known. The namespace bindings are not computed
+     * lazily, so that the definition is never modified when it is only read.
+     */
+    XMLDocDefinition(Document document, boolean ignoreNamespaces, NamespaceBindings bindings, String encoding) {
+        this.ignoreNamespaces = ignoreNamespaces;
+        this.document = document;
+        this.root = document.getDocumentElement();
+        this.encoding = encoding;
+        this.xpath = new XMLDocPath(this);
+        this.namespaces.putAll(bindings.getNamespaces());
+        this.bindings = bindings;
+    }
+
+    /**
+     * @param copy A copy of this document
+     * @return A definition of the copy declaring the same namespaces and encoding
+     */
+    XMLDocDefinition copy(Document copy) {
+        return new XMLDocDefinition(copy, ignoreNamespaces, getNamespaceBindings(), encoding);
+    }
+
     XMLDocDefinition addNamespace(String prefix, String namespaceURI) throws XMLDocumentException {
         if (!ignoreNamespaces) {
+            readPendingNamespaces();
             notNull("prefix", prefix);
             notNull("namespaceURI", namespaceURI);
             String existing = namespaces.get(prefix);
@@ -70,6 +101,7 @@ final class XMLDocDefinition implements NamespaceContext {
             }
             if (!namespaces.values().contains(namespaceURI)) {
                 namespaces.put(prefix, namespaceURI);
+                bindings = null;
             }
         }
         return this;
@@ -78,19 +110,20 @@ final class XMLDocDefinition implements NamespaceContext {
     XMLDocDefinition addDefaultNamespace(String defaultNamespaceURI) {
         if (!ignoreNamespaces) {
             notNull("defaultNamespaceURI", defaultNamespaceURI);
+            readPendingNamespaces();
             Iterator<String> i = getPrefixes(defaultNamespaceURI);
             while (i.hasNext()) {
                 namespaces.remove(i.next());
             }
             namespaces.put(DEFAULT_NS_PREFIX, defaultNamespaceURI);
             namespaces.put(generatePrefix(), defaultNamespaceURI);
+            bindings = null;
         }
         return this;
     }
 
     String getEncoding() {
-        String enc = document.getXmlEncoding();
-        return enc == null ? "UTF-8" : enc;
+        return encoding == null ? "UTF-8" : encoding;
     }
 
     Document getDocument() {
@@ -175,14 +208,82 @@ final class XMLDocDefinition implements NamespaceContext {
 
     XMLDocDefinition normalize() {
         document.normalizeDocument();
+        dirty = false;
         return this;
     }
 
+    /**
+     * Must be called after each mutation of the document. Either normalizes the document right away, or only marks it
+     * dirty when normalization is deferred, in which case {@link #normalizeIfDirty()} will do the job once before the
+     * document is read.
+     */
+    void modified() {
+        changed();
+        if (deferNormalization) {
+            dirty = true;
+        } else {
+            normalize();
+        }
+    }
+
+    XMLDocDefinition normalizeIfDirty() {
+        if (dirty) {
+            normalize();
+        }
+        return this;
+    }
+
+    void setDeferNormalization(boolean deferNormalization) {
+        this.deferNormalization = deferNormalization;
+    }
+
+    boolean isDeferNormalization() {
+        return deferNormalization;
+    }
+
+    /**
+     * Marks the document as never modified anymore, so that it can be read by several threads
+     */
+    void setFrozen() {
+        frozen = true;
+    }
+
+    /**
+     * Records that nodes may have been added to or removed from the document, so that the cursors read its children
+     * again. A frozen document is never modified, and is not written to so that several threads can read it.
+     */
+    void changed() {
+        if (!frozen) {
+            modifications++;
+        }
+    }
+
+    /**
+     * @return A number which changes each time nodes are added to or removed from the document through this library
+     */
+    int getModificationCount() {
+        return modifications;
+    }
+
     void resetNamespaces() {
         namespaces.clear();
         namespaces.put(XML_NS_PREFIX, XML_NS_URI);
         namespaces.put(XMLNS_ATTRIBUTE, XMLNS_ATTRIBUTE_NS_URI);
         namespaces.put(DEFAULT_NS_PREFIX, NULL_NS_URI);
+        bindings = null;
+        namespacesPending = false;
+    }
+
+    /**
+     * @return An immutable snapshot of the namespaces currently declared in this document
+     */
+    NamespaceBindings getNamespaceBindings() {
+        readPendingNamespaces();
+        NamespaceBindings b = bindings;
+        if (b == null) {
+            bindings = b = new NamespaceBindings(namespaces);
+        }
+        return b;
     }
 
     private String getNamespace(String tagName) {
@@ -190,19 +291,43 @@ final class XMLDocDefinition implements NamespaceContext {
         return getNamespaceURI(pos == -1 ? DEFAULT_NS_PREFIX : tagName.substring(0, pos));
     }
 
+    /**
+     * Binds the namespaces declared in the document. They are only read when first needed: by a namespace lookup, an
+     * XPath evaluation, a new tag or attribute, or before a modification which could add or remove namespace
+     * declarations (see {@link #readPendingNamespaces()}). Documents which are only navigated by tag names are never
+     * scanned.
+     */
     void readNamespaces() {
         if (!ignoreNamespaces) {
+            namespacesPending = true;
+            bindings = null;
+        }
+    }
+
+    /**
+     * Reads the namespaces declared in the document if this has not been done yet. Must be called before modifying the
+     * document in a way which does not look up namespaces but could add or remove namespace declarations, like deleting
+     * or importing nodes, so that the namespaces bound are always the ones declared when the document was loaded.
+     */
+    void readPendingNamespaces() {
+        if (namespacesPending) {
+            namespacesPending = false;
             Set<String> defNs = new LinkedHashSet<String>();
-            for (Node node : xpath.findNodes(root, "//*")) {
-                NamedNodeMap attrs = node.getAttributes();
-                for (int i = 0; i < attrs.getLength(); i++) {
-                    Node attr = attrs.item(i);
-                    if (XMLNS_ATTRIBUTE.equals(attr.getNodeName())) {
-                        defNs.add(attr.getNodeValue());
-                    } else if (XMLNS_ATTRIBUTE.equals(attr.getPrefix())) {
-                        addNamespace(attr.getNodeName().substring(6), attr.getNodeValue());
+            // all elements in document order, like //*
+            Node node = root;
+            while (node != null) {
+                if (node.getNodeType() == Node.ELEMENT_NODE) {
+                    NamedNodeMap attrs = node.getAttributes();
+                    for (int i = 0; i < attrs.getLength(); i++) {
+                        Node attr = attrs.item(i);
+                        if (XMLNS_ATTRIBUTE.equals(attr.getNodeName())) {
+                            defNs.add(attr.getNodeValue());
+                        } else if (XMLNS_ATTRIBUTE.equals(attr.getPrefix())) {
+                            addNamespace(attr.getNodeName().substring(6), attr.getNodeValue());
+                        }
                     }
                 }
+                node = next(node);
             }
             for (String ns : defNs) {
                 if (defaultNamespaceDefined()) {
@@ -214,6 +339,17 @@ final class XMLDocDefinition implements NamespaceContext {
         }
     }
 
+    private Node next(Node node) {
+        short type = node.getNodeType();
+        if ((type == Node.ELEMENT_NODE || type == Node.ENTITY_REFERENCE_NODE) && node.getFirstChild() != null) {
+            return node.getFirstChild();
+        }
+        while (node != root && node.getNextSibling() == null) {
+            node = node.getParentNode();
+        }
+        return node == root ? null : node.getNextSibling();
+    }
+
     private boolean defaultNamespaceDefined() {
         return !NULL_NS_URI.equals(getDefaultNamespace());
     }
@@ -238,37 +374,15 @@ final class XMLDocDefinition implements NamespaceContext {
     // Implementation methods. Please read the spec of each methods befores modifying them !
 
     public String getNamespaceURI(String prefix) {
-        if (prefix == null) {
-            throw new IllegalArgumentException("prefix cannot be null");
-        }
-        String namespaceURI = namespaces.get(prefix);
-        return namespaceURI == null ? NULL_NS_URI : namespaceURI;
+        return getNamespaceBindings().getNamespaceURI(prefix);
     }
 
     public String getPrefix(String namespaceURI) {
-        if (namespaceURI == null) {
-            throw new IllegalArgumentException("namespaceURI cannot be null");
-        } else {
-            for (Map.Entry<String, String> entry : namespaces.entrySet()) {
-                if (!DEFAULT_NS_PREFIX.equals(entry.getKey()) && entry.getValue().equals(namespaceURI)) {
-                    return entry.getKey();
-                }
-            }
-        }
-        return null;
+        return getNamespaceBindings().getPrefix(namespaceURI);
     }
 
     public Iterator<String> getPrefixes(String namespaceURI) {
-        if (namespaceURI == null) {
-            throw new IllegalArgumentException("namespaceURI cannot be null");
-        }
-        Set<String> prefixes = new HashSet<String>();
-        for (Map.Entry<String, String> entry : namespaces.entrySet()) {
-            if (entry.getValue().equals(namespaceURI)) {
-                prefixes.add(entry.getKey());
-            }
-        }
-        return prefixes.iterator();
+        return getNamespaceBindings().getPrefixes(namespaceURI);
     }
 
 }
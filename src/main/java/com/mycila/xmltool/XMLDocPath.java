@@ -19,11 +19,7 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import javax.xml.namespace.QName;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import java.util.Map;
 
 import static com.mycila.xmltool.Utils.notEmpty;
 import static com.mycila.xmltool.Utils.notNull;
@@ -34,17 +30,10 @@ import static javax.xml.xpath.XPathConstants.*;
  */
 final class XMLDocPath {
 
-    private final XPath xpath;
-    private final Map<String, XPathExpression> compiled = new SoftHashMap<String, XPathExpression>();
+    private final XMLDocDefinition context;
 
     XMLDocPath(XMLDocDefinition context) {
-        try {
-            xpath = XMLFactories.createXPath();
-            xpath.setNamespaceContext(context);
-        }
-        catch (Exception e) {
-            throw new IllegalStateException(e.getMessage(), e);
-        }
+        this.context = context;
     }
 
     String rawXpathString(Node root, String relativeXpath, Object... arguments) {
@@ -67,14 +56,37 @@ final class XMLDocPath {
         return eval(getExpr(relativeXpath, arguments), root, NODESET);
     }
 
+    String rawXpathString(Node root, XMLPath path, Object... arguments) {
+        return eval(path, arguments, root, STRING);
+    }
+
+    Number rawXpathNumber(Node root, XMLPath path, Object... arguments) {
+        return eval(path, arguments, root, NUMBER);
+    }
+
+    Boolean rawXpathBoolean(Node root, XMLPath path, Object... arguments) {
+        return eval(path, arguments, root, BOOLEAN);
+    }
+
+    Node rawXpathNode(Node root, XMLPath path, Object... arguments) {
+        return eval(path, arguments, root, NODE);
+    }
+
+    NodeList rawXpathNodeSet(Node root, XMLPath path, Object... arguments) {
+        return eval(path, arguments, root, NODESET);
+    }
+
     Node[] findNodes(Node root, String xpathExpr, Object... args) {
         try {
-            NodeList list = rawXpathNodeSet(root, xpathExpr, args);
-            Node[] nodes = new Node[list.getLength()];
-            for (int i = 0; i < list.getLength(); i++) {
-                nodes[i] = list.item(i);
-            }
-            return nodes;
+            return toArray(rawXpathNodeSet(root, xpathExpr, args));
+        } catch (Exception e) {
+            return new Node[0];
+        }
+    }
+
+    Node[] findPathNodes(Node root, XMLPath path, Object... args) {
+        try {
+            return toArray(rawXpathNodeSet(root, path, args));
         } catch (Exception e) {
             return new Node[0];
         }
@@ -88,8 +100,37 @@ final class XMLDocPath {
         return n;
     }
 
+    Node findPathNode(Node root, XMLPath path, Object... args) {
+        Node n = eval(path, args, root, NODE);
+        if (n == null) {
+            throw new XMLDocumentException(String.format("Error executing xpath '%s' from node '%s': Inexisting target node.", path.getExpression(), root.getNodeName()));
+        }
+        return n;
+    }
+
+    private static Node[] toArray(NodeList list) {
+        Node[] nodes = new Node[list.getLength()];
+        for (int i = 0; i < list.getLength(); i++) {
+            nodes[i] = list.item(i);
+        }
+        return nodes;
+    }
+
+    private <T> T eval(XMLPath path, Object[] args, Node root, QName retType) {
+        CompiledXPath expr = getExpr(path, args);
+        if (args.length == 0) {
+            return eval(expr, root, retType);
+        }
+        XPathVariables.Frame previous = XPathVariables.instance.bind(path.variables(), args);
+        try {
+            return eval(expr, root, retType);
+        } finally {
+            XPathVariables.instance.restore(previous);
+        }
+    }
+
     @SuppressWarnings({"unchecked"})
-    private <T> T eval(XPathExpression expr, Node root, QName retType) {
+    private <T> T eval(CompiledXPath expr, Node root, QName retType) {
         notNull("Node", root);
         notNull("Return type", retType);
         try {
@@ -99,18 +140,24 @@ final class XMLDocPath {
         }
     }
 
-    private XPathExpression getExpr(String xpathExpr, Object... args) {
+    private CompiledXPath getExpr(String xpathExpr, Object... args) {
         notEmpty("XPath expression", xpathExpr);
         try {
-            xpathExpr = String.format(xpathExpr, args);
-            XPathExpression expr = compiled.get(xpathExpr);
-            if (expr == null) {
-                expr = xpath.compile(xpathExpr);
-                compiled.put(xpathExpr, expr);
-            }
-            return expr;
+            return XPathCache.get(String.format(xpathExpr, args), context.getNamespaceBindings());
         } catch (Exception e) {
             throw new XMLDocumentException(String.format("Error compiling xpath '%s'", String.format(xpathExpr, args)), e);
         }
     }
+
+    private CompiledXPath getExpr(XMLPath path, Object... args) {
+        notNull("XPath expression", path);
+        if (args.length != path.variables().length) {
+            throw new XMLDocumentException("XPath '%s' expects %s arguments but got %s", path.getExpression(), path.variables().length, args.length);
+        }
+        try {
+            return path.getCompiled(context.getNamespaceBindings());
+        } catch (Exception e) {
+            throw new XMLDocumentException(String.format("Error compiling xpath '%s'", path.getExpression()), e);
+        }
+    }
 }
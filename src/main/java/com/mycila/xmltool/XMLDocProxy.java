@@ -0,0 +1,540 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.CDATASection;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.Text;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link XMLTag} instance handed out by {@link XMLDocBuilder}. It delegates directly to an {@link XMLDoc} and
+ * notifies the {@link XMLDocDefinition} after each mutating call (add*, set*, delete*, rename*) so that the document
+ * gets normalized, without going through reflection.
+ * 
+ * Like the {@link java.lang.reflect.Proxy} it replaces, it returns what the {@link XMLDoc} returns: only the calls
+ * made on this instance are tracked, not the ones chained after them.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class XMLDocProxy implements XMLTag {
+
+    private final XMLDoc xmlDoc;
+    private final XMLDocDefinition definition;
+
+    XMLDocProxy(XMLDoc xmlDoc, XMLDocDefinition definition) {
+        this.xmlDoc = xmlDoc;
+        this.definition = definition;
+    }
+
+    public XMLTag addNamespace(String prefix, String namespaceURI) {
+        return modified(xmlDoc.addNamespace(prefix, namespaceURI));
+    }
+
+    public XMLTag addTag(String name) {
+        return modified(xmlDoc.addTag(name));
+    }
+
+    public XMLTag addAttribute(String name, String value) {
+        return modified(xmlDoc.addAttribute(name, value));
+    }
+
+    public XMLTag addAttributeNS(String namespaceURI, String name, String value) {
+        return modified(xmlDoc.addAttributeNS(namespaceURI, name, value));
+    }
+
+    public XMLTag addText(String text) {
+        return modified(xmlDoc.addText(text));
+    }
+
+    public XMLTag addCDATA(String data) {
+        return modified(xmlDoc.addCDATA(data));
+    }
+
+    public XMLTag addDocument(XMLTag tag) {
+        return modified(xmlDoc.addDocument(tag));
+    }
+
+    public XMLTag addDocument(Document doc) {
+        return modified(xmlDoc.addDocument(doc));
+    }
+
+    public XMLTag addTag(XMLTag tag) {
+        return modified(xmlDoc.addTag(tag));
+    }
+
+    public XMLTag addTag(Element tag) {
+        return modified(xmlDoc.addTag(tag));
+    }
+
+    public XMLTag addAttribute(Attr attr) {
+        return modified(xmlDoc.addAttribute(attr));
+    }
+
+    public XMLTag addText(Text text) {
+        return modified(xmlDoc.addText(text));
+    }
+
+    public XMLTag addCDATA(CDATASection data) {
+        return modified(xmlDoc.addCDATA(data));
+    }
+
+    public XMLTag gotoParent() {
+        return xmlDoc.gotoParent();
+    }
+
+    public XMLTag gotoRoot() {
+        return xmlDoc.gotoRoot();
+    }
+
+    public XMLTag gotoTag(String relativeXpath, Object... arguments) {
+        return xmlDoc.gotoTag(relativeXpath, arguments);
+    }
+
+    public XMLTag gotoTag(XMLPath path, Object... arguments) {
+        return xmlDoc.gotoTag(path, arguments);
+    }
+
+    public XMLTag gotoChild() {
+        return xmlDoc.gotoChild();
+    }
+
+    public XMLTag gotoChild(int i) {
+        return xmlDoc.gotoChild(i);
+    }
+
+    public XMLTag gotoChild(String nodeName) {
+        return xmlDoc.gotoChild(nodeName);
+    }
+
+    public XMLTag gotoFirstChild() {
+        return xmlDoc.gotoFirstChild();
+    }
+
+    public XMLTag gotoFirstChild(String name) {
+        return xmlDoc.gotoFirstChild(name);
+    }
+
+    public XMLTag gotoLastChild() {
+        return xmlDoc.gotoLastChild();
+    }
+
+    public XMLTag gotoLastChild(String name) {
+        return xmlDoc.gotoLastChild(name);
+    }
+
+    public boolean hasTag(String relativeXpath, Object... arguments) {
+        return xmlDoc.hasTag(relativeXpath, arguments);
+    }
+
+    public boolean hasTag(XMLPath path, Object... arguments) {
+        return xmlDoc.hasTag(path, arguments);
+    }
+
+    public boolean hasAttribute(String name, String relativeXpath, Object... arguments) {
+        return xmlDoc.hasAttribute(name, relativeXpath, arguments);
+    }
+
+    public boolean hasAttribute(String name, XMLPath path, Object... arguments) {
+        return xmlDoc.hasAttribute(name, path, arguments);
+    }
+
+    public boolean hasAttribute(String name) {
+        return xmlDoc.hasAttribute(name);
+    }
+
+    public XMLTag forEachChild(CallBack callBack) {
+        return xmlDoc.forEachChild(callBack);
+    }
+
+    public XMLTag forEach(CallBack callBack, String relativeXpath, Object... arguments) {
+        return xmlDoc.forEach(callBack, relativeXpath, arguments);
+    }
+
+    public XMLTag forEach(CallBack callBack, XMLPath path, Object... arguments) {
+        return xmlDoc.forEach(callBack, path, arguments);
+    }
+
+    public XMLTag forEach(String xpath, CallBack callBack) {
+        return xmlDoc.forEach(xpath, callBack);
+    }
+
+    public String rawXpathString(String relativeXpath, Object... arguments) {
+        return xmlDoc.rawXpathString(relativeXpath, arguments);
+    }
+
+    public String rawXpathString(XMLPath path, Object... arguments) {
+        return xmlDoc.rawXpathString(path, arguments);
+    }
+
+    public Number rawXpathNumber(String relativeXpath, Object... arguments) {
+        return xmlDoc.rawXpathNumber(relativeXpath, arguments);
+    }
+
+    public Number rawXpathNumber(XMLPath path, Object... arguments) {
+        return xmlDoc.rawXpathNumber(path, arguments);
+    }
+
+    public Boolean rawXpathBoolean(String relativeXpath, Object... arguments) {
+        return xmlDoc.rawXpathBoolean(relativeXpath, arguments);
+    }
+
+    public Boolean rawXpathBoolean(XMLPath path, Object... arguments) {
+        return xmlDoc.rawXpathBoolean(path, arguments);
+    }
+
+    public Node rawXpathNode(String relativeXpath, Object... arguments) {
+        return xmlDoc.rawXpathNode(relativeXpath, arguments);
+    }
+
+    public Node rawXpathNode(XMLPath path, Object... arguments) {
+        return xmlDoc.rawXpathNode(path, arguments);
+    }
+
+    public NodeList rawXpathNodeSet(String relativeXpath, Object... arguments) {
+        return xmlDoc.rawXpathNodeSet(relativeXpath, arguments);
+    }
+
+    public NodeList rawXpathNodeSet(XMLPath path, Object... arguments) {
+        return xmlDoc.rawXpathNodeSet(path, arguments);
+    }
+
+    public Element getCurrentTag() {
+        return xmlDoc.getCurrentTag();
+    }
+
+    public int getChildCount() {
+        return xmlDoc.getChildCount();
+    }
+
+    public Iterable<XMLTag> getChilds() {
+        return xmlDoc.getChilds();
+    }
+
+    public Iterable<XMLTag> getChilds(String relativeXpath, Object... arguments) {
+        return xmlDoc.getChilds(relativeXpath, arguments);
+    }
+
+    public Iterable<XMLTag> getChilds(XMLPath path, Object... arguments) {
+        return xmlDoc.getChilds(path, arguments);
+    }
+
+    public List<Element> getChildElement() {
+        return xmlDoc.getChildElement();
+    }
+
+    public String getCurrentTagName() {
+        return xmlDoc.getCurrentTagName();
+    }
+
+    public String getCurrentTagLocation() {
+        return xmlDoc.getCurrentTagLocation();
+    }
+
+    public NamespaceContext getContext() {
+        return xmlDoc.getContext();
+    }
+
+    public String getPefix(String namespaceURI) {
+        return xmlDoc.getPefix(namespaceURI);
+    }
+
+    public String[] getPefixes(String namespaceURI) {
+        return xmlDoc.getPefixes(namespaceURI);
+    }
+
+    public String getText() {
+        return xmlDoc.getText();
+    }
+
+    public String getText(String relativeXpath, Object... arguments) {
+        return xmlDoc.getText(relativeXpath, arguments);
+    }
+
+    public String getText(XMLPath path, Object... arguments) {
+        return xmlDoc.getText(path, arguments);
+    }
+
+    public String getCDATA() {
+        return xmlDoc.getCDATA();
+    }
+
+    public String getCDATA(String relativeXpath, Object... arguments) {
+        return xmlDoc.getCDATA(relativeXpath, arguments);
+    }
+
+    public String getCDATA(XMLPath path, Object... arguments) {
+        return xmlDoc.getCDATA(path, arguments);
+    }
+
+    public String getTextOrCDATA() {
+        return xmlDoc.getTextOrCDATA();
+    }
+
+    public String getTextOrCDATA(String relativeXpath, Object... arguments) {
+        return xmlDoc.getTextOrCDATA(relativeXpath, arguments);
+    }
+
+    public String getCDATAorText() {
+        return xmlDoc.getCDATAorText();
+    }
+
+    public String getCDATAorText(String relativeXpath, Object... arguments) {
+        return xmlDoc.getCDATAorText(relativeXpath, arguments);
+    }
+
+    public String[] getAttributeNames() {
+        return xmlDoc.getAttributeNames();
+    }
+
+    public String getAttribute(String name) {
+        return xmlDoc.getAttribute(name);
+    }
+
+    public String getAttribute(String name, String relativeXpath, Object... arguments) {
+        return xmlDoc.getAttribute(name, relativeXpath, arguments);
+    }
+
+    public String getAttribute(String name, XMLPath path, Object... arguments) {
+        return xmlDoc.getAttribute(name, path, arguments);
+    }
+
+    public String findAttribute(String name) {
+        return xmlDoc.findAttribute(name);
+    }
+
+    public String findAttribute(String name, String relativeXpath, Object... arguments) {
+        return xmlDoc.findAttribute(name, relativeXpath, arguments);
+    }
+
+    public String findAttribute(String name, XMLPath path, Object... arguments) {
+        return xmlDoc.findAttribute(name, path, arguments);
+    }
+
+    public Map<String, String> extract(XMLExtractor extractor) {
+        return xmlDoc.extract(extractor);
+    }
+
+    public XMLTag getInnerDocument() {
+        return xmlDoc.getInnerDocument();
+    }
+
+    public String getInnerText() {
+        return xmlDoc.getInnerText();
+    }
+
+    public XMLTag duplicate() {
+        return xmlDoc.duplicate();
+    }
+
+    public FrozenXMLDoc freeze() {
+        return xmlDoc.freeze();
+    }
+
+    public CompactXMLDoc compact() {
+        return xmlDoc.compact();
+    }
+
+    public XMLTag setText(String text) {
+        return modified(xmlDoc.setText(text));
+    }
+
+    public XMLTag setText(String text, String relativeXpath, Object... arguments) {
+        return modified(xmlDoc.setText(text, relativeXpath, arguments));
+    }
+
+    public XMLTag setText(String text, XMLPath path, Object... arguments) {
+        return modified(xmlDoc.setText(text, path, arguments));
+    }
+
+    public XMLTag setTextIfExist(String text, String relativeXpath, Object... arguments) {
+        return modified(xmlDoc.setTextIfExist(text, relativeXpath, arguments));
+    }
+
+    public XMLTag setCDATA(String data) {
+        return modified(xmlDoc.setCDATA(data));
+    }
+
+    public XMLTag setCDATA(String data, String relativeXpath, Object... arguments) {
+        return modified(xmlDoc.setCDATA(data, relativeXpath, arguments));
+    }
+
+    public XMLTag setCDATAIfExist(String data, String relativeXpath, Object... arguments) {
+        return modified(xmlDoc.setCDATAIfExist(data, relativeXpath, arguments));
+    }
+
+    public XMLTag setAttribute(String name, String value) {
+        return modified(xmlDoc.setAttribute(name, value));
+    }
+
+    public XMLTag setAttributeIfExist(String name, String value) {
+        return modified(xmlDoc.setAttributeIfExist(name, value));
+    }
+
+    public XMLTag setAttribute(String name, String value, String relativeXpath, Object... arguments) {
+        return modified(xmlDoc.setAttribute(name, value, relativeXpath, arguments));
+    }
+
+    public XMLTag setAttribute(String name, String value, XMLPath path, Object... arguments) {
+        return modified(xmlDoc.setAttribute(name, value, path, arguments));
+    }
+
+    public XMLTag setAttributeIfExist(String name, String value, String relativeXpath, Object... arguments) {
+        return modified(xmlDoc.setAttributeIfExist(name, value, relativeXpath, arguments));
+    }
+
+    public XMLTag deleteChilds() {
+        return modified(xmlDoc.deleteChilds());
+    }
+
+    public XMLTag delete() {
+        return modified(xmlDoc.delete());
+    }
+
+    public XMLTag deleteAttributes() {
+        return modified(xmlDoc.deleteAttributes());
+    }
+
+    public XMLTag deleteAttribute(String name) {
+        return modified(xmlDoc.deleteAttribute(name));
+    }
+
+    public XMLTag deleteAttributeIfExists(String name) {
+        return modified(xmlDoc.deleteAttributeIfExists(name));
+    }
+
+    public XMLTag renameTo(String newNodeName) {
+        return modified(xmlDoc.renameTo(newNodeName));
+    }
+
+    public XMLTag deletePrefixes() {
+        return modified(xmlDoc.deletePrefixes());
+    }
+
+    public Document toDocument() {
+        return xmlDoc.toDocument();
+    }
+
+    public Source toSource() {
+        return xmlDoc.toSource();
+    }
+
+    @Override
+    public String toString() {
+        return xmlDoc.toString();
+    }
+
+    public String toString(String encoding) {
+        return xmlDoc.toString(encoding);
+    }
+
+    public String toString(String encoding, int indent) {
+        return xmlDoc.toString(encoding, indent);
+    }
+
+    public byte[] toBytes() {
+        return xmlDoc.toBytes();
+    }
+
+    public byte[] toBytes(String encoding) {
+        return xmlDoc.toBytes(encoding);
+    }
+
+    public byte[] toBytes(String encoding, int indent) {
+        return xmlDoc.toBytes(encoding, indent);
+    }
+
+    public XMLTag toResult(Result out) {
+        return xmlDoc.toResult(out);
+    }
+
+    public XMLTag toResult(Result out, String encoding) {
+        return xmlDoc.toResult(out, encoding);
+    }
+
+    public XMLTag toStream(OutputStream out) {
+        return xmlDoc.toStream(out);
+    }
+
+    public XMLTag toStream(OutputStream out, String encoding) {
+        return xmlDoc.toStream(out, encoding);
+    }
+
+    public XMLTag toStream(OutputStream out, String encoding, int indent) {
+        return xmlDoc.toStream(out, encoding, indent);
+    }
+
+    public XMLTag toStream(Writer out) {
+        return xmlDoc.toStream(out);
+    }
+
+    public XMLTag toStream(Writer out, String encoding) {
+        return xmlDoc.toStream(out, encoding);
+    }
+
+    public XMLTag toStream(Writer out, String encoding, int indent) {
+        return xmlDoc.toStream(out, encoding, indent);
+    }
+
+    public Result toResult() {
+        return xmlDoc.toResult();
+    }
+
+    public Result toResult(String encoding) {
+        return xmlDoc.toResult(encoding);
+    }
+
+    public OutputStream toOutputStream() {
+        return xmlDoc.toOutputStream();
+    }
+
+    public OutputStream toOutputStream(String encoding) {
+        return xmlDoc.toOutputStream(encoding);
+    }
+
+    public Writer toWriter() {
+        return xmlDoc.toWriter();
+    }
+
+    public Writer toWriter(String encoding) {
+        return xmlDoc.toWriter(encoding);
+    }
+
+    public ValidationResult validate(Source... schemas) {
+        return xmlDoc.validate(schemas);
+    }
+
+    public ValidationResult validate(URL... schemaLocations) {
+        return xmlDoc.validate(schemaLocations);
+    }
+
+    private XMLTag modified(XMLTag tag) {
+        definition.modified();
+        return tag;
+    }
+}
@@ -0,0 +1,332 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static javax.xml.XMLConstants.*;
+
+/**
+ * Reads an XML document with StAX and yields one small {@link XMLTag} document per element having a given name, so that
+ * the memory used stays bounded by the size of a record instead of the size of the whole document.
+ * <p/>
+ * The tag name is either a local name, matching elements in any namespace, or a prefixed name matching the prefix used
+ * in the document. Matching elements nested in another matching element are part of the outer record. Each record
+ * declares the namespaces in scope at its position in the document.
+ * <p/>
+ * A stream can be iterated once. The underlying input is closed when all records have been read, when an error occurs,
+ * or when {@link #close()} is called.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class XMLDocStream implements Iterable<XMLTag>, Closeable {
+
+    private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private static final XMLInputFactory namespaceAwareFactory = newFactory(true);
+    private static final XMLInputFactory ignoreNamespaceFactory = newFactory(false);
+
+    private final XMLStreamReader reader;
+    private final Closeable input;
+    private final String tagName;
+    private final boolean ignoreNamespaces;
+    // prefix / namespace pairs declared by the ancestors of the current element, and where each element starts
+    private final List<String> scope = new ArrayList<String>();
+    private final List<Integer> marks = new ArrayList<Integer>();
+    private boolean iterated;
+    private boolean ready;
+    private boolean closed;
+
+    private XMLDocStream(XMLStreamReader reader, Closeable input, String tagName, boolean ignoreNamespaces) {
+        this.reader = reader;
+        this.input = input;
+        this.tagName = tagName;
+        this.ignoreNamespaces = ignoreNamespaces;
+    }
+
+    static XMLDocStream open(InputStream is, String tagName, boolean ignoreNamespaces) {
+        try {
+            return new XMLDocStream(factory(ignoreNamespaces).createXMLStreamReader(is), is, tagName, ignoreNamespaces);
+        } catch (XMLStreamException e) {
+            close(is);
+            throw new XMLDocumentException("Error reading XML stream: " + e.getMessage(), e);
+        }
+    }
+
+    static XMLDocStream open(Reader reader, String tagName, boolean ignoreNamespaces) {
+        try {
+            return new XMLDocStream(factory(ignoreNamespaces).createXMLStreamReader(reader), reader, tagName, ignoreNamespaces);
+        } catch (XMLStreamException e) {
+            close(reader);
+            throw new XMLDocumentException("Error reading XML stream: " + e.getMessage(), e);
+        }
+    }
+
+    static XMLDocStream open(File file, String tagName, boolean ignoreNamespaces) {
+        try {
+            return open(new FileInputStream(file), tagName, ignoreNamespaces);
+        } catch (IOException e) {
+            throw new XMLDocumentException("Error reading XML stream: " + e.getMessage(), e);
+        }
+    }
+
+    public Iterator<XMLTag> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("An XML stream can only be iterated once");
+        }
+        iterated = true;
+        return new Iterator<XMLTag>() {
+            public boolean hasNext() {
+                return advance();
+            }
+
+            public XMLTag next() {
+                if (!advance()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return record();
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Closes the underlying input. Remaining records are not read.
+     */
+    public void close() {
+        if (!closed) {
+            closed = true;
+            try {
+                reader.close();
+            } catch (XMLStreamException ignored) {
+            }
+            close(input);
+        }
+    }
+
+    /**
+     * Moves the reader to the start of the next record
+     *
+     * @return false if there is no more record
+     */
+    private boolean advance() {
+        if (ready) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (matches()) {
+                        ready = true;
+                        return true;
+                    }
+                    marks.add(scope.size());
+                    for (int i = 0, count = reader.getNamespaceCount(); i < count; i++) {
+                        String prefix = reader.getNamespacePrefix(i);
+                        scope.add(prefix == null ? DEFAULT_NS_PREFIX : prefix);
+                        scope.add(reader.getNamespaceURI(i) == null ? NULL_NS_URI : reader.getNamespaceURI(i));
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    int mark = marks.remove(marks.size() - 1);
+                    scope.subList(mark, scope.size()).clear();
+                }
+            }
+            close();
+            return false;
+        } catch (XMLStreamException e) {
+            close();
+            throw new XMLDocumentException("Error reading XML stream: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private boolean matches() {
+        String local = reader.getLocalName();
+        if (tagName.equals(local)) {
+            return true;
+        }
+        String prefix = reader.getPrefix();
+        if (prefix != null && prefix.length() > 0) {
+            return tagName.length() == prefix.length() + 1 + local.length() && tagName.startsWith(prefix)
+                    && tagName.charAt(prefix.length()) == ':' && tagName.endsWith(local);
+        }
+        // without namespace support, the local name is the qualified name
+        int colon = local.indexOf(':');
+        return ignoreNamespaces && colon != -1 && tagName.indexOf(':') == -1 && tagName.equals(local.substring(colon + 1));
+    }
+
+    /**
+     * Reads the record the reader is positioned on into a new document
+     */
+    private XMLTag record() {
+        Document document = XMLDocumentBuilderFactory.withDocumentBuilder(ignoreNamespaces, new XMLDocumentBuilderFactory.Callback<Document>() {
+            public Document apply(DocumentBuilder b) {
+                return b.newDocument();
+            }
+        });
+        try {
+            Element root = element(document);
+            if (!ignoreNamespaces) {
+                // namespaces declared by the ancestors, unless redeclared by the record itself
+                Map<String, String> inherited = new LinkedHashMap<String, String>();
+                for (int i = 0; i < scope.size(); i += 2) {
+                    inherited.put(scope.get(i), scope.get(i + 1));
+                }
+                for (Map.Entry<String, String> entry : inherited.entrySet()) {
+                    String name = entry.getKey().length() == 0 ? XMLNS_ATTRIBUTE : XMLNS_ATTRIBUTE + ":" + entry.getKey();
+                    if (!root.hasAttributeNS(XMLNS_ATTRIBUTE_NS_URI, entry.getKey().length() == 0 ? XMLNS_ATTRIBUTE : entry.getKey())
+                            && entry.getValue().length() > 0) {
+                        root.setAttributeNS(XMLNS_ATTRIBUTE_NS_URI, name, entry.getValue());
+                    }
+                }
+            }
+            document.appendChild(root);
+            Node parent = root;
+            int depth = 1;
+            while (depth > 0) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        parent = parent.appendChild(element(document));
+                        depth++;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        parent = parent.getParentNode();
+                        depth--;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        parent.appendChild(document.createTextNode(reader.getText()));
+                        break;
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        // unresolved entities have no replacement text
+                        parent.appendChild(reader.getText() == null ?
+                                document.createEntityReference(reader.getLocalName()) :
+                                document.createTextNode(reader.getText()));
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        parent.appendChild(document.createCDATASection(reader.getText()));
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        parent.appendChild(document.createComment(reader.getText()));
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        parent.appendChild(document.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+                        break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            close();
+            throw new XMLDocumentException("Error reading XML stream: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        return XMLDocBuilder.from(document, ignoreNamespaces);
+    }
+
+    private Element element(Document document) {
+        Element element;
+        if (ignoreNamespaces) {
+            element = document.createElement(qualifiedName(reader.getPrefix(), reader.getLocalName()));
+            for (int i = 0, count = reader.getAttributeCount(); i < count; i++) {
+                element.setAttribute(qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+            }
+        } else {
+            element = document.createElementNS(emptyToNull(reader.getNamespaceURI()), qualifiedName(reader.getPrefix(), reader.getLocalName()));
+            for (int i = 0, count = reader.getNamespaceCount(); i < count; i++) {
+                String prefix = reader.getNamespacePrefix(i);
+                String uri = reader.getNamespaceURI(i);
+                String name = prefix == null || prefix.length() == 0 ? XMLNS_ATTRIBUTE : XMLNS_ATTRIBUTE + ":" + prefix;
+                element.setAttributeNS(XMLNS_ATTRIBUTE_NS_URI, name, uri == null ? NULL_NS_URI : uri);
+            }
+            for (int i = 0, count = reader.getAttributeCount(); i < count; i++) {
+                element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)), qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)), reader.getAttributeValue(i));
+            }
+        }
+        return element;
+    }
+
+    private static String qualifiedName(String prefix, String local) {
+        return prefix == null || prefix.length() == 0 ? local : prefix + ":" + local;
+    }
+
+    private static String emptyToNull(String s) {
+        return s == null || s.length() == 0 ? null : s;
+    }
+
+    private static XMLInputFactory factory(boolean ignoreNamespaces) {
+        return ignoreNamespaces ? ignoreNamespaceFactory : namespaceAwareFactory;
+    }
+
+    private static XMLInputFactory newFactory(boolean namespaceAware) {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, namespaceAware);
+        if (factory.isPropertySupported(REPORT_CDATA)) {
+            factory.setProperty(REPORT_CDATA, Boolean.TRUE);
+        }
+        factory.setXMLResolver(new XMLResolver() {
+            public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) throws XMLStreamException {
+                try {
+                    // the content is already decoded: its declaration must not make the parser decode it again
+                    String content = CachedEntityResolver.instance.content(publicID, systemID, baseURI);
+                    return new ByteArrayInputStream(CachedEntityResolver.declaring(content, "UTF-8").getBytes("UTF-8"));
+                } catch (Exception e) {
+                    throw new XMLStreamException(e.getMessage(), e);
+                }
+            }
+        });
+        return factory;
+    }
+
+    private static void close(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -15,85 +15,127 @@
  */
 package com.mycila.xmltool;
 
-import org.apache.commons.pool2.BasePooledObjectFactory;
-import org.apache.commons.pool2.ObjectPool;
-import org.apache.commons.pool2.PooledObject;
-import org.apache.commons.pool2.impl.DefaultPooledObject;
-import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.validation.Schema;
 import java.util.concurrent.TimeoutException;
 
 public class XMLDocumentBuilderFactory {
 
-    private static ObjectPool<DocumentBuilder> ignoreNamespaceDocumentBuilderPool;
-    private static ObjectPool<DocumentBuilder> namespaceAwareDocumentBuilderPool;
+    /**
+     * How document builders are provided to the threads parsing or creating documents
+     */
+    public enum Strategy {
+        /**
+         * Document builders are borrowed from a pool shared by all threads: a commons-pool pool configured with
+         * {@link #setPoolConfig(GenericObjectPoolConfig)} if commons-pool is in the classpath, or a lock-free pool
+         * which never blocks otherwise. This is the default.
+         */
+        POOL,
+        /**
+         * Each thread keeps its own document builders, reset after each use. Virtual threads use the pool.
+         */
+        THREAD_LOCAL
+    }
 
-    static {
-        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
-        config.setMinIdle(0);
-        config.setMaxIdle(Runtime.getRuntime().availableProcessors());
-        config.setMaxTotal(Runtime.getRuntime().availableProcessors() * 4);
-        config.setMaxWaitMillis(-1);
+    private static final ObjectProvider.Factory<Boolean, DocumentBuilder> documentBuilderFactory = new ObjectProvider.Factory<Boolean, DocumentBuilder>() {
+        public DocumentBuilder create(Boolean ignoreNamespaces) {
+            return newDocumentBuilder(ignoreNamespaces);
+        }
 
-        try {
-            Class.forName("java.lang.management.ManagementFactory");
-        } catch (Exception e) {
-            config.setJmxEnabled(false);
+        public void reset(Boolean ignoreNamespaces, DocumentBuilder builder) {
+            builder.reset();
+            builder.setErrorHandler(new XMLErrorHandler(true));
+            builder.setEntityResolver(CachedEntityResolver.instance);
+        }
+    };
+
+    private static final ObjectProvider.Factory<Schema, DocumentBuilder> validatingDocumentBuilderFactory = new ObjectProvider.Factory<Schema, DocumentBuilder>() {
+        public DocumentBuilder create(Schema schema) {
+            return newValidatingDocumentBuilder(schema);
+        }
+
+        public void reset(Schema schema, DocumentBuilder builder) {
+            builder.reset();
+            builder.setEntityResolver(CachedEntityResolver.instance);
         }
+    };
+
+    private static volatile ObjectProvider<Boolean, DocumentBuilder> documentBuilderPool;
+    private static volatile ObjectProvider<Schema, DocumentBuilder> validatingDocumentBuilderPool;
+    private static volatile ObjectProvider<Boolean, DocumentBuilder> documentBuilderProvider;
+    // a single instance, so that the builders kept by the threads are not lost when the configuration changes
+    private static final ThreadLocalObjectProvider<Boolean, DocumentBuilder> threadLocalProvider = new ThreadLocalObjectProvider<Boolean, DocumentBuilder>(documentBuilderFactory, null);
+    private static volatile Strategy strategy = Strategy.POOL;
 
-        setPoolConfig(config);
+    static {
+        if (Utils.isCommonsPoolAvailable()) {
+            setPoolConfig(CommonsObjectProvider.defaultConfig());
+        } else {
+            int maxIdle = Runtime.getRuntime().availableProcessors();
+            documentBuilderPool = new QueueObjectProvider<Boolean, DocumentBuilder>(documentBuilderFactory, maxIdle);
+            // a builder pins its schema: only the builders of the last used schemas are kept
+            validatingDocumentBuilderPool = new QueueObjectProvider<Schema, DocumentBuilder>(validatingDocumentBuilderFactory, maxIdle, 16);
+            setStrategy(strategy);
+        }
     }
 
+    /**
+     * Configure the pools of document builders. Requires commons-pool.
+     */
     public static void setPoolConfig(GenericObjectPoolConfig config) {
-        ignoreNamespaceDocumentBuilderPool = new GenericObjectPool<DocumentBuilder>(new BasePooledObjectFactory<DocumentBuilder>() {
-            @Override
-            public DocumentBuilder create() throws Exception {
-                return newDocumentBuilder(true);
-            }
+        // namespace aware and namespace ignoring builders each get the configured limits
+        documentBuilderPool = CommonsObjectProvider.create(documentBuilderFactory, config, -1);
+        // idle builders of the least used schemas are destroyed when the limit is reached
+        validatingDocumentBuilderPool = CommonsObjectProvider.create(validatingDocumentBuilderFactory, config, config.getMaxTotal());
+        setStrategy(strategy);
+    }
 
-            @Override
-            public PooledObject<DocumentBuilder> wrap(DocumentBuilder obj) {
-                return new DefaultPooledObject<DocumentBuilder>(obj);
-            }
-        }, config);
-        namespaceAwareDocumentBuilderPool = new GenericObjectPool<DocumentBuilder>(new BasePooledObjectFactory<DocumentBuilder>() {
-            @Override
-            public DocumentBuilder create() throws Exception {
-                return newDocumentBuilder(false);
-            }
+    /**
+     * Select how document builders are provided to the threads. Validating document builders are always pooled.
+     *
+     * @param s The strategy to use from now on
+     */
+    public static void setStrategy(Strategy s) {
+        Utils.notNull("strategy", s);
+        threadLocalProvider.setFallback(documentBuilderPool);
+        documentBuilderProvider = s == Strategy.THREAD_LOCAL ? threadLocalProvider : documentBuilderPool;
+        strategy = s;
+    }
 
-            @Override
-            public PooledObject<DocumentBuilder> wrap(DocumentBuilder obj) {
-                return new DefaultPooledObject<DocumentBuilder>(obj);
-            }
-        }, config);
+    public static Strategy getStrategy() {
+        return strategy;
     }
 
     public static <V> V withDocumentBuilder(boolean ignoreNamespaces, final Callback<V> c) {
+        return apply(documentBuilderProvider, ignoreNamespaces, c);
+    }
+
+    /**
+     * Runs the callback with a namespace aware document builder validating the parsed documents against the given
+     * schema. The callback is responsible for setting the error handler collecting the validation errors.
+     */
+    static <V> V withValidatingDocumentBuilder(Schema schema, final Callback<V> c) {
+        return apply(validatingDocumentBuilderPool, schema, c);
+    }
+
+    private static <K, V> V apply(ObjectProvider<K, DocumentBuilder> provider, K key, Callback<V> c) {
         try {
-            if (ignoreNamespaces) {
-                DocumentBuilder documentBuilder = null;
+            long start = Metrics.start();
+            DocumentBuilder documentBuilder = provider.acquire(key);
+            Metrics.stop(MetricsEvent.POOL_WAIT, start);
+            try {
+                start = Metrics.start();
                 try {
-                    documentBuilder = ignoreNamespaceDocumentBuilderPool.borrowObject();
                     return c.apply(documentBuilder);
                 } finally {
-                    if (documentBuilder != null) {
-                        ignoreNamespaceDocumentBuilderPool.returnObject(documentBuilder);
-                    }
-                }
-            } else {
-                DocumentBuilder documentBuilder = null;
-                try {
-                    documentBuilder = namespaceAwareDocumentBuilderPool.borrowObject();
-                    return c.apply(documentBuilder);
-                } finally {
-                    if (documentBuilder != null) {
-                        namespaceAwareDocumentBuilderPool.returnObject(documentBuilder);
-                    }
+                    Metrics.stop(MetricsEvent.PARSE, start);
                 }
+            } finally {
+                // a builder which failed to parse is still usable
+                provider.release(key, documentBuilder, true);
             }
         } catch (TimeoutException e) {
             throw new XMLDocumentException("Error creating XMLDoc: timed out.", e);
@@ -122,4 +164,17 @@ public class XMLDocumentBuilderFactory {
         }
     }
 
+    static DocumentBuilder newValidatingDocumentBuilder(Schema schema) {
+        try {
+            javax.xml.parsers.DocumentBuilderFactory factory = javax.xml.parsers.DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setSchema(schema);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            builder.setEntityResolver(CachedEntityResolver.instance);
+            return builder;
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
 }
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import javax.xml.xpath.XPathExpressionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.mycila.xmltool.Utils.notEmpty;
+import static com.mycila.xmltool.Utils.notNull;
+
+/**
+ * A set of named XPath expressions, extracted together from a tag by {@link XMLTag#extract(XMLExtractor)}:
+ * 
+ * <code>XMLExtractor fields = XMLExtractor.compile(expressions);</code>
+ * <code>Map&lt;String, String&gt; values = tag.extract(fields);</code>
+ * 
+ * Expressions which are simple paths (see {@link XPathCache#setSimplePathEvaluation(boolean)}), such as
+ * <code>header/id</code> or <code>item[2]/@ref</code>, are resolved together in a single walk of the tree below the
+ * current tag, which only descends into the elements matched by at least one of them. Other expressions are evaluated
+ * one after the other by the XPath engine.
+ * 
+ * {@code XMLExtractor} instances are immutable and thread-safe: create them once and reuse them.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class XMLExtractor {
+
+    private final String[] names;
+    private final XMLPath[] paths;
+
+    private XMLExtractor(String[] names, XMLPath[] paths) {
+        this.names = names;
+        this.paths = paths;
+    }
+
+    /**
+     * Create an extractor from XPath expressions
+     *
+     * @param expressions XPath expressions relative to the current tag, by field name. The fields are extracted in the
+     *                    iteration order of this map.
+     * @return The extractor
+     */
+    public static XMLExtractor compile(Map<String, String> expressions) {
+        notNull("expressions", expressions);
+        Map<String, XMLPath> paths = new LinkedHashMap<String, XMLPath>();
+        for (Map.Entry<String, String> entry : expressions.entrySet()) {
+            notEmpty("XPath expression", entry.getValue());
+            paths.put(entry.getKey(), XMLPath.compile(entry.getValue()));
+        }
+        return of(paths);
+    }
+
+    /**
+     * Create an extractor from precompiled XPath expressions
+     *
+     * @param paths XPath expressions relative to the current tag, by field name. They cannot declare variables. The
+     *              fields are extracted in the iteration order of this map.
+     * @return The extractor
+     */
+    public static XMLExtractor of(Map<String, XMLPath> paths) {
+        notNull("paths", paths);
+        String[] names = new String[paths.size()];
+        XMLPath[] compiled = new XMLPath[paths.size()];
+        int i = 0;
+        for (Map.Entry<String, XMLPath> entry : paths.entrySet()) {
+            notEmpty("Field name", entry.getKey());
+            notNull("XPath expression", entry.getValue());
+            if (entry.getValue().variables().length > 0) {
+                throw new XMLDocumentException("XPath '%s' of field '%s' cannot declare variables", entry.getValue().getExpression(), entry.getKey());
+            }
+            names[i] = entry.getKey();
+            compiled[i++] = entry.getValue();
+        }
+        return new XMLExtractor(names, compiled);
+    }
+
+    /**
+     * @return The names of the fields, in extraction order
+     */
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * @return True if all the expressions are simple paths, whose results only depend on the structure of the document
+     */
+    boolean isStructural(NamespaceBindings namespaces) {
+        for (XMLPath path : paths) {
+            try {
+                if (path.getCompiled(namespaces).getSimplePath() == null) {
+                    return false;
+                }
+            } catch (XPathExpressionException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param edits values overriding the ones of the document, or null
+     * @return The value of each field: the text of the selected element as {@link XMLTag#getText()} returns it, the
+     *         value of the selected attribute or other node, or null if the expression selects nothing
+     */
+    Map<String, String> extract(XMLDocDefinition definition, Element context, XMLSerializer.Edits edits) {
+        NamespaceBindings namespaces = definition.getNamespaceBindings();
+        CompiledXPath[] expressions = new CompiledXPath[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            try {
+                expressions[i] = paths[i].getCompiled(namespaces);
+            } catch (Exception e) {
+                throw new XMLDocumentException(String.format("Error compiling xpath '%s'", paths[i].getExpression()), e);
+            }
+        }
+        Node[] nodes;
+        try {
+            nodes = CompiledXPath.evaluateNodes(context, expressions);
+        } catch (XPathExpressionException e) {
+            throw new XMLDocumentException(String.format("Error executing xpath from node '%s': %s", context.getNodeName(), e.getMessage()), e);
+        }
+        Map<String, String> values = new LinkedHashMap<String, String>(names.length * 2);
+        for (int i = 0; i < names.length; i++) {
+            values.put(names[i], value(nodes[i], edits));
+        }
+        return values;
+    }
+
+    private static String value(Node node, XMLSerializer.Edits edits) {
+        if (node == null) {
+            return null;
+        }
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                String text = edits == null ? null : edits.getText((Element) node);
+                if (text != null) {
+                    return edits.isCDATA((Element) node) ? "" : text;
+                }
+                StringBuilder sb = new StringBuilder();
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    if (child.getNodeType() == Node.TEXT_NODE && child.getNodeValue() != null) {
+                        sb.append(child.getNodeValue());
+                    }
+                }
+                return sb.toString();
+            case Node.ATTRIBUTE_NODE:
+                return edits == null ? node.getNodeValue() : edits.getValue((Attr) node);
+            default:
+                return node.getNodeValue();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < names.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append(names[i]).append('=').append(paths[i].getExpression());
+        }
+        return sb.append('}').toString();
+    }
+}
@@ -15,82 +15,167 @@
  */
 package com.mycila.xmltool;
 
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathFactory;
 
-import org.apache.commons.pool2.BasePooledObjectFactory;
-import org.apache.commons.pool2.ObjectPool;
-import org.apache.commons.pool2.PooledObject;
-import org.apache.commons.pool2.impl.DefaultPooledObject;
-import org.apache.commons.pool2.impl.GenericObjectPool;
-import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
-
 public class XMLFactories {
-    private static ObjectPool<TransformerFactory> transformerFactoryPool;
-    private static ObjectPool<XPathFactory> xpathFactoryPool;
 
-    static {
-        GenericObjectPoolConfig config = new GenericObjectPoolConfig();
-        config.setMinIdle(0);
-        config.setMaxIdle(Runtime.getRuntime().availableProcessors());
-        config.setMaxTotal(Runtime.getRuntime().availableProcessors() * 4);
-        config.setMaxWaitMillis(-1);
+    // TransformerFactory and XPathFactory instances, keyed by their class
+    private static final ObjectProvider.Factory<Class<?>, Object> factoryFactory = new ObjectProvider.Factory<Class<?>, Object>() {
+        public Object create(Class<?> type) {
+            return type == TransformerFactory.class ? TransformerFactory.newInstance() : XPathFactory.newInstance();
+        }
+
+        public void reset(Class<?> type, Object factory) {
+        }
+    };
+
+    private static final ObjectProvider.Factory<OutputFormat, Transformer> transformerFactory = new ObjectProvider.Factory<OutputFormat, Transformer>() {
+        public Transformer create(OutputFormat format) throws TransformerConfigurationException {
+            Transformer transformer = createTransformer();
+            format.applyTo(transformer);
+            return transformer;
+        }
+
+        public void reset(OutputFormat format, Transformer transformer) {
+            transformer.reset();
+            format.applyTo(transformer);
+        }
+    };
+
+    private static volatile ObjectProvider<Class<?>, Object> factoryPool;
+    private static volatile ObjectProvider<OutputFormat, Transformer> transformerPool;
 
-        setPoolConfig(config);
+    static {
+        if (Utils.isCommonsPoolAvailable()) {
+            setPoolConfig(CommonsObjectProvider.defaultConfig());
+        } else {
+            int maxIdle = Runtime.getRuntime().availableProcessors();
+            factoryPool = new QueueObjectProvider<Class<?>, Object>(factoryFactory, maxIdle);
+            transformerPool = new QueueObjectProvider<OutputFormat, Transformer>(transformerFactory, maxIdle);
+        }
     }
 
+    /**
+     * Configure the pools of factories and transformers. Requires commons-pool.
+     */
     public static void setPoolConfig(final GenericObjectPoolConfig config) {
-        transformerFactoryPool = new GenericObjectPool<TransformerFactory>(
-            new BasePooledObjectFactory<TransformerFactory>() {
-                @Override
-                public TransformerFactory create() throws Exception {
-                    return TransformerFactory.newInstance();
-                }
-
-                @Override
-                public PooledObject<TransformerFactory> wrap(final TransformerFactory obj) {
-                    return new DefaultPooledObject<TransformerFactory>(obj);
-                }
-            }, config);
-        xpathFactoryPool = new GenericObjectPool<XPathFactory>(new BasePooledObjectFactory<XPathFactory>() {
-            @Override
-            public XPathFactory create() throws Exception {
-                return XPathFactory.newInstance();
-            }
+        factoryPool = CommonsObjectProvider.create(factoryFactory, config, -1);
+        transformerPool = CommonsObjectProvider.create(transformerFactory, config, -1);
+    }
 
-            @Override
-            public PooledObject<XPathFactory> wrap(final XPathFactory obj) {
-                return new DefaultPooledObject<XPathFactory>(obj);
-            }
-        }, config);
+    /**
+     * Runs the callback with an identity transformer configured for the given output, borrowed from a pool.
+     *
+     * @param encoding        Output encoding, or null to keep the default
+     * @param indent          Number of spaces per indentation level, or 0 to disable indentation
+     * @param omitDeclaration Whether the XML declaration is omitted
+     * @param standalone      Value of the standalone declaration, or null to keep the default
+     */
+    static <V> V withTransformer(String encoding, int indent, boolean omitDeclaration, Boolean standalone, Callback<V> c) throws TransformerException {
+        OutputFormat format = new OutputFormat(encoding, indent, omitDeclaration, standalone);
+        Transformer transformer;
+        try {
+            transformer = transformerPool.acquire(format);
+        } catch (TransformerException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new TransformerConfigurationException("Failed to borrow transformer", e);
+        }
+        boolean valid = false;
+        try {
+            V v = c.apply(transformer);
+            valid = true;
+            return v;
+        } finally {
+            transformerPool.release(format, transformer, valid);
+        }
+    }
+
+    interface Callback<V> {
+        V apply(Transformer t) throws TransformerException;
     }
 
     public static Transformer createTransformer() throws TransformerConfigurationException {
+        TransformerFactory factory;
         try {
-            TransformerFactory factory = transformerFactoryPool.borrowObject();
-            try {
-                return factory.newTransformer();
-            } finally {
-                transformerFactoryPool.returnObject(factory);
-            }
+            factory = (TransformerFactory) factoryPool.acquire(TransformerFactory.class);
         } catch (Exception e) {
             throw new TransformerConfigurationException("Failed to borrow transformer factory", e);
         }
+        try {
+            return factory.newTransformer();
+        } finally {
+            factoryPool.release(TransformerFactory.class, factory, true);
+        }
     }
 
     public static XPath createXPath() {
+        XPathFactory factory;
         try {
-            XPathFactory factory = xpathFactoryPool.borrowObject();
-            try {
-                return factory.newXPath();
-            } finally {
-                xpathFactoryPool.returnObject(factory);
-            }
+            factory = (XPathFactory) factoryPool.acquire(XPathFactory.class);
         } catch (Exception e) {
             throw new RuntimeException("Failed to borrow XPath factory", e);
         }
+        try {
+            return factory.newXPath();
+        } finally {
+            factoryPool.release(XPathFactory.class, factory, true);
+        }
+    }
+
+    private static final class OutputFormat {
+        final String encoding;
+        final int indent;
+        final boolean omitDeclaration;
+        final Boolean standalone;
+
+        OutputFormat(String encoding, int indent, boolean omitDeclaration, Boolean standalone) {
+            this.encoding = encoding;
+            this.indent = indent;
+            this.omitDeclaration = omitDeclaration;
+            this.standalone = standalone;
+        }
+
+        void applyTo(Transformer transformer) {
+            transformer.setOutputProperty(OutputKeys.METHOD, "xml");
+            if (encoding != null) {
+                transformer.setOutputProperty(OutputKeys.ENCODING, encoding);
+            }
+            transformer.setOutputProperty(OutputKeys.INDENT, indent > 0 ? "yes" : "no");
+            if (indent > 0) {
+                transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", String.valueOf(indent));
+            }
+            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, omitDeclaration ? "yes" : "no");
+            if (standalone != null) {
+                transformer.setOutputProperty(OutputKeys.STANDALONE, standalone ? "yes" : "no");
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof OutputFormat)) return false;
+            OutputFormat that = (OutputFormat) o;
+            return indent == that.indent && omitDeclaration == that.omitDeclaration
+                && (encoding == null ? that.encoding == null : encoding.equals(that.encoding))
+                && (standalone == null ? that.standalone == null : standalone.equals(that.standalone));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = encoding != null ? encoding.hashCode() : 0;
+            result = 31 * result + indent;
+            result = 31 * result + (omitDeclaration ? 1 : 0);
+            result = 31 * result + (standalone != null ? standalone.hashCode() : 0);
+            return result;
+        }
     }
 }
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import javax.xml.xpath.XPathExpressionException;
+
+import static com.mycila.xmltool.Utils.notEmpty;
+import static com.mycila.xmltool.Utils.notNull;
+
+/**
+ * A precompiled XPath expression which can be created once and passed to the {@link XMLTag} methods instead of a
+ * String expression. The expression is never formatted: parameters are declared as XPath variables and the arguments
+ * given at evaluation time are bound to them, in the order of declaration:
+ * 
+ * <code>XMLPath byId = XMLPath.compile("item[@id=$id]", "id");</code>
+ * <code>tag.getText(byId, "12");</code>
+ * 
+ * {@code XMLPath} instances are immutable and thread-safe.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class XMLPath {
+
+    private final String expression;
+    private final String[] variables;
+    private volatile CompiledXPath compiled;
+
+    private XMLPath(String expression, String[] variables) {
+        this.expression = expression;
+        this.variables = variables;
+    }
+
+    /**
+     * Create a precompiled XPath expression
+     *
+     * @param expression XPath expression
+     * @param variables  Names of the variables used in the expression, without the <code>$</code> sign. Arguments given
+     *                   at evaluation time are bound to these variables in the same order.
+     * @return The compiled expression
+     */
+    public static XMLPath compile(String expression, String... variables) {
+        notEmpty("XPath expression", expression);
+        notNull("variables", variables);
+        for (String variable : variables) {
+            notEmpty("Variable name", variable);
+        }
+        return new XMLPath(expression, variables.clone());
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public String[] getVariables() {
+        return variables.clone();
+    }
+
+    String[] variables() {
+        return variables;
+    }
+
+    CompiledXPath getCompiled(NamespaceBindings namespaces) throws XPathExpressionException {
+        CompiledXPath c = compiled;
+        if (c == null || !c.getNamespaces().equals(namespaces)) {
+            compiled = c = XPathCache.get(expression, namespaces);
+        }
+        return c;
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
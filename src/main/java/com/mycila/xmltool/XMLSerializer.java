@@ -0,0 +1,545 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+
+import static javax.xml.XMLConstants.*;
+
+/**
+ * Writes a DOM tree as XML text straight to a {@link Writer}, without going through a {@link javax.xml.transform.Transformer}.
+ * <p/>
+ * With a positive indentation, the children of elements containing only elements, comments and processing instructions
+ * are written on their own lines and their whitespace-only text nodes are dropped. Mixed content is always written as
+ * is. An indentation of 0 writes the tree without adding or removing any whitespace, which is the fastest mode.
+ * <p/>
+ * Namespace declarations missing from the tree (i.e. elements created with a namespace but without the corresponding
+ * <code>xmlns</code> attribute) are added where needed.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class XMLSerializer {
+
+    static final int DEFAULT_INDENT = 4;
+
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator", "\n");
+
+    private final Writer out;
+    private final char[] buffer = new char[4096];
+    private int position;
+    private final String encoding;
+    private final int indent;
+    private final Edits edits;
+    private CharsetEncoder encoder;
+    private boolean unicode;
+    private String[] prefixes = new String[16];
+    private String[] uris = new String[16];
+    private int bindings;
+    private int generated;
+
+    private XMLSerializer(Writer out, String encoding, int indent, Edits edits) {
+        this.out = out;
+        this.encoding = encoding;
+        this.indent = indent;
+        this.edits = edits;
+        String upper = encoding.toUpperCase();
+        this.unicode = upper.startsWith("UTF-") || upper.startsWith("UTF8") || upper.startsWith("UTF16");
+    }
+
+    /**
+     * Writes a node and its descendants. Documents are written with an XML declaration.
+     *
+     * @param node     The node to write
+     * @param out      The destination, flushed once the node is written
+     * @param encoding The encoding declared in the XML declaration. Characters it cannot represent are written as
+     *                 character references.
+     * @param indent   The number of spaces per indentation level, or 0 to write the tree as is
+     */
+    static void serialize(Node node, Writer out, String encoding, int indent) throws IOException {
+        serialize(node, out, encoding, indent, null);
+    }
+
+    /**
+     * Writes a node and its descendants as if the given edits had been applied to them, without modifying the tree.
+     *
+     * @param edits The values replacing the ones of the tree, or null to write the tree as is
+     * @see #serialize(Node, Writer, String, int)
+     */
+    static void serialize(Node node, Writer out, String encoding, int indent, Edits edits) throws IOException {
+        if (indent < 0) {
+            throw new IllegalArgumentException("Indentation cannot be negative: " + indent);
+        }
+        long start = Metrics.start();
+        try {
+            XMLSerializer serializer = new XMLSerializer(out, encoding, indent, edits);
+            if (node.getNodeType() == Node.DOCUMENT_NODE) {
+                serializer.document((Document) node);
+            } else {
+                serializer.node(node, 0);
+            }
+            serializer.flush();
+            out.flush();
+        } finally {
+            Metrics.stop(MetricsEvent.SERIALIZE, start);
+        }
+    }
+
+    private void document(Document document) throws IOException {
+        write("<?xml version=\"");
+        write("1.1".equals(document.getXmlVersion()) ? "1.1" : "1.0");
+        write("\" encoding=\"");
+        write(encoding);
+        write(document.getXmlStandalone() ? "\" standalone=\"yes\"?>" : "\" standalone=\"no\"?>");
+        for (Node child = document.getFirstChild(); child != null; child = child.getNextSibling()) {
+            // like the identity transformer, the document type is not written: readers would load the DTD again
+            if (child.getNodeType() == Node.DOCUMENT_TYPE_NODE) {
+                continue;
+            }
+            if (indent > 0) {
+                write(LINE_SEPARATOR);
+            }
+            node(child, 0);
+        }
+        if (indent > 0) {
+            write(LINE_SEPARATOR);
+        }
+    }
+
+    private void node(Node node, int depth) throws IOException {
+        switch (node.getNodeType()) {
+            case Node.ELEMENT_NODE:
+                element((Element) node, depth);
+                break;
+            case Node.TEXT_NODE:
+                text(node.getNodeValue(), false);
+                break;
+            case Node.CDATA_SECTION_NODE:
+                cdata(node.getNodeValue());
+                break;
+            case Node.COMMENT_NODE:
+                write("<!--");
+                write(node.getNodeValue());
+                write("-->");
+                break;
+            case Node.PROCESSING_INSTRUCTION_NODE:
+                ProcessingInstruction pi = (ProcessingInstruction) node;
+                write("<?");
+                write(pi.getTarget());
+                if (pi.getData() != null && pi.getData().length() > 0) {
+                    write(' ');
+                    write(pi.getData());
+                }
+                write("?>");
+                break;
+            case Node.DOCUMENT_NODE:
+            case Node.DOCUMENT_FRAGMENT_NODE:
+            case Node.ENTITY_REFERENCE_NODE:
+                for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    node(child, depth);
+                }
+                break;
+        }
+    }
+
+    private void element(Element element, int depth) throws IOException {
+        int mark = bindings;
+        String name = element.getNodeName();
+        write('<');
+        write(name);
+        NamedNodeMap attributes = element.getAttributes();
+        int length = attributes.getLength();
+        // an element without namespace is bound to the empty default namespace, whatever its prefix
+        String elementPrefix = null;
+        String elementUri = null;
+        if (element.getLocalName() != null) {
+            elementUri = element.getNamespaceURI() == null ? NULL_NS_URI : element.getNamespaceURI();
+            elementPrefix = element.getPrefix() == null || elementUri.length() == 0 ? DEFAULT_NS_PREFIX : element.getPrefix();
+        }
+        // declared namespaces first, then the attributes with the declarations they miss, then the one the element misses
+        for (int i = 0; i < length; i++) {
+            Attr attr = (Attr) attributes.item(i);
+            String attrName = attr.getName();
+            if (isNamespaceDeclaration(attr, attrName)) {
+                String prefix = XMLNS_ATTRIBUTE.equals(attrName) ? DEFAULT_NS_PREFIX : attrName.substring(6);
+                String uri = prefix.equals(elementPrefix) ? elementUri : attr.getValue();
+                bind(prefix, uri);
+                attribute(attrName, uri);
+            }
+        }
+        boolean undeclared = elementUri != null && !elementUri.equals(lookup(elementPrefix));
+        if (undeclared) {
+            bind(elementPrefix, elementUri);
+        }
+        for (int i = 0; i < length; i++) {
+            Attr attr = (Attr) attributes.item(i);
+            String attrName = attr.getName();
+            if (isNamespaceDeclaration(attr, attrName)) {
+                continue;
+            }
+            String uri = attr.getNamespaceURI();
+            if (attr.getLocalName() != null && uri != null && uri.length() > 0 && !XML_NS_URI.equals(uri)) {
+                String prefix = attr.getPrefix();
+                if (prefix == null || !uri.equals(lookup(prefix)) && declaredSince(prefix, mark)) {
+                    prefix = prefixFor(uri);
+                    attrName = prefix + ":" + attr.getLocalName();
+                }
+                if (!uri.equals(lookup(prefix))) {
+                    bind(prefix, uri);
+                    namespace(prefix, uri);
+                }
+            }
+            attribute(attrName, edits == null ? attr.getValue() : edits.getValue(attr));
+        }
+        if (undeclared) {
+            namespace(elementPrefix, elementUri);
+        }
+        String text = edits == null ? null : edits.getText(element);
+        if (text != null) {
+            content(element, depth, text, edits.isCDATA(element));
+            bindings = mark;
+            return;
+        }
+        Node first = element.getFirstChild();
+        if (first == null) {
+            write("/>");
+        } else {
+            write('>');
+            boolean indentChildren = indent > 0 && elementOnly(element);
+            for (Node child = first; child != null; child = child.getNextSibling()) {
+                if (indentChildren) {
+                    if (child.getNodeType() == Node.TEXT_NODE) {
+                        continue;
+                    }
+                    newLine(depth + 1);
+                }
+                node(child, depth + 1);
+            }
+            if (indentChildren) {
+                newLine(depth);
+            }
+            write("</");
+            write(name);
+            write('>');
+        }
+        bindings = mark;
+    }
+
+    /**
+     * Writes the end of an element whose text and CDATA children are replaced by a single text, written after its
+     * other children.
+     */
+    private void content(Element element, int depth, String text, boolean cdata) throws IOException {
+        // an empty text node does not survive normalization, whereas an empty CDATA section does
+        boolean written = cdata || text.length() > 0;
+        boolean markup = false;
+        boolean mixed = cdata || !isWhitespace(text);
+        Node first = null;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    continue;
+                case Node.ELEMENT_NODE:
+                case Node.COMMENT_NODE:
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    markup = true;
+                    break;
+                default:
+                    mixed = true;
+            }
+            if (first == null) {
+                first = child;
+            }
+        }
+        if (first == null && !written) {
+            write("/>");
+            return;
+        }
+        write('>');
+        boolean indentChildren = indent > 0 && markup && !mixed;
+        for (Node child = first; child != null; child = child.getNextSibling()) {
+            short type = child.getNodeType();
+            if (type != Node.TEXT_NODE && type != Node.CDATA_SECTION_NODE) {
+                if (indentChildren) {
+                    newLine(depth + 1);
+                }
+                node(child, depth + 1);
+            }
+        }
+        if (indentChildren) {
+            newLine(depth);
+        } else if (cdata) {
+            cdata(text);
+        } else {
+            text(text, false);
+        }
+        write("</");
+        write(element.getNodeName());
+        write('>');
+    }
+
+    private void attribute(String name, String value) throws IOException {
+        write(' ');
+        write(name);
+        write("=\"");
+        text(value, true);
+        write('"');
+    }
+
+    private void text(String text, boolean attribute) throws IOException {
+        int start = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            String replacement;
+            switch (c) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = attribute ? "&quot;" : null;
+                    break;
+                case '\n':
+                    replacement = attribute ? "&#10;" : null;
+                    break;
+                case '\t':
+                    replacement = attribute ? "&#9;" : null;
+                    break;
+                case '\r':
+                    replacement = "&#13;";
+                    break;
+                default:
+                    replacement = c < 0x80 || canEncode(c) ? null : "";
+            }
+            if (replacement != null) {
+                write(text, start, i - start);
+                if (replacement.length() == 0) {
+                    i = characterReference(text, i);
+                } else {
+                    write(replacement);
+                }
+                start = i + 1;
+            }
+        }
+        write(text, start, length - start);
+    }
+
+    private void cdata(String text) throws IOException {
+        write("<![CDATA[");
+        int start = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c == '>' && i >= 2 && text.charAt(i - 1) == ']' && text.charAt(i - 2) == ']') {
+                write(text, start, i - start);
+                write("]]><![CDATA[");
+                start = i;
+            } else if (c >= 0x80 && !canEncode(c)) {
+                write(text, start, i - start);
+                write("]]>");
+                i = characterReference(text, i);
+                write("<![CDATA[");
+                start = i + 1;
+            }
+        }
+        write(text, start, length - start);
+        write("]]>");
+    }
+
+    /**
+     * @return The index of the last char written
+     */
+    private int characterReference(String text, int index) throws IOException {
+        int codePoint = text.codePointAt(index);
+        write("&#");
+        write(Integer.toString(codePoint));
+        write(';');
+        return index + Character.charCount(codePoint) - 1;
+    }
+
+    private boolean canEncode(char c) {
+        if (unicode) {
+            return true;
+        }
+        if (encoder == null) {
+            try {
+                encoder = Charset.forName(encoding).newEncoder();
+            } catch (RuntimeException e) {
+                // unknown encoding: the destination decides how to encode
+                unicode = true;
+                return true;
+            }
+        }
+        return !Character.isHighSurrogate(c) && !Character.isLowSurrogate(c) && encoder.canEncode(c);
+    }
+
+    private void write(char c) throws IOException {
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = c;
+    }
+
+    private void write(String text) throws IOException {
+        write(text, 0, text.length());
+    }
+
+    private void write(String text, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (position == buffer.length) {
+                flush();
+            }
+            int count = Math.min(length, buffer.length - position);
+            text.getChars(offset, offset + count, buffer, position);
+            position += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    private void flush() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    private void newLine(int depth) throws IOException {
+        write(LINE_SEPARATOR);
+        for (int i = depth * indent; i > 0; i--) {
+            write(' ');
+        }
+    }
+
+    private void namespace(String prefix, String uri) throws IOException {
+        attribute(prefix.length() == 0 ? XMLNS_ATTRIBUTE : XMLNS_ATTRIBUTE + ":" + prefix, uri);
+    }
+
+    private void bind(String prefix, String uri) {
+        if (bindings == prefixes.length) {
+            String[] p = new String[bindings * 2];
+            String[] u = new String[bindings * 2];
+            System.arraycopy(prefixes, 0, p, 0, bindings);
+            System.arraycopy(uris, 0, u, 0, bindings);
+            prefixes = p;
+            uris = u;
+        }
+        prefixes[bindings] = prefix;
+        uris[bindings] = uri;
+        bindings++;
+    }
+
+    private String lookup(String prefix) {
+        for (int i = bindings - 1; i >= 0; i--) {
+            if (prefixes[i].equals(prefix)) {
+                return uris[i];
+            }
+        }
+        return NULL_NS_URI;
+    }
+
+    private boolean declaredSince(String prefix, int mark) {
+        for (int i = bindings - 1; i >= mark; i--) {
+            if (prefixes[i].equals(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String prefixFor(String uri) {
+        for (int i = bindings - 1; i >= 0; i--) {
+            if (prefixes[i].length() > 0 && uris[i].equals(uri) && uri.equals(lookup(prefixes[i]))) {
+                return prefixes[i];
+            }
+        }
+        String prefix;
+        do {
+            prefix = "ns" + generated++;
+        } while (lookup(prefix).length() > 0);
+        return prefix;
+    }
+
+    private static boolean isNamespaceDeclaration(Attr attr, String name) {
+        return XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())
+                || attr.getLocalName() == null && (XMLNS_ATTRIBUTE.equals(name) || name.startsWith("xmlns:"));
+    }
+
+    private static boolean elementOnly(Element element) {
+        boolean markup = false;
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            switch (child.getNodeType()) {
+                case Node.ELEMENT_NODE:
+                case Node.COMMENT_NODE:
+                case Node.PROCESSING_INSTRUCTION_NODE:
+                    markup = true;
+                    break;
+                case Node.TEXT_NODE:
+                    if (!isWhitespace(child.getNodeValue())) {
+                        return false;
+                    }
+                    break;
+                default:
+                    return false;
+            }
+        }
+        return markup;
+    }
+
+    private static boolean isWhitespace(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Values overriding the ones of the written tree, which is left untouched
+     */
+    interface Edits {
+        /**
+         * @return The value to write for this attribute
+         */
+        String getValue(Attr attr);
+
+        /**
+         * @return The text replacing all the text and CDATA children of this element, or null to write them as is
+         */
+        String getText(Element element);
+
+        /**
+         * @return True if the text replacing the children of this element is written as a CDATA section
+         */
+        boolean isCDATA(Element element);
+    }
+}
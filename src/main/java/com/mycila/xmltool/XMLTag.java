@@ -24,6 +24,7 @@ import java.io.OutputStream;
 import java.io.Writer;
 import java.net.URL;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Enables you to build, parse, navigate, modify XML documents through a simple and intuitive fluent interface.
@@ -184,6 +185,17 @@ public interface XMLTag {
      */
     com.mycila.xmltool.XMLTag gotoTag(String relativeXpath, Object... arguments) throws XMLDocumentException;
 
+    /**
+     * Go to a specific node
+     *
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return this
+     * @throws com.mycila.xmltool.XMLDocumentException
+     *          if the node does not exist or if the XPath expression is invalid
+     */
+    com.mycila.xmltool.XMLTag gotoTag(XMLPath path, Object... arguments) throws XMLDocumentException;
+
     /**
      * Go to the only child element of the curent node.
      *
@@ -255,6 +267,15 @@ public interface XMLTag {
      */
     boolean hasTag(String relativeXpath, Object... arguments);
 
+    /**
+     * Check if a tag exist in the document
+     *
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return true if the tag is exist
+     */
+    boolean hasTag(XMLPath path, Object... arguments);
+
     /**
      * Check if targeted tag has an attribute of given name
      *
@@ -266,6 +287,17 @@ public interface XMLTag {
      */
     boolean hasAttribute(String name, String relativeXpath, Object... arguments) throws XMLDocumentException;
 
+    /**
+     * Check if targeted tag has an attribute of given name
+     *
+     * @param name      the name of the attribute
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return true if the tag exist with this attribute name
+     * @throws XMLDocumentException If the targetted node does not exist or if xpath expression is not valid
+     */
+    boolean hasAttribute(String name, XMLPath path, Object... arguments) throws XMLDocumentException;
+
     /**
      * Check wheter current tag contains an atribute
      *
@@ -294,6 +326,16 @@ public interface XMLTag {
      */
     com.mycila.xmltool.XMLTag forEach(CallBack callBack, String relativeXpath, Object... arguments);
 
+    /**
+     * Execute an action for each selected tags from the current node.
+     *
+     * @param callBack  Callback method to run after the current tag of the document has changed to a child
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return this
+     */
+    com.mycila.xmltool.XMLTag forEach(CallBack callBack, XMLPath path, Object... arguments);
+
     com.mycila.xmltool.XMLTag forEach(String xpath, CallBack callBack);
 
     ////////////////// DATA ACCESS METHODS - raw xpath * //////////////////////
@@ -307,6 +349,15 @@ public interface XMLTag {
      */
     String rawXpathString(String relativeXpath, Object... arguments);
 
+    /**
+     * Execute a precompiled XPath expression from the current node
+     *
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return the result of the expression
+     */
+    String rawXpathString(XMLPath path, Object... arguments);
+
     /**
      * Execute an XPath expression directly using the Java XPath API, from the current node.
      *
@@ -316,6 +367,15 @@ public interface XMLTag {
      */
     Number rawXpathNumber(String relativeXpath, Object... arguments);
 
+    /**
+     * Execute a precompiled XPath expression from the current node
+     *
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return the result of the expression
+     */
+    Number rawXpathNumber(XMLPath path, Object... arguments);
+
     /**
      * Execute an XPath expression directly using the Java XPath API, from the current node.
      *
@@ -325,6 +385,15 @@ public interface XMLTag {
      */
     Boolean rawXpathBoolean(String relativeXpath, Object... arguments);
 
+    /**
+     * Execute a precompiled XPath expression from the current node
+     *
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return the result of the expression
+     */
+    Boolean rawXpathBoolean(XMLPath path, Object... arguments);
+
     /**
      * Execute an XPath expression directly using the Java XPath API, from the current node.
      *
@@ -334,6 +403,15 @@ public interface XMLTag {
      */
     Node rawXpathNode(String relativeXpath, Object... arguments);
 
+    /**
+     * Execute a precompiled XPath expression from the current node
+     *
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return the result of the expression
+     */
+    Node rawXpathNode(XMLPath path, Object... arguments);
+
     /**
      * Execute an XPath expression directly using the Java XPath API, from the current node.
      *
@@ -343,6 +421,15 @@ public interface XMLTag {
      */
     NodeList rawXpathNodeSet(String relativeXpath, Object... arguments);
 
+    /**
+     * Execute a precompiled XPath expression from the current node
+     *
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return the result of the expression
+     */
+    NodeList rawXpathNodeSet(XMLPath path, Object... arguments);
+
     ////////////////// DATA ACCESS METHODS - get* //////////////////////
 
     /**
@@ -396,6 +483,15 @@ public interface XMLTag {
      */
     Iterable<com.mycila.xmltool.XMLTag> getChilds(String relativeXpath, Object... arguments);
 
+    /**
+     * Get all elements matching the given precompiled XPath expression.
+     *
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return the list of matching elements
+     */
+    Iterable<com.mycila.xmltool.XMLTag> getChilds(XMLPath path, Object... arguments);
+
     /**
      * @return The child element's list
      */
@@ -448,6 +544,16 @@ public interface XMLTag {
      */
     String getText(String relativeXpath, Object... arguments) throws XMLDocumentException;
 
+    /**
+     * Get the text of a sepcific node
+     *
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return the text of the selected node
+     * @throws XMLDocumentException If the XPath expression is not valid or if the node does not exist
+     */
+    String getText(XMLPath path, Object... arguments) throws XMLDocumentException;
+
     /**
      * @return The CDATA content of the current node, "" if none
      */
@@ -463,6 +569,16 @@ public interface XMLTag {
      */
     String getCDATA(String relativeXpath, Object... arguments) throws XMLDocumentException;
 
+    /**
+     * Get the CDATA of a sepcific node
+     *
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return the CDATA of the selected node
+     * @throws XMLDocumentException If the XPath expression is not valid or if the node does not exist
+     */
+    String getCDATA(XMLPath path, Object... arguments) throws XMLDocumentException;
+
     /**
      * @return The text content of the current node, if none tries to get the CDATA content, if none returns ""
      */
@@ -518,6 +634,17 @@ public interface XMLTag {
      */
     String getAttribute(String name, String relativeXpath, Object... arguments) throws XMLDocumentException;
 
+    /**
+     * Returns the attribute value of the node pointed by given XPath expression
+     *
+     * @param name      Attribute name
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return attribute value
+     * @throws XMLDocumentException If the attribute does not exist, if the XPath expression is invalid or if the node does not exist
+     */
+    String getAttribute(String name, XMLPath path, Object... arguments) throws XMLDocumentException;
+
     /**
      * returns the attribute value of the current node or null if the attribute does not exist
      *
@@ -537,6 +664,28 @@ public interface XMLTag {
      */
     String findAttribute(String name, String relativeXpath, Object... arguments) throws XMLDocumentException;
 
+    /**
+     * Returns the attribute value of the node pointed by given XPath expression or null if the attribute does not exist
+     *
+     * @param name      Attribute name
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return attribute value or null if the attribute does not exist
+     * @throws XMLDocumentException If the XPath expression is invalid or if the node does not exist
+     */
+    String findAttribute(String name, XMLPath path, Object... arguments) throws XMLDocumentException;
+
+    /**
+     * Extracts several values from the current tag at once. Simple paths are resolved together in a single walk of the
+     * tree instead of one evaluation per expression.
+     *
+     * @param extractor the named XPath expressions to evaluate
+     * @return For each field, in the order of the extractor: the text of the selected element as {@link #getText()}
+     *         returns it, the value of the selected attribute, or null if the expression selects nothing
+     * @throws XMLDocumentException If an XPath expression is invalid
+     */
+    Map<String, String> extract(XMLExtractor extractor) throws XMLDocumentException;
+
     /**
      * @return Another XMLTag instance in which the current tag becomes de root element of the new document, and it contains all inner elements as in the previous document.
      */
@@ -553,6 +702,24 @@ public interface XMLTag {
      */
     com.mycila.xmltool.XMLTag duplicate();
 
+    /**
+     * Takes an immutable snapshot of the whole document, which can then be read by several threads at the same time.
+     * Each thread navigates it with its own cursor obtained from {@link FrozenXMLDoc#newCursor()}.
+     * Later modifications of this document are not visible in the snapshot.
+     *
+     * @return A frozen copy of this document
+     */
+    FrozenXMLDoc freeze();
+
+    /**
+     * Copies the whole document into a compact, read-only representation which takes a fraction of the memory of the
+     * DOM. Use it to keep documents which are only queried in memory. Like a frozen document, it can be read by several
+     * threads, each one using its own cursor obtained from {@link CompactXMLDoc#newCursor()}.
+     *
+     * @return A compact copy of this document
+     */
+    CompactXMLDoc compact();
+
 
     ////////////////// MTATION METHODS - set* //////////////////////
 
@@ -581,6 +748,17 @@ public interface XMLTag {
      */
     com.mycila.xmltool.XMLTag setText(String text, String relativeXpath, Object... arguments) throws XMLDocumentException;
 
+    /**
+     * Set the text value of a node pointed by a precompiled XPath expression
+     *
+     * @param text      text value to set
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return this
+     * @throws XMLDocumentException If the XPath expression is invalid or if the node does not exist
+     */
+    com.mycila.xmltool.XMLTag setText(String text, XMLPath path, Object... arguments) throws XMLDocumentException;
+
     /**
      * Set the text in the targetted node. This method will replace all existing text and cdata by the given text, but remains on the current tag.
      * If the targetted node does not exist, do nothing.
@@ -660,6 +838,18 @@ public interface XMLTag {
      */
     com.mycila.xmltool.XMLTag setAttribute(String name, String value, String relativeXpath, Object... arguments) throws XMLDocumentException;
 
+    /**
+     * Sets the new value on an existign attribute of the node pointed by a precompiled XPath expression
+     *
+     * @param name      Name of the attribute
+     * @param value     New value of the attribute
+     * @param path      precompiled XPath expression
+     * @param arguments values of the variables declared in the expression, in the same order
+     * @return this
+     * @throws XMLDocumentException If the attribute does not exist, if the XPath expression is invalid or if the node does not exist
+     */
+    com.mycila.xmltool.XMLTag setAttribute(String name, String value, XMLPath path, Object... arguments) throws XMLDocumentException;
+
     /**
      * Sets the new value on a targetted node's attribute, and remains on the current tag.
      * If the attribute does not exist, do nothing.
@@ -757,6 +947,13 @@ public interface XMLTag {
      */
     String toString(String encoding);
 
+    /**
+     * @param encoding destination encoding of XML document
+     * @param indent   number of spaces per indentation level. 0 writes the document as is, which is the fastest.
+     * @return a string representation of the document
+     */
+    String toString(String encoding, int indent);
+
     /**
      * @return This document representation as String bytes, using default encoding of the document
      */
@@ -768,6 +965,13 @@ public interface XMLTag {
      */
     byte[] toBytes(String encoding);
 
+    /**
+     * @param encoding The encoding to use
+     * @param indent   number of spaces per indentation level. 0 writes the document as is, which is the fastest.
+     * @return This document representation as String bytes using sepcified ancoding
+     */
+    byte[] toBytes(String encoding, int indent);
+
     /**
      * Converts this document to the result provided
      *
@@ -802,6 +1006,16 @@ public interface XMLTag {
      */
     com.mycila.xmltool.XMLTag toStream(OutputStream out, String encoding);
 
+    /**
+     * Write this document to a stream
+     *
+     * @param out      The output result
+     * @param encoding The new encoding
+     * @param indent   number of spaces per indentation level. 0 writes the document as is, which is the fastest.
+     * @return this
+     */
+    com.mycila.xmltool.XMLTag toStream(OutputStream out, String encoding, int indent);
+
     /**
      * Write this document to a stream
      *
@@ -819,6 +1033,16 @@ public interface XMLTag {
      */
     com.mycila.xmltool.XMLTag toStream(Writer out, String encoding);
 
+    /**
+     * Write this document to a stream
+     *
+     * @param out      The output result
+     * @param encoding The new encoding
+     * @param indent   number of spaces per indentation level. 0 writes the document as is, which is the fastest.
+     * @return this
+     */
+    com.mycila.xmltool.XMLTag toStream(Writer out, String encoding, int indent);
+
     /**
      * @return The {@link javax.xml.transform.Result} representation of this document. Useful when using web services for example.
      */
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import javax.xml.xpath.XPathExpressionException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of compiled XPath expressions, shared by all documents. Expressions are keyed by their text and the
+ * namespace bindings of the document they are evaluated on, so documents declaring the same namespaces share the same
+ * compiled expressions. Compiled expressions are safe for concurrent evaluation.
+ *
+ * The cache is bounded: when it is full, the entries not used since the last eviction are evicted first to make room
+ * for new ones, so that expressions evaluated over and over are kept.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class XPathCache {
+
+    private static final ConcurrentMap<Key, Entry> cache = new ConcurrentHashMap<Key, Entry>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static volatile int maxSize = 512;
+    private static volatile boolean simplePathEvaluation = true;
+
+    private XPathCache() {
+    }
+
+    /**
+     * Set the maximum number of compiled expressions kept in the cache. Default is 512.
+     *
+     * @param size The maximum number of entries
+     */
+    public static void setMaxSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        maxSize = size;
+        evict();
+    }
+
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The number of compiled expressions currently cached
+     */
+    public static int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return The number of lookups which found an already compiled expression
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of lookups which needed to compile the expression
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Remove all compiled expressions from the cache and reset the counters
+     */
+    public static void clear() {
+        cache.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    /**
+     * Enable or disable the evaluation of simple location paths (i.e. <code>a/b[2]/c</code> or <code>item/@id</code>)
+     * by walking the DOM directly instead of using the XPath engine. Enabled by default.
+     *
+     * @param enabled Whether simple paths bypass the XPath engine
+     */
+    public static void setSimplePathEvaluation(boolean enabled) {
+        simplePathEvaluation = enabled;
+    }
+
+    public static boolean isSimplePathEvaluation() {
+        return simplePathEvaluation;
+    }
+
+    static CompiledXPath get(String expression, NamespaceBindings namespaces) throws XPathExpressionException {
+        Key key = new Key(expression, namespaces);
+        Entry entry = cache.get(key);
+        if (entry != null) {
+            entry.used();
+            hits.incrementAndGet();
+            Metrics.count(MetricsEvent.XPATH_CACHE_HIT);
+            return entry.compiled;
+        }
+        misses.incrementAndGet();
+        CompiledXPath compiled;
+        long start = Metrics.start();
+        try {
+            compiled = CompiledXPath.compile(expression, namespaces);
+        } finally {
+            Metrics.stop(MetricsEvent.XPATH_COMPILE, start);
+        }
+        Entry existing = cache.putIfAbsent(key, new Entry(compiled));
+        if (existing != null) {
+            return existing.compiled;
+        }
+        if (cache.size() > maxSize) {
+            evict();
+        }
+        return compiled;
+    }
+
+    // second chance: an entry used since it was last visited is kept once, and loses its mark. The last pass evicts
+    // entries whatever their mark, in case they keep being used concurrently.
+    private static void evict() {
+        for (int pass = 0; pass < 3 && cache.size() > maxSize; pass++) {
+            Iterator<Entry> entries = cache.values().iterator();
+            while (cache.size() > maxSize && entries.hasNext()) {
+                Entry entry = entries.next();
+                if (entry.used && pass < 2) {
+                    entry.used = false;
+                } else {
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    private static final class Entry {
+        final CompiledXPath compiled;
+        volatile boolean used;
+
+        Entry(CompiledXPath compiled) {
+            this.compiled = compiled;
+        }
+
+        void used() {
+            // no write when already marked, so that concurrent lookups of the same expression do not contend
+            if (!used) {
+                used = true;
+            }
+        }
+    }
+
+    private static final class Key {
+        final String expression;
+        final NamespaceBindings namespaces;
+        final int hash;
+
+        Key(String expression, NamespaceBindings namespaces) {
+            this.expression = expression;
+            this.namespaces = namespaces;
+            this.hash = 31 * expression.hashCode() + namespaces.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return hash == key.hash && expression.equals(key.expression) && namespaces.equals(key.namespaces);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathVariableResolver;
+
+/**
+ * Binds the arguments of an {@link XMLPath} evaluation to the XPath variables of the expression. Compiled expressions
+ * are shared, so the values are kept per thread for the duration of the evaluation.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class XPathVariables implements XPathVariableResolver {
+
+    static final XPathVariables instance = new XPathVariables();
+
+    private final ThreadLocal<Frame> frames = new ThreadLocal<Frame>();
+
+    private XPathVariables() {
+    }
+
+    public Object resolveVariable(QName variableName) {
+        Frame frame = frames.get();
+        if (frame != null) {
+            String name = variableName.getLocalPart();
+            for (int i = 0; i < frame.names.length; i++) {
+                if (frame.names[i].equals(name)) {
+                    return frame.values[i];
+                }
+            }
+        }
+        return null;
+    }
+
+    Frame bind(String[] names, Object[] values) {
+        Frame previous = frames.get();
+        Object[] converted = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            converted[i] = convert(values[i]);
+        }
+        frames.set(new Frame(names, converted));
+        return previous;
+    }
+
+    void restore(Frame previous) {
+        if (previous == null) {
+            frames.remove();
+        } else {
+            frames.set(previous);
+        }
+    }
+
+    private static Object convert(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Number && !(value instanceof Double)) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof String || value instanceof Double || value instanceof Boolean || value instanceof Node || value instanceof NodeList) {
+            return value;
+        }
+        return value.toString();
+    }
+
+    static final class Frame {
+        final String[] names;
+        final Object[] values;
+
+        Frame(String[] names, Object[] values) {
+            this.names = names;
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.mycila.xmltool.Assert.Code;
+import static com.mycila.xmltool.Assert.assertThrow;
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class CachedEntityResolverTest extends AbstractTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("entities", "");
+        dir.delete();
+        dir.mkdirs();
+        CachedEntityResolver.clear();
+    }
+
+    @After
+    public void tearDown() {
+        CachedEntityResolver.clearCatalog();
+        CachedEntityResolver.setCacheDirectory(null);
+        CachedEntityResolver.setMaxSize(4 * 1024 * 1024);
+        CachedEntityResolver.clear();
+        delete(dir);
+    }
+
+    @Test
+    public void entities_decoded_in_their_declared_encoding() {
+        assertEquals(XMLDoc.from("<!DOCTYPE a SYSTEM \"" + resource("/catalog/dtd/latin1.dtd") + "\"><a>&cafe;</a>", true).getText(), "caf\u00e9");
+    }
+
+    @Test
+    public void entities_are_cached() throws Exception {
+        File dtd = write("a.dtd", "<!ENTITY e \"hello\">");
+        assertEquals(XMLDoc.from("<!DOCTYPE a SYSTEM \"" + url(dtd) + "\"><a>&e;</a>", true).getText(), "hello");
+        write("a.dtd", "<!ENTITY e \"changed\">");
+        assertEquals(resolve(url(dtd)), "<!ENTITY e \"hello\">");
+        assertEquals(CachedEntityResolver.getMissCount(), 1);
+        assertEquals(CachedEntityResolver.getHitCount(), 1);
+        assertEquals(CachedEntityResolver.size(), "<!ENTITY e \"hello\">".length());
+    }
+
+    @Test
+    public void least_recently_used_entities_are_evicted() throws Exception {
+        CachedEntityResolver.setMaxSize(10);
+        String a = url(write("a.dtd", "aaaaaa"));
+        String b = url(write("b.dtd", "bbbbbb"));
+        resolve(a);
+        resolve(b);
+        assertEquals(CachedEntityResolver.size(), 6);
+        resolve(b);
+        assertEquals(CachedEntityResolver.getHitCount(), 1);
+        resolve(a);
+        assertEquals(CachedEntityResolver.getMissCount(), 3);
+    }
+
+    @Test
+    public void unreachable_entities_resolve_to_nothing() throws Exception {
+        assertEquals(resolve(url(new File(dir, "missing.dtd"))), "");
+        assertEquals(resolve(null), "");
+    }
+
+    @Test
+    public void cache_directory() throws Exception {
+        File store = new File(dir, "store");
+        CachedEntityResolver.setCacheDirectory(store);
+        File dtd = write("a.dtd", "<!ENTITY e \"hello\">");
+        resolve(url(dtd));
+        assertTrue(new File(store, CachedEntityResolver.fileName(url(dtd))).isFile());
+
+        // as after a restart, with the original entity unreachable
+        CachedEntityResolver.clear();
+        dtd.delete();
+        assertEquals(XMLDoc.from("<!DOCTYPE a SYSTEM \"" + url(dtd) + "\"><a>&e;</a>", true).getText(), "hello");
+        assertEquals(CachedEntityResolver.getMissCount(), 1);
+    }
+
+    @Test
+    public void concurrent_misses_load_once() throws Exception {
+        final String url = url(write("a.dtd", "<!ENTITY e \"hello\">"));
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int i = 0; i < 64; i++) {
+                results.add(pool.submit(new Callable<String>() {
+                    public String call() throws Exception {
+                        start.await();
+                        return resolve(url);
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<String> result : results) {
+                assertEquals(result.get(), "<!ENTITY e \"hello\">");
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(CachedEntityResolver.getMissCount(), 1);
+        assertEquals(CachedEntityResolver.getHitCount(), 63);
+    }
+
+    @Test
+    public void catalog() throws Exception {
+        CachedEntityResolver.loadCatalog(resource("/catalog/catalog.xml"));
+        assertEquals(parse("PUBLIC \"-//MYCILA//DTD Test//EN\" \"http://unreachable.invalid/public/test.dtd\""), "Hello World");
+        assertEquals(parse("PUBLIC \"-//MYCILA//DTD   Test//EN\" \"test.dtd\""), "Hello World");
+        assertEquals(parse("SYSTEM \"http://unreachable.invalid/system/test.dtd\""), "Hello World");
+        assertEquals(parse("SYSTEM \"http://unreachable.invalid/any/suffix.dtd\""), "Hello World");
+        assertEquals(parse("SYSTEM \"http://unreachable.invalid/rewritten/test.dtd\""), "Hello World");
+        // the DTD and its relative entity
+        assertEquals(CachedEntityResolver.getMissCount(), 2);
+
+        int count = 0;
+        for (XMLTag record : XMLDoc.stream(new StringReader("<!DOCTYPE a SYSTEM \"http://unreachable.invalid/system/flat.dtd\"><a><r>&hello;</r><r>&world;</r></a>"), "r")) {
+            assertEquals(record.getText(), count++ == 0 ? "Hello" : "World");
+        }
+        assertEquals(count, 2);
+
+        CachedEntityResolver.clearCatalog();
+        assertEquals(resolve("http://unreachable.invalid/system/test.dtd"), "");
+    }
+
+    @Test
+    public void registered_identifiers() throws Exception {
+        CachedEntityResolver.registerPublicId("-//MYCILA//DTD Other//EN", resource("/catalog/dtd/test.dtd"));
+        CachedEntityResolver.registerSystemId("http://unreachable.invalid/registered.dtd", resource("/catalog/dtd/test.dtd"));
+        assertEquals(parse("PUBLIC \"-//MYCILA//DTD Other//EN\" \"http://unreachable.invalid/other.dtd\""), "Hello World");
+        assertEquals(parse("SYSTEM \"http://unreachable.invalid/registered.dtd\""), "Hello World");
+    }
+
+    @Test
+    public void invalid_catalog() {
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                CachedEntityResolver.loadCatalog(resource("/catalog/dtd/test.dtd"));
+            }
+        });
+    }
+
+    private static String parse(String doctype) {
+        return XMLDoc.from("<!DOCTYPE a " + doctype + "><a>&hello; &world;</a>", true).getText();
+    }
+
+    private static String resolve(String systemId) throws Exception {
+        InputSource source = CachedEntityResolver.instance.resolveEntity(null, systemId);
+        Reader reader = source.getCharacterStream();
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = reader.read()) != -1) {
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String url(File file) throws Exception {
+        return file.toURI().toURL().toString();
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.mycila.xmltool.Assert.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class CompactXMLDocTest extends AbstractTest {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" +
+            "<catalog xmlns=\"urn:catalog\" xmlns:p=\"urn:price\" version=\"2\">" +
+            "<!-- items --><?sort by-id?>" +
+            "<item id=\"1\" p:currency=\"EUR\"><name>a</name><p:price>10</p:price><notes>first <b>bold</b> text</notes></item>" +
+            "<item id=\"2\"><name><![CDATA[<b>]]></name><p:price>20</p:price><notes/></item>" +
+            "<group><item id=\"3\"><name>c</name></item></group>" +
+            "</catalog>";
+
+    @Test
+    public void same_reads_as_the_dom() throws Exception {
+        for (boolean ignoreNamespaces : new boolean[]{false, true}) {
+            XMLTag dom = XMLDoc.from(XML, ignoreNamespaces);
+            XMLTag compact = dom.compact().newCursor();
+            compare(dom, compact);
+            assertArrayEquals(compact.getPefixes("urn:catalog"), dom.getPefixes("urn:catalog"));
+            assertEquals(compact.toString(), dom.toString());
+            assertEquals(compact.getInnerText(), dom.getInnerText());
+            assertEquals(compact.rawXpathNumber("count(//*)"), dom.rawXpathNumber("count(//*)"));
+        }
+    }
+
+    private static void compare(XMLTag dom, XMLTag compact) {
+        assertEquals(compact.getCurrentTagName(), dom.getCurrentTagName());
+        assertEquals(compact.getCurrentTagLocation(), dom.getCurrentTagLocation());
+        assertEquals(Arrays.asList(compact.getAttributeNames()), Arrays.asList(dom.getAttributeNames()));
+        for (String name : dom.getAttributeNames()) {
+            assertEquals(compact.getAttribute(name), dom.getAttribute(name));
+        }
+        assertEquals(compact.hasAttribute("id"), dom.hasAttribute("id"));
+        assertEquals(compact.findAttribute("missing"), null);
+        assertEquals(compact.getText(), dom.getText());
+        assertEquals(compact.getCDATA(), dom.getCDATA());
+        assertEquals(compact.getTextOrCDATA(), dom.getTextOrCDATA());
+        assertEquals(compact.getChildCount(), dom.getChildCount());
+        List<String> domChilds = new ArrayList<String>();
+        for (XMLTag child : dom.getChilds()) {
+            domChilds.add(child.getCurrentTagLocation());
+        }
+        List<String> compactChilds = new ArrayList<String>();
+        for (XMLTag child : compact.getChilds()) {
+            compactChilds.add(child.getCurrentTagLocation());
+        }
+        assertEquals(compactChilds, domChilds);
+        for (int i = 1; i <= dom.getChildCount(); i++) {
+            compare(dom.gotoChild(i), compact.gotoChild(i));
+            dom.gotoParent();
+            compact.gotoParent();
+        }
+    }
+
+    @Test
+    public void simple_paths() throws Exception {
+        XMLTag compact = XMLDoc.from(XML, false).compact().newCursor();
+        assertEquals(compact.getText("ns0:item[2]/p:price"), "20");
+        assertEquals(compact.getCDATA("ns0:item[2]/ns0:name"), "<b>");
+        assertEquals(compact.getAttribute("id", "ns0:group/*"), "3");
+        assertEquals(compact.getText(XMLPath.compile("ns0:item/ns0:name")), "a");
+        assertTrue(compact.hasTag("ns0:item[1]/ns0:notes/ns0:b"));
+        assertFalse(compact.hasTag("ns0:item[3]"));
+        assertEquals(compact.gotoTag("ns0:item[1]/ns0:name").gotoTag(".").getText(), "a");
+
+        final List<String> ids = new ArrayList<String>();
+        compact.gotoRoot().forEach(new CallBack() {
+            public void execute(XMLTag doc) {
+                ids.add(doc.getAttribute("id"));
+            }
+        }, "ns0:item");
+        for (XMLTag item : compact.getChilds("ns0:group/ns0:item")) {
+            ids.add(item.getAttribute("id"));
+        }
+        assertEquals(ids.toString(), "[1, 2, 3]");
+        assertEquals(compact.getCurrentTagName(), "catalog");
+    }
+
+    @Test
+    public void other_expressions_run_on_the_dom() throws Exception {
+        XMLTag compact = XMLDoc.from(XML, false).compact().newCursor();
+        assertEquals(compact.getText("ns0:item[@id='2']/p:price"), "20");
+        assertEquals(compact.gotoTag("//ns0:item[@id='%s']", 3).getCurrentTagLocation(), "*[3]/*[1]");
+        // back to the arrays
+        assertEquals(compact.getText("ns0:name"), "c");
+        assertEquals(compact.gotoParent().gotoParent().getChildCount(), 3);
+        assertEquals(compact.rawXpathString("ns0:item[1]/@p:currency"), "EUR");
+        final List<String> names = new ArrayList<String>();
+        compact.forEach(new CallBack() {
+            public void execute(XMLTag doc) {
+                names.add(doc.getText());
+            }
+        }, "//ns0:name[text()]");
+        assertEquals(names.toString(), "[a, , c]");
+        assertEquals(compact.getCurrentTag().getNodeName(), "catalog");
+        assertSame(compact.compact().newCursor().freeze(), compact.freeze());
+    }
+
+    @Test
+    public void errors() throws Exception {
+        final XMLTag dom = XMLDoc.from(XML, false);
+        final XMLTag compact = dom.compact().newCursor();
+        assertEquals(message(new Code() {
+            public void run() throws Throwable {
+                compact.gotoTag("ns0:item[4]");
+            }
+        }), message(new Code() {
+            public void run() throws Throwable {
+                dom.gotoTag("ns0:item[4]");
+            }
+        }));
+        assertEquals(message(new Code() {
+            public void run() throws Throwable {
+                compact.getAttribute("id");
+            }
+        }), message(new Code() {
+            public void run() throws Throwable {
+                dom.getAttribute("id");
+            }
+        }));
+        assertEquals(message(new Code() {
+            public void run() throws Throwable {
+                compact.gotoChild("item");
+            }
+        }), message(new Code() {
+            public void run() throws Throwable {
+                dom.gotoChild("item");
+            }
+        }));
+        assertEquals(message(new Code() {
+            public void run() throws Throwable {
+                compact.gotoTag("ns0:item/@id");
+            }
+        }), message(new Code() {
+            public void run() throws Throwable {
+                dom.gotoTag("ns0:item/@id");
+            }
+        }));
+    }
+
+    private static String message(Code code) {
+        try {
+            code.run();
+        } catch (Throwable e) {
+            assertTrue(e instanceof XMLDocumentException);
+            return e.getMessage();
+        }
+        throw new AssertionError("No exception thrown");
+    }
+
+    @Test
+    public void cannot_be_modified() throws Exception {
+        CompactXMLDoc doc = XMLDoc.from(XML, true).compact();
+        assertEquals(doc.getNodeCount(), 23);
+        assertTrue(doc.isIgnoreNamespaces());
+        final XMLTag compact = doc.newCursor();
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                compact.addTag("item");
+            }
+        });
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                compact.gotoChild(1).setAttribute("id", "4");
+            }
+        });
+        XMLTag copy = compact.duplicate();
+        assertEquals(copy.setAttribute("id", "4").getAttribute("id"), "4");
+        assertEquals(compact.getAttribute("id"), "1");
+    }
+
+    @Test
+    public void concurrent_readers() throws Exception {
+        final CompactXMLDoc doc = XMLDoc.from(XML, false).compact();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        XMLTag cursor = doc.newCursor();
+                        for (int i = 0; i < 50; i++) {
+                            assertEquals(cursor.getText("ns0:item[1]/p:price"), "10");
+                            assertEquals(cursor.getText("ns0:item[@id='2']/p:price"), "20");
+                            assertEquals(cursor.gotoTag("ns0:group/ns0:item").getAttribute("id"), "3");
+                            cursor.gotoRoot();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
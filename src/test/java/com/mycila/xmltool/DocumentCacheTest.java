@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import static com.mycila.xmltool.Assert.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class DocumentCacheTest extends AbstractTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("documents", "");
+        dir.delete();
+        dir.mkdirs();
+        DocumentCache.clear();
+    }
+
+    @After
+    public void tearDown() {
+        DocumentCache.setMaxSize(64 * 1024 * 1024);
+        DocumentCache.setRevalidationInterval(0, TimeUnit.SECONDS);
+        DocumentCache.clear();
+        delete(dir);
+    }
+
+    @Test
+    public void documents_are_cached() throws Exception {
+        File file = write("config.xml", "<config><name>a</name></config>", 1000);
+        CompactXMLDoc doc = DocumentCache.get(file, true);
+        assertSame(DocumentCache.get(file, true), doc);
+        assertSame(DocumentCache.get(file.toURI().toURL(), true), doc);
+        assertNotSame(DocumentCache.get(file, false), doc);
+        assertEquals(DocumentCache.getMissCount(), 2);
+        assertEquals(DocumentCache.getHitCount(), 2);
+        assertTrue(DocumentCache.size() > 0);
+
+        assertEquals(DocumentCache.getView(file, true).getText("name"), "a");
+        XMLTag copy = DocumentCache.getCopy(file, true);
+        copy.setText("b", "name");
+        assertEquals(copy.getText("name"), "b");
+        assertEquals(DocumentCache.getView(file, true).getText("name"), "a");
+        assertEquals(DocumentCache.getMissCount(), 2);
+    }
+
+    @Test
+    public void modified_files_are_parsed_again() throws Exception {
+        File file = write("config.xml", "<config><name>a</name></config>", 1000);
+        assertEquals(DocumentCache.getView(file, true).getText("name"), "a");
+        // same size, other modification time
+        write("config.xml", "<config><name>b</name></config>", 2000);
+        assertEquals(DocumentCache.getView(file, true).getText("name"), "b");
+        // same modification time, other size
+        write("config.xml", "<config><name>cc</name></config>", 2000);
+        assertEquals(DocumentCache.getView(file, true).getText("name"), "cc");
+        assertEquals(DocumentCache.getMissCount(), 3);
+
+        DocumentCache.invalidate(file.toURI().toURL());
+        assertEquals(DocumentCache.getView(file, true).getText("name"), "cc");
+        assertEquals(DocumentCache.getMissCount(), 4);
+    }
+
+    @Test
+    public void revalidation_interval() throws Exception {
+        DocumentCache.setRevalidationInterval(1, TimeUnit.HOURS);
+        assertEquals(DocumentCache.getRevalidationInterval(TimeUnit.MINUTES), 60);
+        File file = write("config.xml", "<config><name>a</name></config>", 1000);
+        assertEquals(DocumentCache.getView(file, true).getText("name"), "a");
+        write("config.xml", "<config><name>b</name></config>", 2000);
+        assertEquals(DocumentCache.getView(file, true).getText("name"), "a");
+        DocumentCache.setRevalidationInterval(0, TimeUnit.HOURS);
+        assertEquals(DocumentCache.getView(file, true).getText("name"), "b");
+    }
+
+    @Test
+    public void bounded_by_memory() throws Exception {
+        File a = write("a.xml", "<a>" + repeat("<item>x</item>", 100) + "</a>", 1000);
+        File b = write("b.xml", "<b>" + repeat("<item>x</item>", 100) + "</b>", 1000);
+        CompactXMLDoc docA = DocumentCache.get(a, true);
+        long sizeA = DocumentCache.size();
+        DocumentCache.setMaxSize(sizeA * 3 / 2);
+        DocumentCache.get(b, true);
+        assertTrue(DocumentCache.size() <= sizeA * 3 / 2);
+        // a was evicted
+        assertNotSame(DocumentCache.get(a, true), docA);
+        assertEquals(DocumentCache.getMissCount(), 3);
+    }
+
+    @Test
+    public void urls() throws Exception {
+        URL url = getClass().getResource("/goto.xml");
+        CompactXMLDoc doc = DocumentCache.get(url, false);
+        assertSame(DocumentCache.get(url, false), doc);
+        assertEquals(doc.newCursor().getCurrentTagName(), XMLDoc.from(url, false).getCurrentTagName());
+    }
+
+    @Test
+    public void jar_urls() throws Exception {
+        URLConnection connection = new URL("jar:file:/a.jar!/a.xml").openConnection();
+        connection.setDefaultUseCaches(false);
+        try {
+            File jar = jar("config.jar", "<config><name>a</name></config>");
+            URL url = new URL("jar:" + jar.toURI().toURL() + "!/config.xml");
+            CompactXMLDoc doc = DocumentCache.get(url, true);
+            for (int i = 0; i < 100; i++) {
+                assertSame(DocumentCache.get(url, true), doc);
+            }
+            jar("config.jar", "<config><name>modified</name></config>");
+            assertEquals(DocumentCache.get(url, true).newCursor().getText("name"), "modified");
+        } finally {
+            connection.setDefaultUseCaches(true);
+        }
+    }
+
+    @Test
+    public void errors() throws Exception {
+        final File file = write("broken.xml", "<config>", 1000);
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                DocumentCache.get(file, true);
+            }
+        });
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                DocumentCache.get(new File(dir, "missing.xml"), true);
+            }
+        });
+        write("broken.xml", "<config/>", 2000);
+        assertEquals(DocumentCache.getView(file, true).getCurrentTagName(), "config");
+        assertEquals(DocumentCache.size(), DocumentCache.get(file, true).estimateSize());
+    }
+
+    private File write(String name, String content, long lastModified) throws IOException {
+        File file = new File(dir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        file.setLastModified(lastModified);
+        return file;
+    }
+
+    private File jar(String name, String content) throws IOException {
+        File file = new File(dir, name);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        try {
+            out.putNextEntry(new ZipEntry("config.xml"));
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.mycila.xmltool.Assert.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class FrozenXMLDocTest extends AbstractTest {
+
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" +
+            "<catalog xmlns=\"urn:catalog\" xmlns:p=\"urn:price\">" +
+            "<item id=\"1\"><name>a</name><p:price>10</p:price></item>" +
+            "<item id=\"2\"><name>b</name><p:price>20</p:price></item>" +
+            "</catalog>";
+
+    @Test
+    public void cursors_are_independent() throws Exception {
+        FrozenXMLDoc frozen = XMLDoc.from(XML, false).freeze();
+        XMLTag c1 = frozen.newCursor();
+        XMLTag c2 = frozen.newCursor();
+        assertSame(c1.gotoChild(2).gotoChild("name"), c1);
+        assertEquals(c1.getText(), "b");
+        assertEquals(c2.getCurrentTagName(), "catalog");
+        assertEquals(c2.gotoChild(1).getAttribute("id"), "1");
+        assertEquals(c1.gotoParent().getAttribute("id"), "2");
+        assertEquals(c2.getText("p:price"), "10");
+        assertSame(c1.freeze(), frozen);
+        assertFalse(frozen.isIgnoreNamespaces());
+    }
+
+    @Test
+    public void snapshot() throws Exception {
+        XMLTag doc = XMLDoc.from(XML, false);
+        FrozenXMLDoc frozen = doc.freeze();
+        doc.gotoChild(1).setText("changed", "ns0:name").gotoRoot().addTag("item");
+        XMLTag cursor = frozen.newCursor();
+        assertEquals(cursor.getText("ns0:item[1]/ns0:name"), "a");
+        assertEquals(cursor.getChildCount(), 2);
+        assertTrue(cursor.toString().contains("encoding=\"ISO-8859-1\""));
+        assertEquals(frozen.toString(), cursor.toString());
+    }
+
+    @Test
+    public void cannot_be_modified() throws Exception {
+        final XMLTag cursor = XMLDoc.from(XML, false).freeze().newCursor().gotoChild(1);
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                cursor.addTag("other");
+            }
+        });
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                cursor.setText("x", "ns0:name");
+            }
+        });
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                cursor.deleteAttributes();
+            }
+        });
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                cursor.renameTo("other");
+            }
+        });
+        assertEquals(cursor.getChildCount(), 2);
+
+        XMLTag copy = cursor.duplicate();
+        assertEquals(copy.getAttribute("id"), "1");
+        copy.setText("x", "ns0:name");
+        assertEquals(copy.getText("ns0:name"), "x");
+        assertEquals(cursor.getText("ns0:name"), "a");
+    }
+
+    @Test
+    public void copies_share_the_template() throws Exception {
+        FrozenXMLDoc template = XMLDoc.from(XML, false).freeze();
+        XMLTag c1 = template.newCopy();
+        XMLTag c2 = template.newCopy().gotoChild(2);
+        assertSame(c1.setText("x", "ns0:item[1]/ns0:name"), c1);
+        c1.setAttribute("id", "9", "ns0:item[2]").gotoChild(2).setCDATA("<30>", "p:price").gotoRoot();
+        c2.setAttribute("id", "3").gotoChild("name").setText("c");
+        assertEquals(c2.getCurrentTagName(), "item");
+        assertEquals(c1.getText("ns0:item[1]/ns0:name"), "x");
+        assertEquals(c1.getCDATA("ns0:item[2]/p:price"), "<30>");
+        assertEquals(c1.getTextOrCDATA("ns0:item[2]/p:price"), "<30>");
+        assertEquals(c1.getText("ns0:item[2]/p:price"), "");
+        assertEquals(c1.getAttribute("id", "ns0:item[2]"), "9");
+        assertEquals(c2.getAttribute("id"), "3");
+        assertEquals(c2.getText("ns0:name"), "c");
+        assertEquals(template.newCursor().getText("ns0:item[2]/ns0:name"), "b");
+        // expressions depending on values see the values set
+        assertEquals(c1.findAttribute("id", "/ns0:catalog/ns0:item[ns0:name='x']"), "1");
+
+        XMLTag expected = XMLDoc.from(XML, false).setText("x", "ns0:item[1]/ns0:name");
+        expected.setAttribute("id", "9", "ns0:item[2]").gotoChild(2).setCDATA("<30>", "p:price");
+        assertEquals(c1.toString(), expected.toString());
+        assertEquals(c1.toString("UTF-8", 0), expected.toString("UTF-8", 0));
+        assertEquals(template.toString(), XMLDoc.from(XML, false).toString());
+    }
+
+    @Test
+    public void copies_are_copied_on_structural_change() throws Exception {
+        FrozenXMLDoc template = XMLDoc.from(XML, false).freeze();
+        XMLTag copy = template.newCopy().gotoChild(2).setText("c", "ns0:name").setAttribute("id", "3");
+        XMLTag other = copy.duplicate();
+        assertSame(copy.addTag("extra").gotoParent(), copy);
+        assertEquals(copy.getAttribute("id"), "3");
+        assertEquals(copy.getText("ns0:name"), "c");
+        assertEquals(copy.getChildCount(), 3);
+        copy.setText("d", "ns0:name");
+        assertEquals(other.getText("ns0:name"), "c");
+        assertEquals(other.getChildCount(), 2);
+        assertEquals(other.getCurrentTagLocation(), "*[2]");
+        assertEquals(template.newCursor().gotoChild(2).getAttribute("id"), "2");
+        other.addNamespace("p", "urn:price").setAttribute("id", "4").getCurrentTag().setAttribute("id", "5");
+        assertEquals(other.getAttribute("id"), "5");
+        assertEquals(template.newCursor().gotoChild(2).getText("ns0:name"), "b");
+    }
+
+    @Test
+    public void iterations_return_the_cursor() throws Exception {
+        final XMLTag cursor = XMLDoc.from(XML, false).freeze().newCursor();
+        final List<String> ids = new ArrayList<String>();
+        for (XMLTag tag : cursor.getChilds()) {
+            assertSame(tag, cursor);
+            ids.add(tag.getAttribute("id"));
+        }
+        assertSame(cursor.forEach(new CallBack() {
+            public void execute(XMLTag doc) {
+                assertSame(doc, cursor);
+                ids.add(doc.getText("p:price"));
+            }
+        }, "ns0:item"), cursor);
+        assertEquals(ids.toString(), "[1, 2, 10, 20]");
+        assertEquals(cursor.getCurrentTagName(), "catalog");
+    }
+
+    @Test
+    public void concurrent_readers() throws Exception {
+        StringBuilder xml = new StringBuilder("<catalog xmlns=\"urn:catalog\">");
+        for (int i = 0; i < 200; i++) {
+            xml.append("<item id=\"").append(i).append("\"><name>name").append(i).append("</name></item>");
+        }
+        final FrozenXMLDoc frozen = XMLDoc.from(xml.append("</catalog>").toString(), false).freeze();
+        final String expected = frozen.toString();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        start.await();
+                        XMLTag cursor = frozen.newCursor();
+                        for (int n = 0; n < 20; n++) {
+                            int i = 0;
+                            for (XMLTag item : cursor.getChilds()) {
+                                assertEquals(item.getAttribute("id"), "" + i);
+                                assertEquals(item.getText("ns0:name"), "name" + i);
+                                i++;
+                            }
+                            assertEquals(i, 200);
+                            assertEquals(cursor.gotoChild(150).gotoChild().getText(), "name149");
+                            assertEquals(cursor.gotoRoot().rawXpathNumber("count(ns0:item)").intValue(), 200);
+                            assertEquals(cursor.findAttribute("id", "ns0:item[ns0:name='name42']"), "42");
+                        }
+                        assertEquals(cursor.toString(), expected);
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
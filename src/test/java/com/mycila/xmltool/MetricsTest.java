@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.mycila.xmltool.MetricsEvent.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class MetricsTest extends AbstractTest {
+
+    private final InMemoryMetrics metrics = new InMemoryMetrics();
+
+    @Before
+    public void setup() {
+        XPathCache.clear();
+        SchemaCache.clear();
+        CachedEntityResolver.clear();
+        Metrics.setListener(metrics);
+    }
+
+    @After
+    public void tearDown() {
+        Metrics.setListener(null);
+    }
+
+    @Test
+    public void parse() {
+        XMLDoc.from("<a><b>1</b></a>", true);
+        assertEquals(metrics.getCount(POOL_WAIT), 1);
+        assertEquals(metrics.getCount(PARSE), 1);
+        assertTrue(metrics.getTotalTime(PARSE, TimeUnit.NANOSECONDS) > 0);
+        assertTrue(metrics.getMaxTime(PARSE, TimeUnit.NANOSECONDS) <= metrics.getTotalTime(PARSE, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void xpath() {
+        XMLTag doc = XMLDoc.from("<a><b>1</b></a>", true);
+        metrics.reset();
+        assertEquals(doc.rawXpathString("string(b)"), "1");
+        assertEquals(doc.rawXpathString("string(b)"), "1");
+        assertEquals(metrics.getCount(XPATH_COMPILE), 1);
+        assertEquals(metrics.getCount(XPATH_CACHE_HIT), 1);
+        assertEquals(metrics.getCount(XPATH_EVALUATE), 2);
+    }
+
+    @Test
+    public void serialize() {
+        XMLTag doc = XMLDoc.from("<a><b>1</b></a>", true);
+        doc.toString();
+        doc.toBytes();
+        assertEquals(metrics.getCount(SERIALIZE), 2);
+    }
+
+    @Test
+    public void validate() {
+        XMLTag doc = XMLDoc.from(readString("schema/item.xml"), false);
+        doc.validate(resource("/schema/item.xsd"));
+        doc.validate(resource("/schema/item.xsd"));
+        assertEquals(metrics.getCount(SCHEMA_COMPILE), 1);
+        assertEquals(metrics.getCount(SCHEMA_CACHE_HIT), 1);
+        assertEquals(metrics.getCount(VALIDATE), 2);
+    }
+
+    @Test
+    public void entities() {
+        String xml = "<!DOCTYPE a SYSTEM \"" + resource("/catalog/dtd/flat.dtd") + "\"><a>&hello;</a>";
+        assertEquals(XMLDoc.from(xml, true).getText(), "Hello");
+        assertEquals(XMLDoc.from(xml, true).getText(), "Hello");
+        assertEquals(metrics.getCount(ENTITY_FETCH), 1);
+        assertEquals(metrics.getCount(ENTITY_CACHE_HIT), 1);
+    }
+
+    @Test
+    public void disabled() {
+        Metrics.setListener(null);
+        XMLDoc.from("<a><b>1</b></a>", true).getText("b");
+        assertEquals(metrics.toString(), "");
+        for (MetricsEvent event : MetricsEvent.values()) {
+            assertEquals(metrics.getCount(event), 0);
+        }
+    }
+
+    @Test
+    public void report() {
+        metrics.onEvent(PARSE, 3000);
+        metrics.onEvent(PARSE, 1000);
+        metrics.onEvent(XPATH_CACHE_HIT, 0);
+        assertEquals(metrics.getMeanTime(PARSE, TimeUnit.NANOSECONDS), 2000);
+        assertEquals(metrics.toString(), "PARSE: count=2, total=4us, mean=2us, max=3us\nXPATH_CACHE_HIT: count=1, total=0us, mean=0us, max=0us\n");
+        metrics.reset();
+        assertEquals(metrics.toString(), "");
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.After;
+import org.junit.Test;
+
+import javax.xml.parsers.DocumentBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class ObjectProviderTest extends AbstractTest {
+
+    @After
+    public void restore() {
+        XMLDocumentBuilderFactory.setStrategy(XMLDocumentBuilderFactory.Strategy.POOL);
+    }
+
+    @Test
+    public void queue_provider() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        ObjectProvider<String, Object> provider = new QueueObjectProvider<String, Object>(factory, 1);
+        Object a = provider.acquire("k");
+        Object b = provider.acquire("k");
+        assertNotSame(a, b);
+        provider.release("k", a, true);
+        // only one idle object is kept
+        provider.release("k", b, true);
+        assertSame(provider.acquire("k"), a);
+        assertNotSame(provider.acquire("other"), a);
+        provider.release("k", a, false);
+        assertNotSame(provider.acquire("k"), a);
+        assertEquals(factory.created.get(), 4);
+        assertEquals(factory.reset.get(), 1);
+    }
+
+    @Test
+    public void queue_provider_bounded_keys() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        ObjectProvider<String, Object> provider = new QueueObjectProvider<String, Object>(factory, 1, 2);
+        Object a = provider.acquire("a");
+        Object b = provider.acquire("b");
+        provider.release("a", a, true);
+        provider.release("b", b, true);
+        assertSame(provider.acquire("a"), a);
+        provider.release("a", a, true);
+        // the idle objects of the least recently used key are dropped
+        provider.release("c", provider.acquire("c"), true);
+        assertSame(provider.acquire("a"), a);
+        assertNotSame(provider.acquire("b"), b);
+        assertEquals(factory.created.get(), 4);
+    }
+
+    @Test
+    public void thread_local_provider() throws Exception {
+        CountingFactory factory = new CountingFactory();
+        final ObjectProvider<String, Object> provider = new ThreadLocalObjectProvider<String, Object>(factory, new QueueObjectProvider<String, Object>(factory, 4));
+        final Object a = provider.acquire("k");
+        // nested acquisition on the same thread
+        Object nested = provider.acquire("k");
+        assertNotSame(nested, a);
+        provider.release("k", nested, true);
+        provider.release("k", a, true);
+        assertSame(provider.acquire("k"), a);
+        provider.release("k", a, true);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Object other = executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    Object o = provider.acquire("k");
+                    provider.release("k", o, true);
+                    return o;
+                }
+            }).get();
+            assertNotSame(other, a);
+            assertNotSame(other, nested);
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(factory.reset.get(), 4);
+        assertFalse(ThreadLocalObjectProvider.isVirtual(Thread.currentThread()));
+    }
+
+    @Test
+    public void thread_local_document_builders() throws Exception {
+        XMLDocumentBuilderFactory.setStrategy(XMLDocumentBuilderFactory.Strategy.THREAD_LOCAL);
+        assertEquals(XMLDocumentBuilderFactory.getStrategy(), XMLDocumentBuilderFactory.Strategy.THREAD_LOCAL);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 200; i++) {
+                final int n = i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        XMLTag doc = XMLDoc.from("<a xmlns=\"urn:a\"><b>" + n + "</b></a>", n % 2 == 0);
+                        return XMLDoc.from(doc, n % 2 == 0).getText(n % 2 == 0 ? "b" : "ns0:b").equals("" + n);
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void thread_local_builder_reset_after_error() {
+        XMLDocumentBuilderFactory.setStrategy(XMLDocumentBuilderFactory.Strategy.THREAD_LOCAL);
+        try {
+            XMLDoc.from("<a>", true);
+            fail();
+        } catch (XMLDocumentException ignored) {
+        }
+        assertEquals(XMLDoc.from("<a>ok</a>", true).getText(), "ok");
+    }
+
+    @Test
+    public void thread_local_builders_kept_across_strategy_changes() {
+        XMLDocumentBuilderFactory.Callback<DocumentBuilder> same = new XMLDocumentBuilderFactory.Callback<DocumentBuilder>() {
+            public DocumentBuilder apply(DocumentBuilder b) {
+                return b;
+            }
+        };
+        XMLDocumentBuilderFactory.setStrategy(XMLDocumentBuilderFactory.Strategy.THREAD_LOCAL);
+        DocumentBuilder builder = XMLDocumentBuilderFactory.withDocumentBuilder(true, same);
+        XMLDocumentBuilderFactory.setStrategy(XMLDocumentBuilderFactory.Strategy.POOL);
+        XMLDocumentBuilderFactory.setStrategy(XMLDocumentBuilderFactory.Strategy.THREAD_LOCAL);
+        assertSame(XMLDocumentBuilderFactory.withDocumentBuilder(true, same), builder);
+    }
+
+    private static final class CountingFactory implements ObjectProvider.Factory<String, Object> {
+        final AtomicInteger created = new AtomicInteger();
+        final AtomicInteger reset = new AtomicInteger();
+
+        public Object create(String key) {
+            created.incrementAndGet();
+            return new Object();
+        }
+
+        public void reset(String key, Object obj) {
+            reset.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.mycila.xmltool.Assert.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class SchemaCacheTest extends AbstractTest {
+
+    private static final URL SCHEMA = resource("/schema/item.xsd");
+
+    @Before
+    public void clear() {
+        SchemaCache.clear();
+    }
+
+    @Test
+    public void compiled_once() {
+        for (int i = 0; i < 10; i++) {
+            assertFalse(item(i, "12.5").validate(SCHEMA).hasError());
+        }
+        assertTrue(item(10, "free").validate(SCHEMA).hasError());
+        assertEquals(SchemaCache.getMissCount(), 1);
+        assertEquals(SchemaCache.getHitCount(), 10);
+        assertEquals(SchemaCache.size(), 1);
+    }
+
+    @Test
+    public void warm_up() {
+        SchemaCache.warmUp(SCHEMA);
+        assertEquals(SchemaCache.getMissCount(), 1);
+        assertFalse(item(1, "1").validate(SCHEMA).hasError());
+        assertFalse(item(2, "2").validate(new StreamSource(SCHEMA.toExternalForm())).hasError());
+        assertEquals(SchemaCache.getMissCount(), 1);
+        assertEquals(SchemaCache.getHitCount(), 2);
+    }
+
+    @Test
+    public void warm_up_invalid() {
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                SchemaCache.warmUp(resource("/goto.xml"));
+            }
+        });
+        assertThrow(IllegalArgumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                SchemaCache.warmUp(new StreamSource(new StringReader(readString("schema/item.xsd"))));
+            }
+        });
+        assertEquals(SchemaCache.size(), 0);
+    }
+
+    @Test
+    public void dom_nodes_not_cached() {
+        Source schema = new DOMSource(XMLDoc.from(SCHEMA, false).toDocument());
+        assertFalse(item(1, "1").validate(schema).hasError());
+        assertTrue(item(2, "two").validate(schema).hasError());
+        assertEquals(SchemaCache.getMissCount(), 2);
+        assertEquals(SchemaCache.size(), 0);
+        schema.setSystemId(SCHEMA.toString());
+        assertFalse(item(1, "1").validate(schema).hasError());
+        assertEquals(SchemaCache.size(), 1);
+    }
+
+    @Test
+    public void streams_not_cached() {
+        for (int i = 0; i < 2; i++) {
+            assertFalse(item(i, "1").validate(new StreamSource(new StringReader(readString("schema/item.xsd")))).hasError());
+        }
+        assertEquals(SchemaCache.getMissCount(), 2);
+        assertEquals(SchemaCache.size(), 0);
+    }
+
+    @Test
+    public void bounded() {
+        SchemaCache.setMaxSize(1);
+        try {
+            item(1, "1").validate(SCHEMA);
+            item(1, "1").validate(new DOMSource(XMLDoc.from(SCHEMA, false).toDocument()));
+            assertEquals(SchemaCache.size(), 1);
+        } finally {
+            SchemaCache.setMaxSize(64);
+        }
+    }
+
+    @Test
+    public void used_schemas_kept() {
+        SchemaCache.setMaxSize(3);
+        try {
+            for (int i = 0; i < 10; i++) {
+                for (int j = 0; j < 2; j++) {
+                    assertFalse(item(i, "1").validate(schema(j)).hasError());
+                }
+                assertFalse(item(i, "1").validate(schema(i + 2)).hasError());
+            }
+            assertTrue(SchemaCache.size() <= 3);
+            assertEquals(SchemaCache.getMissCount(), 12);
+        } finally {
+            SchemaCache.setMaxSize(64);
+        }
+    }
+
+    @Test
+    public void concurrent_validation() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 200; i++) {
+                final int n = i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        return item(n, n % 2 == 0 ? "" + n : "n" + n).validate(SCHEMA).hasError() == (n % 2 == 1);
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            assertEquals(SchemaCache.size(), 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // the same schema under distinct system ids, i.e. distinct cache entries
+    private static Source schema(int n) {
+        return new StreamSource(new StringReader(readString("schema/item.xsd")), SCHEMA + "?" + n);
+    }
+
+    private static XMLTag item(int id, String price) {
+        return XMLDoc.newDocument(false).addDefaultNamespace("urn:items")
+                .addRoot("item")
+                .addTag("name").addText("item " + id).gotoParent()
+                .addTag("price").addText(price);
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class SimplePathTest extends AbstractTest {
+
+    private static final String XML = "<root xmlns:x=\"http://x\" id=\"r\"><a id=\"1\"><b>b1</b><b x:id=\"2\">b2<c>c</c></b></a>" +
+            "<x:a><b>xb</b></x:a><a id=\"3\"><b>b3</b><d/></a></root>";
+
+    private static final String[] PATHS = {".", "a", "a[2]", "a/b", "a/b[2]", "a[2]/b", "*", "*/b", "*[2]/b", "a/*",
+            "a/b/c", "a/d", "x:a", "x:a/b", "x:a/*", "a/@id", "@id", "a/b/@x:id", "a/b[2]/@x:id", "./a/./b", "a[3]/b", "e",
+            "a/@missing", "x:a/@id"};
+
+    private static final String[] LOCAL_PATHS = {".", "a", "a[2]", "a/b", "a/b[2]", "*", "*/b", "*[2]/b", "a/*", "a/b/c",
+            "@id", "a/@id", "a/@missing", "./a/./b", "e"};
+
+    @After
+    public void enable() {
+        XPathCache.setSimplePathEvaluation(true);
+    }
+
+    @Test
+    public void recognized() {
+        NamespaceBindings ns = bindings("x", "http://x");
+        for (String path : PATHS) {
+            assertNotNull(path, SimplePath.parse(path, ns));
+        }
+        for (String path : new String[]{"/a", "//a", "a//b", "a/", "..", "a/..", "a[@id]", "a[last()]", "a[0]", "a[1][1]",
+                "@id/a", "@*", "a | b", "text()", "y:a", "count(a)", "a/@id/b", "$v", "1a"}) {
+            assertNull(path, SimplePath.parse(path, ns));
+        }
+    }
+
+    @Test
+    public void same_results_as_xpath_engine() {
+        check(XMLDoc.from(XML, false), PATHS);
+        check(XMLDoc.from(XML.replace("x:", "").replace("xmlns:x", "xmlns:y"), true), LOCAL_PATHS);
+        check(XMLDoc.newDocument(false).addNamespace("x", "http://x").addRoot("root")
+                .addTag("a").addAttribute("id", "1").addTag("b").addText("b1")
+                .gotoParent().addTag("x:a").addTag("b").addText("xb")
+                .gotoRoot().addTag("a").addAttribute("id", "3").addTag("b").addText("b3").gotoRoot(), PATHS);
+    }
+
+    @Test
+    public void falls_back_on_prefixed_names_without_namespace_support() {
+        XMLTag doc = XMLDoc.from("<root><x:a>1</x:a><a>2</a></root>", true);
+        assertEquals(doc.gotoTag("*[1]").getCurrentTagName(), "x:a");
+        // the XPath engine matches on the local part of DOM Level 1 names
+        assertEquals(doc.gotoRoot().getText("a"), "1");
+    }
+
+    @Test
+    public void paths_selected_together() {
+        check(XMLDoc.from(XML, false), extractor(PATHS));
+        check(XMLDoc.from(XML.replace("x:", "").replace("xmlns:x", "xmlns:y"), true), extractor(LOCAL_PATHS));
+        check(XMLDoc.from(XML, false).gotoChild(1), extractor(LOCAL_PATHS));
+    }
+
+    private static XMLExtractor extractor(String[] paths) {
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        for (String path : paths) {
+            fields.put(path, path);
+        }
+        return XMLExtractor.compile(fields);
+    }
+
+    private void check(XMLTag doc, XMLExtractor extractor) {
+        XPathCache.setSimplePathEvaluation(true);
+        Map<String, String> fast = doc.extract(extractor);
+        XPathCache.setSimplePathEvaluation(false);
+        Map<String, String> slow = doc.extract(extractor);
+        assertEquals(fast, slow);
+        for (String path : extractor.getNames()) {
+            assertEquals(path, fast.get(path), doc.hasTag(path) ? doc.getText(path) : doc.rawXpathNode(path) == null ? null : doc.rawXpathString(path));
+        }
+    }
+
+    private void check(XMLTag doc, String[] paths) {
+        for (String path : paths) {
+            XPathCache.setSimplePathEvaluation(true);
+            List<Node> fast = nodes(doc.rawXpathNodeSet(path));
+            Node fastNode = doc.rawXpathNode(path);
+            String fastString = doc.rawXpathString(path);
+            XPathCache.setSimplePathEvaluation(false);
+            List<Node> slow = nodes(doc.rawXpathNodeSet(path));
+            assertEquals(path, slow, fast);
+            assertSame(path, doc.rawXpathNode(path), fastNode);
+            assertEquals(path, doc.rawXpathString(path), fastString);
+        }
+    }
+
+    private static List<Node> nodes(NodeList list) {
+        List<Node> nodes = new ArrayList<Node>();
+        for (int i = 0; i < list.getLength(); i++) {
+            nodes.add(list.item(i));
+        }
+        return nodes;
+    }
+
+    private static NamespaceBindings bindings(String prefix, String uri) {
+        Map<String, String> ns = new HashMap<String, String>();
+        ns.put(prefix, uri);
+        return new NamespaceBindings(ns);
+    }
+}
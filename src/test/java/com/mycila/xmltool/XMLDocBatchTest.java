@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class XMLDocBatchTest extends AbstractTest {
+
+    @Test
+    public void files_are_parsed_in_order() throws Exception {
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < 50; i++) {
+            File file = File.createTempFile("batch", ".xml");
+            file.deleteOnExit();
+            FileOutputStream out = new FileOutputStream(file);
+            out.write((i == 10 ? "<doc>" : "<doc>" + i + "</doc>").getBytes("UTF-8"));
+            out.close();
+            files.add(file);
+        }
+        List<XMLDocBatch.Result<File>> results = XMLDocBatch.fromFiles(files, true);
+        assertEquals(results.size(), 50);
+        for (int i = 0; i < 50; i++) {
+            XMLDocBatch.Result<File> result = results.get(i);
+            assertSame(result.getInput(), files.get(i));
+            if (i == 10) {
+                assertFalse(result.isSuccess());
+                assertTrue(result.getError() instanceof XMLDocumentException);
+            } else {
+                assertTrue(result.isSuccess());
+                assertEquals(result.getDocument().getText(), String.valueOf(i));
+            }
+        }
+    }
+
+    @Test
+    public void streams_are_parsed_on_the_given_executor() throws Exception {
+        List<ByteArrayInputStream> streams = new ArrayList<ByteArrayInputStream>();
+        for (int i = 0; i < 100; i++) {
+            streams.add(new ByteArrayInputStream(("<doc>" + i + "</doc>").getBytes("UTF-8")));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<XMLDocBatch.Result<ByteArrayInputStream>> results = XMLDocBatch.fromStreams(streams, false, executor, 4);
+            for (int i = 0; i < 100; i++) {
+                assertEquals(results.get(i).getDocument().getText(), String.valueOf(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void can_be_called_from_its_own_executor() throws Exception {
+        final List<ByteArrayInputStream> streams = new ArrayList<ByteArrayInputStream>();
+        for (int i = 0; i < 3; i++) {
+            streams.add(new ByteArrayInputStream(("<doc>" + i + "</doc>").getBytes("UTF-8")));
+        }
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // the only thread of the executor runs the batch: the worker it submits can only run afterwards
+            List<XMLDocBatch.Result<ByteArrayInputStream>> results = executor.submit(new Callable<List<XMLDocBatch.Result<ByteArrayInputStream>>>() {
+                public List<XMLDocBatch.Result<ByteArrayInputStream>> call() {
+                    return XMLDocBatch.fromStreams(streams, true, executor, 2);
+                }
+            }).get(5, TimeUnit.SECONDS);
+            for (int i = 0; i < 3; i++) {
+                assertEquals(results.get(i).getDocument().getText(), String.valueOf(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void calling_thread_parses_when_executor_rejects() throws Exception {
+        List<ByteArrayInputStream> streams = new ArrayList<ByteArrayInputStream>();
+        for (int i = 0; i < 5; i++) {
+            streams.add(new ByteArrayInputStream("<doc/>".getBytes("UTF-8")));
+        }
+        List<XMLDocBatch.Result<ByteArrayInputStream>> results = XMLDocBatch.fromStreams(streams, true, new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        }, 8);
+        assertEquals(results.size(), 5);
+        for (XMLDocBatch.Result<ByteArrayInputStream> result : results) {
+            assertEquals(result.getDocument().getCurrentTagName(), "doc");
+        }
+        assertTrue(XMLDocBatch.fromFiles(new ArrayList<File>(), true).isEmpty());
+    }
+
+}
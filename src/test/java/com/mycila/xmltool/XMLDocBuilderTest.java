@@ -24,10 +24,15 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamSource;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 
-import static com.mycila.xmltool.Assert.assertThrow;
+import static com.mycila.xmltool.Assert.*;
 import static org.junit.Assert.*;
 
 /**
@@ -61,6 +66,55 @@ public final class XMLDocBuilderTest extends AbstractTest {
         assertSameDoc(XMLDocBuilder.from(new ByteArrayInputStream("<html></html>".getBytes()), false).toDocument().getFirstChild().getNodeName(), "html");
     }
 
+    @Test
+    public void test_from_bytes() throws Exception {
+        byte[] data = "--<a>\u00e9t\u00e9</a>--".getBytes("UTF-8");
+        assertEquals(XMLDoc.from(data, 2, data.length - 4, false).getText(), "\u00e9t\u00e9");
+        assertEquals(XMLDoc.from("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><a>\u00e9</a>".getBytes("ISO-8859-1")).getText(), "\u00e9");
+        assertThrow(IndexOutOfBoundsException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                XMLDoc.from(new byte[4], 2, 3, false);
+            }
+        });
+    }
+
+    @Test
+    public void test_from_ByteBuffer() throws Exception {
+        byte[] data = "--<a>b</a>".getBytes("UTF-8");
+        ByteBuffer heap = ByteBuffer.wrap(data);
+        heap.position(2);
+        assertEquals(XMLDoc.from(heap.slice()).getText(), "b");
+        assertEquals(XMLDoc.from(heap).getText(), "b");
+        assertEquals(heap.position(), 2);
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data).flip();
+        direct.position(2);
+        assertEquals(XMLDoc.from(direct, false).getText(), "b");
+        assertEquals(direct.position(), 2);
+    }
+
+    @Test
+    public void test_from_FileChannel() throws Exception {
+        File file = File.createTempFile("xmltool", ".xml");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write("<a>1</a><b>2</b>".getBytes("UTF-8"));
+        out.close();
+        FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            assertEquals(XMLDoc.from(channel, 8, 8, false).getCurrentTagName(), "b");
+            assertTrue(channel.isOpen());
+        } finally {
+            channel.close();
+        }
+        channel = new FileInputStream("src/test/resources/doc.xhtml").getChannel();
+        try {
+            assertSameDoc(XMLDoc.from(channel, false).toString(), XMLDoc.from(new File("src/test/resources/doc.xhtml"), false).toString());
+        } finally {
+            channel.close();
+        }
+    }
+
     @Test
     public void test_from_File() {
         assertSameDoc(XMLDocBuilder.from(new File("src/test/resources/doc.xhtml"), false).toDocument().getFirstChild().getNodeName(), "html");
@@ -179,4 +233,38 @@ public final class XMLDocBuilderTest extends AbstractTest {
         assertFalse(tag.toString().equals(tag2.toString()));
     }
 
+    @Test
+    public void test_normalization() throws Exception {
+        XMLTag doc = XMLDocBuilder.newDocument(false).addRoot("html");
+        doc.addText("a");
+        doc.addText("b");
+        assertEquals(doc.getCurrentTag().getChildNodes().getLength(), 1);
+    }
+
+    @Test
+    public void test_deferred_normalization() throws Exception {
+        XMLTag doc = XMLDocBuilder.newDocument(false).deferNormalization().addRoot("html");
+        doc.addText("a");
+        doc.addText("b");
+        assertEquals(doc.getCurrentTag().getChildNodes().getLength(), 2);
+        assertEquals(doc.getText(), "ab");
+        assertEquals(doc.toDocument().getDocumentElement().getChildNodes().getLength(), 1);
+        assertSameDoc(doc.toString(), "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?><html>ab</html>");
+    }
+
+    @Test
+    public void test_deferred_normalization_by_default() throws Exception {
+        XMLDocBuilder.setDeferredNormalization(true);
+        try {
+            XMLTag doc = XMLDocBuilder.from("<html><body/></html>", false);
+            doc.addText("a");
+            doc.addText("b");
+            assertEquals(doc.getCurrentTag().getChildNodes().getLength(), 3);
+            assertEquals(doc.gotoTag("body").getCurrentTagName(), "body");
+            assertEquals(doc.gotoRoot().getCurrentTag().getChildNodes().getLength(), 2);
+        } finally {
+            XMLDocBuilder.setDeferredNormalization(false);
+        }
+    }
+
 }
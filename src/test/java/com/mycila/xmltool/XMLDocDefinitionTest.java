@@ -149,6 +149,36 @@ public final class XMLDocDefinitionTest {
         assertEquals(def.createRoot("a").getRoot().getNodeName(), "a");
     }
 
+    @Test
+    public void test_namespaces_read_on_first_use() throws Exception {
+        XMLTag doc = XMLDoc.from("<a xmlns='http://a'><b xmlns:x='http://x'/><c xmlns='http://c'/></a>", false);
+        XMLDocDefinition def = new XMLDocDefinition(doc.toDocument(), false);
+        def.readPendingNamespaces();
+        Element root = doc.toDocument().getDocumentElement();
+        while (root.getFirstChild() != null) {
+            root.removeChild(root.getFirstChild());
+        }
+        assertEquals(def.getNamespaceURI("x"), "http://x");
+        assertEquals(def.getNamespaceURI("ns0"), "http://a");
+        assertEquals(def.getNamespaceURI("ns1"), "http://c");
+
+        // the declarations are bound even if they are deleted before the first lookup
+        doc = XMLDoc.from("<a xmlns:x='http://x'><b/></a>", false);
+        doc.gotoChild().delete();
+        assertEquals(doc.getPefix("http://x"), "x");
+        doc = XMLDoc.from("<a><b xmlns:x='http://x'/></a>", false);
+        doc.gotoChild().delete();
+        assertEquals(doc.getPefix("http://x"), "x");
+
+        // or through the DOM
+        doc = XMLDoc.from("<a xmlns:p='urn:p'><p:b>x</p:b></a>", false);
+        doc.toDocument().getDocumentElement().removeAttribute("xmlns:p");
+        assertEquals(doc.getText("p:b"), "x");
+        doc = XMLDoc.from("<a xmlns:p='urn:p'><p:b>x</p:b></a>", false);
+        doc.getCurrentTag().removeAttribute("xmlns:p");
+        assertEquals(doc.getText("p:b"), "x");
+    }
+
     @Test
     public void test_getEncoding() throws Exception {
         XMLTag doc = XMLDoc.from(getClass().getResource("/xpath3.xml"), false);
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.mycila.xmltool.Assert.Code;
+import static com.mycila.xmltool.Assert.assertThrow;
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class XMLDocStreamTest extends AbstractTest {
+
+    private static final String FEED = "<feed xmlns=\"http://feed\" xmlns:x=\"http://x\"><header><record id=\"0\"/></header>" +
+            "<records><record id=\"1\"><name>one</name><x:extra>e</x:extra></record>" +
+            "<record id=\"2\"><name><![CDATA[t<o]]></name><record id=\"3\"/></record></records></feed>";
+
+    @Test
+    public void yields_one_tag_per_record() {
+        List<String> names = new ArrayList<String>();
+        for (XMLTag record : XMLDoc.stream(new StringReader(FEED), "record")) {
+            assertEquals(record.getCurrentTagName(), "record");
+            names.add(record.getAttribute("id") + ":" + (record.hasTag("name") ? record.getTextOrCDATA("name") : ""));
+        }
+        assertEquals(names.toString(), "[0:, 1:one, 2:t<o]");
+    }
+
+    @Test
+    public void nested_records_are_part_of_the_outer_record() {
+        Iterator<XMLTag> records = XMLDoc.stream(new StringReader(FEED), "record").iterator();
+        records.next();
+        records.next();
+        XMLTag record = records.next();
+        assertEquals(record.getAttribute("id"), "2");
+        assertEquals(record.getAttribute("id", "record"), "3");
+        assertFalse(records.hasNext());
+    }
+
+    @Test
+    public void namespaces_in_scope_are_declared_on_each_record() {
+        List<XMLTag> records = new ArrayList<XMLTag>();
+        for (XMLTag record : XMLDoc.stream(new StringReader(FEED), "record", false)) {
+            records.add(record);
+        }
+        assertEquals(records.size(), 3);
+        XMLTag record = records.get(1);
+        assertEquals(record.getContext().getNamespaceURI("x"), "http://x");
+        assertEquals(record.getText("x:extra"), "e");
+        assertEquals(record.getText(record.getPefix("http://feed") + ":name"), "one");
+        assertSameDoc(XMLDoc.from(record.toString(), false).toString(), record.toString());
+    }
+
+    @Test
+    public void entities_declared_in_another_encoding() {
+        String xml = "<!DOCTYPE a SYSTEM \"" + resource("/catalog/dtd/latin1.dtd") + "\"><a><r>&cafe;</r></a>";
+        assertEquals(XMLDoc.from(xml, true).getText("r"), "caf\u00e9");
+        Iterator<XMLTag> records = XMLDoc.stream(new StringReader(xml), "r").iterator();
+        assertEquals(records.next().getText(), "caf\u00e9");
+        assertFalse(records.hasNext());
+    }
+
+    @Test
+    public void prefixed_tag_name() {
+        String xml = "<a xmlns:p=\"http://p\"><p:r>1</p:r><r>2</r><p:r>3</p:r></a>";
+        List<String> texts = new ArrayList<String>();
+        for (XMLTag record : XMLDoc.stream(new StringReader(xml), "p:r", false)) {
+            texts.add(record.getText());
+        }
+        assertEquals(texts.toString(), "[1, 3]");
+        texts.clear();
+        for (XMLTag record : XMLDoc.stream(new StringReader(xml), "r", false)) {
+            texts.add(record.getText());
+        }
+        assertEquals(texts.toString(), "[1, 2, 3]");
+    }
+
+    @Test
+    public void input_is_closed_when_all_records_are_read() {
+        final boolean[] closed = new boolean[1];
+        InputStream in = new ByteArrayInputStream(FEED.getBytes()) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+            }
+        };
+        XMLDocStream stream = XMLDoc.stream(in, "record");
+        Iterator<XMLTag> records = stream.iterator();
+        records.next();
+        assertFalse(closed[0]);
+        while (records.hasNext()) {
+            records.next();
+        }
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    public void iterated_once() {
+        final XMLDocStream stream = XMLDoc.stream(new StringReader(FEED), "record");
+        stream.iterator();
+        assertThrow(IllegalStateException.class).withMessage("An XML stream can only be iterated once").whenRunning(new Code() {
+            public void run() throws Throwable {
+                stream.iterator();
+            }
+        });
+    }
+
+    @Test
+    public void large_feed() {
+        final int count = 100000;
+        InputStream feed = new SequenceInputStream(new Enumeration<InputStream>() {
+            int n = -1;
+
+            public boolean hasMoreElements() {
+                return n <= count;
+            }
+
+            public InputStream nextElement() {
+                n++;
+                String chunk = n == 0 ? "<feed>" : n <= count ? "<record><id>" + n + "</id><value>some text</value></record>" : "</feed>";
+                return new ByteArrayInputStream(chunk.getBytes());
+            }
+        });
+        int n = 0;
+        for (XMLTag record : XMLDoc.stream(feed, "record")) {
+            assertEquals(record.getText("id"), String.valueOf(++n));
+        }
+        assertEquals(n, count);
+    }
+
+    @Test
+    public void malformed() {
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                for (XMLTag ignored : XMLDoc.stream(new StringReader("<a><record></a>"), "record")) {
+                }
+            }
+        });
+    }
+}
@@ -17,6 +17,8 @@ package com.mycila.xmltool;
 
 import org.junit.Test;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.xml.sax.InputSource;
 
 import javax.xml.transform.dom.DOMResult;
@@ -1043,4 +1045,74 @@ public final class XMLDocTest extends AbstractTest {
         assertEquals(cloned.getCurrentTagName(), "title");
     }
 
+    @Test
+    public void test_wide_element_navigation() throws Exception {
+        StringBuilder xml = new StringBuilder("<list>");
+        for (int i = 0; i < 100; i++) {
+            xml.append("<item>").append(i).append("</item>");
+        }
+        XMLTag doc = XMLDoc.from(xml.append("</list>").toString(), true);
+        assertEquals(doc.getChildCount(), 100);
+        assertEquals(doc.gotoChild(50).getText(), "49");
+        assertEquals(doc.getCurrentTagLocation(), "*[50]");
+
+        // modified through the cursor
+        doc.gotoParent().addTag("item").addText("100");
+        assertEquals(doc.getChildCount(), 101);
+        assertEquals(doc.gotoLastChild().getText(), "100");
+        doc.gotoParent().gotoChild(1).delete();
+        assertEquals(doc.getChildCount(), 100);
+        assertEquals(doc.gotoChild(50).getText(), "50");
+        assertEquals(doc.getCurrentTagLocation(), "*[50]");
+
+        // modified through the DOM and another cursor
+        doc.gotoParent();
+        doc.getCurrentTag().insertBefore(doc.toDocument().createElement("first"), doc.getCurrentTag().getFirstChild());
+        assertEquals(doc.getChildCount(), 101);
+        assertEquals(doc.gotoFirstChild().getCurrentTagName(), "first");
+        XMLTag other = XMLDoc.from(doc.toDocument(), true);
+        other.gotoChild(2).delete();
+        assertEquals(doc.gotoParent().getChildCount(), 100);
+        assertEquals(doc.gotoChild(2).getText(), "2");
+        assertEquals(doc.getCurrentTagLocation(), "*[2]");
+    }
+
+    @Test
+    public void test_wide_element_modified_through_raw_nodes() throws Exception {
+        XMLTag doc = XMLDoc.newDocument(true).addRoot("list");
+        for (int i = 0; i < 40; i++) {
+            doc.addTag("item").addText(String.valueOf(i));
+        }
+        assertEquals(doc.getChildCount(), 40);
+        Node n = doc.rawXpathNode("item[1]");
+        n.getParentNode().removeChild(n);
+        assertEquals(doc.getChildCount(), 39);
+        assertEquals(doc.gotoChild(1).getText(), "1");
+        doc.gotoParent();
+        n = doc.rawXpathNodeSet("item").item(0);
+        n.getParentNode().removeChild(n);
+        assertEquals(doc.getChildCount(), 38);
+        Element e = doc.getChildElement().get(0);
+        e.getParentNode().removeChild(e);
+        assertEquals(doc.getChildCount(), 37);
+        assertEquals(doc.getChildElement().get(0).getParentNode(), doc.getCurrentTag());
+    }
+
+    @Test
+    public void test_duplicate_location() throws Exception {
+        StringBuilder xml = new StringBuilder("<list>");
+        for (int i = 0; i < 100; i++) {
+            xml.append("text<!-- comment --><item><a/>text<b><c>").append(i).append("</c></b></item>");
+        }
+        XMLTag doc = XMLDoc.from(xml.append("</list>").toString(), true);
+        doc.gotoChild(75).gotoChild(2).gotoChild();
+        assertEquals(doc.getCurrentTagLocation(), "*[75]/*[2]/*[1]");
+        XMLTag copy = doc.duplicate();
+        assertEquals(copy.getText(), "74");
+        assertEquals(copy.getCurrentTagLocation(), "*[75]/*[2]/*[1]");
+        copy.setText("copy");
+        assertEquals(doc.getText(), "74");
+        assertEquals(doc.gotoRoot().duplicate().getCurrentTagLocation(), ".");
+    }
+
 }
@@ -18,8 +18,12 @@ package com.mycila.xmltool;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import javax.xml.validation.Schema;
+import java.io.StringReader;
 import java.util.Arrays;
 
+import static com.mycila.xmltool.Assert.*;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -45,6 +49,35 @@ public final class XMLDocValidatorTest extends AbstractTest {
         System.out.println(Arrays.deepToString(res.getErrorMessages()));
     }
 
+    @Test
+    public void validate_while_parsing() throws Exception {
+        Schema schema = SchemaCache.getSchema(getClass().getResource("/schema/item.xsd"));
+        ValidatedXMLDoc res = XMLDoc.from(getClass().getResource("/schema/item.xml"), schema);
+        assertTrue(res.isValid());
+        assertFalse(res.getValidationResult().hasWarning());
+        assertEquals(res.getTag().getText("ns0:price"), "12.5");
+
+        for (int i = 0; i < 5; i++) {
+            res = XMLDoc.from("<item xmlns=\"urn:items\"><name>n</name><price>" + i + "</price></item>", schema);
+            assertTrue(res.isValid());
+        }
+    }
+
+    @Test
+    public void validate_while_parsing_invalid() throws Exception {
+        Schema schema = SchemaCache.getSchema(getClass().getResource("/schema/item.xsd"));
+        ValidatedXMLDoc res = XMLDoc.from(new StringReader("<item xmlns=\"urn:items\"><price>free</price></item>"), schema);
+        assertFalse(res.isValid());
+        assertTrue(res.getValidationResult().hasError());
+        assertEquals(res.getTag().getText("ns0:price"), "free");
+
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                XMLDoc.from("<item xmlns=\"urn:items\"><name>", SchemaCache.getSchema(getClass().getResource("/schema/item.xsd")));
+            }
+        });
+    }
+
     @Test
     @Ignore
     //when we ignore namespace, validation becomes unpredictable on diffrent jdk versions
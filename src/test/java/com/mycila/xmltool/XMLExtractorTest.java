@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static com.mycila.xmltool.Assert.*;
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class XMLExtractorTest extends AbstractTest {
+
+    private static final String XML = "<order xmlns=\"urn:order\" xmlns:p=\"urn:price\" id=\"42\">" +
+            "<customer><name>John</name><email>john@doe.com</email></customer>" +
+            "<line ref=\"a\"><qty>1</qty><p:price>10</p:price></line>" +
+            "<line ref=\"b\"><qty>2</qty><p:price>20</p:price></line>" +
+            "</order>";
+
+    private static final XMLExtractor FIELDS;
+
+    static {
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        fields.put("id", "@id");
+        fields.put("name", "ns0:customer/ns0:name");
+        fields.put("email", "ns0:customer/ns0:email");
+        fields.put("ref", "ns0:line[2]/@ref");
+        fields.put("price", "ns0:line[2]/p:price");
+        fields.put("qty", "ns0:line[@ref='b']/ns0:qty");
+        fields.put("total", "ns0:line[last()]/p:price/text()");
+        fields.put("missing", "ns0:line[3]/ns0:qty");
+        FIELDS = XMLExtractor.compile(fields);
+    }
+
+    @Test
+    public void extract() throws Exception {
+        Map<String, String> values = XMLDoc.from(XML, false).extract(FIELDS);
+        assertEquals(values.toString(), "{id=42, name=John, email=john@doe.com, ref=b, price=20, qty=2, total=20, missing=null}");
+        assertArrayEquals(FIELDS.getNames(), new String[]{"id", "name", "email", "ref", "price", "qty", "total", "missing"});
+
+        Map<String, XMLPath> paths = new LinkedHashMap<String, XMLPath>();
+        paths.put("qty", XMLPath.compile("ns0:qty"));
+        paths.put("ref", XMLPath.compile("@ref"));
+        XMLTag line = XMLDoc.from(XML, false).gotoChild(2);
+        assertEquals(line.extract(XMLExtractor.of(paths)).toString(), "{qty=1, ref=a}");
+        assertEquals(line.getCurrentTagName(), "line");
+    }
+
+    @Test
+    public void extract_from_deferred_document() throws Exception {
+        XMLDocBuilder.setDeferredNormalization(true);
+        try {
+            XMLTag doc = XMLDoc.newDocument(true).addRoot("r");
+            doc.addTag("a");
+            doc.addText("foo");
+            doc.gotoTag("a");
+            doc.addText("bar");
+            XMLExtractor text = XMLExtractor.compile(Collections.singletonMap("t", "a/text()"));
+            assertEquals(doc.extract(text).toString(), "{t=foobar}");
+            assertEquals(doc.rawXpathString("a/text()"), "foobar");
+        } finally {
+            XMLDocBuilder.setDeferredNormalization(false);
+        }
+    }
+
+    @Test
+    public void extract_from_read_only_documents_and_copies() throws Exception {
+        String expected = XMLDoc.from(XML, false).extract(FIELDS).toString();
+        FrozenXMLDoc frozen = XMLDoc.from(XML, false).freeze();
+        assertEquals(frozen.newCursor().extract(FIELDS).toString(), expected);
+        assertEquals(XMLDoc.from(XML, false).compact().newCursor().extract(FIELDS).toString(), expected);
+        assertEquals(frozen.newCopy().extract(FIELDS).toString(), expected);
+
+        XMLTag copy = frozen.newCopy().setText("Jane", "ns0:customer/ns0:name").setAttribute("ref", "c", "ns0:line[2]");
+        Map<String, String> fields = new LinkedHashMap<String, String>();
+        fields.put("name", "ns0:customer/ns0:name");
+        fields.put("ref", "ns0:line[2]/@ref");
+        assertEquals(copy.extract(XMLExtractor.compile(fields)).toString(), "{name=Jane, ref=c}");
+        assertEquals(copy.extract(FIELDS).get("qty"), null);
+        assertEquals(frozen.newCursor().extract(FIELDS).toString(), expected);
+    }
+
+    @Test
+    public void invalid() throws Exception {
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                XMLExtractor.of(Collections.singletonMap("id", XMLPath.compile("line[@ref=$ref]", "ref")));
+            }
+        });
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                XMLDoc.from(XML, false).extract(XMLExtractor.compile(Collections.singletonMap("id", "ns0:line[")));
+            }
+        });
+        assertThrow(XMLDocumentException.class).whenRunning(new Code() {
+            public void run() throws Throwable {
+                XMLDoc.from(XML, false).extract(XMLExtractor.compile(Collections.singletonMap("count", "count(ns0:line)")));
+            }
+        });
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.Test;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.stream.StreamResult;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class XMLFactoriesTest extends AbstractTest {
+
+    @Test
+    public void transformers_are_reused_and_reset() throws Exception {
+        final Transformer[] used = new Transformer[2];
+        XMLFactories.withTransformer("UTF-8", 2, false, true, new XMLFactories.Callback<Void>() {
+            public Void apply(Transformer t) {
+                assertEquals(t.getOutputProperty(OutputKeys.INDENT), "yes");
+                assertEquals(t.getOutputProperty(OutputKeys.STANDALONE), "yes");
+                t.setOutputProperty(OutputKeys.ENCODING, "ISO-8859-1");
+                t.setParameter("p", "v");
+                used[0] = t;
+                return null;
+            }
+        });
+        XMLFactories.withTransformer("UTF-8", 2, false, true, new XMLFactories.Callback<Void>() {
+            public Void apply(Transformer t) {
+                assertEquals(t.getOutputProperty(OutputKeys.ENCODING), "UTF-8");
+                assertNull(t.getParameter("p"));
+                used[1] = t;
+                return null;
+            }
+        });
+        assertSame(used[0], used[1]);
+        XMLFactories.withTransformer("UTF-8", 0, true, null, new XMLFactories.Callback<Void>() {
+            public Void apply(Transformer t) {
+                assertNotSame(t, used[0]);
+                assertEquals(t.getOutputProperty(OutputKeys.INDENT), "no");
+                assertEquals(t.getOutputProperty(OutputKeys.OMIT_XML_DECLARATION), "yes");
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void failed_transformers_are_discarded() throws Exception {
+        final Transformer[] used = new Transformer[2];
+        try {
+            XMLFactories.withTransformer("US-ASCII", 0, false, null, new XMLFactories.Callback<Void>() {
+                public Void apply(Transformer t) throws TransformerException {
+                    used[0] = t;
+                    throw new TransformerException("failed");
+                }
+            });
+            fail();
+        } catch (TransformerException e) {
+            assertEquals(e.getMessage(), "failed");
+        }
+        XMLFactories.withTransformer("US-ASCII", 0, false, null, new XMLFactories.Callback<Void>() {
+            public Void apply(Transformer t) {
+                used[1] = t;
+                return null;
+            }
+        });
+        assertNotSame(used[0], used[1]);
+    }
+
+    @Test
+    public void transformer_based_conversions() throws Exception {
+        XMLTag doc = XMLDoc.newDocument(true).addRoot("a").addTag("b").addText("c");
+        DOMResult result = new DOMResult();
+        doc.toResult(result);
+        assertSameDoc(XMLDoc.from(result.getNode(), true).toString(), doc.toString());
+        assertSameDoc(XMLDoc.from(doc.toSource(), true).toString(), doc.toString());
+        StringWriter out = new StringWriter();
+        doc.toResult(new StreamResult(out));
+        assertEquals(out.toString(), doc.toString());
+    }
+}
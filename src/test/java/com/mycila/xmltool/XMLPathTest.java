@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mycila.xmltool.Assert.Code;
+import static com.mycila.xmltool.Assert.assertThrow;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class XMLPathTest extends AbstractTest {
+
+    private static final String XML = "<items><item id=\"1\" v=\"a\">one</item><item id=\"2\" v=\"b\">two</item><item id=\"3\" v=\"a\">three</item></items>";
+
+    @Test
+    public void without_variables() {
+        XMLPath path = XMLPath.compile("item[2]");
+        XMLTag doc = XMLDoc.from(XML);
+        assertEquals(doc.getText(path), "two");
+        assertEquals(doc.getAttribute("id", path), "2");
+        assertEquals(doc.gotoTag(path).getCurrentTagName(), "item");
+        assertEquals(doc.gotoRoot().rawXpathNumber(XMLPath.compile("count(item)")).intValue(), 3);
+    }
+
+    @Test
+    public void with_variables() {
+        XMLPath byId = XMLPath.compile("item[@id=$id]", "id");
+        XMLTag doc = XMLDoc.from(XML);
+        assertEquals(doc.getText(byId, "1"), "one");
+        assertEquals(doc.getText(byId, 3), "three");
+        assertEquals(doc.findAttribute("v", byId, "2"), "b");
+        assertTrue(doc.hasTag(byId, "3"));
+        assertFalse(doc.hasTag(byId, "4"));
+        assertTrue(doc.hasAttribute("v", byId, "1"));
+
+        XMLPath byIdAndValue = XMLPath.compile("item[@v=$v and @id > $min]", "v", "min");
+        assertEquals(doc.getText(byIdAndValue, "a", 1), "three");
+        assertEquals(doc.rawXpathString(byIdAndValue, "a", 0), "one");
+        assertTrue(doc.rawXpathBoolean(byIdAndValue, "b", 1));
+        assertEquals(doc.rawXpathNodeSet(byIdAndValue, "a", 0).getLength(), 2);
+        assertEquals(doc.rawXpathNode(byIdAndValue, "b", 0).getTextContent(), "two");
+    }
+
+    @Test
+    public void iterate_and_mutate() {
+        XMLPath byValue = XMLPath.compile("item[@v=$v]", "v");
+        XMLTag doc = XMLDoc.from(XML);
+        final List<String> ids = new ArrayList<String>();
+        for (XMLTag tag : doc.getChilds(byValue, "a")) {
+            ids.add(tag.getAttribute("id"));
+        }
+        doc.forEach(new CallBack() {
+            public void execute(XMLTag doc) {
+                ids.add(doc.getText());
+            }
+        }, byValue, "b");
+        assertEquals(ids.toString(), "[1, 3, two]");
+
+        doc.setText("deux", byValue, "b").setAttribute("v", "c", byValue, "b");
+        assertEquals(doc.getText(XMLPath.compile("item[@v='c']")), "deux");
+        assertEquals(doc.getCurrentTagName(), "items");
+    }
+
+    @Test
+    public void namespaces() {
+        XMLPath path = XMLPath.compile("x:b");
+        XMLTag doc1 = XMLDoc.from("<a xmlns:x=\"http://x1\"><x:b>1</x:b></a>", false);
+        XMLTag doc2 = XMLDoc.from("<a xmlns:y=\"http://y\" xmlns:x=\"http://x2\"><x:b>2</x:b></a>", false);
+        assertEquals(doc1.getText(path), "1");
+        assertEquals(doc2.getText(path), "2");
+        assertEquals(doc1.getText(path), "1");
+    }
+
+    @Test
+    public void compiled_once() throws Exception {
+        XMLPath path = XMLPath.compile("item[@id=$id]", "id");
+        XMLTag doc = XMLDoc.from(XML);
+        doc.getText(path, 1);
+        CompiledXPath compiled = path.getCompiled(((XMLDocDefinition) doc.getContext()).getNamespaceBindings());
+        doc.getText(path, 2);
+        assertSame(path.getCompiled(((XMLDocDefinition) doc.getContext()).getNamespaceBindings()), compiled);
+    }
+
+    @Test
+    public void wrong_argument_count() {
+        assertThrow(XMLDocumentException.class).withMessage("XPath 'item[@id=$id]' expects 1 arguments but got 0").whenRunning(new Code() {
+            public void run() throws Throwable {
+                XMLDoc.from(XML).getText(XMLPath.compile("item[@id=$id]", "id"));
+            }
+        });
+    }
+
+    @Test
+    public void inexisting_node() {
+        assertThrow(XMLDocumentException.class).withMessage("Error executing xpath 'item[@id=$id]' from node 'items': Inexisting target node.").whenRunning(new Code() {
+            public void run() throws Throwable {
+                XMLDoc.from(XML).gotoTag(XMLPath.compile("item[@id=$id]", "id"), "5");
+            }
+        });
+    }
+
+    @Test
+    public void invalid_expression() {
+        assertThrow(XMLDocumentException.class).withMessage("Error compiling xpath '..v' - A location path was expected, but the following token was encountered:  ..v").whenRunning(new Code() {
+            public void run() throws Throwable {
+                XMLDoc.from(XML).gotoTag(XMLPath.compile("..v"));
+            }
+        });
+    }
+}
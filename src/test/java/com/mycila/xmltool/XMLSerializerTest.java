@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class XMLSerializerTest extends AbstractTest {
+
+    private static final String NL = System.getProperty("line.separator", "\n");
+    private static final String DECL = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+
+    @Test
+    public void compact_keeps_whitespace_as_is() {
+        String xml = "<a>\n  <b x=\"1\"/>\n  <c>text</c>\n</a>";
+        assertEquals(XMLDoc.from(xml, true).toString("UTF-8", 0), DECL + xml);
+    }
+
+    @Test
+    public void indentation() {
+        XMLTag doc = XMLDoc.from("<a>\n<b><c/><!--x--></b>\n  <d>text <e/> more</d><f>  </f></a>", true);
+        assertEquals(doc.toString("UTF-8", 2), DECL + NL +
+                "<a>" + NL +
+                "  <b>" + NL +
+                "    <c/>" + NL +
+                "    <!--x-->" + NL +
+                "  </b>" + NL +
+                "  <d>text <e/> more</d>" + NL +
+                "  <f>  </f>" + NL +
+                "</a>" + NL);
+        assertEquals(doc.toString(), doc.toString("UTF-8", 4));
+    }
+
+    @Test
+    public void escaping() {
+        XMLTag doc = XMLDoc.newDocument(true).addRoot("a")
+                .addAttribute("v", "<\"&'>\t\n")
+                .addText("<&>\"'\r")
+                .addCDATA("x]]>y");
+        assertEquals(doc.toString("UTF-8", 0), DECL + "<a v=\"&lt;&quot;&amp;'&gt;&#9;&#10;\">&lt;&amp;&gt;\"'&#13;<![CDATA[x]]]]><![CDATA[>y]]></a>");
+    }
+
+    @Test
+    public void character_references_for_unmappable_characters() throws Exception {
+        XMLTag doc = XMLDoc.newDocument(true).addRoot("a").addAttribute("v", "é€").addText("é€😀");
+        assertEquals(doc.toString("ISO-8859-1", 0), "<?xml version=\"1.0\" encoding=\"ISO-8859-1\" standalone=\"no\"?><a v=\"é&#8364;\">é&#8364;&#128512;</a>");
+        assertEquals(doc.toString("US-ASCII", 0), "<?xml version=\"1.0\" encoding=\"US-ASCII\" standalone=\"no\"?><a v=\"&#233;&#8364;\">&#233;&#8364;&#128512;</a>");
+        assertEquals(new String(doc.toBytes("UTF-8", 0), "UTF-8"), DECL + "<a v=\"é€\">é€😀</a>");
+        assertEquals(new String(doc.toBytes("ISO-8859-1", 0), "ISO-8859-1"), "<?xml version=\"1.0\" encoding=\"ISO-8859-1\" standalone=\"no\"?><a v=\"é&#8364;\">é&#8364;&#128512;</a>");
+    }
+
+    @Test
+    public void comments_and_processing_instructions() throws Exception {
+        String xml = "<?pi data?><!--c--><a><?x?></a>";
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader(xml)));
+        StringWriter out = new StringWriter();
+        XMLSerializer.serialize(document, out, "UTF-8", 0);
+        assertEquals(out.toString(), DECL + xml);
+    }
+
+    @Test
+    public void doctype_not_written() throws Exception {
+        Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new InputSource(new StringReader("<!DOCTYPE a [<!ELEMENT a ANY>\n]><!--c--><a/>")));
+        StringWriter out = new StringWriter();
+        XMLSerializer.serialize(document, out, "UTF-8", 0);
+        assertEquals(out.toString(), DECL + "<!--c--><a/>");
+        out = new StringWriter();
+        XMLSerializer.serialize(document, out, "UTF-8", 2);
+        assertEquals(out.toString(), DECL + NL + "<!--c-->" + NL + "<a/>" + NL);
+        assertEquals(XMLDoc.from("<!DOCTYPE r SYSTEM \"r.dtd\"><r/>", true).toString("UTF-8", 0), DECL + "<r/>");
+    }
+
+    @Test
+    public void missing_namespace_declarations() throws Exception {
+        Document document = XMLDoc.newDocument(false).addRoot("root").toDocument();
+        Element root = document.getDocumentElement();
+        Element child = document.createElementNS("http://a", "a:child");
+        child.setAttributeNS("http://b", "b:x", "1");
+        child.setAttributeNS("http://c", "y", "2");
+        root.appendChild(child).appendChild(document.createElementNS("http://a", "a:sub"));
+        root.appendChild(document.createElementNS("http://d", "other"));
+        StringWriter out = new StringWriter();
+        XMLSerializer.serialize(root, out, "UTF-8", 0);
+        assertEquals(out.toString(), "<root><a:child xmlns:b=\"http://b\" b:x=\"1\" xmlns:ns0=\"http://c\" ns0:y=\"2\" xmlns:a=\"http://a\"><a:sub/></a:child><other xmlns=\"http://d\"/></root>");
+    }
+
+    @Test
+    public void inner_text() {
+        XMLTag doc = XMLDoc.from("<a><b x=\"1\">t</b>&amp;<c/></a>", true);
+        assertEquals(doc.getInnerText(), "<b x=\"1\">t</b>&amp;<c/>");
+    }
+
+}
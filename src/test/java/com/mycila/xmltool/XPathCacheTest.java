@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2008 Mycila (mathieu.carbou@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mycila.xmltool;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class XPathCacheTest extends AbstractTest {
+
+    @Before
+    public void clear() {
+        XPathCache.clear();
+    }
+
+    @Test
+    public void shared_between_documents() {
+        List<XMLTag> docs = new ArrayList<XMLTag>();
+        for (int i = 0; i < 10; i++) {
+            docs.add(XMLDoc.from("<a><b>" + i + "</b></a>"));
+        }
+        XPathCache.clear();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(docs.get(i).getText("b"), "" + i);
+        }
+        assertEquals(XPathCache.getMissCount(), 1);
+        assertEquals(XPathCache.getHitCount(), 9);
+        assertEquals(XPathCache.size(), 1);
+    }
+
+    @Test
+    public void keyed_by_namespaces() {
+        XMLTag doc1 = XMLDoc.from("<a xmlns:x=\"http://x1\"><x:b>1</x:b></a>", false);
+        XMLTag doc2 = XMLDoc.from("<a xmlns:x=\"http://x2\"><x:b>2</x:b></a>", false);
+        XMLTag doc3 = XMLDoc.from("<a xmlns:x=\"http://x1\"><x:b>3</x:b></a>", false);
+        XPathCache.clear();
+        assertEquals(doc1.getText("x:b"), "1");
+        assertEquals(doc2.getText("x:b"), "2");
+        assertEquals(doc3.getText("x:b"), "3");
+        assertEquals(XPathCache.size(), 2);
+        assertEquals(XPathCache.getHitCount(), 1);
+    }
+
+    @Test
+    public void namespace_added_after_compilation() {
+        XMLTag doc = XMLDoc.newDocument(false).addRoot("a");
+        assertEquals(doc.rawXpathString("namespace-uri(/*)"), "");
+        doc.addNamespace("x", "http://x").addTag("x:b").addText("text");
+        assertEquals(doc.getText("x:b"), "text");
+    }
+
+    @Test
+    public void bounded() {
+        XPathCache.setMaxSize(5);
+        try {
+            XMLTag doc = XMLDoc.from("<a><b/></a>");
+            for (int i = 0; i < 20; i++) {
+                doc.rawXpathBoolean("count(b) = %s", i);
+            }
+            assertTrue(XPathCache.size() <= 5);
+            assertEquals(XPathCache.getMissCount(), 20);
+        } finally {
+            XPathCache.setMaxSize(512);
+        }
+    }
+
+    @Test
+    public void used_expressions_kept() {
+        XPathCache.setMaxSize(5);
+        try {
+            XMLTag doc = XMLDoc.from("<a><b/></a>");
+            for (int i = 0; i < 20; i++) {
+                for (int j = 0; j < 4; j++) {
+                    doc.rawXpathBoolean("count(b) = %s", j);
+                }
+                doc.rawXpathBoolean("count(b) = %s", i + 4);
+            }
+            assertTrue(XPathCache.size() <= 5);
+            assertEquals(XPathCache.getMissCount(), 24);
+        } finally {
+            XPathCache.setMaxSize(512);
+        }
+    }
+
+    @Test
+    public void concurrent_evaluation() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 200; i++) {
+                final int n = i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        XMLTag doc = XMLDoc.from("<a><b id=\"" + n + "\"><c>" + n + "</c></b></a>");
+                        return doc.getText("b/c").equals("" + n) && doc.getAttribute("id", "b").equals("" + n);
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            assertEquals(XPathCache.size(), 2);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}